@@ -0,0 +1,82 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.benchmark;
+
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads corpora of stanzas used by benchmarks. Corpora are XML files with one top level stanza per line, stored as
+ * resources in <code>tigase/benchmark</code>.
+ */
+public final class StanzaCorpus {
+
+	/**
+	 * Mix of chat messages, receipts, markers, carbons, MAM results, pubsub events, presences with caps and common
+	 * IQ requests, including stanzas with non-ASCII text.
+	 */
+	public static final String STANZAS = "stanzas.xml";
+
+	public static List<Element> elements(String name) throws IOException {
+		DomBuilderHandler handler = new DomBuilderHandler();
+		String data = read(name);
+		new SimpleParser().parse(handler, data.toCharArray(), 0, data.length());
+
+		List<Element> result = new ArrayList<>(handler.getParsedElements());
+		if (result.isEmpty()) {
+			throw new IOException("No stanzas in corpus " + name);
+		}
+		return result;
+	}
+
+	public static List<Packet> packets(String name) throws IOException, TigaseStringprepException {
+		List<Packet> result = new ArrayList<>();
+		for (Element elem : elements(name)) {
+			result.add(Packet.packetInstance(elem));
+		}
+		return result;
+	}
+
+	public static String read(String name) throws IOException {
+		try (InputStream in = StanzaCorpus.class.getResourceAsStream(name)) {
+			if (in == null) {
+				throw new IOException("Missing corpus " + name);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private StanzaCorpus() {
+	}
+}
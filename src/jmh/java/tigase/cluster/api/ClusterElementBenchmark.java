@@ -0,0 +1,99 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.api;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tigase.benchmark.StanzaCorpus;
+import tigase.server.Packet;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.JID;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and parsing of cluster packets. Each operation wraps (or unwraps) every stanza of {@link
+ * StanzaCorpus#STANZAS} in a separate cluster packet, like packets forwarded between cluster nodes, and handles a
+ * method call with a few parameters, like cluster strategy commands.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterElementBenchmark {
+
+	private final JID from = JID.jidInstanceNS("sess-man@node1.example.com");
+	private final Map<String, String> params = new LinkedHashMap<>();
+	private final JID to = JID.jidInstanceNS("sess-man@node2.example.com");
+	private char[] serialized;
+	private List<Packet> packets;
+
+	@Setup
+	public void setup() throws Exception {
+		packets = StanzaCorpus.packets(StanzaCorpus.STANZAS);
+		params.put("user-id", "juliet@capulet.lit");
+		params.put("connection-id", "c2s@node1.example.com/192.168.0.1_5222_192.168.0.100_43215");
+		params.put("resource", "balcony");
+		params.put("priority", "10");
+
+		StringBuilder sb = new StringBuilder();
+		for (Packet packet : packets) {
+			sb.append(build(packet).getClusterElement("cl-1").toString());
+		}
+		sb.append(buildMethodCall().getClusterElement("cl-2").toString());
+		serialized = sb.toString().toCharArray();
+	}
+
+	@Benchmark
+	public void build(Blackhole bh) {
+		for (Packet packet : packets) {
+			bh.consume(build(packet).getClusterElement("cl-1").toString());
+		}
+		bh.consume(buildMethodCall().getClusterElement("cl-2").toString());
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		DomBuilderHandler handler = new DomBuilderHandler();
+		new SimpleParser().parse(handler, serialized, 0, serialized.length);
+		Element elem;
+		while ((elem = handler.getParsedElements().poll()) != null) {
+			ClusterElement clel = new ClusterElement(elem);
+			bh.consume(clel.getDataPackets());
+			bh.consume(clel.getAllMethodParams());
+		}
+	}
+
+	private ClusterElement build(Packet packet) {
+		ClusterElement clel = new ClusterElement(from, to, StanzaType.set, packet);
+		clel.addVisitedNode(from);
+		return clel;
+	}
+
+	private ClusterElement buildMethodCall() {
+		return ClusterElement.createClusterMethodCall(from, to, StanzaType.set, "user-connected", params);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.benchmark.StanzaCorpus;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and UTF-8 decoding of network data by {@link IOService#readData()}. Stanzas of {@link
+ * StanzaCorpus#STANZAS} (including multibyte characters) are written to a loopback connection and read by the
+ * service, so results include cost of reading from the socket, like in {@link SocketThread}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IOServiceDecodeBenchmark {
+
+	@Param({"1", "8"})
+	private int copies;
+	private int chars;
+	private SocketChannel client;
+	private ByteBuffer data;
+	private Selector selector;
+	private TestIOService service;
+
+	@Setup
+	public void setup() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		String corpus = StanzaCorpus.read(StanzaCorpus.STANZAS);
+		for (int i = 0; i < copies; i++) {
+			sb.append(corpus);
+		}
+		chars = sb.length();
+		data = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			client = SocketChannel.open(server.getLocalAddress());
+			client.configureBlocking(false);
+			service = new TestIOService();
+			service.accept(server.accept());
+		}
+		selector = Selector.open();
+		service.getSocketChannel().register(selector, SelectionKey.OP_READ);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		selector.close();
+		service.forceStop();
+		client.close();
+	}
+
+	@Benchmark
+	public int readData() throws IOException {
+		data.clear();
+
+		int decoded = 0;
+		while (decoded < chars) {
+			if (data.hasRemaining()) {
+				client.write(data);
+			}
+			// reading without available data would be counted by service as an empty read
+			if (selector.select(10) == 0) {
+				continue;
+			}
+			selector.selectedKeys().clear();
+			char[] result = service.readData();
+			if (result != null) {
+				decoded += result.length;
+			}
+		}
+		return decoded;
+	}
+
+	private static class TestIOService
+			extends IOService<Object> {
+
+		@Override
+		public void processWaitingPackets() {
+		}
+
+		@Override
+		protected void processSocketData() {
+		}
+
+		@Override
+		protected int receivedPackets() {
+			return 0;
+		}
+	}
+}
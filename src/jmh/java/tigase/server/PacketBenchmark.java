@@ -0,0 +1,90 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tigase.benchmark.StanzaCorpus;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation and copying of packets. Each operation processes all stanzas of {@link StanzaCorpus#STANZAS}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketBenchmark {
+
+	private char[] corpus;
+	private List<Element> elements;
+	private List<Packet> packets;
+
+	@Setup
+	public void setup() throws Exception {
+		corpus = StanzaCorpus.read(StanzaCorpus.STANZAS).toCharArray();
+		elements = StanzaCorpus.elements(StanzaCorpus.STANZAS);
+		packets = StanzaCorpus.packets(StanzaCorpus.STANZAS);
+	}
+
+	@Benchmark
+	public void copyElementOnly(Blackhole bh) {
+		for (Packet packet : packets) {
+			bh.consume(packet.copyElementOnly());
+		}
+	}
+
+	@Benchmark
+	public void packetInstance(Blackhole bh) throws TigaseStringprepException {
+		for (Element elem : elements) {
+			bh.consume(Packet.packetInstance(elem));
+		}
+	}
+
+	@Benchmark
+	public void parseAndCreate(Blackhole bh) throws TigaseStringprepException {
+		DomBuilderHandler handler = new DomBuilderHandler();
+		new SimpleParser().parse(handler, corpus, 0, corpus.length);
+		Element elem;
+		while ((elem = handler.getParsedElements().poll()) != null) {
+			bh.consume(Packet.packetInstance(elem));
+		}
+	}
+
+	@Benchmark
+	public void serialize(Blackhole bh) {
+		for (Packet packet : packets) {
+			bh.consume(packet.getElement().toString());
+		}
+	}
+
+	@Benchmark
+	public void swapStanzaFromTo(Blackhole bh) {
+		for (Packet packet : packets) {
+			bh.consume(packet.swapStanzaFromTo());
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tigase.benchmark.StanzaCorpus;
+import tigase.server.Packet;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.XMPPProcessorIfc;
+import tigase.xmpp.impl.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of processors for a packet, as done by <code>SessionManager.walk()</code>, with and without
+ * {@link ProcessorDispatchIndex}. Each operation dispatches all stanzas of {@link StanzaCorpus#STANZAS} to a set of
+ * commonly enabled plugins.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessorDispatchBenchmark {
+
+	private ProcessorDispatchIndex index;
+	private List<Packet> packets;
+	private List<XMPPProcessorIfc> processors;
+
+	@Setup
+	public void setup() throws Exception {
+		packets = StanzaCorpus.packets(StanzaCorpus.STANZAS);
+		processors = Arrays.asList(new BlockingCommand(), new EntityTime(), new JabberIqPrivacy(),
+								   new JabberIqPrivate(), new JabberIqRoster(), new JabberIqVersion(), new Message(),
+								   new MessageCarbons(), new PresenceState(), new PresenceSubscription(),
+								   new ServiceDiscovery(), new UrnXmppPing(), new VCardTemp());
+		index = new ProcessorDispatchIndex(processors);
+	}
+
+	@Benchmark
+	public void indexed(Blackhole bh) {
+		for (Packet packet : packets) {
+			List<XMPPProcessorIfc> result = new ArrayList<>(4);
+			for (XMPPProcessorIfc processor : index.getDynamicProcessors()) {
+				if (processor.canHandle(packet, null) == Authorization.AUTHORIZED) {
+					result.add(processor);
+				}
+			}
+			bh.consume(index.getProcessors(packet, result));
+		}
+	}
+
+	@Benchmark
+	public void linear(Blackhole bh) {
+		for (Packet packet : packets) {
+			List<XMPPProcessorIfc> result = new ArrayList<>(4);
+			for (XMPPProcessorIfc processor : processors) {
+				if (processor.canHandle(packet, null) == Authorization.AUTHORIZED) {
+					result.add(processor);
+				}
+			}
+			bh.consume(result);
+		}
+	}
+}
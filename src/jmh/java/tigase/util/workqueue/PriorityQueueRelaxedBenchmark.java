@@ -0,0 +1,73 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.workqueue;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tigase.server.Priority;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offer and take on {@link PriorityQueueRelaxed}, which is used for queues of components. Take blocks on an empty
+ * queue, so every benchmark takes only items offered by itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriorityQueueRelaxedBenchmark {
+
+	private static final int BURST = 64;
+	private static final Priority[] PRIORITIES = Priority.values();
+
+	private final Object item = new Object();
+	private int counter = 0;
+	private PriorityQueueRelaxed<Object> queue;
+
+	@Setup
+	public void setup() {
+		queue = new PriorityQueueRelaxed<>();
+		queue.init(PRIORITIES.length, 10000);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public void burst(Blackhole bh) throws InterruptedException {
+		for (int i = 0; i < BURST; i++) {
+			queue.offer(item, nextPriority());
+		}
+		for (int i = 0; i < BURST; i++) {
+			bh.consume(queue.take());
+		}
+	}
+
+	@Benchmark
+	public Object offerTake() throws InterruptedException {
+		queue.offer(item, nextPriority());
+		return queue.take();
+	}
+
+	private int nextPriority() {
+		// mostly normal priority traffic with some presences and system packets
+		int i = ++counter & 15;
+		return (i == 0 ? Priority.SYSTEM : i < 4 ? Priority.PRESENCE : Priority.NORMAL).ordinal();
+	}
+}
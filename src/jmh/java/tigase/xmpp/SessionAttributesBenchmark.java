@@ -0,0 +1,68 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of session data with a few values, as stored for every user session, in {@link SessionAttributes} and in
+ * a {@link ConcurrentHashMap} used before. Run with {@code -prof gc} to compare {@code gc.alloc.rate.norm}, which is
+ * the number of bytes allocated for a single session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionAttributesBenchmark {
+
+	private static final SessionAttribute<String> NAME = SessionAttribute.register("benchmark-name", String.class);
+	private static final SessionAttribute<Long> COUNTER = SessionAttribute.register("benchmark-counter", Long.class);
+	private static final SessionAttribute<Boolean> FLAG_1 = SessionAttribute.register("benchmark-flag-1",
+																					 Boolean.class);
+	private static final SessionAttribute<Boolean> FLAG_2 = SessionAttribute.register("benchmark-flag-2",
+																					 Boolean.class);
+
+	private final Long counter = 1L;
+	private final String name = "value";
+
+	@Benchmark
+	public SessionAttributes sessionAttributes() {
+		SessionAttributes attributes = new SessionAttributes();
+		attributes.put(NAME, name);
+		attributes.put(COUNTER, counter);
+		attributes.put(FLAG_1, Boolean.TRUE);
+		attributes.put(FLAG_2, Boolean.FALSE);
+		return attributes;
+	}
+
+	@Benchmark
+	public Map<String, Object> concurrentHashMap() {
+		Map<String, Object> map = new ConcurrentHashMap<>(4, 0.9f);
+		map.put(NAME.getName(), name);
+		map.put(COUNTER.getName(), counter);
+		map.put(FLAG_1.getName(), Boolean.TRUE);
+		map.put(FLAG_2.getName(), Boolean.FALSE);
+		return map;
+	}
+}
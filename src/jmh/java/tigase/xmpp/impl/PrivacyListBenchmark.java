@@ -0,0 +1,109 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tigase.xml.Element;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterElement;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks of {@link PrivacyList#isAllowed(JID, PrivacyList.Item.Type)} for a list with blocked JIDs, group and
+ * subscription rules, evaluated for contacts of a roster and for unknown senders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrivacyListBenchmark {
+
+	private static final int CONTACTS = 200;
+	private static final PrivacyList.Item.Type[] TYPES = PrivacyList.Item.Type.values();
+
+	@Param({"5", "50"})
+	private int blockedJids;
+	private int counter = 0;
+	private PrivacyList list;
+	private JID[] senders;
+
+	@Setup
+	public void setup() {
+		Map<BareJID, RosterElement> roster = new HashMap<>();
+		List<JID> senders = new ArrayList<>();
+		for (int i = 0; i < CONTACTS; i++) {
+			JID jid = JID.jidInstanceNS("contact" + i + "@example.com/res");
+			RosterElement relem = new RosterElement(jid.copyWithoutResource(), "Contact " + i,
+													new String[]{i % 4 == 0 ? "Work" : "Friends"});
+			relem.setSubscription(
+					i % 10 == 0 ? RosterAbstract.SubscriptionType.to : RosterAbstract.SubscriptionType.both);
+			roster.put(jid.getBareJID(), relem);
+			senders.add(jid);
+			senders.add(JID.jidInstanceNS("stranger" + i + "@example.net/res"));
+		}
+
+		Element el = new Element("list", new String[]{"name"}, new String[]{"default"});
+		int order = 1;
+		for (int i = 0; i < blockedJids; i++) {
+			el.addChild(item("jid", "spammer" + i + "@example.org", "deny", order++));
+		}
+		Element workItem = item("group", "Work", "allow", order++);
+		workItem.addChild(new Element("message"));
+		el.addChild(workItem);
+		el.addChild(item("subscription", "none", "deny", order++));
+		el.addChild(item("subscription", "to", "deny", order++));
+		el.addChild(item(null, null, "allow", order));
+
+		this.list = PrivacyList.create(roster, el);
+		this.senders = senders.toArray(new JID[0]);
+	}
+
+	@Benchmark
+	public boolean isAllowed() {
+		int i = ++counter;
+		return list.isAllowed(senders[i % senders.length], TYPES[i & 3]);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CONTACTS * 2)
+	public void isAllowedAll(Blackhole bh) {
+		for (int i = 0; i < senders.length; i++) {
+			bh.consume(list.isAllowed(senders[i], TYPES[i & 3]));
+		}
+	}
+
+	private static Element item(String type, String value, String action, int order) {
+		Element item = new Element("item", new String[]{"action", "order"},
+								   new String[]{action, String.valueOf(order)});
+		if (type != null) {
+			item.setAttribute("type", type);
+			item.setAttribute("value", value);
+		}
+		return item;
+	}
+}
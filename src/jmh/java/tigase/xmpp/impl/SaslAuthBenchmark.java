@@ -0,0 +1,103 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.db.AuthRepository;
+import tigase.server.Packet;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of SASL PLAIN logins processed by {@link SaslAuth} with credentials in the in-memory repository of
+ * {@link SaslAuthTest}, with SASL steps evaluated on the processing thread and in the pool of authentication threads
+ * (<code>async</code>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaslAuthBenchmark {
+
+	private static final int LOGINS = 100;
+
+	@Param({"false", "true"})
+	private boolean async;
+	private SaslAuthTest environment;
+	private int loginCounter = 0;
+	private List<Packet> packets;
+	private List<XMPPResourceConnection> sessions;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		environment = new SaslAuthTest();
+		environment.setupKernel();
+		environment.setSessionManager();
+		environment.setUp();
+		// logins are completed by authentication threads in asynchronous mode
+		((ProcessorTestCase.SessionManagerHandlerImpl) environment.getSessionManagerHandler()).sessions =
+				new ConcurrentHashMap<>();
+		environment.saslAuth.async = async;
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareSessions() throws Exception {
+		sessions = new ArrayList<>(LOGINS);
+		packets = new ArrayList<>(LOGINS);
+		for (int i = 0; i < LOGINS; i++) {
+			BareJID user = BareJID.bareJIDInstanceNS("user-" + (loginCounter++) + "@example.com");
+			sessions.add(environment.prepareSession(user, AuthRepository.AccountStatus.active));
+			packets.add(environment.getPlainSaslPacket(user));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		environment.tearDown();
+		environment.tearDownSessionManager();
+		environment.tearDownKernel();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOGINS)
+	public Queue<Packet> login() throws Exception {
+		Queue<Packet> results = new ArrayDeque<>();
+		for (int i = 0; i < LOGINS; i++) {
+			environment.saslAuth.process(packets.get(i), sessions.get(i), null, results, null);
+		}
+		if (async) {
+			for (int i = 0; i < LOGINS; i++) {
+				Packet result = environment.asyncResults.poll(10, TimeUnit.SECONDS);
+				if (result == null) {
+					throw new IllegalStateException("Login was not completed in 10 seconds");
+				}
+				results.offer(result);
+			}
+		}
+		return results;
+	}
+}
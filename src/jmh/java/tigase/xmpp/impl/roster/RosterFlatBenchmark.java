@@ -0,0 +1,66 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.xmpp.impl.roster.RosterAbstract.SubscriptionType;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a roster stored in the user repository with {@link RosterFlat#parseRosterUtil(String, Map,
+ * tigase.xmpp.XMPPResourceConnection)}, as done on every login of a user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RosterFlatBenchmark {
+
+	private static final String[][] GROUPS = {{"Friends"}, {"Work"}, {"Family", "Friends"}, null};
+
+	@Param({"20", "200", "2000"})
+	private int contacts;
+	private String roster;
+
+	@Setup
+	public void setup() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < contacts; i++) {
+			RosterElement relem = new RosterElement(JID.jidInstanceNS("contact" + i + "@example" + (i % 7) + ".com"),
+													"Contact Name " + i, GROUPS[i % GROUPS.length]);
+			// some contacts are still waiting for approval of subscription
+			relem.setSubscription(i % 10 == 0 ? SubscriptionType.none_pending_out : SubscriptionType.both);
+			sb.append(relem.getRosterElement().toString());
+		}
+		roster = sb.toString();
+	}
+
+	@Benchmark
+	public Map<BareJID, RosterElement> parseRosterUtil() {
+		Map<BareJID, RosterElement> result = new LinkedHashMap<>();
+		RosterFlat.parseRosterUtil(roster, result, null);
+		return result;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.db.DataRepository;
+import tigase.db.DataSourceHelper;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of a page of 50 messages from the beginning, the middle and the end of a MAM archive with
+ * {@link JDBCStreamingMAMRepository}, which should not depend on position of the page. Requires a database passed
+ * as a parameter, ie. <code>-p dbUri=jdbc:postgresql://localhost/tigasedb?user=test&amp;password=test</code>. Size
+ * of the archive may be changed with <code>-p items=100000000</code>; the archive is filled only if the table does
+ * not contain the requested number of items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JDBCStreamingMAMBenchmark {
+
+	private static final String OWNER = "benchmark@example.com";
+
+	@Param({""})
+	private String dbUri;
+	@Param({"10000"})
+	private int items;
+	private JDBCStreamingMAMRepository repository;
+
+	@Setup
+	public void setup() throws Exception {
+		if (dbUri.isEmpty()) {
+			throw new IllegalStateException("Database URI is not set, use -p dbUri=...");
+		}
+		DataRepository dataRepository = DataSourceHelper.getDefaultClass(DataRepository.class, dbUri)
+				.getDeclaredConstructor()
+				.newInstance();
+		dataRepository.initRepository(dbUri, new HashMap<>());
+		JDBCStreamingMAMRepositoryTest.createTable(dataRepository);
+		if (count(dataRepository) != items) {
+			JDBCStreamingMAMRepositoryTest.clear(dataRepository);
+			JDBCStreamingMAMRepositoryTest.fill(dataRepository, OWNER, items);
+		}
+		repository = new JDBCStreamingMAMRepository();
+		repository.setTable(JDBCStreamingMAMRepositoryTest.TABLE);
+		repository.setBatchSize(30);
+		repository.setDataSource(dataRepository);
+	}
+
+	@Benchmark
+	public List<MAMRepository.Item> firstPage() throws Exception {
+		return page(null, null);
+	}
+
+	@Benchmark
+	public List<MAMRepository.Item> middlePage() throws Exception {
+		return page(JDBCStreamingMAMRepositoryTest.itemId(OWNER, items / 2), null);
+	}
+
+	@Benchmark
+	public List<MAMRepository.Item> lastPage() throws Exception {
+		return page(null, "");
+	}
+
+	@Benchmark
+	public List<MAMRepository.Item> pageBeforeLast() throws Exception {
+		return page(null, JDBCStreamingMAMRepositoryTest.itemId(OWNER, items - 50));
+	}
+
+	private List<MAMRepository.Item> page(String after, String before) throws Exception {
+		List<MAMRepository.Item> result = new ArrayList<>(50);
+		Query query = JDBCStreamingMAMRepositoryTest.newQuery(repository, OWNER, 50, after, before);
+		repository.streamItems(query, (q, item) -> result.add(item));
+		return result;
+	}
+
+	private int count(DataRepository dataRepository) throws Exception {
+		dataRepository.initPreparedStatement("benchmark-mam-stream-count",
+											 "select count(*) from " + JDBCStreamingMAMRepositoryTest.TABLE);
+		try (ResultSet rs = dataRepository.getPreparedStatement(0, "benchmark-mam-stream-count").executeQuery()) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+}
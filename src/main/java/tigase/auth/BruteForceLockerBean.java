@@ -52,6 +52,15 @@ import java.util.logging.Logger;
 
 import static tigase.auth.BruteForceLockerBean.Mode.IpJid;
 
+/**
+ * Counts invalid login attempts and locks logins (and disables accounts) after too many of them.
+ * <br>
+ * By default attempts are counted per key in a map shared by all cluster nodes. With {@link Backend#Sketch} backend
+ * attempts are counted in time-bucketed count-min sketches (see {@link CountMinSketchCounter}), which use the same
+ * amount of memory regardless of the number of attacking IPs and attacked accounts. Counts in sketches may be
+ * overestimated, so an account is disabled only if its count exceeds the limit by more than the estimation error.
+ * Each node sends deltas of its sketches to other cluster nodes every second.
+ */
 @Bean(name = "brute-force-locker", parent = SessionManager.class, active = true)
 public class BruteForceLockerBean
 		implements Initializable, UnregisterAware, ComponentStatisticsProvider {
@@ -66,6 +75,11 @@ public class BruteForceLockerBean
 	private static final String LOCK_MODE_KEY = "brute-force-mode";
 	private static final String MAP_TYPE = "brute-force-invalid-logins";
 
+	public enum Backend {
+		Map,
+		Sketch
+	}
+
 	public enum Mode {
 		Ip,
 		IpJid,
@@ -93,6 +107,8 @@ public class BruteForceLockerBean
 	private final Logger log = Logger.getLogger(this.getClass().getName());
 	private final Map<String, StatHolder> otherStatHolders = new ConcurrentHashMap<>();
 	private final StatHolder statHolder = new StatHolder();
+	@ConfigField(desc = "Backend used for counting invalid login attempts")
+	private Backend backend = Backend.Map;
 	@ConfigField(desc = "Allows storing detailed, per IP/JID statistics of blocked attempts")
 	private boolean detailedStatistics = false;
 	@Inject
@@ -100,6 +116,15 @@ public class BruteForceLockerBean
 	private Map<Key, Value> map;
 	@Inject
 	private SessionManager sessionManager;
+	private CountMinSketchCounter sketch;
+	@ConfigField(desc = "Number of time buckets of sketches", alias = "sketch-buckets")
+	private int sketchBuckets = 7;
+	@ConfigField(desc = "Time covered by a single bucket of sketches [sec]", alias = "sketch-bucket-time")
+	private int sketchBucketTime = 10;
+	@ConfigField(desc = "Number of rows of sketches", alias = "sketch-depth")
+	private int sketchDepth = 4;
+	@ConfigField(desc = "Number of counters in a row of sketches", alias = "sketch-width")
+	private int sketchWidth = 32768;
 
 	public static String getClientIp(XMPPResourceConnection session) {
 		try {
@@ -127,6 +152,13 @@ public class BruteForceLockerBean
 			}
 			return;
 		}
+		if (sketch != null) {
+			sketch.add(createKey(session, ip, jid).sketchHash(), currentTime);
+			if (detailedStatistics) {
+				addToStatistic(ip, jid);
+			}
+			return;
+		}
 		if (map == null) {
 			log.warning("Brute Force Locker is no initialized yet!");
 			return;
@@ -173,7 +205,7 @@ public class BruteForceLockerBean
 
 		map.put(key, value);
 
-		addToStatistic(value);
+		addToStatistic(value.ip, value.jid);
 	}
 
 	public boolean canUserBeDisabled(XMPPResourceConnection session, String ip, BareJID jid) {
@@ -183,16 +215,27 @@ public class BruteForceLockerBean
 			return false;
 		}
 
+		BruteForceLockerVHostExtension extension = session != null ? session.getDomain().getExtension(BruteForceLockerVHostExtension.class) : null;
+		final long disableAfterFails =
+				extension == null ? 20 : extension.getDisableAccountAfterFailedAttempts();
+
+		if (sketch != null) {
+			if (disableAfterFails == 0) {
+				return false;
+			}
+			final long currentTime = System.currentTimeMillis();
+			final long window = getSketchWindow(extension);
+			// disabling account cannot be reverted automatically, so estimation error is not counted as attempts
+			return sketch.estimate(key.sketchHash(), currentTime, window) -
+					sketch.getErrorBound(currentTime, window) > disableAfterFails;
+		}
+
 		Value value = map.get(key);
 
 		if (value == null) {
 			return false;
 		}
 
-		BruteForceLockerVHostExtension extension = session != null ? session.getDomain().getExtension(BruteForceLockerVHostExtension.class) : null;
-		final long disableAfterFails =
-				extension == null ? 20 : extension.getDisableAccountAfterFailedAttempts();
-
 		if (disableAfterFails == 0) {
 			return false;
 		} else {
@@ -201,6 +244,10 @@ public class BruteForceLockerBean
 	}
 
 	public void clearAll() {
+		if (sketch != null) {
+			sketch.clear();
+			return;
+		}
 		if (map == null) {
 			log.warning("Brute Force Locker is no initialized yet!");
 			return;
@@ -213,6 +260,10 @@ public class BruteForceLockerBean
 	}
 
 	public void clearOutdated(final long currentTime) {
+		if (sketch != null) {
+			// outdated buckets are replaced when needed
+			return;
+		}
 		if (map == null) {
 			log.warning("Brute Force Locker is no initialized yet!");
 			return;
@@ -232,9 +283,18 @@ public class BruteForceLockerBean
 	public void getStatistics(String compName, StatisticsList list) {
 		clearOutdated();
 		final String keyName = compName + "/BruteForceLocker";
-		ArrayList<Value> l = new ArrayList<>(this.map.values());
-		for (Value value : l) {
-			list.add(keyName, "Present locks: " + value.jid + " from " + value.ip, value.badLoginCounter, Level.FINER);
+		if (sketch != null) {
+			final long currentTime = System.currentTimeMillis();
+			list.add(keyName, "Invalid login attempts in sketches",
+					 sketch.getCount(currentTime, sketch.getMaxWindow()), Level.FINE);
+			list.add(keyName, "Sketches estimation error",
+					 sketch.getErrorBound(currentTime, sketch.getMaxWindow()), Level.FINE);
+		} else if (map != null) {
+			ArrayList<Value> l = new ArrayList<>(this.map.values());
+			for (Value value : l) {
+				list.add(keyName, "Present locks: " + value.jid + " from " + value.ip, value.badLoginCounter,
+						 Level.FINER);
+			}
 		}
 
 		final StatHolder tmp = new StatHolder();
@@ -258,8 +318,13 @@ public class BruteForceLockerBean
 
 	@Override
 	public void initialize() {
-		this.map = ClusterMapFactory.get().createMap(MAP_TYPE, Key.class, Value.class);
-		assert this.map != null : "Distributed Map is NULL!";
+		if (backend == Backend.Sketch) {
+			this.sketch = new CountMinSketchCounter(sketchDepth, sketchWidth, sketchBuckets,
+													sketchBucketTime * 1000L);
+		} else {
+			this.map = ClusterMapFactory.get().createMap(MAP_TYPE, Key.class, Value.class);
+			assert this.map != null : "Distributed Map is NULL!";
+		}
 		assert this.sessionManager != null : "SessionManager is NULL!";
 
 		if (eventBus != null) {
@@ -281,6 +346,19 @@ public class BruteForceLockerBean
 		this.otherStatHolders.put(event.getNodeName(), event.getStatHolder());
 	}
 
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	public void handleSketchDeltaEvent(SketchDeltaEvent event) {
+		CountMinSketchCounter sketch = this.sketch;
+		if (sketch == null || event.getDeltas() == null) {
+			return;
+		}
+		try {
+			sketch.merge(event.getEpoch(), event.getDeltas());
+		} catch (IllegalArgumentException ex) {
+			log.log(Level.WARNING, "Invalid sketch deltas received from " + event.getNodeName(), ex);
+		}
+	}
+
 	public boolean isLoginAllowed(XMPPResourceConnection session, final String ip, final BareJID jid) {
 		return isLoginAllowed(session, ip, jid, System.currentTimeMillis());
 	}
@@ -293,12 +371,15 @@ public class BruteForceLockerBean
 			}
 			return true;
 		}
-		if (map == null) {
+		if (map == null && sketch == null) {
 			log.warning("Brute Force Locker is no initialized yet!");
 			return false;
 		}
 
 		final Key key = createKey(session, ip, jid);
+		if (sketch != null) {
+			return isLoginAllowedBySketch(session, key, currentTime);
+		}
 		Value value = map.get(key);
 
 		if (value == null) {
@@ -329,7 +410,10 @@ public class BruteForceLockerBean
 
 	@Override
 	public void everySecond() {
-
+		if (sketch != null && eventBus != null) {
+			String clusterNode = sessionManager.getComponentId().getDomain();
+			sketch.drainDeltas((epoch, deltas) -> eventBus.fire(new SketchDeltaEvent(clusterNode, epoch, deltas)));
+		}
 	}
 
 	void setMap(HashMap<Key, Value> map) {
@@ -356,13 +440,37 @@ public class BruteForceLockerBean
 		}
 	}
 
-	private void addToStatistic(Value v) {
-		if (v.ip != null) {
-			this.statHolder.addIP(v.ip);
+	void setSketch(CountMinSketchCounter sketch) {
+		this.sketch = sketch;
+	}
+
+	private void addToStatistic(String ip, BareJID jid) {
+		if (ip != null) {
+			this.statHolder.addIP(ip);
+		}
+		if (jid != null) {
+			this.statHolder.addJID(jid);
 		}
-		if (v.jid != null) {
-			this.statHolder.addJID(v.jid);
+	}
+
+	private long getSketchWindow(BruteForceLockerVHostExtension extension) {
+		final long periodTime = extension == null ? 10 : extension.getPeriodTime();
+		final long lockTime = extension == null ? 10 : extension.getLockTime();
+		return Math.min(Math.max(periodTime, lockTime) * 1000, sketch.getMaxWindow());
+	}
+
+	private boolean isLoginAllowedBySketch(final XMPPResourceConnection session, final Key key,
+										   final long currentTime) {
+		BruteForceLockerVHostExtension extension = session != null ? session.getDomain().getExtension(BruteForceLockerVHostExtension.class) : null;
+		long lockAfterFails = extension == null ? 3 : extension.getLockAccountAfterFailedAttempt();
+		// login is locked as long as there were too many attempts in the period or lock time
+		int count = sketch.estimate(key.sketchHash(), currentTime, getSketchWindow(extension));
+		boolean r = count <= lockAfterFails;
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest("Estimated attempts for " + key + ": " + count + ", lockAfterFails=" + lockAfterFails +
+							   ", result=" + r);
 		}
+		return r;
 	}
 
 	private boolean isLoginAllowed(final XMPPResourceConnection session, final Key key, final Value value,
@@ -461,6 +569,10 @@ public class BruteForceLockerBean
 			return jid != null && !jid.equals(ANY);
 		}
 
+		long sketchHash() {
+			return CountMinSketchCounter.hash(ip, jid, domain);
+		}
+
 		@Override
 		public String toString() {
 			return "Key[ip=" + ip + ", jid=" + jid + ", domain=" + domain + "]";
@@ -559,12 +671,7 @@ public class BruteForceLockerBean
 		}
 
 		private <T> int add(Map<T, Integer> map, T key, int value) {
-			synchronized (map) {
-				Integer v = map.get(key);
-				v = (v == null ? 0 : v) + value;
-				map.put(key, v);
-				return v;
-			}
+			return map.merge(key, value, Integer::sum);
 		}
 	}
 
@@ -600,6 +707,47 @@ public class BruteForceLockerBean
 		}
 	}
 
+	public static class SketchDeltaEvent
+			implements Serializable, EventBusEvent {
+
+		private String deltas;
+		private long epoch;
+		private String nodeName;
+
+		public SketchDeltaEvent() {
+		}
+
+		public SketchDeltaEvent(String nodeName, long epoch, String deltas) {
+			this.nodeName = nodeName;
+			this.epoch = epoch;
+			this.deltas = deltas;
+		}
+
+		public String getDeltas() {
+			return deltas;
+		}
+
+		public void setDeltas(String deltas) {
+			this.deltas = deltas;
+		}
+
+		public long getEpoch() {
+			return epoch;
+		}
+
+		public void setEpoch(long epoch) {
+			this.epoch = epoch;
+		}
+
+		public String getNodeName() {
+			return nodeName;
+		}
+
+		public void setNodeName(String nodeName) {
+			this.nodeName = nodeName;
+		}
+	}
+
 	public static class Value
 			implements TypesConverter.Parcelable {
 
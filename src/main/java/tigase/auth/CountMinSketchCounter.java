@@ -0,0 +1,262 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximate counter of events per key in a sliding time window. Events are counted in count-min sketches, one for
+ * each time bucket, kept in a ring of buckets. Memory usage depends only on dimensions of sketches and number of
+ * buckets, not on the number of counted keys.
+ * <br>
+ * Counts are not underestimated (except for events counted while a bucket is being replaced by a bucket for a new
+ * period of time) and overestimation is not bigger than {@link #getErrorBound(long, long)} with probability of
+ * <code>1 - e^-depth</code>. Counters are atomic, so concurrent updates do not block each other.
+ * <br>
+ * Local increments are also recorded as pending deltas, which may be collected with {@link #drainDeltas(DeltaConsumer)}
+ * and added to counters of other instances (ie. on other cluster nodes) with {@link #merge(long, String)}.
+ */
+public class CountMinSketchCounter {
+
+	private final long bucketMillis;
+	private final AtomicReferenceArray<Bucket> buckets;
+	private final int depth;
+	private final int width;
+
+	/**
+	 * Calculates 64-bit hash of the keys, which is used to identify counted key.
+	 */
+	public static long hash(String... keys) {
+		long hash = 0xcbf29ce484222325L;
+		for (String key : keys) {
+			if (key != null) {
+				for (int i = 0; i < key.length(); i++) {
+					hash ^= key.charAt(i);
+					hash *= 0x100000001b3L;
+				}
+			}
+			// separator, so "ab","c" has different hash than "a","bc"
+			hash ^= 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	public CountMinSketchCounter(int depth, int width, int bucketsCount, long bucketMillis) {
+		if (depth < 1 || width < 1 || bucketsCount < 1 || bucketMillis < 1) {
+			throw new IllegalArgumentException("Dimensions of sketch need to be positive");
+		}
+		this.depth = depth;
+		this.width = width;
+		this.bucketMillis = bucketMillis;
+		this.buckets = new AtomicReferenceArray<>(bucketsCount);
+	}
+
+	public void add(long hash, long time) {
+		Bucket bucket = bucket(time / bucketMillis, true);
+		if (bucket == null) {
+			return;
+		}
+		for (int row = 0; row < depth; row++) {
+			int idx = index(hash, row);
+			bucket.counts.incrementAndGet(idx);
+			bucket.pending.incrementAndGet(idx);
+		}
+		bucket.total.increment();
+	}
+
+	public void clear() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, null);
+		}
+	}
+
+	/**
+	 * Collects and resets pending deltas of local increments.
+	 */
+	public void drainDeltas(DeltaConsumer consumer) {
+		for (int i = 0; i < buckets.length(); i++) {
+			Bucket bucket = buckets.get(i);
+			if (bucket == null) {
+				continue;
+			}
+			ByteBuffer buffer = null;
+			for (int idx = 0; idx < bucket.pending.length(); idx++) {
+				if (bucket.pending.get(idx) == 0) {
+					continue;
+				}
+				int delta = bucket.pending.getAndSet(idx, 0);
+				if (delta == 0) {
+					continue;
+				}
+				if (buffer == null) {
+					buffer = ByteBuffer.allocate(1024);
+				} else if (buffer.remaining() < 8) {
+					buffer = ByteBuffer.allocate(buffer.capacity() * 2).put((ByteBuffer) buffer.flip());
+				}
+				buffer.putInt(idx).putInt(delta);
+			}
+			if (buffer != null) {
+				buffer.flip();
+				consumer.accept(bucket.epoch, Base64.getEncoder().encodeToString(toArray(buffer)));
+			}
+		}
+	}
+
+	/**
+	 * Returns estimated number of events for the key in the time window ending at the passed time.
+	 */
+	public int estimate(long hash, long time, long window) {
+		Bucket[] buckets = window(time, window);
+		long min = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			int idx = index(hash, row);
+			long sum = 0;
+			for (Bucket bucket : buckets) {
+				sum += bucket.counts.get(idx);
+			}
+			min = Math.min(min, sum);
+		}
+		return (int) Math.min(min, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns number of all events in the time window ending at the passed time.
+	 */
+	public long getCount(long time, long window) {
+		long count = 0;
+		for (Bucket bucket : window(time, window)) {
+			count += bucket.total.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns maximal overestimation of a count in the time window (with probability of <code>1 - e^-depth</code>).
+	 */
+	public long getErrorBound(long time, long window) {
+		return (long) Math.ceil(Math.E * getCount(time, window) / width);
+	}
+
+	/**
+	 * Returns length of time covered by buckets in milliseconds.
+	 */
+	public long getMaxWindow() {
+		return bucketMillis * buckets.length();
+	}
+
+	/**
+	 * Adds deltas collected on other instance of the counter with the same dimensions.
+	 */
+	public void merge(long epoch, String deltas) {
+		Bucket bucket = bucket(epoch, true);
+		if (bucket == null) {
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(deltas));
+		while (buffer.remaining() >= 8) {
+			int idx = buffer.getInt();
+			int delta = buffer.getInt();
+			if (idx < 0 || idx >= bucket.counts.length()) {
+				continue;
+			}
+			bucket.counts.addAndGet(idx, delta);
+			if (idx < width) {
+				// each event is counted once in each row
+				bucket.total.add(delta);
+			}
+		}
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.limit()];
+		buffer.get(data);
+		return data;
+	}
+
+	private Bucket bucket(long epoch, boolean create) {
+		int i = (int) (epoch % buckets.length());
+		while (true) {
+			Bucket bucket = buckets.get(i);
+			if (bucket != null && bucket.epoch == epoch) {
+				return bucket;
+			}
+			if (bucket != null && bucket.epoch > epoch) {
+				// events older than covered time
+				return null;
+			}
+			if (!create) {
+				return null;
+			}
+			Bucket newBucket = new Bucket(epoch, depth * width);
+			if (buckets.compareAndSet(i, bucket, newBucket)) {
+				return newBucket;
+			}
+		}
+	}
+
+	private int index(long hash, int row) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		int combined = h1 + row * h2;
+		return row * width + (combined & 0x7fffffff) % width;
+	}
+
+	private Bucket[] window(long time, long window) {
+		long to = time / bucketMillis;
+		long from = Math.max((time - window) / bucketMillis, to - buckets.length() + 1);
+		Bucket[] result = new Bucket[(int) Math.max(0, to - from + 1)];
+		int count = 0;
+		for (long epoch = from; epoch <= to; epoch++) {
+			Bucket bucket = bucket(epoch, false);
+			if (bucket != null) {
+				result[count++] = bucket;
+			}
+		}
+		if (count < result.length) {
+			Bucket[] tmp = new Bucket[count];
+			System.arraycopy(result, 0, tmp, 0, count);
+			result = tmp;
+		}
+		return result;
+	}
+
+	public interface DeltaConsumer {
+
+		void accept(long epoch, String deltas);
+
+	}
+
+	private static final class Bucket {
+
+		private final AtomicIntegerArray counts;
+		private final long epoch;
+		private final AtomicIntegerArray pending;
+		private final LongAdder total = new LongAdder();
+
+		private Bucket(long epoch, int size) {
+			this.epoch = epoch;
+			this.counts = new AtomicIntegerArray(size);
+			this.pending = new AtomicIntegerArray(size);
+		}
+	}
+}
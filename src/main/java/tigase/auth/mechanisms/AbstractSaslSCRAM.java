@@ -25,6 +25,7 @@ import tigase.util.Base64;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
@@ -37,6 +38,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.logging.Level;
@@ -57,6 +59,10 @@ public abstract class AbstractSaslSCRAM
 			"^(?<gs2Header>(?:y|n|p=(?<cbName>[a-zA-z0-9.-]+))," +
 					"(?:a=(?<authzid>(?:[^,\\x00-\\x20\\x2C]|=2C|=3D)+))?,)(?<clientFirstBare>(?<mext>m=[^\\000=]+,)" +
 					"?n=(?<username>(?:[^,\\x00-\\x20\\x2C]|=2C|=3D)+),r=(?<nonce>[^,\\x00-\\x20\\x2C]+)(?:,.*)?)$");
+	// Mac and MessageDigest instances are not thread-safe and expensive to look up in security providers, so each
+	// thread keeps its own instances for reuse in subsequent logins
+	private final static ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial(HashMap::new);
+	private final static ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial(HashMap::new);
 	private final static Pattern CLIENT_LAST_MESSAGE = Pattern.compile("^(?<withoutProof>c=(?<cb>[a-zA-Z0-9/+=]+)," +
 																			   "(?:r=(?<nonce>[^,\\x00-\\x20\\x2C]+))(?:,.*)?),p=(?<proof>[a-zA-Z0-9/+=]+)$");
 
@@ -111,27 +117,69 @@ public abstract class AbstractSaslSCRAM
 		System.arraycopy(salt, 0, z, 0, salt.length);
 		System.arraycopy(new byte[]{0, 0, 0, 1}, 0, z, salt.length, 4);
 
-		byte[] u = hmac(k, z);
-		byte[] result = new byte[u.length];
-		System.arraycopy(u, 0, result, 0, result.length);
-
-		int i = 1;
-		while (i < iterations) {
-			u = hmac(k, u);
-			for (int j = 0; j < u.length; j++) {
-				result[j] ^= u[j];
+		// key is set only once, Mac is reset after each doFinal() and u is reused as output buffer
+		final Mac mac = mac(k.getAlgorithm());
+		try {
+			mac.init(k);
+			byte[] u = mac.doFinal(z);
+			byte[] result = new byte[u.length];
+			System.arraycopy(u, 0, result, 0, result.length);
+
+			int i = 1;
+			while (i < iterations) {
+				mac.update(u);
+				mac.doFinal(u, 0);
+				for (int j = 0; j < u.length; j++) {
+					result[j] ^= u[j];
+				}
+				++i;
 			}
-			++i;
+			return result;
+		} catch (ShortBufferException ex) {
+			throw new InvalidKeyException("Invalid length of HMAC output", ex);
+		} finally {
+			mac.reset();
 		}
-
-		return result;
 	}
 
 	protected static byte[] hmac(final SecretKey key, byte[] data)
 			throws NoSuchAlgorithmException, InvalidKeyException {
-		Mac mac = Mac.getInstance(key.getAlgorithm());
-		mac.init(key);
-		return mac.doFinal(data);
+		Mac mac = mac(key.getAlgorithm());
+		try {
+			mac.init(key);
+			return mac.doFinal(data);
+		} finally {
+			mac.reset();
+		}
+	}
+
+	/**
+	 * Returns instance of <code>MessageDigest</code> for the algorithm cached for the current thread.
+	 */
+	protected static MessageDigest digest(String algorithm) throws NoSuchAlgorithmException {
+		Map<String, MessageDigest> digests = DIGESTS.get();
+		MessageDigest digest = digests.get(algorithm);
+		if (digest == null) {
+			digest = MessageDigest.getInstance(algorithm);
+			digests.put(algorithm, digest);
+		} else {
+			digest.reset();
+		}
+		return digest;
+	}
+
+	/**
+	 * Returns instance of <code>Mac</code> for the algorithm cached for the current thread. Returned instance needs to
+	 * be initialized with a key before use and reset after use, so no partial data is left for the next user.
+	 */
+	protected static Mac mac(String algorithm) throws NoSuchAlgorithmException {
+		Map<String, Mac> macs = MACS.get();
+		Mac mac = macs.get(algorithm);
+		if (mac == null) {
+			mac = Mac.getInstance(algorithm);
+			macs.put(algorithm, mac);
+		}
+		return mac;
 	}
 
 	public static byte[] normalize(String str) {
@@ -224,8 +272,7 @@ public abstract class AbstractSaslSCRAM
 	}
 
 	protected byte[] h(byte[] data) throws NoSuchAlgorithmException {
-		MessageDigest digest = MessageDigest.getInstance(algorithm);
-		return digest.digest(data);
+		return digest(algorithm).digest(data);
 	}
 
 	protected SecretKey key(final byte[] key) {
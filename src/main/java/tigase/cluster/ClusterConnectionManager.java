@@ -69,7 +69,6 @@ import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.Deflater;
 
 /**
  * Class ClusterConnectionManager
@@ -92,6 +91,8 @@ public class ClusterConnectionManager
 
 	public static final String CLUSTER_CONTR_ID_PROP_KEY = "cluster-controller-id";
 
+	public static final String COMPRESS_DICTIONARY_PROP_KEY = "compress-dictionary";
+
 	public static final String COMPRESS_STREAM_PROP_KEY = "compress-stream";
 
 	public static final String CONNECT_ALL_PAR = "--cluster-connect-all";
@@ -126,6 +127,8 @@ public class ClusterConnectionManager
 	@Inject
 	private ClusterControllerIfc clusterController = null;
 	private tigase.eventbus.EventListener<ClusterInitializedEvent> clusterEventHandler = null;
+	@ConfigField(desc = "Compress stream with preset XMPP dictionary", alias = COMPRESS_DICTIONARY_PROP_KEY)
+	private boolean compress_dictionary = false;
 	@ConfigField(desc = "Compress stream", alias = COMPRESS_STREAM_PROP_KEY)
 	private boolean compress_stream = COMPRESS_STREAM_PROP_VAL;
 	@ConfigField(desc = "Connect to all nodes", alias = CONNECT_ALL_PROP_KEY)
@@ -488,7 +491,7 @@ public class ClusterConnectionManager
 				new Object[]{serv.getRemoteAddress(), serv.connectionType().toString(), serv.getUniqueId()});
 		if (compress_stream) {
 			log.log(Level.INFO, "Starting stream compression for: {0}", serv.getUniqueId());
-			serv.startZLib(Deflater.BEST_COMPRESSION);
+			serv.startZLib(zlibLevel, compress_dictionary, zlibStatistics);
 		}
 		switch (serv.connectionType()) {
 			case connect:
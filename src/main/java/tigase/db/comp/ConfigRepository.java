@@ -24,6 +24,7 @@ import tigase.kernel.beans.config.ConfigField;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,7 +45,7 @@ public abstract class ConfigRepository<Item extends RepositoryItem>
 
 	private Timer autoLoadTimer = null;
 	private boolean initialized = false;
-	private RepositoryChangeListenerIfc<Item> repoChangeList = null;
+	private final List<RepositoryChangeListenerIfc<Item>> repoChangeListeners = new CopyOnWriteArrayList<>();
 
 	public ConfigRepository() {
 		String propKey = getPropertyKey();
@@ -98,12 +99,14 @@ public abstract class ConfigRepository<Item extends RepositoryItem>
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Adding new repository listener: {0}", repoChangeListener);
 		}
-		this.repoChangeList = repoChangeListener;
+		if (!repoChangeListeners.contains(repoChangeListener)) {
+			repoChangeListeners.add(repoChangeListener);
+		}
 	}
 
 	@Override
 	public void removeRepoChangeListener(RepositoryChangeListenerIfc<Item> repoChangeListener) {
-		this.repoChangeList = null;
+		repoChangeListeners.remove(repoChangeListener);
 	}
 
 	@Override
@@ -148,14 +151,18 @@ public abstract class ConfigRepository<Item extends RepositoryItem>
 	public void addItemNoStore(Item item) {
 		Item old = items.put(item.getKey(), item);
 
-		if (repoChangeList != null) {
+		if (!repoChangeListeners.isEmpty()) {
 			if (old == null) {
 				log.log(Level.INFO, "Calling itemAdded for: {0}", item);
-				repoChangeList.itemAdded(item);
+				for (RepositoryChangeListenerIfc<Item> repoChangeList : repoChangeListeners) {
+					repoChangeList.itemAdded(item);
+				}
 			} else {
 				if (itemChanged(old, item)) {
 					log.log(Level.INFO, "Calling itemUpadted for: {0}", item);
-					repoChangeList.itemUpdated(item);
+					for (RepositoryChangeListenerIfc<Item> repoChangeList : repoChangeListeners) {
+						repoChangeList.itemUpdated(item);
+					}
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, "Not calling itemUpadted for: {0}, item unchanged.", item);
@@ -252,7 +259,7 @@ public abstract class ConfigRepository<Item extends RepositoryItem>
 
 		if (item != null) {
 			store();
-			if (repoChangeList != null) {
+			for (RepositoryChangeListenerIfc<Item> repoChangeList : repoChangeListeners) {
 				repoChangeList.itemRemoved(item);
 			}
 			if (log.isLoggable(Level.FINEST)) {
@@ -266,7 +273,7 @@ public abstract class ConfigRepository<Item extends RepositoryItem>
 		Item item = items.remove(key);
 
 		if (item != null) {
-			if (repoChangeList != null) {
+			for (RepositoryChangeListenerIfc<Item> repoChangeList : repoChangeListeners) {
 				repoChangeList.itemRemoved(item);
 			}
 			if (log.isLoggable(Level.FINEST)) {
@@ -55,6 +55,10 @@ public abstract class UserRepoRepository<Item extends RepositoryItem>
 		return items_list_pkey;
 	}
 
+	protected UserRepository getRepo() {
+		return repo;
+	}
+
 	@Override
 	public void reload() {
 		int hashCode = 0;
@@ -56,7 +56,7 @@ import static tigase.io.SSLContextContainerIfc.*;
 @Bean(name = "certificate-container", parent = Kernel.class, active = true, exportable = true)
 public class CertificateContainer
 		implements CertificateContainerIfc,
-				   Initializable,
+				   ParallelInitializable,
 				   UnregisterAware,
 				   RegistrarBean,
 				   RepositoryChangeListenerIfc<CertificateItem> {
@@ -68,6 +68,33 @@ public interface IOInterface {
 
 	int write(final ByteBuffer buff) throws IOException;
 
+	/**
+	 * Writes all passed buffers as a single unit of data. Default implementation merges buffers into a single buffer,
+	 * so layers which transform data (ie. TLS or compression) process it at once.
+	 *
+	 * @param buffs buffers to write
+	 *
+	 * @return number of bytes written to the socket
+	 */
+	default int write(final ByteBuffer[] buffs) throws IOException {
+		if (buffs == null || buffs.length == 0) {
+			return write((ByteBuffer) null);
+		}
+		if (buffs.length == 1) {
+			return write(buffs[0]);
+		}
+		int size = 0;
+		for (ByteBuffer buff : buffs) {
+			size += buff.remaining();
+		}
+		ByteBuffer merged = ByteBuffer.allocate(size);
+		for (ByteBuffer buff : buffs) {
+			merged.put(buff);
+		}
+		merged.flip();
+		return write(merged);
+	}
+
 	void setLogId(String logId);
 
 }    // IOInterface
@@ -27,6 +27,8 @@ import java.nio.ByteBuffer;
 import java.security.cert.Certificate;
 import java.util.Arrays;
 import java.util.StringJoiner;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,6 +52,11 @@ public class JcaTLSWrapper
 
 	private int appBuffSize = 0;
 	private String debugId = null;
+	private Executor delegatedTaskExecutor = null;
+	private volatile boolean delegatedTasksPending = false;
+	private final long handshakeStart = System.nanoTime();
+	private TLSHandshakeMetrics metrics = null;
+	private boolean pooledBuffers = false;
 
 	// private String protocol = null;
 	private TLSEventHandler eventHandler = null;
@@ -117,9 +124,29 @@ public class JcaTLSWrapper
 
 	}
 
+	/**
+	 * Sets executor for handshake tasks delegated by <code>SSLEngine</code>. If set, tasks are not executed by the
+	 * thread calling <code>wrap()</code> or <code>unwrap()</code>, instead the wrapper reports {@link
+	 * TLSStatus#NEED_TASK} until tasks are completed and then notifies {@link TLSEventHandler}.
+	 */
+	public void setDelegatedTaskExecutor(Executor delegatedTaskExecutor) {
+		this.delegatedTaskExecutor = delegatedTaskExecutor;
+	}
+
+	public void setMetrics(TLSHandshakeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void setPooledBuffers(boolean pooledBuffers) {
+		this.pooledBuffers = pooledBuffers;
+	}
+
 	protected void tlsEngineHandshakeCompleted() {
 		if (handshakeStatus == InternalHandshakeStatus.handshaking) {
 			handshakeStatus = InternalHandshakeStatus.finished;
+			if (metrics != null) {
+				metrics.handshakeCompleted(System.nanoTime() - handshakeStart);
+			}
 		} else {
 			log.log(Level.FINEST, "Handshake completed, already reported [{0}]", new Object[]{debugId});
 		}
@@ -218,7 +245,9 @@ public class JcaTLSWrapper
 	public TLSStatus getStatus() {
 		TLSStatus status = null;
 
-		if ((tlsEngineResult != null) && (tlsEngineResult.getStatus() == Status.BUFFER_UNDERFLOW)) {
+		if (delegatedTasksPending) {
+			status = TLSStatus.NEED_TASK;
+		} else if ((tlsEngineResult != null) && (tlsEngineResult.getStatus() == Status.BUFFER_UNDERFLOW)) {
 			status = TLSStatus.UNDERFLOW;
 
 			// status = TLSStatus.NEED_READ;
@@ -273,6 +302,11 @@ public class JcaTLSWrapper
 
 	@Override
 	public ByteBuffer unwrap(ByteBuffer net, ByteBuffer app) throws SSLException {
+		if (delegatedTasksPending) {
+			// handshake cannot progress until delegated tasks are completed
+			return app;
+		}
+
 		ByteBuffer out = app;
 
 		out.order(app.order());
@@ -313,6 +347,10 @@ public class JcaTLSWrapper
 
 	@Override
 	public void wrap(ByteBuffer app, ByteBuffer net) throws SSLException {
+		if (delegatedTasksPending) {
+			// handshake cannot progress until delegated tasks are completed, application data are kept by the caller
+			return;
+		}
 		tlsEngineResult = tlsEngine.wrap(app, net);
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "tlsEngineRsult.getStatus() = {1}, tlsEngineRsult.getHandshakeStatus() = {2} [{0}]",
@@ -338,11 +376,50 @@ public class JcaTLSWrapper
 	}
 
 	private void doTasks() {
+		final long queued = System.nanoTime();
+		if (delegatedTaskExecutor != null) {
+			delegatedTasksPending = true;
+			if (metrics != null) {
+				metrics.taskQueued();
+			}
+			try {
+				delegatedTaskExecutor.execute(() -> runDelegatedTasks(queued, true));
+				return;
+			} catch (RejectedExecutionException ex) {
+				log.log(Level.FINE, "Handshake tasks rejected, executing them inline [{0}]", debugId);
+			}
+		}
+		runDelegatedTasks(queued, false);
+	}
+
+	private void runDelegatedTasks(long queued, boolean offloaded) {
+		final long started = System.nanoTime();
+		if (metrics != null && delegatedTasksPending) {
+			metrics.taskStarted(started - queued);
+		}
+
 		Runnable runnable = null;
 
-		while ((runnable = tlsEngine.getDelegatedTask()) != null) {
-			runnable.run();
-		} // end of while ((runnable = engine.getDelegatedTask()) != 0)
+		try {
+			while ((runnable = tlsEngine.getDelegatedTask()) != null) {
+				runnable.run();
+			} // end of while ((runnable = engine.getDelegatedTask()) != 0)
+		} finally {
+			if (metrics != null) {
+				metrics.taskCompleted(System.nanoTime() - started, offloaded);
+			}
+			delegatedTasksPending = false;
+		}
+
+		if (offloaded) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Handshake tasks completed, handshake: {1} [{0}]",
+						new Object[]{debugId, tlsEngine.getHandshakeStatus()});
+			}
+			if (eventHandler != null) {
+				eventHandler.handshakeTasksCompleted(this);
+			}
+		}
 	}
 
 	/**
@@ -364,12 +441,15 @@ public class JcaTLSWrapper
 			log.log(Level.FINER, "Resizing tlsInput to {1} bytes [{0}]", new Object[]{debugId, newSize});
 		}
 
-		ByteBuffer bb = ByteBuffer.allocate(newSize);
+		ByteBuffer bb = pooledBuffers ? TLSBufferPool.get(newSize) : ByteBuffer.allocate(newSize);
 
 		// bb.clear();
 		bb.order(app.order());
 		app.flip();
 		bb.put(app);
+		if (pooledBuffers) {
+			TLSBufferPool.release(app);
+		}
 
 		return bb;
 
@@ -31,6 +31,8 @@ import tigase.server.Command;
 import tigase.server.ConnectionManager;
 import tigase.server.DataForm;
 import tigase.server.Packet;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.vhosts.*;
 import tigase.xml.Element;
 
@@ -58,7 +60,7 @@ import java.util.regex.Pattern;
 @Bean(name = "sslContextContainer", parent = ConnectionManager.class, active = true)
 public class SSLContextContainer
 		extends SSLContextContainerAbstract
-		implements Initializable {
+		implements Initializable, UnregisterAware, StatisticsProviderIfc {
 
 	// Workaround for TLS/SSL bug in new JDK used with new version of
 	// nss library see also:
@@ -143,6 +145,14 @@ public class SSLContextContainer
 	private SSLContextContainerIfc parent;
 	@ConfigField(desc = "TLS/SSL", alias = "tls-jdk-nss-bug-workaround-active")
 	private boolean tlsJdkNssBugWorkaround = false;
+	private final TLSHandshakeMetrics tlsHandshakeMetrics = new TLSHandshakeMetrics();
+	@ConfigField(desc = "Execute TLS handshake tasks in a separate thread pool", alias = "tls-offload-handshake-tasks")
+	private boolean tlsOffloadHandshakeTasks = false;
+	@ConfigField(desc = "Number of threads executing TLS handshake tasks", alias = "tls-handshake-threads")
+	private int tlsHandshakeThreads = Runtime.getRuntime().availableProcessors();
+	private TLSHandshakeExecutor tlsHandshakeExecutor = null;
+	@ConfigField(desc = "Use shared pool of TLS network and application buffers", alias = "tls-pooled-buffers")
+	private boolean tlsPooledBuffers = false;
 
 	private static String getKey(SSLContextContainer.HARDENED_MODE mode, boolean client) {
 		return mode + (client ? "_client" : "");
@@ -207,10 +217,27 @@ public class SSLContextContainer
 										 TLSEventHandler eventHandler, IOInterface socketIO,
 										 CertificateContainerIfc certificateContainer) throws IOException {
 		SSLContext sslContext = getSSLContext(protocol, local_hostname, clientMode, x509TrustManagers);
-		TLSWrapper wrapper = new JcaTLSWrapper(sslContext, eventHandler, remote_hostname, port, clientMode,
-											   wantClientAuth, needClientAuth, getEnabledCiphers(local_hostname),
-											   getEnabledProtocols(local_hostname, clientMode));
-		return new TLSIO(socketIO, wrapper, byteOrder);
+		JcaTLSWrapper wrapper = new JcaTLSWrapper(sslContext, eventHandler, remote_hostname, port, clientMode,
+												  wantClientAuth, needClientAuth, getEnabledCiphers(local_hostname),
+												  getEnabledProtocols(local_hostname, clientMode));
+		wrapper.setMetrics(tlsHandshakeMetrics);
+		wrapper.setPooledBuffers(tlsPooledBuffers);
+		if (tlsOffloadHandshakeTasks) {
+			wrapper.setDelegatedTaskExecutor(getTlsHandshakeExecutor());
+		}
+		return new TLSIO(socketIO, wrapper, byteOrder, tlsPooledBuffers);
+	}
+
+	private synchronized TLSHandshakeExecutor getTlsHandshakeExecutor() {
+		if (tlsHandshakeExecutor == null) {
+			tlsHandshakeExecutor = new TLSHandshakeExecutor(tlsHandshakeThreads);
+		}
+		return tlsHandshakeExecutor;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		tlsHandshakeMetrics.getStatistics(compName, list);
 	}
 
 	@Override
@@ -331,6 +358,13 @@ public class SSLContextContainer
 		this.parent = parent;
 	}
 
+	public synchronized void setTlsHandshakeThreads(int tlsHandshakeThreads) {
+		this.tlsHandshakeThreads = tlsHandshakeThreads;
+		if (tlsHandshakeExecutor != null) {
+			tlsHandshakeExecutor.setThreads(tlsHandshakeThreads);
+		}
+	}
+
 	public void setTlsJdkNssBugWorkaround(boolean value) {
 		if (log.isLoggable(Level.CONFIG)) {
 			log.config("Workaround for TLS/SSL bug is " + (value ? "enabled" : "disabled"));
@@ -338,6 +372,14 @@ public class SSLContextContainer
 		this.tlsJdkNssBugWorkaround = value;
 	}
 
+	@Override
+	public synchronized void beforeUnregister() {
+		if (tlsHandshakeExecutor != null) {
+			tlsHandshakeExecutor.shutdown();
+			tlsHandshakeExecutor = null;
+		}
+	}
+
 	@Override
 	public void initialize() {
 		System.setProperty(EPHEMERAL_DH_KEYSIZE_KEY, String.valueOf(ephemeralDHKeySize));
@@ -568,6 +610,7 @@ public class SSLContextContainer
 
 		@Override
 		public void beforeUnregister() {
+			super.beforeUnregister();
 			stop();
 		}
 
@@ -48,12 +48,16 @@ public class SocketIO
 	private static final boolean DEBUG_SOCKET_OVERFLOW = Boolean.getBoolean("socket-overflow-debug");
 	private static final Level LOG_SOCKET_OVERFLOW_LEVEL = DEBUG_SOCKET_OVERFLOW ? Level.INFO : Level.FINEST;
 
+	private static final int MAX_GATHERED_WRITE_SIZE = IOUtil.MAX_POOLED_SIZE;
+
 	private long buffOverflow = 0;
 	private int bytesRead = 0;
 	private long bytesReceived = 0;
 	private long bytesSent = 0;
 	private SocketChannel channel = null;
 	private String channelToString = null;
+	private long gatheredWrites = 0;
+	private boolean lastWritePartial = false;
 	private Queue<ByteBuffer> dataToSend = null;
 	private String logId = null;
 	private String remoteAddress = null;
@@ -112,6 +116,7 @@ public class SocketIO
 		list.add("socketio", "Total bytes sent", totalBytesSent, Level.FINE);
 		list.add("socketio", "Total bytes received", totalBytesReceived, Level.FINE);
 		list.add("socketio", "Ttoal buffers overflow", totalBuffOverflow, Level.FINE);
+		list.add("socketio", "Gathered writes", gatheredWrites, Level.FINEST);
 		if (reset) {
 			bytesSent = 0;
 			bytesReceived = 0;
@@ -237,6 +242,10 @@ public class SocketIO
 		return dataToSend.size();
 	}
 
+	public long getGatheredWrites() {
+		return gatheredWrites;
+	}
+
 	@Override
 	public int write(final ByteBuffer buff) throws IOException {
 
@@ -266,42 +275,18 @@ public class SocketIO
 		}
 
 		int result = 0;
-		ByteBuffer dataBuffer = null;
-
-		// we are processing all buffers one by one to reduce need for direct 
-		// memory, and we use our own cache of DirectByteBuffers as cache from JDK
-		// may keep up to 1024 buffers for single thread!!
-		while ((dataBuffer = dataToSend.peek()) != null) {
-			int pos = dataBuffer.position();
-			int lim = dataBuffer.limit();
-			int rem = (pos <= lim ? lim - pos : 0);
-			int res = 0;
-
-			ByteBuffer tmp = IOUtil.getDirectBuffer(rem);
-			try {
-				tmp.put(dataBuffer);
-				tmp.flip();
-				dataBuffer.position(pos);
-				res = channel.write(tmp);
-				if (res > 0) {
-					dataBuffer.position(pos + res);
-				}
-			} finally {
-				IOUtil.returnDirectBuffer(tmp);
-			}
+		int res;
 
+		// we are copying waiting buffers to a single direct buffer from our own cache of DirectByteBuffers as cache
+		// from JDK may keep up to 1024 buffers for single thread!! Many small waiting buffers are gathered in a
+		// single buffer to write them with a single system call.
+		do {
+			res = writeWaiting();
 			if (res == -1) {
 				throw new EOFException("Channel has been closed.");
-			} else {
-				result += res;
-			}
-
-			if (!dataBuffer.hasRemaining()) {
-				dataToSend.poll();
-			} else {
-				break;
 			}
-		}
+			result += res;
+		} while (res > 0 && !lastWritePartial && !dataToSend.isEmpty());
 
 		if (log.isLoggable(Level.FINER)) {
 			log.log(Level.FINER, "Wrote to channel {0} bytes [{1}]", new Object[]{result, toString()});
@@ -313,8 +298,84 @@ public class SocketIO
 		return result;
 	}
 
+	@Override
+	public int write(final ByteBuffer[] buffs) throws IOException {
+		if (buffs == null || buffs.length == 0) {
+			return write((ByteBuffer) null);
+		}
+		for (int i = 0; i < buffs.length - 1; i++) {
+			if (buffs[i] != null && buffs[i].hasRemaining() && !dataToSend.offer(buffs[i])) {
+				++buffOverflow;
+				++totalBuffOverflow;
+			}
+		}
+		return write(buffs[buffs.length - 1]);
+	}
+
 	@Override
 	public void setLogId(String logId) {
 		this.logId = logId;
 	}
+
+	private int writeWaiting() throws IOException {
+		ByteBuffer first = dataToSend.peek();
+		if (first == null) {
+			return 0;
+		}
+
+		int size = 0;
+		int count = 0;
+		for (ByteBuffer buff : dataToSend) {
+			int rem = buff.remaining();
+			if (count > 0 && size + rem > MAX_GATHERED_WRITE_SIZE) {
+				break;
+			}
+			size += rem;
+			count++;
+		}
+
+		ByteBuffer tmp = IOUtil.getDirectBuffer(size);
+		int res;
+		try {
+			int copied = 0;
+			for (ByteBuffer buff : dataToSend) {
+				if (copied == count) {
+					break;
+				}
+				int pos = buff.position();
+				tmp.put(buff);
+				buff.position(pos);
+				copied++;
+			}
+			tmp.flip();
+			res = channel.write(tmp);
+		} finally {
+			IOUtil.returnDirectBuffer(tmp);
+		}
+		if (res <= 0) {
+			lastWritePartial = true;
+			return res;
+		}
+		if (count > 1) {
+			++gatheredWrites;
+		}
+
+		int remaining = res;
+		ByteBuffer buff;
+		while (remaining > 0 && (buff = dataToSend.peek()) != null) {
+			int rem = buff.remaining();
+			if (rem <= remaining) {
+				buff.position(buff.limit());
+				dataToSend.poll();
+				remaining -= rem;
+			} else {
+				buff.position(buff.position() + remaining);
+				remaining = 0;
+			}
+		}
+
+		// partial write means that socket buffer is full
+		lastWritePartial = res < size;
+		return res;
+	}
 }
@@ -0,0 +1,86 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of heap buffers used by TLS layer for network and application data. TLS buffers have only a few
+ * different sizes (packet and application buffer sizes of <code>SSLSession</code> and their multiples), so buffers
+ * are pooled by exact capacity. Number of pooled buffers of each capacity may be limited with
+ * <code>tls-buffers-per-size</code> system property.
+ */
+public class TLSBufferPool {
+
+	private static final int MAX_BUFFERS_PER_SIZE = Integer.getInteger("tls-buffers-per-size", 512);
+	private static final int MAX_POOLED_CAPACITY = 512 * 1024;
+	private static final AtomicLong allocated = new AtomicLong();
+	private static final ConcurrentHashMap<Integer, Pool> pools = new ConcurrentHashMap<>();
+	private static final AtomicLong reused = new AtomicLong();
+
+	public static ByteBuffer get(int capacity) {
+		Pool pool = capacity > MAX_POOLED_CAPACITY ? null : pools.get(capacity);
+		ByteBuffer buf = pool == null ? null : pool.buffers.poll();
+		if (buf == null) {
+			allocated.incrementAndGet();
+			return ByteBuffer.allocate(capacity);
+		}
+		pool.size.decrementAndGet();
+		reused.incrementAndGet();
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Returns buffer to the pool. Buffer must not be used by the caller after it was returned.
+	 */
+	public static void release(ByteBuffer buf) {
+		if (buf == null || buf.isDirect() || buf.isReadOnly() || buf.capacity() > MAX_POOLED_CAPACITY) {
+			return;
+		}
+		Pool pool = pools.computeIfAbsent(buf.capacity(), size -> new Pool());
+		if (pool.size.incrementAndGet() > MAX_BUFFERS_PER_SIZE) {
+			pool.size.decrementAndGet();
+			return;
+		}
+		pool.buffers.offer(buf);
+	}
+
+	public static long getAllocatedBuffers() {
+		return allocated.get();
+	}
+
+	public static long getReusedBuffers() {
+		return reused.get();
+	}
+
+	private TLSBufferPool() {
+	}
+
+	private static class Pool {
+
+		private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+
+	}
+}
@@ -28,6 +28,13 @@ public interface TLSEventHandler {
 
 	void handshakeCompleted(TLSWrapper wrapper);
 
+	/**
+	 * Called (from the handshake thread) when handshake tasks delegated by the wrapper to other thread are completed
+	 * and the handshake may be continued.
+	 */
+	default void handshakeTasksCompleted(TLSWrapper wrapper) {
+	}
+
 	int getSocketInputSize();
 }
 
@@ -0,0 +1,68 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of threads executing TLS handshake tasks delegated by <code>SSLEngine</code>, so expensive handshake
+ * cryptography does not block socket processing threads. Threads are started on demand and stopped when idle.
+ */
+public class TLSHandshakeExecutor
+		implements Executor {
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private final ThreadPoolExecutor executor;
+
+	public TLSHandshakeExecutor(int threads) {
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread th = new Thread(r, "tls-handshake-" + counter.incrementAndGet());
+			th.setDaemon(true);
+			return th;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		executor.execute(command);
+	}
+
+	public int getThreads() {
+		return executor.getMaximumPoolSize();
+	}
+
+	public void setThreads(int threads) {
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
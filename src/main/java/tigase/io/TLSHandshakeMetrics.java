@@ -0,0 +1,97 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Collects TLS handshake latency and statistics of handshake tasks for connections of a single connection manager.
+ */
+public class TLSHandshakeMetrics
+		implements StatisticsProviderIfc {
+
+	private final AtomicLong handshakeTime = new AtomicLong();
+	private final AtomicLong handshakes = new AtomicLong();
+	private final AtomicLong inlineTasks = new AtomicLong();
+	private final AtomicLong maxHandshakeTime = new AtomicLong();
+	private final AtomicInteger maxQueuedTasks = new AtomicInteger();
+	private final AtomicLong offloadedTasks = new AtomicLong();
+	private final AtomicInteger queuedTasks = new AtomicInteger();
+	private final AtomicLong taskRunTime = new AtomicLong();
+	private final AtomicLong taskWaitTime = new AtomicLong();
+
+	public void handshakeCompleted(long nanos) {
+		handshakes.incrementAndGet();
+		handshakeTime.addAndGet(nanos);
+		maxHandshakeTime.accumulateAndGet(nanos, Math::max);
+	}
+
+	public void taskQueued() {
+		offloadedTasks.incrementAndGet();
+		maxQueuedTasks.accumulateAndGet(queuedTasks.incrementAndGet(), Math::max);
+	}
+
+	public void taskStarted(long waitNanos) {
+		queuedTasks.decrementAndGet();
+		taskWaitTime.addAndGet(waitNanos);
+	}
+
+	public void taskCompleted(long runNanos, boolean offloaded) {
+		taskRunTime.addAndGet(runNanos);
+		if (!offloaded) {
+			inlineTasks.incrementAndGet();
+		}
+	}
+
+	public long getHandshakes() {
+		return handshakes.get();
+	}
+
+	public int getQueuedTasks() {
+		return queuedTasks.get();
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		long handshakes = this.handshakes.get();
+		long offloaded = offloadedTasks.get();
+		long tasks = offloaded + inlineTasks.get();
+		list.add(compName, "TLS handshakes", handshakes, Level.FINE);
+		list.add(compName, "TLS average handshake time [ms]",
+				 handshakes == 0 ? 0f : toMillis(handshakeTime.get()) / handshakes, Level.FINE);
+		list.add(compName, "TLS max handshake time [ms]", toMillis(maxHandshakeTime.get()), Level.FINER);
+		list.add(compName, "TLS handshake tasks", tasks, Level.FINER);
+		list.add(compName, "TLS handshake tasks offloaded", offloaded, Level.FINER);
+		list.add(compName, "TLS handshake queue", queuedTasks.get(), Level.FINE);
+		list.add(compName, "TLS handshake max queue", maxQueuedTasks.get(), Level.FINER);
+		list.add(compName, "TLS handshake average queue wait [ms]",
+				 offloaded == 0 ? 0f : toMillis(taskWaitTime.get()) / offloaded, Level.FINER);
+		list.add(compName, "TLS handshake average task time [ms]",
+				 tasks == 0 ? 0f : toMillis(taskRunTime.get()) / tasks, Level.FINER);
+	}
+
+	private static float toMillis(long nanos) {
+		return (float) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -48,6 +48,29 @@ public class TLSIO
 
 	private IOInterface io = null;
 
+	/**
+	 * Set if decoding of received network data was paused by handshake tasks executed by other thread and some data
+	 * is still waiting in the input buffer.
+	 */
+	private boolean pendingInput = false;
+
+	/**
+	 * Buffer owned by this connection with network data read while writing, which could not be decoded yet as
+	 * handshake tasks are executed by other thread. Data from it are decoded before any data read later.
+	 */
+	private ByteBuffer pendingNetBuff = null;
+
+	/**
+	 * Application data which could not be encrypted yet as handshake tasks are executed by other thread.
+	 */
+	private ByteBuffer pendingOutput = null;
+
+	private final boolean pooledBuffers;
+
+	private int resumedBytes = 0;
+
+	private boolean socketRead = true;
+
 	/**
 	 * <code>tlsInput</code> buffer keeps data decoded from tlsWrapper.
 	 */
@@ -71,10 +94,16 @@ public class TLSIO
 	// }
 
 	public TLSIO(final IOInterface ioi, final TLSWrapper wrapper, final ByteOrder order) throws IOException {
+		this(ioi, wrapper, order, false);
+	}
+
+	public TLSIO(final IOInterface ioi, final TLSWrapper wrapper, final ByteOrder order, boolean pooledBuffers)
+			throws IOException {
 		io = ioi;
 		tlsWrapper = wrapper;
 		tlsWrapper.setDebugId(toString());
-		tlsInput = ByteBuffer.allocate(tlsWrapper.getAppBuffSize());
+		this.pooledBuffers = pooledBuffers;
+		tlsInput = allocate(tlsWrapper.getAppBuffSize());
 		tlsInput.order(order);
 
 		if (log.isLoggable(Level.FINER)) {
@@ -92,7 +121,8 @@ public class TLSIO
 
 	@Override
 	public int bytesRead() {
-		return io.bytesRead();
+		int read = socketRead ? io.bytesRead() : 0;
+		return read == 0 ? resumedBytes : read;
 	}
 
 	@Override
@@ -166,6 +196,25 @@ public class TLSIO
 		// log.finer("input.limit()=" + buff.limit());
 		// log.finer("input.position()=" + buff.position());
 		// }
+		resumedBytes = 0;
+		socketRead = true;
+
+		if (pendingNetBuff != null) {
+			// handshake data read while writing were received before any data which may be read now
+			resumedBytes = movePendingNetBuff(buff);
+			if (pendingNetBuff != null) {
+				// not all of them fit in the buffer, so no new data may be read from the socket yet
+				socketRead = false;
+				pendingInput = true;
+				if (tlsWrapper.getStatus() == TLSStatus.NEED_TASK) {
+					return null;
+				}
+				buff.flip();
+				return decodeData(buff);
+			}
+			pendingInput = true;
+		}
+
 		ByteBuffer tmpBuffer = io.read(buff);
 
 		if (io.bytesRead() > 0) {
@@ -174,16 +223,32 @@ public class TLSIO
 			}
 
 			return decodeData(tmpBuffer);
+		} else if (io.bytesRead() == 0 && tlsWrapper.getStatus() != TLSStatus.NEED_TASK &&
+				(pendingInput || tlsWrapper.getStatus() == TLSStatus.NEED_WRITE)) {
+			// handshake tasks were completed, so we need to resume handshake
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "Resuming handshake, pending input: {0}, {1}",
+						new Object[]{pendingInput, toString()});
+			}
+			if (pendingInput) {
+				pendingInput = false;
+				tmpBuffer.flip();
+				resumedBytes = tmpBuffer.remaining();
+				return decodeData(tmpBuffer);
+			}
+			writeBuff(ByteBuffer.allocate(0), 0);
+			return null;
 		} else {
 			if (tlsInput.capacity() > tlsWrapper.getAppBuffSize() && tlsInput.capacity() == tlsInput.remaining()) {
 				if (log.isLoggable(Level.FINE)) {
 					log.log(Level.FINE, "Resizing tlsInput to {0} bytes, capacity: {1}, remaining: {2}; IO: {3}",
 							new Object[]{tlsWrapper.getAppBuffSize(), tlsInput.capacity(), tlsInput.remaining(), toString()});
 				}
-				ByteBuffer bb = ByteBuffer.allocate(tlsWrapper.getAppBuffSize());
+				ByteBuffer bb = allocate(tlsWrapper.getAppBuffSize());
 
 				bb.order(tlsInput.order());
 
+				release(tlsInput);
 				tlsInput = bb;
 			}
 			return null;
@@ -209,16 +274,30 @@ public class TLSIO
 
 	@Override
 	public boolean waitingToSend() {
-		return io.waitingToSend();
+		// data kept while handshake tasks are executed are sent once tasks are completed and the connection resumed
+		return io.waitingToSend() || (pendingOutput != null && tlsWrapper.getStatus() != TLSStatus.NEED_TASK);
 	}
 
 	@Override
 	public int waitingToSendSize() {
-		return io.waitingToSendSize();
+		return io.waitingToSendSize() + (pendingOutput == null ? 0 : pendingOutput.position());
 	}
 
 	@Override
 	public int write(ByteBuffer buff) throws IOException {
+		if (pendingOutput != null) {
+			// data kept earlier have to be sent first
+			if (buff != null && buff.hasRemaining()) {
+				keepPendingOutput(buff);
+			}
+			if (tlsWrapper.getStatus() == TLSStatus.NEED_TASK) {
+				return 0;
+			}
+			buff = pendingOutput;
+			pendingOutput = null;
+			buff.flip();
+		}
+
 		TLSStatus stat = tlsWrapper.getStatus();
 
 		// The loop below falls into infinite loop for some reason.
@@ -242,7 +321,7 @@ public class TLSIO
 					// sent thru network connection - we need to force sending data and to break
 					// from this loop
 					if (io.waitingToSend()) {
-						io.write(null);
+						io.write((ByteBuffer) null);
 
 						// it appears only during handshake so force break only in this case
 						if (tlsWrapper.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING &&
@@ -254,7 +333,7 @@ public class TLSIO
 					// I wonder if some real data can be read from the socket here (and we
 					// would
 					// loose the data) or this is just TLS stuff here.....
-					ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+					readHandshakeData();
 
 					break;
 
@@ -299,7 +378,7 @@ public class TLSIO
 		int result = -1;
 
 		if (buff == null) {
-			result = io.write(null);
+			result = io.write((ByteBuffer) null);
 		} else {
 			if (log.isLoggable(Level.FINER)) {
 				log.log(Level.FINER, "TLS - Writing data, remaining: {0}, loop_cnt: {1}, TLSIO: {2}, tlsWrapper: {3}",
@@ -307,6 +386,11 @@ public class TLSIO
 			}
 
 			result = writeBuff(buff, loop_cnt);
+			if (buff.hasRemaining() && tlsWrapper.getStatus() == TLSStatus.NEED_TASK) {
+				// data cannot be encrypted until handshake tasks are completed, so socket thread is not blocked
+				// and data are sent once the connection is resumed
+				keepPendingOutput(buff);
+			}
 		}
 
 		// if (isRemoteAddress("81.142.228.219")) {
@@ -331,6 +415,8 @@ public class TLSIO
 		TLSStatus stat = null;
 		boolean continueLoop = true;
 
+		pendingInput = false;
+
 		// input.flip();
 		// do_loop:
 		do {
@@ -401,6 +487,14 @@ public class TLSIO
 
 					break;
 
+				case NEED_TASK:
+					// handshake tasks are executed by other thread, we will continue decoding once they are completed
+					input.compact();
+					pendingInput = input.position() > 0;
+					continueLoop = false;
+
+					break;
+
 				case CLOSED:
 
 					// if (tlsWrapper.getStatus() == TLSStatus.CLOSED) {
@@ -455,14 +549,14 @@ public class TLSIO
 				// I wonder if some real data can be read from the socket here (and we
 				// would
 				// loose the data) or this is just TLS stuff here.....
-				ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+				readHandshakeData();
 				if ((!TLS_WAIT_FOR_HANDSHAKE_NOT_READY) && loop_cnt > 2 && tlsWrapper.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP &&
 						tlsWrapper.getStatus() == TLSStatus.NEED_READ) {
 					throw new IOException("TLS handshake not established!");
 				}
 			}
 
-			ByteBuffer tlsOutput = ByteBuffer.allocate(tlsWrapper.getNetBuffSize());
+			ByteBuffer tlsOutput = allocate(tlsWrapper.getNetBuffSize());
 
 			// Not sure if this is really needed, I guess not...
 			tlsOutput.clear();
@@ -475,13 +569,17 @@ public class TLSIO
 			tlsOutput.flip();
 			wr = io.write(tlsOutput);
 			result += wr;
+			if (!tlsOutput.hasRemaining()) {
+				// buffer was fully written, so it is not kept in the output queue
+				release(tlsOutput);
+			}
 
 			if (log.isLoggable(Level.FINER)) {
 				log.log(Level.FINER, "TLS - Writing data, remaining: {0}, run {1} of {2}, TLSIO: {3}, tlsWrapper: {4}",
 						new Object[]{buff.remaining(), loop_cnt, max_loop_runs, toString(), String.valueOf(tlsWrapper)});
 			}
 			tlsWrapper.notifyIfHandshakeFinished();
-		} while (buff.hasRemaining() && (++loop_cnt < max_loop_runs));
+		} while (buff.hasRemaining() && tlsWrapper.getStatus() != TLSStatus.NEED_TASK && (++loop_cnt < max_loop_runs));
 
 		if (loop_cnt > (max_loop_runs / 2)) {
 			log.log(Level.INFO,
@@ -503,4 +601,63 @@ public class TLSIO
 
 		return result;
 	}
+
+	/**
+	 * Reads and decodes handshake data while writing. If decoding is paused by handshake tasks, the buffer with
+	 * remaining data is kept until the tasks are completed, so it is not reused before the data is decoded.
+	 */
+	private void readHandshakeData() throws IOException {
+		if (pendingInput || pendingNetBuff != null) {
+			// decoding is paused, data read now would be decoded before data received earlier
+			return;
+		}
+		ByteBuffer netBuff = allocate(tlsWrapper.getNetBuffSize());
+		read(netBuff);
+		if (pendingInput) {
+			pendingInput = false;
+			pendingNetBuff = netBuff;
+		} else {
+			release(netBuff);
+		}
+	}
+
+	private int movePendingNetBuff(ByteBuffer buff) {
+		ByteBuffer pending = pendingNetBuff;
+		pending.flip();
+		int moved = Math.min(pending.remaining(), buff.remaining());
+		int limit = pending.limit();
+		pending.limit(pending.position() + moved);
+		buff.put(pending);
+		pending.limit(limit);
+		if (pending.hasRemaining()) {
+			pending.compact();
+		} else {
+			pendingNetBuff = null;
+			release(pending);
+		}
+		return moved;
+	}
+
+	private void keepPendingOutput(ByteBuffer buff) {
+		if (pendingOutput == null || pendingOutput.remaining() < buff.remaining()) {
+			int size = buff.remaining() + (pendingOutput == null ? 0 : pendingOutput.position());
+			ByteBuffer bb = ByteBuffer.allocate(Math.max(size, tlsWrapper.getAppBuffSize()));
+			if (pendingOutput != null) {
+				pendingOutput.flip();
+				bb.put(pendingOutput);
+			}
+			pendingOutput = bb;
+		}
+		pendingOutput.put(buff);
+	}
+
+	private ByteBuffer allocate(int size) {
+		return pooledBuffers ? TLSBufferPool.get(size) : ByteBuffer.allocate(size);
+	}
+
+	private void release(ByteBuffer buff) {
+		if (pooledBuffers) {
+			TLSBufferPool.release(buff);
+		}
+	}
 } // TLSIO
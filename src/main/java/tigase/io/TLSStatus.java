@@ -30,6 +30,10 @@ public enum TLSStatus {
 	NEED_READ,
 	UNDERFLOW,
 	CLOSED,
+	/**
+	 * Handshake is paused until delegated tasks executed by other thread are completed.
+	 */
+	NEED_TASK,
 	OK;
 
 } // TLSStatus
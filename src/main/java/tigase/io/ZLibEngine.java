@@ -0,0 +1,359 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import tigase.stats.StatisticsList;
+import tigase.util.IOListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression engine of a single zlib stream (XEP-0138). Native <code>Deflater</code> and <code>Inflater</code> are
+ * created on first use and freed as soon as the stream is ended. Data is compressed and decompressed into working
+ * buffers shared by all streams processed by the same thread, so only compressed data of exact size is allocated for
+ * each write.
+ * <br>
+ * Stream may be started with a preset dictionary of common XMPP strings, which improves compression of small
+ * stanzas. Dictionary is sent only if both ends of the connection are known to support it (ie. cluster connections),
+ * while streams with dictionary are always accepted on the receiving side.
+ * <br>
+ * Window bits and memory level of streams are not configurable, as <code>Deflater</code> and <code>Inflater</code>
+ * always use zlib defaults (15 window bits, memory level 8). Dictionary is not used on s2s connections, as s2s stream
+ * compression is not negotiated by the server.
+ */
+public class ZLibEngine {
+
+	/**
+	 * Preset dictionary of strings common in XMPP streams. Most frequent strings are placed at the end, as they are
+	 * cheaper to reference. <strong>Do not change</strong> as streams compressed with other version of the dictionary
+	 * would not be decompressed.
+	 */
+	public static final byte[] XMPP_DICTIONARY = ("<?xml version='1.0'?><stream:stream version='1.0' " +
+			"xmlns:stream='http://etherx.jabber.org/streams' xmlns='jabber:client'></stream:stream>" +
+			"xmlns='jabber:server'xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'xmlns='jabber:iq:roster'" +
+			"xmlns='jabber:iq:private'xmlns='vcard-temp'xmlns='urn:xmpp:ping'xmlns='urn:xmpp:delay'" +
+			"xmlns='urn:xmpp:receipts'xmlns='urn:xmpp:sm:3'xmlns='urn:xmpp:carbons:2'xmlns='urn:xmpp:mam:2'" +
+			"xmlns='http://jabber.org/protocol/chatstates'xmlns='http://jabber.org/protocol/muc#user'" +
+			"xmlns='http://jabber.org/protocol/disco#items'xmlns='http://jabber.org/protocol/disco#info'" +
+			"xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='' ver=''<c <x <query <item jid='' " +
+			"subscription='both' name=''<group></group></item><error type='cancel'><feature-not-implemented " +
+			"<service-unavailable <item-not-found <show>away</show><status></status><priority></priority>" +
+			"<cluster xmlns='tigase:cluster'<control><visited-nodes><node-id></node-id></visited-nodes>" +
+			"<method-call name=''><par name=''></par></method-call><first-node></first-node></control><data>" +
+			"</data></cluster><presence type='unavailable'</presence><iq type='result'type='get'type='set'" +
+			"</iq><message type='chat'<body></body></message> id='' to='' from=''").getBytes(
+			StandardCharsets.UTF_8);
+
+	/**
+	 * Approximate size of native memory used by a <code>Deflater</code> (window and hash tables of zlib with default
+	 * window bits and memory level).
+	 */
+	private static final int DEFLATER_MEMORY = (1 << 17) + (1 << 17);
+	/**
+	 * Approximate size of native memory used by an <code>Inflater</code>.
+	 */
+	private static final int INFLATER_MEMORY = (1 << 15) + 7 * 1024;
+	private static final int MIN_BUFFER_SIZE = 8 * 1024;
+	private static final int XMPP_DICTIONARY_ID = adler32(XMPP_DICTIONARY);
+
+	private static final ThreadLocal<byte[]> deflateBuffers = new ThreadLocal<>();
+	private static final ThreadLocal<byte[]> inflateBuffers = new ThreadLocal<>();
+
+	private final Object deflateLock = new Object();
+	private final Object inflateLock = new Object();
+	private final int level;
+	private final Statistics statistics;
+	private final boolean useDictionary;
+	private long compressedIn = 0;
+	private long compressedOut = 0;
+	private long decompressedIn = 0;
+	private long decompressedOut = 0;
+	private Deflater deflater = null;
+	private boolean ended = false;
+	private Inflater inflater = null;
+	private IOListener listener = null;
+
+	/**
+	 * @param level compression level
+	 * @param useDictionary compress data with {@link #XMPP_DICTIONARY}
+	 * @param statistics statistics updated by this engine or <code>null</code>
+	 */
+	public ZLibEngine(int level, boolean useDictionary, Statistics statistics) {
+		this.level = level;
+		this.useDictionary = useDictionary;
+		this.statistics = statistics;
+	}
+
+	public double averageCompressionRate() {
+		synchronized (deflateLock) {
+			return compressedIn == 0 ? 0 : (double) compressedOut / compressedIn;
+		}
+	}
+
+	public double averageDecompressionRate() {
+		synchronized (inflateLock) {
+			return decompressedOut == 0 ? 0 : (double) decompressedIn / decompressedOut;
+		}
+	}
+
+	/**
+	 * Compresses all remaining data of the buffer and flushes the stream.
+	 *
+	 * @return new buffer with compressed data
+	 */
+	public ByteBuffer compress(ByteBuffer input) throws IOException {
+		synchronized (deflateLock) {
+			if (ended) {
+				throw new IOException("ZLib stream already ended");
+			}
+			if (deflater == null) {
+				deflater = new Deflater(level);
+				if (useDictionary) {
+					deflater.setDictionary(XMPP_DICTIONARY);
+				}
+				if (statistics != null) {
+					statistics.deflaterCreated();
+				}
+			}
+
+			int length = input.remaining();
+			setInput(deflater, input);
+
+			byte[] out = buffer(deflateBuffers, length + (length >> 3) + 64);
+			int total = 0;
+			while (true) {
+				total += deflater.deflate(out, total, out.length - total, Deflater.SYNC_FLUSH);
+				if (total < out.length) {
+					break;
+				}
+				out = grow(deflateBuffers, out);
+			}
+
+			compressedIn += length;
+			compressedOut += total;
+			if (statistics != null) {
+				statistics.compressed(length, total);
+			}
+
+			return ByteBuffer.wrap(Arrays.copyOf(out, total));
+		}
+	}
+
+	/**
+	 * Decompresses all remaining data of the buffer. Returned buffer is shared by all streams processed by the current
+	 * thread, so it has to be consumed before next data is decompressed by this thread.
+	 *
+	 * @return buffer with decompressed data
+	 */
+	public ByteBuffer decompress(ByteBuffer input) throws IOException {
+		synchronized (inflateLock) {
+			if (ended) {
+				throw new IOException("ZLib stream already ended");
+			}
+			if (inflater == null) {
+				inflater = new Inflater();
+				if (statistics != null) {
+					statistics.inflaterCreated();
+				}
+			}
+
+			int length = input.remaining();
+			setInput(inflater, input);
+
+			byte[] out = buffer(inflateBuffers, length * 4);
+			int total = 0;
+			try {
+				while (true) {
+					total += inflater.inflate(out, total, out.length - total);
+					if (inflater.needsDictionary()) {
+						if (inflater.getAdler() != XMPP_DICTIONARY_ID) {
+							throw new IOException("Unknown zlib dictionary: " + inflater.getAdler());
+						}
+						inflater.setDictionary(XMPP_DICTIONARY);
+						continue;
+					}
+					if (total == out.length) {
+						if (listener != null && !listener.checkBufferLimit(total * 2)) {
+							throw new IOException("Decompressed data size limit exceeded");
+						}
+						out = grow(inflateBuffers, out);
+						continue;
+					}
+					// output buffer was not filled, so all available input was processed
+					break;
+				}
+			} catch (DataFormatException ex) {
+				throw new IOException("Invalid compressed data", ex);
+			}
+
+			decompressedIn += length;
+			decompressedOut += total;
+			if (statistics != null) {
+				statistics.decompressed(length, total);
+			}
+
+			return ByteBuffer.wrap(out, 0, total);
+		}
+	}
+
+	/**
+	 * Frees native resources of the stream.
+	 */
+	public void end() {
+		synchronized (deflateLock) {
+			synchronized (inflateLock) {
+				if (ended) {
+					return;
+				}
+				ended = true;
+				if (deflater != null) {
+					deflater.end();
+					deflater = null;
+					if (statistics != null) {
+						statistics.deflaterEnded();
+					}
+				}
+				if (inflater != null) {
+					inflater.end();
+					inflater = null;
+					if (statistics != null) {
+						statistics.inflaterEnded();
+					}
+				}
+			}
+		}
+	}
+
+	public void setIOListener(IOListener listener) {
+		this.listener = listener;
+	}
+
+	private static int adler32(byte[] data) {
+		Adler32 adler = new Adler32();
+		adler.update(data, 0, data.length);
+		return (int) adler.getValue();
+	}
+
+	private static byte[] buffer(ThreadLocal<byte[]> buffers, int size) {
+		byte[] buf = buffers.get();
+		if (buf == null || buf.length < size) {
+			buf = new byte[Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(Math.max(1, size - 1)) << 1)];
+			buffers.set(buf);
+		}
+		return buf;
+	}
+
+	private static byte[] grow(ThreadLocal<byte[]> buffers, byte[] buf) {
+		byte[] bigger = Arrays.copyOf(buf, buf.length * 2);
+		buffers.set(bigger);
+		return bigger;
+	}
+
+	private static void setInput(Deflater deflater, ByteBuffer input) {
+		if (input.hasArray()) {
+			deflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+			input.position(input.limit());
+		} else {
+			byte[] data = new byte[input.remaining()];
+			input.get(data);
+			deflater.setInput(data);
+		}
+	}
+
+	private static void setInput(Inflater inflater, ByteBuffer input) {
+		if (input.hasArray()) {
+			inflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+			input.position(input.limit());
+		} else {
+			byte[] data = new byte[input.remaining()];
+			input.get(data);
+			inflater.setInput(data);
+		}
+	}
+
+	/**
+	 * Statistics of zlib streams of a single connection manager.
+	 */
+	public static class Statistics {
+
+		private final LongAdder compressedIn = new LongAdder();
+		private final LongAdder compressedOut = new LongAdder();
+		private final LongAdder decompressedIn = new LongAdder();
+		private final LongAdder decompressedOut = new LongAdder();
+		private final AtomicInteger deflaters = new AtomicInteger();
+		private final AtomicInteger inflaters = new AtomicInteger();
+
+		public void getStatistics(String compName, StatisticsList list) {
+			int deflaters = this.deflaters.get();
+			int inflaters = this.inflaters.get();
+			long compressedIn = this.compressedIn.sum();
+			long decompressedOut = this.decompressedOut.sum();
+
+			list.add(compName, "ZLib deflaters", deflaters, Level.FINE);
+			list.add(compName, "ZLib inflaters", inflaters, Level.FINE);
+			list.add(compName, "ZLib native memory [KB]",
+					 ((long) deflaters * DEFLATER_MEMORY + (long) inflaters * INFLATER_MEMORY) / 1024, Level.FINE);
+			list.add(compName, "ZLib compression ratio",
+					 compressedIn == 0 ? 0 : (double) compressedOut.sum() / compressedIn, Level.FINE);
+			list.add(compName, "ZLib decompression ratio",
+					 decompressedOut == 0 ? 0 : (double) decompressedIn.sum() / decompressedOut, Level.FINE);
+			list.add(compName, "ZLib bytes compressed", compressedIn, Level.FINER);
+			list.add(compName, "ZLib bytes decompressed", decompressedOut, Level.FINER);
+		}
+
+		public boolean isUsed() {
+			return compressedIn.sum() > 0 || decompressedIn.sum() > 0 || deflaters.get() > 0 || inflaters.get() > 0;
+		}
+
+		void compressed(long in, long out) {
+			compressedIn.add(in);
+			compressedOut.add(out);
+		}
+
+		void decompressed(long in, long out) {
+			decompressedIn.add(in);
+			decompressedOut.add(out);
+		}
+
+		void deflaterCreated() {
+			deflaters.incrementAndGet();
+		}
+
+		void deflaterEnded() {
+			deflaters.decrementAndGet();
+		}
+
+		void inflaterCreated() {
+			inflaters.incrementAndGet();
+		}
+
+		void inflaterEnded() {
+			inflaters.decrementAndGet();
+		}
+	}
+}
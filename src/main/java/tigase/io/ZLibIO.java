@@ -19,7 +19,6 @@ package tigase.io;
 
 import tigase.stats.StatisticsList;
 import tigase.util.IOListener;
-import tigase.util.ZLibWrapper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -40,11 +39,19 @@ public class ZLibIO
 	private static Logger log = Logger.getLogger(ZLibIO.class.getName());
 
 	private IOInterface io = null;
-	private ZLibWrapper zlib = null;
+	private ZLibEngine zlib = null;
 
 	public ZLibIO(final IOInterface ioi, final int level) {
+		this(ioi, level, false, null);
+	}
+
+	/**
+	 * @param useDictionary compress data with preset XMPP dictionary, which needs to be supported by the other side
+	 * @param statistics statistics of zlib streams or <code>null</code>
+	 */
+	public ZLibIO(final IOInterface ioi, final int level, boolean useDictionary, ZLibEngine.Statistics statistics) {
 		this.io = ioi;
-		zlib = new ZLibWrapper();
+		zlib = new ZLibEngine(level, useDictionary, statistics);
 	}
 
 	@Override
@@ -130,7 +137,6 @@ public class ZLibIO
 			// used again.
 			tmpBuffer.clear();
 
-			// System.out.println("Decompression rate: " + zlib.lastDecompressionRate());
 			return decompressed_buff;
 		}
 
@@ -165,7 +171,7 @@ public class ZLibIO
 	@Override
 	public int write(ByteBuffer buff) throws IOException {
 		if (buff == null) {
-			return io.write(null);
+			return io.write((ByteBuffer) null);
 		}
 
 		if (log.isLoggable(Level.FINER)) {
@@ -174,7 +180,6 @@ public class ZLibIO
 
 		ByteBuffer compressed_buff = zlib.compress(buff);
 
-		// System.out.println("Compression rate: " + zlib.lastCompressionRate());
 		return io.write(compressed_buff);
 	}
 
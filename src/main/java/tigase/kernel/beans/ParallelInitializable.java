@@ -0,0 +1,31 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.kernel.beans;
+
+/**
+ * If bean implements this interface and Kernel initializes beans in parallel (see {@link
+ * tigase.kernel.core.Kernel#initAll(java.util.concurrent.ForkJoinPool)}), then method {@link #initialize()} may be
+ * called from other thread and at the same time as initialization of other beans which do not depend on this bean.
+ * <br>
+ * Method is called after all beans on which this bean depends are initialized, but it must not register or unregister
+ * beans, nor retrieve them from the Kernel.
+ */
+public interface ParallelInitializable
+		extends Initializable {
+
+}
@@ -563,7 +563,7 @@ public abstract class AbstractBeanConfigurator
 					}
 				}
 
-				if (!tigase.util.reflection.ClassUtilBean.getInstance().getAllClasses().contains(clazz)) {
+				if (!tigase.util.reflection.ClassUtilBean.getInstance().isKnownClass(clazz)) {
 					continue;
 				}
 
@@ -743,12 +743,12 @@ public abstract class AbstractBeanConfigurator
 	}
 
 	protected void refreshConfiguration_removeUndefinedBeans(Kernel kernel) {
-		Set<Class<?>> classes = tigase.util.reflection.ClassUtilBean.getInstance().getAllClasses();
+		tigase.util.reflection.ClassUtilBean classUtil = tigase.util.reflection.ClassUtilBean.getInstance();
 		Set<BeanConfig> toRemove = kernel.getDependencyManager()
 				.getBeanConfigs()
 				.stream()
 				.filter(bc -> bc.getSource() != BeanConfig.Source.hardcoded)
-				.filter(bc -> !classes.contains(bc.getClazz()))
+				.filter(bc -> !classUtil.isKnownClass(bc.getClazz()))
 				.filter(bc -> {
 					String name = bc.getClazz().getCanonicalName();
 					return (!name.startsWith("java.")) && (!name.startsWith("javax.")) &&
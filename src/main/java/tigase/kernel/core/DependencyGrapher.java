@@ -19,7 +19,7 @@ package tigase.kernel.core;
 
 import tigase.kernel.core.Kernel.DelegatedBeanConfig;
 
-import java.util.HashSet;
+import java.util.*;
 
 /**
  * Creates graph of beans dependency in <a href="www.graphviz.org">Graphviz</a> format.
@@ -59,6 +59,58 @@ public class DependencyGrapher {
 		return sb.toString();
 	}
 
+	/**
+	 * Returns beans registered in the kernel grouped in layers. Beans in a layer depend only on beans from previous
+	 * layers, so beans from the same layer may be initialized independently. Beans with cyclic dependencies are
+	 * placed in separate layers, each with a single bean.
+	 *
+	 * @return list of layers.
+	 */
+	public List<List<BeanConfig>> getDependencyLayers() {
+		final DependencyManager dependencyManager = kernel.getDependencyManager();
+		Map<BeanConfig, Set<BeanConfig>> dependencies = new LinkedHashMap<>();
+		for (BeanConfig bc : dependencyManager.getBeanConfigs()) {
+			dependencies.put(bc, new HashSet<>());
+		}
+		for (Map.Entry<BeanConfig, Set<BeanConfig>> e : dependencies.entrySet()) {
+			BeanConfig bc = e.getKey();
+			if (bc.getFactory() != null && dependencies.containsKey(bc.getFactory())) {
+				e.getValue().add(bc.getFactory());
+			}
+			for (Dependency dp : bc.getFieldDependencies().values()) {
+				for (BeanConfig dBean : dependencyManager.getBeanConfig(dp)) {
+					if (dBean != null && dBean != bc && dependencies.containsKey(dBean)) {
+						e.getValue().add(dBean);
+					}
+				}
+			}
+		}
+
+		List<List<BeanConfig>> layers = new ArrayList<>();
+		Set<BeanConfig> done = new HashSet<>();
+		while (!dependencies.isEmpty()) {
+			List<BeanConfig> layer = new ArrayList<>();
+			for (Map.Entry<BeanConfig, Set<BeanConfig>> e : dependencies.entrySet()) {
+				if (done.containsAll(e.getValue())) {
+					layer.add(e.getKey());
+				}
+			}
+			if (layer.isEmpty()) {
+				// remaining beans have cyclic dependencies
+				for (BeanConfig bc : dependencies.keySet()) {
+					layers.add(Collections.singletonList(bc));
+				}
+				break;
+			}
+			for (BeanConfig bc : layer) {
+				dependencies.remove(bc);
+			}
+			done.addAll(layer);
+			layers.add(layer);
+		}
+		return layers;
+	}
+
 	public Kernel getKernel() {
 		return kernel;
 	}
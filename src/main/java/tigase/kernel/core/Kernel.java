@@ -29,6 +29,10 @@ import tigase.util.reflection.ReflectionHelper;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -58,9 +62,21 @@ public class Kernel {
 	private Kernel parent;
 	private Map<String, Link> registeredLinks = new HashMap<>();
 	private boolean shutdown = false;
+	private final Set<BeanConfig> postponedInitializations = ConcurrentHashMap.newKeySet();
+	private final StartupProfile startupProfile = new StartupProfile();
 	
 	protected void initBean(BeanConfig tmpBC, Set<BeanConfig> createdBeansConfig, int deep)
 			throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, InstantiationException {
+		initBean(tmpBC, createdBeansConfig, deep, false);
+	}
+
+	/**
+	 * Initializes bean. If <code>parallel</code> is set, then initialization of bean implementing {@link
+	 * ParallelInitializable} is postponed and its state is set to {@link State#initialized} only after it is
+	 * initialized by {@link #initAll(ForkJoinPool)} or when it is needed by other bean.
+	 */
+	private void initBean(BeanConfig tmpBC, Set<BeanConfig> createdBeansConfig, int deep, boolean parallel)
+			throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, InstantiationException {
 		final BeanConfig beanConfig = tmpBC instanceof DelegatedBeanConfig
 									  ? ((DelegatedBeanConfig) tmpBC).original
 									  : tmpBC;
@@ -70,11 +86,13 @@ public class Kernel {
 					new Object[]{tmpBC.getBeanName(), tmpBC, createdBeansConfig.size(), deep});
 		}
 
-		if (beanConfig.getState() == State.initialized) {
+		if (beanConfig.getState() == State.initialized || initializePostponed(beanConfig)) {
 			return;
 		}
 
 		DelayedDependencyInjectionQueue queue = beanConfig.getKernel().beginDependencyDelayedInjection();
+		StartupProfile startupProfile = beanConfig.getKernel().getStartupProfile();
+		startupProfile.started();
 
 		try {
 			Object bean;
@@ -133,6 +151,10 @@ public class Kernel {
 
 			// there is no need to wait to initialize parent beans, it there any?
 			if (bean instanceof Initializable && beanConfig.getState() != State.initialized) {
+				if (parallel && bean instanceof ParallelInitializable) {
+					beanConfig.getKernel().postponedInitializations.add(beanConfig);
+					return;
+				}
 				((Initializable) bean).initialize();
 			}
 		} catch (Throwable ex) {
@@ -153,6 +175,8 @@ public class Kernel {
 				beanConfig.setState(State.registered);
 			}
 			throw ex;
+		} finally {
+			startupProfile.finished(beanConfig);
 		}
 		tmpBC.setState(State.initialized);
 //		if (deep == 0) {
@@ -424,6 +448,51 @@ public class Kernel {
 		}
 	}
 
+	/**
+	 * Forces initiate all registered beans, initializing independent beans in parallel.
+	 * <br>
+	 * Beans are grouped in layers by {@link DependencyGrapher#getDependencyLayers()} and processed layer by layer.
+	 * Beans are created, configured and injected by the calling thread, but initialization of beans implementing
+	 * {@link ParallelInitializable} is executed using passed pool. All initializations of a layer need to be completed
+	 * before next layer is processed.
+	 *
+	 * @param pool pool used to initialize beans.
+	 */
+	public void initAll(ForkJoinPool pool) {
+		try {
+			for (List<BeanConfig> layer : new DependencyGrapher(this).getDependencyLayers()) {
+				for (BeanConfig bc : layer) {
+					if (bc.getState() != State.initialized && bc.getState() != State.inactive) {
+						initBean(bc, new HashSet<BeanConfig>(), 0, true);
+					}
+				}
+				List<ForkJoinTask<?>> tasks = new ArrayList<>();
+				for (BeanConfig bc : layer) {
+					final BeanConfig beanConfig = bc instanceof DelegatedBeanConfig
+												  ? ((DelegatedBeanConfig) bc).original
+												  : bc;
+					if (beanConfig.getKernel().postponedInitializations.contains(beanConfig)) {
+						tasks.add(pool.submit(() -> initializePostponed(beanConfig)));
+					}
+				}
+				for (ForkJoinTask<?> task : tasks) {
+					task.get();
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new KernelException("Can''t initialize all beans", e.getCause());
+		} catch (Exception e) {
+			throw new KernelException("Can''t initialize all beans", e);
+		}
+	}
+
+	/**
+	 * Returns profile of initialization of beans in this Kernel and Kernels of its beans.
+	 */
+	public StartupProfile getStartupProfile() {
+		return parent == null ? startupProfile : parent.getStartupProfile();
+	}
+
 	/**
 	 * Checks if bean with given name is registered in Kernel.
 	 *
@@ -1136,6 +1205,25 @@ public class Kernel {
 		}
 	}
 
+	/**
+	 * Initializes bean if its initialization was postponed.
+	 *
+	 * @return <code>true</code> if bean was initialized.
+	 */
+	private boolean initializePostponed(BeanConfig beanConfig) {
+		// only one thread will remove bean from the set
+		if (!beanConfig.getKernel().postponedInitializations.remove(beanConfig)) {
+			return false;
+		}
+		long start = System.nanoTime();
+		Initializable bean = beanConfig.getKernel().getInstance(beanConfig);
+		bean.initialize();
+		long time = System.nanoTime() - start;
+		beanConfig.getKernel().getStartupProfile().record(beanConfig, time, time);
+		beanConfig.setState(State.initialized);
+		return true;
+	}
+
 	private void fireUnregisterAware(Object i) {
 		if (i != null && i instanceof UnregisterAware) {
 			try {
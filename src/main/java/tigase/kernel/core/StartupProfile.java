@@ -0,0 +1,152 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.kernel.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects time spent on initialization of beans, so it is possible to find beans which are slowing down startup of
+ * the server.
+ * <br>
+ * For each bean total time of its initialization is recorded and time spent on its own initialization, without time
+ * spent on initialization of beans on which it depends.
+ */
+public class StartupProfile {
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final ThreadLocal<Deque<long[]>> nested = ThreadLocal.withInitial(ArrayDeque::new);
+
+	/**
+	 * Returns collected entries sorted by time spent on their own initialization, starting from the slowest one.
+	 */
+	public List<Entry> getEntries() {
+		List<Entry> result = new ArrayList<>(entries.values());
+		result.sort(Comparator.comparingLong(Entry::getSelfTime).reversed());
+		return result;
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns profile in a form of a table with up to <code>limit</code> slowest beans.
+	 */
+	public String dump(int limit) {
+		StringBuilder sb = new StringBuilder("Startup profile (bean, self time, total time, thread):");
+		List<Entry> list = getEntries();
+		long total = 0;
+		for (Entry entry : list) {
+			total += entry.getSelfTime();
+		}
+		for (Entry entry : list.subList(0, Math.min(limit, list.size()))) {
+			sb.append('\n').append(entry);
+		}
+		sb.append("\n").append(list.size()).append(" beans initialized in ").append(toMillis(total)).append("ms");
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return dump(Integer.MAX_VALUE);
+	}
+
+	protected void started() {
+		nested.get().push(new long[]{System.nanoTime(), 0});
+	}
+
+	protected void finished(BeanConfig beanConfig) {
+		Deque<long[]> stack = nested.get();
+		long[] times = stack.pop();
+		long total = System.nanoTime() - times[0];
+		if (!stack.isEmpty()) {
+			stack.peek()[1] += total;
+		}
+		record(beanConfig, total, total - times[1]);
+	}
+
+	protected void record(BeanConfig beanConfig, long total, long self) {
+		String name = beanConfig.getKernel().getName() + "." + beanConfig.getBeanName();
+		String thread = Thread.currentThread().getName();
+		entries.merge(name, new Entry(name, beanConfig.getClazz(), total, self, thread),
+					  (oldEntry, newEntry) -> oldEntry.getClazz() == newEntry.getClazz()
+											  ? new Entry(name, oldEntry.getClazz(),
+														  oldEntry.getTotalTime() + newEntry.getTotalTime(),
+														  oldEntry.getSelfTime() + newEntry.getSelfTime(),
+														  oldEntry.getThread().equals(thread)
+														  ? thread
+														  : oldEntry.getThread() + "," + thread)
+											  : newEntry);
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	public static class Entry {
+
+		private final Class<?> clazz;
+		private final String name;
+		private final long selfTime;
+		private final String thread;
+		private final long totalTime;
+
+		public Entry(String name, Class<?> clazz, long totalTime, long selfTime, String thread) {
+			this.name = name;
+			this.clazz = clazz;
+			this.totalTime = totalTime;
+			this.selfTime = selfTime;
+			this.thread = thread;
+		}
+
+		public Class<?> getClazz() {
+			return clazz;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns time in nanoseconds spent on initialization of the bean, without initialization of beans on which
+		 * it depends.
+		 */
+		public long getSelfTime() {
+			return selfTime;
+		}
+
+		public String getThread() {
+			return thread;
+		}
+
+		/**
+		 * Returns time in nanoseconds spent on initialization of the bean.
+		 */
+		public long getTotalTime() {
+			return totalTime;
+		}
+
+		@Override
+		public String toString() {
+			return name + " (" + clazz.getName() + "): " + toMillis(selfTime) + "ms, " + toMillis(totalTime) + "ms, " +
+					thread;
+		}
+	}
+}
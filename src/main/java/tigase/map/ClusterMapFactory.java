@@ -24,19 +24,67 @@ import tigase.eventbus.HandleEvent;
 import tigase.eventbus.impl.EventName;
 import tigase.kernel.DefaultTypesConverter;
 import tigase.kernel.TypesConverter;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.util.dns.DNSResolverFactory;
+import tigase.xml.Element;
+import tigase.xml.XMLUtils;
 
 import java.io.Serializable;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Factory of maps replicated between cluster nodes using the event bus.
+ * <br>
+ * Changes of a map are not sent one by one. Keys changed within a short time (set in milliseconds by the
+ * <code>cluster-map-batch-delay</code> system property) are collected and sent in a single
+ * {@link ElementsChangedEvent} with current values and stamps of entries, so many changes of the same key are sent
+ * only once. Each batch has a sequence number of the node which sent it and every node keeps the last sequence number
+ * received from each node (a version vector of the map). If a batch is missing, or a node changes the map for the
+ * first time, content of the map is verified with the other nodes.
+ * <br>
+ * Verification (also done periodically, every <code>cluster-map-digest-interval</code> seconds) sends digest of the
+ * map, which contains a hash of stamps of entries in each of {@value #DIGEST_BUCKETS} buckets of keys. A node
+ * receiving a digest sends entries only from buckets with a different hash and replies with its own digest, so both
+ * nodes receive newer entries. Conflicting changes are resolved by stamps of entries, so all nodes keep the same value.
+ * <br>
+ * Tombstones of removed entries are needed only until all nodes compare their digests, so they are kept for a few
+ * verification rounds (<code>cluster-map-tombstone-ttl</code> seconds) and their number in each map is limited by
+ * <code>cluster-map-max-tombstones</code>. Both may be set in the configuration of the <code>clusterMapFactory</code>
+ * bean.
+ */
 public class ClusterMapFactory {
 
+	public static final String BATCH_DELAY_PROP_KEY = "cluster-map-batch-delay";
+	public static final String DIGEST_INTERVAL_PROP_KEY = "cluster-map-digest-interval";
+	public static final String MAX_TOMBSTONES_PROP_KEY = "cluster-map-max-tombstones";
+	public static final int MAX_TOMBSTONES_PROP_VAL = 10000;
+	public static final String TOMBSTONE_TTL_PROP_KEY = "cluster-map-tombstone-ttl";
+	public static final long TOMBSTONE_TTL_PROP_VAL = 300;
+
+	private static final long BATCH_DELAY = Long.getLong(BATCH_DELAY_PROP_KEY, 20);
+	private static final int BATCH_SIZE = 500;
+	private static final int DIGEST_BUCKETS = 64;
+	private static final long DIGEST_INTERVAL = Long.getLong(DIGEST_INTERVAL_PROP_KEY, 60);
 	private final static EventName NEWMAP_EVENT_NAME = new EventName(NewMapCreatedEvent.class);
 	private static ClusterMapFactory instance;
+	private static volatile int maxTombstones = MAX_TOMBSTONES_PROP_VAL;
+	private static volatile long tombstoneTtl = TOMBSTONE_TTL_PROP_VAL;
 	private final Logger log = Logger.getLogger(this.getClass().getName());
 	private final ConcurrentHashMap<String, DMap> maps = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "cluster-map-replication");
+		thread.setDaemon(true);
+		return thread;
+	});
 	private final TypesConverter typesConverter = new DefaultTypesConverter();
 	private EventBus eventBus;
 	private final DMap.DMapListener mapListener = new DMap.DMapListener() {
@@ -49,32 +97,20 @@ public class ClusterMapFactory {
 
 		@Override
 		public void onPut(DMap map, Object key, Object value) {
-			ElementAddEvent event = new ElementAddEvent();
-			event.setUid(map.getUid());
-			event.setKey(typesConverter.toString(key));
-			event.setValue(typesConverter.toString(value));
-			eventBus.fire(event);
+			scheduleFlush(map);
 		}
 
 		@Override
 		public void onPutAll(DMap map, Map<?, ?> m) {
-			for (Map.Entry<?, ?> en : m.entrySet()) {
-				ElementAddEvent event = new ElementAddEvent();
-				event.setUid(map.getUid());
-				event.setKey(typesConverter.toString(en.getKey()));
-				event.setValue(typesConverter.toString(en.getValue()));
-				eventBus.fire(event);
-			}
+			scheduleFlush(map);
 		}
 
 		@Override
 		public void onRemove(DMap map, Object key) {
-			ElementRemoveEvent event = new ElementRemoveEvent();
-			event.setUid(map.getUid());
-			event.setKey(typesConverter.toString(key));
-			eventBus.fire(event);
+			scheduleFlush(map);
 		}
 	};
+	private String nodeName;
 
 	public static final ClusterMapFactory get() {
 		if (instance == null) {
@@ -84,8 +120,10 @@ public class ClusterMapFactory {
 	}
 
 	ClusterMapFactory() {
+		this.nodeName = DNSResolverFactory.getInstance().getDefaultHost();
 		this.eventBus = EventBusFactory.getInstance();
 		this.eventBus.registerAll(this);
+		this.scheduler.scheduleWithFixedDelay(this::verifyMaps, DIGEST_INTERVAL, DIGEST_INTERVAL, TimeUnit.SECONDS);
 	}
 
 	public <K, V> Map<K, V> createMap(final String uid, final Class<K> keyClass, final Class<V> valueClass,
@@ -98,7 +136,15 @@ public class ClusterMapFactory {
 		event.setParams(params);
 		eventBus.fire(event);
 
-		DMap<K, V> map = maps.computeIfAbsent(uid, (u) -> new DMap<K, V>(uid, this.mapListener, keyClass, valueClass));
+		boolean[] created = new boolean[]{false};
+		DMap<K, V> map = maps.computeIfAbsent(uid, (u) -> {
+			created[0] = true;
+			return new DMap<K, V>(uid, nodeName, this.mapListener, keyClass, valueClass);
+		});
+		if (created[0]) {
+			// map could be already used on other nodes
+			scheduleDigest(map);
+		}
 
 		return map;
 	}
@@ -135,6 +181,170 @@ public class ClusterMapFactory {
 		return this.maps.get(uid);
 	}
 
+	void setNodeName(String nodeName) {
+		this.nodeName = nodeName;
+	}
+
+	long[] computeDigest(DMap<?, ?> map) {
+		long[] digest = new long[DIGEST_BUCKETS];
+		for (Map.Entry<?, DMap.Stamp> e : map.stamps.entrySet()) {
+			String key = typesConverter.toString(e.getKey());
+			DMap.Stamp stamp = e.getValue();
+			long hash = key.hashCode();
+			hash = hash * 31 + stamp.version;
+			hash = hash * 31 + (stamp.node == null ? 0 : stamp.node.hashCode());
+			hash = hash * 31 + (stamp.removed ? 1 : 0);
+			// spreading bits, as digest is a sum of hashes
+			hash ^= hash >>> 33;
+			hash *= 0xff51afd7ed558ccdL;
+			hash ^= hash >>> 33;
+			digest[bucket(key)] += hash;
+		}
+		return digest;
+	}
+
+	void flush(DMap<?, ?> map) {
+		map.flushScheduled.set(false);
+		Element changes = new Element("changes");
+		int count = 0;
+		Iterator<?> it = map.changedKeys.iterator();
+		while (it.hasNext()) {
+			Object key = it.next();
+			it.remove();
+			Element item = createItem(map, key);
+			if (item == null) {
+				continue;
+			}
+			changes.addChild(item);
+			if (++count >= BATCH_SIZE) {
+				fireChanges(map, changes);
+				changes = new Element("changes");
+				count = 0;
+			}
+		}
+		if (count > 0) {
+			fireChanges(map, changes);
+		}
+		if (map.tombstones.get() > maxTombstones) {
+			map.purgeTombstones(tombstonesOlderThan(), maxTombstones);
+		}
+	}
+
+	void fireDigest(DMap<?, ?> map, boolean reply) {
+		long[] digest = computeDigest(map);
+		StringBuilder sb = new StringBuilder(DIGEST_BUCKETS * 17);
+		for (long hash : digest) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(Long.toHexString(hash));
+		}
+		MapDigestEvent event = new MapDigestEvent();
+		event.setUid(map.getUid());
+		event.setNode(nodeName);
+		event.setDigest(sb.toString());
+		event.setReply(reply);
+		eventBus.fire(event);
+	}
+
+	private int bucket(String key) {
+		return (key.hashCode() & 0x7fffffff) % DIGEST_BUCKETS;
+	}
+
+	private Element createItem(DMap<?, ?> map, Object key) {
+		DMap.Stamp stamp;
+		Object value;
+		synchronized (map.lock(key)) {
+			stamp = map.stamps.get(key);
+			value = map.map.get(key);
+		}
+		if (stamp == null) {
+			return null;
+		}
+		Element item = new Element("item", new String[]{"k", "ver"},
+								   new String[]{XMLUtils.escape(typesConverter.toString(key)),
+												String.valueOf(stamp.version)});
+		if (stamp.node != null) {
+			item.setAttribute("node", XMLUtils.escape(stamp.node));
+		}
+		if (stamp.removed || value == null) {
+			item.setAttribute("removed", "true");
+		} else {
+			item.setAttribute("v", XMLUtils.escape(typesConverter.toString(value)));
+		}
+		return item;
+	}
+
+	private void fireChanges(DMap<?, ?> map, Element changes) {
+		ElementsChangedEvent event = new ElementsChangedEvent();
+		event.setUid(map.getUid());
+		event.setNode(nodeName);
+		event.setSequence(map.sequence.incrementAndGet());
+		event.setChanges(changes);
+		eventBus.fire(event);
+	}
+
+	private void fireEntries(DMap<?, ?> map, Element changes) {
+		MapEntriesEvent event = new MapEntriesEvent();
+		event.setUid(map.getUid());
+		event.setNode(nodeName);
+		event.setChanges(changes);
+		eventBus.fire(event);
+	}
+
+	private void mergeItems(DMap map, Element changes) {
+		List<Element> items = changes == null ? null : changes.getChildren();
+		if (items == null) {
+			return;
+		}
+		int merged = 0;
+		for (Element item : items) {
+			String node = item.getAttributeStaticStr("node");
+			boolean removed = "true".equals(item.getAttributeStaticStr("removed"));
+			DMap.Stamp stamp = new DMap.Stamp(Long.parseLong(item.getAttributeStaticStr("ver")),
+											  node == null ? null : XMLUtils.unescape(node), removed);
+			Object key = typesConverter.convert(XMLUtils.unescape(item.getAttributeStaticStr("k")), map.keyClass);
+			Object value = removed
+						   ? null
+						   : typesConverter.convert(XMLUtils.unescape(item.getAttributeStaticStr("v")),
+													map.valueClass);
+			if (map.merge(key, value, stamp)) {
+				++merged;
+			}
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Merged {0} of {1} entries of map {2}",
+					new Object[]{merged, items.size(), map.getUid()});
+		}
+	}
+
+	private void scheduleDigest(DMap<?, ?> map) {
+		scheduler.schedule(() -> fireDigest(map, false), BATCH_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	private void scheduleFlush(DMap<?, ?> map) {
+		// flush is never done in the calling thread, as DMap calls listener while holding a lock of the key
+		if (map.flushScheduled.compareAndSet(false, true)) {
+			scheduler.schedule(() -> flush(map), BATCH_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private long tombstonesOlderThan() {
+		return System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(tombstoneTtl);
+	}
+
+	private void verifyMaps() {
+		long olderThan = tombstonesOlderThan();
+		for (DMap<?, ?> map : maps.values()) {
+			try {
+				map.purgeTombstones(olderThan, maxTombstones);
+				fireDigest(map, false);
+			} catch (Exception ex) {
+				log.log(Level.WARNING, "Could not verify map " + map.getUid(), ex);
+			}
+		}
+	}
+
 	@HandleEvent(filter = HandleEvent.Type.remote)
 	void onMapClear(MapClearEvent event) {
 		final String uid = event.getUid();
@@ -146,6 +356,86 @@ public class ClusterMapFactory {
 		map.clearNoEvent();
 	}
 
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onMapDigest(MapDigestEvent event) {
+		final DMap map = this.maps.get(event.getUid());
+		if (map == null) {
+			log.log(Level.FINE, "No map '" + event.getUid() + "' created on this node! Ignoring MapDigest event.");
+			return;
+		}
+
+		String[] remote = event.getDigest() == null ? new String[0] : event.getDigest().split(",");
+		long[] local = computeDigest(map);
+		BitSet differentBuckets = new BitSet(DIGEST_BUCKETS);
+		for (int i = 0; i < DIGEST_BUCKETS; i++) {
+			if (i >= remote.length || local[i] != Long.parseUnsignedLong(remote[i], 16)) {
+				differentBuckets.set(i);
+			}
+		}
+		if (differentBuckets.isEmpty()) {
+			return;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Map {0} differs from node {1} in buckets {2}",
+					new Object[]{map.getUid(), event.getNode(), differentBuckets});
+		}
+
+		Element changes = new Element("changes");
+		int count = 0;
+		for (Object key : map.stamps.keySet()) {
+			if (!differentBuckets.get(bucket(typesConverter.toString(key)))) {
+				continue;
+			}
+			Element item = createItem(map, key);
+			if (item != null) {
+				changes.addChild(item);
+				if (++count >= BATCH_SIZE) {
+					fireEntries(map, changes);
+					changes = new Element("changes");
+					count = 0;
+				}
+			}
+		}
+		if (count > 0) {
+			fireEntries(map, changes);
+		}
+		if (!event.isReply()) {
+			// node which sent digest may also have newer entries
+			fireDigest(map, true);
+		}
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onMapElementsChanged(ElementsChangedEvent event) {
+		final DMap map = this.maps.get(event.getUid());
+		if (map == null) {
+			log.log(Level.FINE,
+					"No map '" + event.getUid() + "' created on this node! Ignoring ElementsChanged event.");
+			return;
+		}
+
+		Long last = (Long) map.versionVector.put(event.getNode(), event.getSequence());
+		if (last == null || event.getSequence() != last + 1) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Received changes {0} of map {1} from node {2}, last received {3}",
+						new Object[]{event.getSequence(), map.getUid(), event.getNode(), last});
+			}
+			// changes were missed or node joined the cluster
+			scheduleDigest(map);
+		}
+		mergeItems(map, event.getChanges());
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onMapEntries(MapEntriesEvent event) {
+		final DMap map = this.maps.get(event.getUid());
+		if (map == null) {
+			log.log(Level.FINE, "No map '" + event.getUid() + "' created on this node! Ignoring MapEntries event.");
+			return;
+		}
+		mergeItems(map, event.getChanges());
+	}
+
 	@HandleEvent(filter = HandleEvent.Type.remote)
 	void onMapDestroyed(MapDestroyEvent event) {
 		final String uid = event.getUid();
@@ -198,12 +488,35 @@ public class ClusterMapFactory {
 
 			String[] parameters = event.getParams();
 
-			DMap map = new DMap(uid, mapListener, keyClass, valueClass);
+			DMap map = new DMap(uid, nodeName, mapListener, keyClass, valueClass);
 			maps.put(uid, map);
 			fireOnMapCreated(map, uid, parameters);
+			scheduleDigest(map);
 		} else {
-			DMap map = this.maps.get(uid);
-			mapListener.onPutAll(map, map);
+			// sending digest instead of whole map, new node will request only missing entries
+			scheduleDigest(this.maps.get(uid));
+		}
+	}
+
+	/**
+	 * Bean setting configuration of maps replicated between cluster nodes.
+	 */
+	@tigase.kernel.beans.Bean(name = "clusterMapFactory", exportable = true, active = true)
+	public static class Bean {
+
+		@ConfigField(desc = "Max number of tombstones kept in each map", alias = MAX_TOMBSTONES_PROP_KEY)
+		private int maxTombstones = MAX_TOMBSTONES_PROP_VAL;
+		@ConfigField(desc = "Time in seconds for which tombstones are kept", alias = TOMBSTONE_TTL_PROP_KEY)
+		private long tombstoneTtl = TOMBSTONE_TTL_PROP_VAL;
+
+		public void setMaxTombstones(int maxTombstones) {
+			this.maxTombstones = maxTombstones;
+			ClusterMapFactory.maxTombstones = maxTombstones;
+		}
+
+		public void setTombstoneTtl(long tombstoneTtl) {
+			this.tombstoneTtl = tombstoneTtl;
+			ClusterMapFactory.tombstoneTtl = tombstoneTtl;
 		}
 	}
 
@@ -239,6 +552,50 @@ public class ClusterMapFactory {
 		}
 	}
 
+	/**
+	 * Batch of changes of a map made on a single node.
+	 */
+	public static class ElementsChangedEvent
+			implements Serializable, EventBusEvent {
+
+		private Element changes;
+		private String node;
+		private long sequence;
+		private String uid;
+
+		public Element getChanges() {
+			return changes;
+		}
+
+		public void setChanges(Element changes) {
+			this.changes = changes;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public void setSequence(long sequence) {
+			this.sequence = sequence;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+	}
+
 	public static class ElementRemoveEvent
 			implements Serializable, EventBusEvent {
 
@@ -276,6 +633,85 @@ public class ClusterMapFactory {
 		}
 	}
 
+	/**
+	 * Hashes of stamps of entries of a map in each bucket of keys.
+	 */
+	public static class MapDigestEvent
+			implements Serializable, EventBusEvent {
+
+		private String digest;
+		private String node;
+		private boolean reply;
+		private String uid;
+
+		public String getDigest() {
+			return digest;
+		}
+
+		public void setDigest(String digest) {
+			this.digest = digest;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+
+		public boolean isReply() {
+			return reply;
+		}
+
+		public void setReply(boolean reply) {
+			this.reply = reply;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+	}
+
+	/**
+	 * Entries of a map sent to repair differences found by comparison of digests.
+	 */
+	public static class MapEntriesEvent
+			implements Serializable, EventBusEvent {
+
+		private Element changes;
+		private String node;
+		private String uid;
+
+		public Element getChanges() {
+			return changes;
+		}
+
+		public void setChanges(Element changes) {
+			this.changes = changes;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+	}
+
 	public static class MapDestroyEvent
 			implements Serializable, EventBusEvent {
 
@@ -17,35 +17,66 @@
  */
 package tigase.map;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Map replicated between cluster nodes by {@link ClusterMapFactory}.
+ * <br>
+ * Each change of an entry is stamped with a version from a Lamport clock of this map and the name of the node which
+ * made the change. Stamps of removed entries are kept as tombstones for a limited time and up to a limited number of
+ * tombstones. Stamps allow nodes to resolve
+ * conflicting changes in the same way (newer stamp wins) and to compare content of the map with other nodes.
+ */
 class DMap<K, V>
 		implements Map<K, V> {
 
+	private static final int LOCKS = 32;
+
+	final Set<K> changedKeys = ConcurrentHashMap.newKeySet();
+	final AtomicLong clock = new AtomicLong();
+	final AtomicBoolean flushScheduled = new AtomicBoolean();
 	final Class<K> keyClass;
 	final DMapListener listener;
 	final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<K, V>();
+	final String node;
+	final AtomicLong sequence = new AtomicLong();
+	final ConcurrentHashMap<K, Stamp> stamps = new ConcurrentHashMap<>();
+	final AtomicInteger tombstones = new AtomicInteger();
 	final String uid;
 	final Class<V> valueClass;
+	final ConcurrentHashMap<String, Long> versionVector = new ConcurrentHashMap<>();
+	private final Object[] locks = new Object[LOCKS];
 
 	public DMap(String uid, DMapListener listener, final Class<K> keyClass, final Class<V> valueClass) {
+		this(uid, null, listener, keyClass, valueClass);
+	}
+
+	public DMap(String uid, String node, DMapListener listener, final Class<K> keyClass, final Class<V> valueClass) {
 		this.listener = listener;
 		this.uid = uid;
+		this.node = node;
 		this.keyClass = keyClass;
 		this.valueClass = valueClass;
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
 	}
 
 	@Override
 	public void clear() {
 		this.listener.onClear(this);
-		map.clear();
+		clearNoEvent();
 	}
 
 	public void clearNoEvent() {
 		map.clear();
+		stamps.clear();
+		tombstones.set(0);
+		changedKeys.clear();
 	}
 
 	@Override
@@ -84,28 +115,51 @@ class DMap<K, V>
 
 	@Override
 	public V put(K key, V value) {
-		this.listener.onPut(this, key, value);
-		return map.put(key, value);
+		synchronized (lock(key)) {
+			stamp(key, false);
+			this.listener.onPut(this, key, value);
+			return map.put(key, value);
+		}
 	}
 
 	@Override
 	public void putAll(Map<? extends K, ? extends V> m) {
+		for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+			synchronized (lock(e.getKey())) {
+				stamp(e.getKey(), false);
+				map.put(e.getKey(), e.getValue());
+			}
+		}
 		this.listener.onPutAll(this, m);
-		map.putAll(m);
 	}
 
 	public void putNoEvent(K key, V value) {
-		map.put(key, value);
+		synchronized (lock(key)) {
+			putStamp(key, new Stamp(clock.incrementAndGet(), node, false));
+			map.put(key, value);
+		}
 	}
 
 	@Override
 	public V remove(Object key) {
-		listener.onRemove(this, key);
-		return map.remove(key);
+		synchronized (lock(key)) {
+			V old = map.remove(key);
+			if (old != null) {
+				stamp((K) key, true);
+			}
+			listener.onRemove(this, key);
+			return old;
+		}
 	}
 
 	public V removeNoEvent(Object key) {
-		return map.remove(key);
+		synchronized (lock(key)) {
+			V old = map.remove(key);
+			if (old != null) {
+				putStamp((K) key, new Stamp(clock.incrementAndGet(), node, true));
+			}
+			return old;
+		}
 	}
 
 	@Override
@@ -123,6 +177,80 @@ class DMap<K, V>
 		return new CollectionWrapper<>(map.values());
 	}
 
+	/**
+	 * Applies change made on other node if its stamp is newer than stamp of the local entry.
+	 *
+	 * @return <code>true</code> if change was applied
+	 */
+	boolean merge(K key, V value, Stamp stamp) {
+		synchronized (lock(key)) {
+			Stamp current = stamps.get(key);
+			if (current != null && !stamp.isNewerThan(current)) {
+				return false;
+			}
+			clock.accumulateAndGet(stamp.version, Math::max);
+			putStamp(key, stamp);
+			if (stamp.removed) {
+				map.remove(key);
+			} else {
+				map.put(key, value);
+			}
+			return true;
+		}
+	}
+
+	Object lock(Object key) {
+		return locks[(key == null ? 0 : key.hashCode() & 0x7fffffff) % LOCKS];
+	}
+
+	/**
+	 * Removes tombstones created before passed time. If there are still more than <code>maxTombstones</code>
+	 * tombstones, oldest tombstones are removed until only 3/4 of the limit is left.
+	 */
+	void purgeTombstones(long olderThan, int maxTombstones) {
+		List<Entry<K, Stamp>> remaining = new ArrayList<>();
+		for (Entry<K, Stamp> e : stamps.entrySet()) {
+			Stamp stamp = e.getValue();
+			if (!stamp.removed) {
+				continue;
+			}
+			if (stamp.created < olderThan) {
+				removeTombstone(e.getKey(), stamp);
+			} else {
+				remaining.add(e);
+			}
+		}
+		if (remaining.size() <= maxTombstones) {
+			return;
+		}
+		remaining.sort(Comparator.comparingLong(e -> e.getValue().created));
+		int toRemove = remaining.size() - (maxTombstones * 3 / 4);
+		for (int i = 0; i < toRemove; i++) {
+			removeTombstone(remaining.get(i).getKey(), remaining.get(i).getValue());
+		}
+	}
+
+	private void putStamp(K key, Stamp stamp) {
+		Stamp old = stamps.put(key, stamp);
+		if (old != null && old.removed) {
+			tombstones.decrementAndGet();
+		}
+		if (stamp.removed) {
+			tombstones.incrementAndGet();
+		}
+	}
+
+	private void removeTombstone(K key, Stamp stamp) {
+		if (stamps.remove(key, stamp)) {
+			tombstones.decrementAndGet();
+		}
+	}
+
+	private void stamp(K key, boolean removed) {
+		putStamp(key, new Stamp(clock.incrementAndGet(), node, removed));
+		changedKeys.add(key);
+	}
+
 	interface DMapListener {
 
 		void onClear(DMap map);
@@ -135,4 +263,28 @@ class DMap<K, V>
 
 	}
 
+	static final class Stamp {
+
+		final long created = System.currentTimeMillis();
+		final String node;
+		final boolean removed;
+		final long version;
+
+		Stamp(long version, String node, boolean removed) {
+			this.version = version;
+			this.node = node;
+			this.removed = removed;
+		}
+
+		boolean isNewerThan(Stamp other) {
+			if (version != other.version) {
+				return version > other.version;
+			}
+			if (node == null || other.node == null) {
+				return node != null;
+			}
+			return node.compareTo(other.node) > 0;
+		}
+	}
+
 }
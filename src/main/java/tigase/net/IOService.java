@@ -135,6 +135,7 @@ public abstract class IOService<RefObject>
 	private boolean socketServiceReady = false;
 	private SSLContextContainerIfc sslContextContainer;
 	private boolean stopping = false;
+	private volatile boolean tlsResumeRequested = false;
 	private byte[] tlsUniqueId;
 	private long[] wrData = new long[60];
 
@@ -201,13 +202,18 @@ public abstract class IOService<RefObject>
 		} else {
 			readLock = readInProgress.tryLock();
 			if (readLock) {
+				boolean resume = false;
 				try {
+					tlsResumeRequested = false;
 					processSocketData();
 					if ((receivedPackets() > 0) && (serviceListener != null)) {
 						serviceListener.packetsReady(this);
 					}    // end of if (receivedPackets.size() > 0)
 				} finally {
 					readInProgress.unlock();
+					// handshake tasks completed while we were processing data, but possibly after TLS layer
+					// checked its state, so we need to process this connection once again
+					resume = tlsResumeRequested;
 					if (!isConnected()) {
 						// added to sooner detect disconnection of peer - ie. client
 						if (log.isLoggable(Level.FINEST)) {
@@ -218,6 +224,10 @@ public abstract class IOService<RefObject>
 						forceStop();
 					}
 				}
+				if (resume && isConnected()) {
+					SocketThread.processSocketService(this);
+					return null;
+				}
 			}
 		}
 
@@ -343,6 +353,14 @@ public abstract class IOService<RefObject>
 		serviceListener.tlsHandshakeCompleted(this);
 	}
 
+	@Override
+	public void handshakeTasksCompleted(TLSWrapper wrapper) {
+		// there may be no more data from the peer until we continue the handshake, so the connection is processed
+		// without waiting for the socket to become readable
+		tlsResumeRequested = true;
+		SocketThread.processSocketService(this);
+	}
+
 	public abstract void processWaitingPackets() throws IOException;
 
 	public void startSSL(boolean clientMode, boolean wantClientAuth, boolean needClientAuth) throws IOException {
@@ -435,10 +453,21 @@ public abstract class IOService<RefObject>
 	}
 
 	public void startZLib(int level) {
+		startZLib(level, false, null);
+	}
+
+	/**
+	 * Starts compression of the stream.
+	 *
+	 * @param level compression level
+	 * @param useDictionary compress data with preset XMPP dictionary, needs to be supported by the other side
+	 * @param statistics statistics of zlib streams or <code>null</code>
+	 */
+	public void startZLib(int level, boolean useDictionary, ZLibEngine.Statistics statistics) {
 		if (socketIO.checkCapabilities(ZLibIO.ZLIB_CAPS)) {
 			throw new IllegalStateException("ZLIB mode is already activated.");
 		}
-		socketIO = new ZLibIO(socketIO, level);
+		socketIO = new ZLibIO(socketIO, level, useDictionary, statistics);
 		((ZLibIO) socketIO).setIOListener(this);
 	}
 
@@ -919,7 +948,7 @@ public abstract class IOService<RefObject>
 				empty_read_call_count = 0;
 			} else {
 				if (socketIO.waitingToSend()) {
-					socketIO.write(null);
+					socketIO.write((ByteBuffer) null);
 					setLastTransferTime();
 					empty_read_call_count = 0;
 				}
@@ -934,6 +963,40 @@ public abstract class IOService<RefObject>
 		}
 	}
 
+	/**
+	 * Writes all passed buffers at once, so transport layer may send them with a single write operation (and a
+	 * single TLS record if connection is encrypted).
+	 *
+	 * @param data array of buffers to write
+	 */
+	protected void writeBytes(ByteBuffer[] data) {
+		if (data == null || data.length == 0) {
+			writeBytes((ByteBuffer) null);
+			return;
+		}
+
+		writeInProgress.lock();
+		try {
+			int length = 0;
+			for (ByteBuffer buff : data) {
+				length += buff.remaining();
+			}
+			socketIO.write(data);
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Wrote: {1} in {2} buffers [{0}]", new Object[]{socketIO, length, data.length});
+			}
+			setLastTransferTime();
+			empty_read_call_count = 0;
+		} catch (Exception e) {
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "Data writing exception ["  + socketIO + "] " + e);
+			}
+			forceStop();
+		} finally {
+			writeInProgress.unlock();
+		}
+	}
+
 	protected void writeData(final String data) {
 
 		// Try to lock the data writing method
@@ -994,7 +1057,7 @@ public abstract class IOService<RefObject>
 				empty_read_call_count = 0;
 			} else {
 				if (socketIO.waitingToSend()) {
-					socketIO.write(null);
+					socketIO.write((ByteBuffer) null);
 					setLastTransferTime();
 					empty_read_call_count = 0;
 				}
@@ -18,20 +18,99 @@
 package tigase.net;
 
 import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Cache of direct buffers used for socket reads and writes. Buffers are pooled in power of 2 size classes (from
+ * <code>MIN_POOLED_SIZE</code> up to <code>MAX_POOLED_SIZE</code>), larger buffers are allocated on demand and left
+ * for GC. Number of pooled buffers in each size class may be limited with <code>io-direct-buffers-per-class</code>
+ * system property.
+ *
  * @author andrzej
  */
 public class IOUtil {
 
+	public static final int MAX_POOLED_SIZE = 64 * 1024;
+	public static final int MIN_POOLED_SIZE = 512;
+	private static final int MAX_BUFFERS_PER_CLASS = Integer.getInteger("io-direct-buffers-per-class", 256);
+	private static final AtomicLong allocated = new AtomicLong();
+	private static final AtomicInteger[] pooledCounts;
+	private static final Queue<ByteBuffer>[] pools;
+	private static final AtomicLong reused = new AtomicLong();
+
 	static {
+		int classes = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - Integer.numberOfTrailingZeros(MIN_POOLED_SIZE) + 1;
+		pools = new Queue[classes];
+		pooledCounts = new AtomicInteger[classes];
+		for (int i = 0; i < classes; i++) {
+			pools[i] = new ConcurrentLinkedQueue<>();
+			pooledCounts[i] = new AtomicInteger();
+		}
 	}
 
 	public static ByteBuffer getDirectBuffer(int size) {
-		return ByteBuffer.allocateDirect(size);
+		int idx = sizeClass(size);
+		if (idx < 0) {
+			allocated.incrementAndGet();
+			return ByteBuffer.allocateDirect(size);
+		}
+		ByteBuffer buf = pools[idx].poll();
+		if (buf == null) {
+			allocated.incrementAndGet();
+			buf = ByteBuffer.allocateDirect(MIN_POOLED_SIZE << idx);
+		} else {
+			pooledCounts[idx].decrementAndGet();
+			reused.incrementAndGet();
+			buf.clear();
+		}
+		buf.limit(size);
+		return buf;
 	}
 
 	public static void returnDirectBuffer(ByteBuffer buf) {
+		if (buf == null || !buf.isDirect()) {
+			return;
+		}
+		int capacity = buf.capacity();
+		int idx = sizeClass(capacity);
+		if (idx < 0 || (MIN_POOLED_SIZE << idx) != capacity) {
+			return;
+		}
+		if (pooledCounts[idx].incrementAndGet() > MAX_BUFFERS_PER_CLASS) {
+			pooledCounts[idx].decrementAndGet();
+			return;
+		}
+		pools[idx].offer(buf);
+	}
+
+	public static long getAllocatedBuffers() {
+		return allocated.get();
+	}
+
+	public static long getReusedBuffers() {
+		return reused.get();
+	}
+
+	public static int getPooledBuffers() {
+		int result = 0;
+		for (AtomicInteger count : pooledCounts) {
+			result += count.get();
+		}
+		return result;
+	}
+
+	private static int sizeClass(int size) {
+		if (size > MAX_POOLED_SIZE) {
+			return -1;
+		}
+		if (size <= MIN_POOLED_SIZE) {
+			return 0;
+		}
+		int rounded = Integer.highestOneBit(size - 1) << 1;
+		return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
 	}
 
 }
@@ -126,6 +126,14 @@ public class SocketThread
 	}
 
 
+	/**
+	 * Schedules processing of the service without waiting for its socket to become ready, ie. when TLS handshake may be
+	 * continued.
+	 */
+	public static void processSocketService(IOService<?> s) {
+		socketReadThread[s.hashCode() % socketReadThread.length].processSocketServicePriv(s);
+	}
+
 	public static void removeSocketService(IOService<Object> s) {
 		s.setSocketServiceReady(false);
 		socketReadThread[s.hashCode() % socketReadThread.length].removeSocketServicePriv(s);
@@ -161,6 +169,20 @@ public class SocketThread
 		// wakeupHelper.wakeup();
 	}
 
+	public void processSocketServicePriv(IOService<?> s) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Adding for processing: {0}", s);
+		}
+
+		// service will be registered with the selector again once processing is completed
+		SelectionKey key = s.getSocketChannel().keyFor(clientsSel);
+		if ((key != null) && (key.attachment() == s)) {
+			key.cancel();
+		}
+		forCompletion.add(s);
+		clientsSel.wakeup();
+	}
+
 	public void removeSocketServicePriv(IOService<?> s) {
 		waiting.remove(s);
 
@@ -184,7 +206,7 @@ public class SocketThread
 				Set<SelectionKey> selected = clientsSel.selectedKeys();
 				int selectedKeys = selected.size();
 
-				if ((selectedKeys == 0) && (waiting.size() == 0)) {
+				if ((selectedKeys == 0) && (waiting.size() == 0) && forCompletion.isEmpty()) {
 					if (log.isLoggable(Level.FINEST)) {
 						log.finest("Selected keys = 0!!! a bug again?");
 					}
@@ -0,0 +1,401 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net.dns;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
+import tigase.util.dns.DNSEntry;
+import tigase.util.dns.DNSResolverFactory;
+import tigase.util.dns.DNSResolverIfc;
+
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous DNS resolver. Blocking lookups are executed by {@link DNSResolverIfc} on a small pool of resolver
+ * threads, so callers waiting for a slow DNS server do not hold threads of the caller (ie. threads opening s2s
+ * connections).
+ * <br>
+ * Results are cached: successful lookups for the TTL of the received records (bounded by {@code min-ttl} and {@code
+ * max-ttl}) and failed lookups for {@code negative-ttl}. Concurrent requests for the same name are coalesced into a
+ * single lookup.
+ * <br>
+ * By default lookups are delegated to the resolver provided by {@link DNSResolverFactory}, which may be replaced with
+ * {@link #setResolver(DNSResolverIfc)}, ie. with {@link StaticDNSResolver} in tests.
+ */
+@Bean(name = "dnsResolverService", parent = Kernel.class, active = true, exportable = true)
+public class DNSResolverService
+		implements UnregisterAware, StatisticsProviderIfc {
+
+	private static final Logger log = Logger.getLogger(DNSResolverService.class.getName());
+	private static final String ADDRESS_KEY_PREFIX = "a:";
+	private static final String SRV_KEY_PREFIX = "srv:";
+	private static final Random random = new Random();
+
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final ConcurrentHashMap<String, CachedResult> cache = new ConcurrentHashMap<>();
+	@ConfigField(desc = "Maximal number of cached DNS lookup results", alias = "cache-size")
+	private int cacheSize = 10000;
+	private final AtomicLong coalescedLookups = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private ThreadPoolExecutor executor = null;
+	private Executor lookupExecutor = null;
+	private final ConcurrentHashMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong lookupFailures = new AtomicLong();
+	private final AtomicLong lookupTime = new AtomicLong();
+	private final AtomicLong lookups = new AtomicLong();
+	@ConfigField(desc = "Maximal time in seconds for which positive DNS lookup result is cached", alias = "max-ttl")
+	private long maxTtl = 3600;
+	@ConfigField(desc = "Minimal time in seconds for which positive DNS lookup result is cached", alias = "min-ttl")
+	private long minTtl = 30;
+	private final AtomicLong negativeCacheHits = new AtomicLong();
+	@ConfigField(desc = "Time in seconds for which failed DNS lookup result is cached", alias = "negative-ttl")
+	private long negativeTtl = 60;
+	@ConfigField(desc = "Time in seconds for which DNS lookup result without TTL is cached", alias = "positive-ttl")
+	private long positiveTtl = 300;
+	private DNSResolverIfc resolver = null;
+	@ConfigField(desc = "Number of threads executing DNS lookups", alias = "threads")
+	private int threads = 4;
+
+	/**
+	 * Selects one of SRV records following rules from RFC 2782, ie. one of the records with the lowest priority is
+	 * selected randomly with probability proportional to its weight.
+	 */
+	public static DNSEntry selectSRVEntry(DNSEntry[] entries) {
+		if (entries == null || entries.length == 0) {
+			return null;
+		}
+		int priority = Integer.MAX_VALUE;
+		long totalWeight = 0;
+		int candidates = 0;
+		for (DNSEntry entry : entries) {
+			if (entry.getPriority() < priority) {
+				priority = entry.getPriority();
+				totalWeight = 0;
+				candidates = 0;
+			}
+			if (entry.getPriority() == priority) {
+				totalWeight += Math.max(0, entry.getWeight());
+				++candidates;
+			}
+		}
+		if (totalWeight == 0) {
+			int idx = candidates == 1 ? 0 : random.nextInt(candidates);
+			for (DNSEntry entry : entries) {
+				if (entry.getPriority() == priority && idx-- == 0) {
+					return entry;
+				}
+			}
+		}
+		long selected = (long) (random.nextDouble() * totalWeight);
+		DNSEntry result = null;
+		for (DNSEntry entry : entries) {
+			if (entry.getPriority() == priority) {
+				result = entry;
+				selected -= Math.max(0, entry.getWeight());
+				if (selected < 0) {
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for the lookup to complete and returns its result. Any lookup failure is reported as {@link
+	 * UnknownHostException}.
+	 */
+	public static <T> T getResult(CompletableFuture<T> future) throws UnknownHostException {
+		try {
+			return future.join();
+		} catch (CompletionException | CancellationException ex) {
+			Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+			if (cause instanceof UnknownHostException) {
+				throw (UnknownHostException) cause;
+			}
+			UnknownHostException uhe = new UnknownHostException(cause.getMessage());
+			uhe.initCause(cause);
+			throw uhe;
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		ThreadPoolExecutor executor;
+		synchronized (this) {
+			executor = this.executor;
+			this.executor = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns {@code true} only if the last lookup of addresses for the hostname failed and the negative result is
+	 * still cached. If nothing is known about the hostname, the lookup is started in the background and {@code false}
+	 * is returned, so this method never blocks the caller.
+	 */
+	public boolean isUnresolvable(String hostname) {
+		CachedResult cached = cache.get(ADDRESS_KEY_PREFIX + normalize(hostname));
+		if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+			return cached.error != null;
+		}
+		resolveHostIPs(hostname);
+		return false;
+	}
+
+	public void invalidate(String hostname) {
+		String name = normalize(hostname);
+		cache.remove(SRV_KEY_PREFIX + name);
+		cache.remove(ADDRESS_KEY_PREFIX + name);
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	public long getCoalescedLookups() {
+		return coalescedLookups.get();
+	}
+
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	public long getNegativeCacheHits() {
+		return negativeCacheHits.get();
+	}
+
+	public DNSResolverIfc getResolver() {
+		DNSResolverIfc resolver = this.resolver;
+		return resolver == null ? DNSResolverFactory.getInstance() : resolver;
+	}
+
+	public void setResolver(DNSResolverIfc resolver) {
+		this.resolver = resolver;
+		cache.clear();
+	}
+
+	/**
+	 * Sets executor running lookups in place of the internal thread pool, ie. to control when lookups are executed in
+	 * tests.
+	 */
+	void setLookupExecutor(Executor lookupExecutor) {
+		this.lookupExecutor = lookupExecutor;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		long lookups = this.lookups.get();
+		list.add(compName, "DNS lookups", lookups, Level.FINE);
+		list.add(compName, "DNS lookup failures", lookupFailures.get(), Level.FINE);
+		list.add(compName, "DNS cache hits", cacheHits.get(), Level.FINE);
+		list.add(compName, "DNS negative cache hits", negativeCacheHits.get(), Level.FINE);
+		list.add(compName, "DNS coalesced lookups", coalescedLookups.get(), Level.FINER);
+		list.add(compName, "DNS cache size", cache.size(), Level.FINER);
+		list.add(compName, "DNS cache evictions", evictions.get(), Level.FINER);
+		list.add(compName, "DNS average lookup time [ms]", lookups == 0 ? 0f : (float) lookupTime.get() / lookups,
+				 Level.FINER);
+	}
+
+	public CompletableFuture<String[]> resolveHostIPs(String hostname) {
+		return resolve(ADDRESS_KEY_PREFIX, hostname, new Lookup<String[]>() {
+			@Override
+			public String[] lookup(DNSResolverIfc resolver, String hostname) throws UnknownHostException {
+				return resolver.getHostIPs(hostname);
+			}
+
+			@Override
+			public long ttl(String[] result) {
+				return -1;
+			}
+		});
+	}
+
+	public CompletableFuture<DNSEntry[]> resolveSRV(String hostname) {
+		return resolve(SRV_KEY_PREFIX, hostname, new Lookup<DNSEntry[]>() {
+			@Override
+			public DNSEntry[] lookup(DNSResolverIfc resolver, String hostname) throws UnknownHostException {
+				return resolver.getHostSRV_Entries(hostname);
+			}
+
+			@Override
+			public long ttl(DNSEntry[] result) {
+				long ttl = Long.MAX_VALUE;
+				for (DNSEntry entry : result) {
+					ttl = Math.min(ttl, entry.getTtl());
+				}
+				return ttl;
+			}
+		});
+	}
+
+	public CompletableFuture<DNSEntry> resolveSRVEntry(String hostname) {
+		return resolveSRV(hostname).thenApply(DNSResolverService::selectSRVEntry);
+	}
+
+	private synchronized Executor getExecutor() {
+		if (lookupExecutor != null) {
+			return lookupExecutor;
+		}
+		if (executor == null) {
+			final AtomicInteger counter = new AtomicInteger();
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+				Thread th = new Thread(r, "dns-resolver-" + counter.incrementAndGet());
+				th.setDaemon(true);
+				return th;
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	private String normalize(String hostname) {
+		return hostname.toLowerCase();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> resolve(String prefix, String hostname, Lookup<T> lookup) {
+		final String key = prefix + normalize(hostname);
+		CachedResult cached = cache.get(key);
+		if (cached != null) {
+			if (!cached.isExpired(System.currentTimeMillis())) {
+				if (cached.error != null) {
+					negativeCacheHits.incrementAndGet();
+					return CompletableFuture.failedFuture(cached.error);
+				}
+				cacheHits.incrementAndGet();
+				return CompletableFuture.completedFuture((T) cached.value);
+			}
+			cache.remove(key, cached);
+		}
+
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		CompletableFuture<?> pending = inFlight.putIfAbsent(key, future);
+		if (pending != null) {
+			coalescedLookups.incrementAndGet();
+			return (CompletableFuture<T>) pending;
+		}
+		try {
+			getExecutor().execute(() -> lookup(key, hostname, lookup, future));
+		} catch (RejectedExecutionException ex) {
+			inFlight.remove(key, future);
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	private <T> void lookup(String key, String hostname, Lookup<T> lookup, CompletableFuture<T> future) {
+		lookups.incrementAndGet();
+		long start = System.currentTimeMillis();
+		try {
+			T result = lookup.lookup(getResolver(), hostname);
+			long now = System.currentTimeMillis();
+			lookupTime.addAndGet(now - start);
+			if (result == null || (result instanceof Object[] && ((Object[]) result).length == 0)) {
+				throw new UnknownHostException(hostname);
+			}
+			long ttl = lookup.ttl(result);
+			ttl = ttl < 0 ? TimeUnit.SECONDS.toMillis(positiveTtl)
+						  : Math.max(TimeUnit.SECONDS.toMillis(minTtl), Math.min(TimeUnit.SECONDS.toMillis(maxTtl), ttl));
+			// result has to be cached before request is removed from in-flight requests
+			store(key, new CachedResult(result, null, now + ttl));
+			inFlight.remove(key, future);
+			future.complete(result);
+		} catch (UnknownHostException ex) {
+			long now = System.currentTimeMillis();
+			lookupTime.addAndGet(now - start);
+			lookupFailures.incrementAndGet();
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "DNS lookup failed for {0}: {1}", new Object[]{key, ex.getMessage()});
+			}
+			store(key, new CachedResult(null, ex, now + TimeUnit.SECONDS.toMillis(negativeTtl)));
+			inFlight.remove(key, future);
+			future.completeExceptionally(ex);
+		} catch (Throwable ex) {
+			lookupFailures.incrementAndGet();
+			log.log(Level.WARNING, "DNS lookup for " + key + " failed", ex);
+			inFlight.remove(key, future);
+			future.completeExceptionally(ex);
+		}
+	}
+
+	private void store(String key, CachedResult result) {
+		if (cache.size() >= cacheSize) {
+			long now = System.currentTimeMillis();
+			cache.values().removeIf(cached -> cached.isExpired(now));
+			Iterator<Map.Entry<String, CachedResult>> it = cache.entrySet().iterator();
+			while (cache.size() >= cacheSize && it.hasNext()) {
+				it.next();
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+		if (cacheSize > 0) {
+			cache.put(key, result);
+		}
+	}
+
+	private interface Lookup<T> {
+
+		T lookup(DNSResolverIfc resolver, String hostname) throws UnknownHostException;
+
+		/**
+		 * Returns TTL of the result in milliseconds or {@code -1} if not known.
+		 */
+		long ttl(T result);
+
+	}
+
+	private static class CachedResult {
+
+		private final UnknownHostException error;
+		private final long expiresAt;
+		private final Object value;
+
+		private CachedResult(Object value, UnknownHostException error, long expiresAt) {
+			this.value = value;
+			this.error = error;
+			this.expiresAt = expiresAt;
+		}
+
+		private boolean isExpired(long now) {
+			return expiresAt <= now;
+		}
+	}
+}
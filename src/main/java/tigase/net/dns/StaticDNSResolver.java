@@ -0,0 +1,96 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net.dns;
+
+import tigase.util.dns.DNSEntry;
+import tigase.util.dns.DNSResolverIfc;
+
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local resolver answering from entries added to it instead of querying DNS. It is meant to be used as a stand-in
+ * resolver in tests. Lookups for unknown hosts fail with {@link UnknownHostException}.
+ */
+public class StaticDNSResolver
+		implements DNSResolverIfc {
+
+	private final Map<String, String[]> addresses = new ConcurrentHashMap<>();
+	private final AtomicInteger queries = new AtomicInteger();
+	private final Map<String, DNSEntry[]> srvEntries = new ConcurrentHashMap<>();
+	private String defaultHost = "localhost";
+
+	public StaticDNSResolver addHostIPs(String hostname, String... ips) {
+		addresses.put(hostname.toLowerCase(), ips);
+		return this;
+	}
+
+	public StaticDNSResolver addSRVEntries(String hostname, DNSEntry... entries) {
+		srvEntries.put(hostname.toLowerCase(), entries);
+		return this;
+	}
+
+	public void remove(String hostname) {
+		addresses.remove(hostname.toLowerCase());
+		srvEntries.remove(hostname.toLowerCase());
+	}
+
+	@Override
+	public String getDefaultHost() {
+		return defaultHost;
+	}
+
+	public void setDefaultHost(String defaultHost) {
+		this.defaultHost = defaultHost;
+	}
+
+	@Override
+	public String[] getHostIPs(String hostname) throws UnknownHostException {
+		queries.incrementAndGet();
+		String[] ips = addresses.get(hostname.toLowerCase());
+		if (ips == null) {
+			throw new UnknownHostException(hostname);
+		}
+		return ips;
+	}
+
+	@Override
+	public DNSEntry[] getHostSRV_Entries(String hostname) throws UnknownHostException {
+		queries.incrementAndGet();
+		DNSEntry[] entries = srvEntries.get(hostname.toLowerCase());
+		if (entries != null) {
+			return entries;
+		}
+		// same as real resolver, fall back to address records if there are no SRV records
+		String[] ips = addresses.get(hostname.toLowerCase());
+		if (ips == null) {
+			throw new UnknownHostException(hostname);
+		}
+		entries = new DNSEntry[ips.length];
+		for (int i = 0; i < ips.length; i++) {
+			entries[i] = new DNSEntry(hostname, ips[i]);
+		}
+		return entries;
+	}
+
+	public int getQueriesCount() {
+		return queries.get();
+	}
+}
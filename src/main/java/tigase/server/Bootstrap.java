@@ -34,6 +34,7 @@ import tigase.kernel.beans.selector.ServerBeanSelector;
 import tigase.kernel.core.BeanConfig;
 import tigase.kernel.core.DependencyGrapher;
 import tigase.kernel.core.Kernel;
+import tigase.map.ClusterMapFactory;
 import tigase.net.ConnectionOpenThread;
 import tigase.osgi.ModulesManagerImpl;
 import tigase.server.monitor.MonitorRuntime;
@@ -49,6 +50,7 @@ import tigase.xmpp.jid.BareJID;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -309,6 +311,9 @@ public class Bootstrap {
 		kernel.registerBean(RosterFactory.Bean.class).setPinned(true).exec();
 		kernel.getInstance(RosterFactory.Bean.class);
 
+		kernel.registerBean(ClusterMapFactory.Bean.class).setPinned(true).exec();
+		kernel.getInstance(ClusterMapFactory.Bean.class);
+
 		// if null then we register global subbeans
 		configurator.registerBeans(null, null, config.getProperties());
 
@@ -317,6 +322,16 @@ public class Bootstrap {
 
 		log.log(Level.CONFIG, dg.getDependencyGraph());
 
+		if (Boolean.parseBoolean(String.valueOf(config.getProperties().getOrDefault("parallel-init", false)))) {
+			log.info("Initializing beans in parallel");
+			ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+			try {
+				kernel.initAll(pool);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
 		// this is called to make sure that data sources are properly initialized
 		if (ServerBeanSelector.getConfigType(kernel) != ConfigTypeEnum.SetupMode) {
 			DataSourceBean dataSource = kernel.getInstance(DataSourceBean.class);
@@ -328,6 +343,10 @@ public class Bootstrap {
 		log.info("Starting MessageRouter");
 		mr.start();
 
+		if (log.isLoggable(Level.CONFIG)) {
+			log.log(Level.CONFIG, kernel.getStartupProfile().dump(50));
+		}
+
 //		StringBuilder sb = new StringBuilder("\n======");
 //		sb.append("\n");
 //		final Collection<BeanConfig> beanConfigs = kernel.getDependencyManager().getBeanConfigs();
@@ -20,6 +20,7 @@ package tigase.server;
 import tigase.annotations.TODO;
 import tigase.io.CertificateContainerIfc;
 import tigase.io.SSLContextContainerIfc;
+import tigase.io.ZLibEngine;
 import tigase.kernel.beans.*;
 import tigase.kernel.beans.config.AbstractBeanConfigurator;
 import tigase.kernel.beans.config.ConfigField;
@@ -29,6 +30,7 @@ import tigase.net.*;
 import tigase.server.script.CommandIfc;
 import tigase.server.xmppclient.XMPPIOProcessor;
 import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.util.common.TimerTask;
 import tigase.util.repository.DataTypes;
 import tigase.xml.Element;
@@ -49,6 +51,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import static tigase.xmpp.XMPPIOService.DOM_HANDLER;
 
@@ -157,6 +160,17 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	protected WATCHDOG_PING_TYPE watchdogPingType = WATCHDOG_PING_TYPE.WHITESPACE;
 	@ConfigField(desc = "Watchdog timeout", alias = "watchdog-timeout")
 	protected long watchdogTimeout = 29 * MINUTE; // 1 740 000
+	@ConfigField(desc = "Compression level of zlib streams", alias = "zlib-level")
+	protected int zlibLevel = Deflater.BEST_COMPRESSION;
+	protected final ZLibEngine.Statistics zlibStatistics = new ZLibEngine.Statistics();
+	@ConfigField(desc = "Write packets queued for a connection in batches", alias = "write-coalescing")
+	protected boolean writeCoalescing = false;
+	@ConfigField(desc = "Maximal delay of a packet written in a batch [ms]", alias = "write-coalescing-delay")
+	protected long writeCoalescingDelay = 2;
+	@ConfigField(desc = "Maximal size of a batch of packets [bytes]", alias = "write-coalescing-max-bytes")
+	protected int writeCoalescingMaxBytes = XMPPIOService.TLS_MAX_RECORD_SIZE;
+	protected final XMPPIOService.WriteCoalescingStatistics writeCoalescingStatistics =
+			new XMPPIOService.WriteCoalescingStatistics();
 	private long bytesReceived = 0;
 	private long bytesSent = 0;
 	@Inject
@@ -591,25 +605,14 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			// if packet is added to waiting packets queue then we can assume it is sent
 			// as if it will fail it will be returned as error by serviceStopped method
 			ios.addPacketToSend(p);
-			if (ios.writeInProgress.tryLock()) {
+			if (ios.isWriteCoalescing() && writeCoalescingDelay > 0) {
+				// packets queued until the write task is executed are written together
+				if (ios.cork()) {
+					addTimerTask(new CorkedWritesTask(ios), writeCoalescingDelay);
+				}
+			} else if (ios.writeInProgress.tryLock()) {
 				try {
-					ios.processWaitingPackets();
-					SocketThread.addSocketService(ios);
-				} catch (IOException e) {
-					// if there was IOException we need to forceStop this service!
-					log.log(Level.WARNING, "Exception during writing packets [" + ios + "[: ", e);
-					try {
-						ios.forceStop();
-					} catch (Exception e1) {
-						log.log(Level.WARNING, "Exception stopping XMPPIOService [" + ios + "]: ", e1);
-					}    // end of try-catch
-				} catch (Exception e) {
-					log.log(Level.WARNING, "Exception during writing packets [" + ios + "]: ", e);
-					try {
-						ios.stop();
-					} catch (Exception e1) {
-						log.log(Level.WARNING, "Exception stopping XMPPIOService [" + ios + "]: ", e1);
-					}    // end of try-catch
+					processWaitingPackets(ios);
 				} finally {
 					ios.writeInProgress.unlock();
 				}
@@ -657,9 +660,18 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		list.add(getName(), "Watchdog runs", watchdogRuns, Level.FINER);
 		list.add(getName(), "Watchdog tests", watchdogTests, Level.FINE);
 		list.add(getName(), "Watchdog stopped", watchdogStopped, Level.FINE);
+		if (zlibStatistics.isUsed()) {
+			zlibStatistics.getStatistics(getName(), list);
+		}
+		if (writeCoalescingStatistics.isUsed()) {
+			writeCoalescingStatistics.getStatistics(getName(), list);
+		}
 		for (XMPPIOProcessor proc : processors) {
 			proc.getStatistics(list);
 		}
+		if (sslContextContainer instanceof StatisticsProviderIfc) {
+			((StatisticsProviderIfc) sslContextContainer).getStatistics(getName(), list);
+		}
 	}
 
 	public IO getXMPPIOService(String serviceId) {
@@ -879,6 +891,31 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		}
 	}
 
+	/**
+	 * Writes packets waiting to send. Caller needs to hold <code>writeInProgress</code> lock of the service.
+	 */
+	protected void processWaitingPackets(IO ios) {
+		try {
+			ios.processWaitingPackets();
+			SocketThread.addSocketService(ios);
+		} catch (IOException e) {
+			// if there was IOException we need to forceStop this service!
+			log.log(Level.WARNING, "Exception during writing packets [" + ios + "[: ", e);
+			try {
+				ios.forceStop();
+			} catch (Exception e1) {
+				log.log(Level.WARNING, "Exception stopping XMPPIOService [" + ios + "]: ", e1);
+			}    // end of try-catch
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Exception during writing packets [" + ios + "]: ", e);
+			try {
+				ios.stop();
+			} catch (Exception e1) {
+				log.log(Level.WARNING, "Exception stopping XMPPIOService [" + ios + "]: ", e1);
+			}    // end of try-catch
+		}
+	}
+
 	protected void writeRawData(IO ios, String data) {
 		try {
 			ios.writeRawData(data);
@@ -1218,6 +1255,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			serv.setSslContextContainer(sslContextContainer);
 			serv.setBufferLimit(net_buffer_limit);
 			serv.setCertificateContainer(certificateContainer);
+			serv.setWriteCoalescing(writeCoalescing ? writeCoalescingMaxBytes : 0, writeCoalescingStatistics);
 
 			((XMPPDomBuilderHandler) serv.getSessionData().get(DOM_HANDLER)).setElementsLimit(elements_number_limit);
 
@@ -1507,6 +1545,37 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		}
 	}
 
+	/**
+	 * Writes packets queued for a corked connection since the task was scheduled.
+	 */
+	private class CorkedWritesTask
+			extends TimerTask {
+
+		private final IO service;
+
+		private CorkedWritesTask(IO service) {
+			this.service = service;
+		}
+
+		@Override
+		public void run() {
+			if (!service.isConnected()) {
+				// undelivered packets are processed when the service is stopped
+				return;
+			}
+			if (service.writeInProgress.tryLock()) {
+				try {
+					processWaitingPackets(service);
+				} finally {
+					service.writeInProgress.unlock();
+				}
+			} else {
+				// packets are being written by other thread, but it may have taken them from the queue already
+				addTimerTask(this, writeCoalescingDelay);
+			}
+		}
+	}
+
 	private static class ServiceConnectedTimer<IO extends XMPPIOService> extends TimerTask {
 
 		private final IO service;
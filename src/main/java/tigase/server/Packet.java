@@ -20,9 +20,11 @@ package tigase.server;
 import tigase.annotations.TigaseDeprecated;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
+import tigase.xml.XMLUtils;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.JID;
 
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
@@ -65,7 +67,8 @@ import java.util.Set;
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
 */
-public class Packet {
+public class Packet
+		implements Cloneable {
 
 	public static final String CLIENT_XMLNS = "jabber:client";
 
@@ -110,6 +113,13 @@ public class Packet {
 	private StanzaType type;
 	private String stableId = null;
 	private Optional<JID> serverAuthorisedStanzaFrom = Optional.empty();
+	// set only on copies created by copyElementShared() before they are published and cleared, under the packet
+	// lock, once the copy gets its own stanza element
+	private volatile SharedElement sharedElement = null;
+	// snapshot of the stanza element of this packet reused by copies, dropped when the element may be modified
+	private volatile SharedElement sharedSnapshot = null;
+	// set when the stanza type of the copy differs from the type attribute of the shared stanza element
+	private boolean sharedTypeOverride = false;
 
 	/**
 	 * Method trims {@link Element} stanza to 1024 characters and returns String representation of the element
@@ -118,7 +128,10 @@ public class Packet {
 	 *
 	 */
 	public static String elemToString(Element el) {
-		String elemData = el.toString();
+		return trimElemData(el.toString());
+	}
+
+	private static String trimElemData(String elemData) {
 		int size = elemData.length();
 
 		if (size > 1024) {
@@ -278,7 +291,7 @@ public class Packet {
 	 * @return a new copy of the packet with packet specific fields set to NULL.
 	 */
 	public Packet copyElementOnly() {
-		Element res_elem = elem.clone();
+		Element res_elem = cloneElement(sharedElement);
 		Packet result = packetInstance(res_elem, getStanzaFrom(), getStanzaTo());
 
 		result.setPriority(priority);
@@ -286,6 +299,40 @@ public class Packet {
 		return result;
 	}
 
+	/**
+	 * <code>copyElementShared</code> method creates a copy of the packet with stanza information copied only, just like
+	 * <code>copyElementOnly()</code>, but with different stanza addresses. Stanza XML element is not cloned, instead it
+	 * is shared by this packet and all copies created by this method and only addresses are kept separately for each
+	 * copy. The element is cloned only when it is retrieved with <code>getElement()</code>, which makes this method a
+	 * cheap way of sending the same stanza to many recipients (presence broadcast, message forking, etc...). <br>
+	 * Copies share an immutable snapshot of the stanza element of this packet, so the element of this packet may
+	 * still be modified and it is safe to call this method on a packet processed by many threads at once. The snapshot
+	 * is reused until the element is retrieved again with <code>getElement()</code>, so the element has to be
+	 * retrieved again before it is modified for the change to be visible in copies created later.
+	 *
+	 * @param stanzaFrom is a source address of the stanza in the copy.
+	 * @param stanzaTo is a destination address of the stanza in the copy.
+	 *
+	 * @return a new copy of the packet with packet specific fields set to NULL.
+	 */
+	public Packet copyElementShared(JID stanzaFrom, JID stanzaTo) {
+		return copyElementShared(stanzaFrom, stanzaTo, type, false);
+	}
+
+	/**
+	 * <code>copyElementShared</code> method creates a copy of the packet sharing stanza XML element with this packet,
+	 * the same way as {@link #copyElementShared(JID, JID)} does, but also with a different stanza type.
+	 *
+	 * @param stanzaFrom is a source address of the stanza in the copy.
+	 * @param stanzaTo is a destination address of the stanza in the copy.
+	 * @param type is a type of the stanza in the copy or NULL if the copy should not have a type set.
+	 *
+	 * @return a new copy of the packet with packet specific fields set to NULL.
+	 */
+	public Packet copyElementShared(JID stanzaFrom, JID stanzaTo, StanzaType type) {
+		return copyElementShared(stanzaFrom, stanzaTo, type, true);
+	}
+
 	/**
 	 * Method returns a string representation of all the data enclosed by the <code>Packet</code> instance. All stanza
 	 * XML element and all fields are converted to the <code>String</code> representation for debugging. Please note,
@@ -330,7 +377,8 @@ public class Packet {
 			reply.setAttribute(ID_ATT, getStanzaId());
 		}    // end of if (getElemId() != null)
 		if (includeOriginalXML) {
-			reply.addChildren(elem.getChildren());
+			SharedElement shared = sharedElement;
+			reply.addChildren(shared != null ? cloneElement(shared).getChildren() : elem.getChildren());
 		}    // end of if (includeOriginalXML)
 		if (getXMLNS() != null) {
 			reply.setXMLNS(getXMLNS());
@@ -357,11 +405,64 @@ public class Packet {
 		return swapFromTo(reply, getStanzaTo(), getStanzaFrom());
 	}
 
+	/**
+	 * Method returns the stanza XML element in the string form, the same as returned by <code>getElement().toString()</code>.
+	 * If the element is shared with other packets, then the element is not cloned and the content of the element is
+	 * serialized only once for all packets sharing it, with addresses of this packet added to each result.
+	 *
+	 * @return stanza XML element in the string form.
+	 */
+	public String getElementAsString() {
+		SharedElement shared = sharedElement;
+		if (shared != null) {
+			return shared.toString(stanzaFrom, stanzaTo, sharedTypeOverride
+														 ? getTypeAttribute()
+														 : shared.elem.getAttributeStaticStr(TYPE_ATT));
+		}
+		return elem.toString();
+	}
+
+	/**
+	 * Method checks whether the stanza XML element is shared with other packets created by <code>copyElementShared()</code>.
+	 *
+	 * @return <code>true</code> if the stanza XML element is shared and will be cloned on modification.
+	 */
+	public boolean isElementShared() {
+		return sharedElement != null;
+	}
+
+	/**
+	 * Method returns a child of the stanza element. If the stanza element is shared with other packets, then a copy of
+	 * the child is returned.
+	 *
+	 * @param name is a name of the child element.
+	 *
+	 * @return the child element or NULL if there is no such child.
+	 */
 	public Element getElemChild(String name) {
+		SharedElement shared = sharedElement;
+		if (shared != null) {
+			return cloneChild(shared.elem.getChild(name));
+		}
+		dropSharedSnapshot();
 		return elem.getChild(name);
 	}
 
+	/**
+	 * Method returns a child of the stanza element. If the stanza element is shared with other packets, then a copy of
+	 * the child is returned.
+	 *
+	 * @param name is a name of the child element.
+	 * @param xmlns is a namespace of the child element.
+	 *
+	 * @return the child element or NULL if there is no such child.
+	 */
 	public Element getElemChild(String name, String xmlns) {
+		SharedElement shared = sharedElement;
+		if (shared != null) {
+			return cloneChild(shared.elem.getChild(name, xmlns));
+		}
+		dropSharedSnapshot();
 		return elem.getChild(name, xmlns);
 	}
 
@@ -376,6 +477,17 @@ public class Packet {
 	 * @return an attribute value or NULL if there is no such attribute.
 	 */
 	public String getAttributeStaticStr(String key) {
+		if (sharedElement != null) {
+			if (key == FROM_ATT) {
+				return stanzaFrom == null ? null : stanzaFrom.toString();
+			}
+			if (key == TO_ATT) {
+				return stanzaTo == null ? null : stanzaTo.toString();
+			}
+			if (key == TYPE_ATT && sharedTypeOverride) {
+				return getTypeAttribute();
+			}
+		}
 		return elem.getAttributeStaticStr(key);
 	}
 
@@ -394,6 +506,9 @@ public class Packet {
 	 * @return value of the requested attribute or NULL if the attribute is not set.
 	 */
 	public String getAttributeStaticStr(String[] path, String key) {
+		if (sharedElement != null && path.length == 1 && path[0] == elem.getName()) {
+			return getAttributeStaticStr(key);
+		}
 		return elem.getAttributeStaticStr(path, key);
 	}
 
@@ -452,6 +567,19 @@ public class Packet {
 	 * element.
 	 */
 	public List<Element> getElemChildrenStaticStr(String[] xmlPath) {
+		SharedElement shared = sharedElement;
+		if (shared != null) {
+			List<Element> children = shared.elem.getChildrenStaticStr(xmlPath);
+			if (children == null) {
+				return null;
+			}
+			List<Element> result = new ArrayList<>(children.size());
+			for (Element child : children) {
+				result.add(child.clone());
+			}
+			return result;
+		}
+		dropSharedSnapshot();
 		return elem.getChildrenStaticStr(xmlPath);
 	}
 
@@ -473,6 +601,8 @@ public class Packet {
 	 * @return the stanza XML element in DOM format.
 	 */
 	public Element getElement() {
+		unshareElement();
+		dropSharedSnapshot();
 		return elem;
 	}
 
@@ -722,6 +852,23 @@ public class Packet {
 		return elem.getXMLNS();
 	}
 
+	/**
+	 * Returns XMLNS of the enclosed stanza element or its child pointed by the <code>xmlPath</code> parameter. This call
+	 * is equal to the call:
+	 * <pre>
+	 * packet.getElement().getXMLNSStaticStr(xmlPath);
+	 * </pre>
+	 * <strong>Please note! This method can only be used with static strings or with strings processed through
+	 * <code>String.intern()</code> call. It uses "==" for string comparison for performance reasons.</strong>
+	 *
+	 * @param xmlPath is an XML path to the stanza element for which XMLNS is retrieved.
+	 *
+	 * @return XMLNS of the element or NULL if the element does not exist or has no XMLNS.
+	 */
+	public String getXMLNSStaticStr(String[] xmlPath) {
+		return elem.getXMLNSStaticStr(xmlPath);
+	}
+
 	/**
 	 * Method allows to set-force XMLNS for the element. This is mostly used in cases where there is no XMLNS provided
 	 * for the element (by the client for example) and then a default one is used. However, in some contexts a default
@@ -731,6 +878,8 @@ public class Packet {
 	 * @param xmlns a valid XMLNS string for the element.
 	 */
 	public void setXMLNS(String xmlns) {
+		unshareElement();
+		dropSharedSnapshot();
 		elem.setXMLNS(xmlns);
 		packetToString = null;
 		packetToStringSecure = null;
@@ -749,6 +898,18 @@ public class Packet {
 	 * @param stanzaTo is a parsed destination address JID from the stanza enclosed by this packet.
 	 */
 	public void initVars(JID stanzaFrom, JID stanzaTo) {
+		if (sharedElement != null) {
+			synchronized (this) {
+				if (sharedElement != null) {
+					// shared element is not modified, addresses are added when the element is cloned or serialized
+					this.stanzaFrom = stanzaFrom;
+					this.stanzaTo = stanzaTo;
+					packetToString = null;
+					packetToStringSecure = null;
+					return;
+				}
+			}
+		}
 		if (this.stanzaFrom != stanzaFrom) {
 			this.stanzaFrom = stanzaFrom;
 			if (stanzaFrom == null) {
@@ -782,6 +943,7 @@ public class Packet {
 	 * @throws TigaseStringprepException if the stringprep error occurs during the stanza JIDs parsing.
 	 */
 	public void initVars() throws TigaseStringprepException {
+		unshareElement();
 		String tmp = elem.getAttributeStaticStr(TO_ATT);
 
 		if (tmp != null) {
@@ -1004,7 +1166,7 @@ public class Packet {
 									  new String[]{getTo().toString(), getFrom().toString(), priority.toString(),
 												   permissions.toString()});
 
-		routedp.addChild(elem);
+		routedp.addChild(getElement());
 
 		return packetInstance(routedp, getFrom(), getTo());
 	}
@@ -1050,7 +1212,7 @@ public class Packet {
 	 * @return a new {@link Packet} instance.
 	 */
 	public Packet swapFromTo() {
-		Element el = elem.clone();
+		Element el = cloneElement(sharedElement);
 		Packet packet = packetInstance(el, getStanzaFrom(), getStanzaTo());
 
 		packet.setPacketTo(getFrom());
@@ -1067,7 +1229,7 @@ public class Packet {
 	 * @return a new <code>Packet</code> instance.
 	 */
 	public Packet swapStanzaFromTo() {
-		Element copy = elem.clone();
+		Element copy = cloneElement(sharedElement);
 		Packet result = packetInstance(copy, getStanzaTo(), getStanzaFrom());
 
 		result.setPriority(priority);
@@ -1084,7 +1246,7 @@ public class Packet {
 	 * @return a new <code>Packet</code> instance.
 	 */
 	public Packet swapStanzaFromTo(final StanzaType type) {
-		Element copy = elem.clone();
+		Element copy = cloneElement(sharedElement);
 
 		copy.setAttribute(TYPE_ATT, type.toString());
 
@@ -1107,7 +1269,7 @@ public class Packet {
 	 */
 	public String toStringFull() {
 		if (packetToString == null) {
-			String elemData = elemToString(elem);
+			String elemData = sharedElement != null ? trimElemData(getElementAsString()) : elemToString(elem);
 
 			packetToString = calcToString(elemData);
 		}
@@ -1158,7 +1320,8 @@ public class Packet {
 			return toStringFull();
 		} else {
 			if (packetToStringSecure == null) {
-				String elemData = elemToStringSecure(elem);
+				SharedElement shared = sharedElement;
+				String elemData = elemToStringSecure(shared != null ? cloneElement(shared) : elem);
 
 				packetToStringSecure = calcToString(elemData);
 			}
@@ -1177,7 +1340,9 @@ public class Packet {
 	 * @throws TigaseStringprepException if there was a problem with addresses stringprep processing.
 	 */
 	public Packet unpackRouted() throws TigaseStringprepException {
-		Packet result = packetInstance(elem.getChildren().get(0));
+		SharedElement shared = sharedElement;
+		Packet result = packetInstance(
+				shared != null ? cloneChild(shared.elem.getChildren().get(0)) : elem.getChildren().get(0));
 
 		result.setPacketTo(getTo());
 		result.setPacketFrom(getFrom());
@@ -1239,10 +1404,102 @@ public class Packet {
 	 * @return debug string representation with additional data.
 	 */
 	private String calcToString(String elemData) {
-		return ", DATA=" + elemData + ", SIZE=" + elem.toString().length() + ", XMLNS=" + elem.getXMLNS() +
+		return ", DATA=" + elemData + ", SIZE=" + getElementAsString().length() + ", XMLNS=" + elem.getXMLNS() +
 				", PRIORITY=" + priority + ", PERMISSION=" + permissions + ", TYPE=" + type + ", STABLE_ID=" + stableId;
 	}
 
+	private Packet copyElementShared(JID stanzaFrom, JID stanzaTo, StanzaType type, boolean typeOverride) {
+		SharedElement shared = sharedElement;
+		if (shared != null) {
+			typeOverride = typeOverride || sharedTypeOverride;
+		} else {
+			shared = sharedSnapshot;
+			if (shared == null) {
+				// concurrent calls may create separate snapshots, each of them is a valid copy of the element
+				shared = new SharedElement(elem.clone());
+				sharedSnapshot = shared;
+			}
+		}
+
+		Packet result;
+		try {
+			result = (Packet) clone();
+		} catch (CloneNotSupportedException ex) {
+			throw new IllegalStateException(ex);
+		}
+		result.elem = shared.elem;
+		result.packetFrom = null;
+		result.packetTo = null;
+		result.packetToString = null;
+		result.packetToStringSecure = null;
+		result.permissions = Permissions.NONE;
+		result.processorsIds = new LinkedHashSet<String>(4, 0.9f);
+		result.skippedProcessorsIds = new LinkedHashSet<String>(4, 0.9f);
+		result.stableId = null;
+		result.serverAuthorisedStanzaFrom = Optional.empty();
+		result.stanzaFrom = stanzaFrom;
+		result.stanzaTo = stanzaTo;
+		result.type = type;
+		result.sharedSnapshot = null;
+		result.sharedTypeOverride = typeOverride;
+		result.sharedElement = shared;
+
+		return result;
+	}
+
+	/**
+	 * Returns a deep copy of the stanza element with addresses and type of this packet set, even if the element is
+	 * shared with other packets.
+	 */
+	private Element cloneElement(SharedElement shared) {
+		if (shared == null) {
+			return elem.clone();
+		}
+		Element result = shared.elem.clone();
+		setAttribute(result, FROM_ATT, stanzaFrom == null ? null : stanzaFrom.toString());
+		setAttribute(result, TO_ATT, stanzaTo == null ? null : stanzaTo.toString());
+		if (sharedTypeOverride) {
+			setAttribute(result, TYPE_ATT, getTypeAttribute());
+		}
+		return result;
+	}
+
+	private static Element cloneChild(Element child) {
+		return child == null ? null : child.clone();
+	}
+
+	private String getTypeAttribute() {
+		return type == null ? null : type.toString();
+	}
+
+	private void dropSharedSnapshot() {
+		// element of this packet may be modified by the caller, so next copy needs a new snapshot
+		if (sharedSnapshot != null) {
+			sharedSnapshot = null;
+		}
+	}
+
+	private void unshareElement() {
+		if (sharedElement != null) {
+			synchronized (this) {
+				SharedElement shared = sharedElement;
+				if (shared != null) {
+					elem = cloneElement(shared);
+					// volatile write publishes the new element to threads checking sharedElement first
+					sharedElement = null;
+				}
+			}
+		}
+	}
+
+	private static void setAttribute(Element elem, String key, String value) {
+		if (value == null) {
+			elem.removeAttribute(key);
+		} else {
+			elem.setAttribute(key, value);
+		}
+	}
+
 	private void setElem(Element elem) {
 		if (elem == null) {
 			throw new NullPointerException();
@@ -1269,4 +1526,71 @@ public class Packet {
 			}
 		}
 	}
+
+	/**
+	 * Immutable stanza element shared by packets created with <code>copyElementShared()</code>. The element is a
+	 * private copy which is never modified. Keeps the string form of the element split into parts, so it is serialized
+	 * only once and addresses of each packet are added between them.
+	 */
+	private static final class SharedElement {
+
+		private final Element elem;
+		// start tag without closing and addresses, quote char and rest of the element
+		private final String[] parts;
+
+		private static String[] split(String data, String name) {
+			StringBuilder start = new StringBuilder(data.length());
+			char quote = '"';
+			int i = name.length() + 1;
+
+			start.append(data, 0, i);
+			while (i < data.length()) {
+				char c = data.charAt(i);
+				if (c == '>' || c == '/') {
+					break;
+				}
+				if (Character.isWhitespace(c)) {
+					i++;
+					continue;
+				}
+
+				int eq = data.indexOf('=', i);
+				String key = data.substring(i, eq).trim();
+				int valueStart = eq + 1;
+				while (Character.isWhitespace(data.charAt(valueStart))) {
+					valueStart++;
+				}
+				quote = data.charAt(valueStart);
+				int valueEnd = data.indexOf(quote, valueStart + 1);
+				if (!(FROM_ATT.equals(key) || TO_ATT.equals(key) || TYPE_ATT.equals(key))) {
+					start.append(' ').append(data, i, valueEnd + 1);
+				}
+				i = valueEnd + 1;
+			}
+
+			return new String[]{start.toString(), String.valueOf(quote), data.substring(i)};
+		}
+
+		private static void appendAttribute(StringBuilder sb, String key, String value, String quote) {
+			if (value != null) {
+				sb.append(' ').append(key).append('=').append(quote).append(value).append(quote);
+			}
+		}
+
+		private SharedElement(Element elem) {
+			this.elem = elem;
+			this.parts = split(elem.toString(), elem.getName());
+		}
+
+		private String toString(JID stanzaFrom, JID stanzaTo, String type) {
+			StringBuilder sb = new StringBuilder(parts[0].length() + parts[2].length() + 128);
+			sb.append(parts[0]);
+			appendAttribute(sb, FROM_ATT, stanzaFrom == null ? null : XMLUtils.escape(stanzaFrom.toString()), parts[1]);
+			appendAttribute(sb, TO_ATT, stanzaTo == null ? null : XMLUtils.escape(stanzaTo.toString()), parts[1]);
+			appendAttribute(sb, TYPE_ATT, type, parts[1]);
+			sb.append(parts[2]);
+			return sb.toString();
+		}
+
+	}
 }
@@ -37,7 +37,10 @@ import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.time.Duration;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -279,6 +282,17 @@ public abstract class MsgRepository<T, S extends DataSource>
 
 		private static final Logger log = Logger.getLogger(MsgRepositoryMDBean.class.getCanonicalName());
 
+		@ConfigField(desc = "Max number of users with cached offline messages counters", alias = "counters-cache-size")
+		private int countersCacheSize = 10000;
+		@ConfigField(desc = "Time for which offline messages counters are cached", alias = "counters-cache-ttl")
+		private Duration countersCacheTtl = Duration.ofMinutes(1);
+		private final Map<BareJID, MessagesCounters> counters = new LinkedHashMap<BareJID, MessagesCounters>(16, 0.75f,
+																											 true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<BareJID, MessagesCounters> eldest) {
+				return size() > countersCacheSize;
+			}
+		};
 		private DelayQueue<RepoAwareMsgDBItem> expiredQueue = new DelayQueue<RepoAwareMsgDBItem>();
 		private long earliestOffline = Long.MAX_VALUE;
 
@@ -343,6 +357,10 @@ public abstract class MsgRepository<T, S extends DataSource>
 				((MsgRepository) item.getRepo()).awaitingInExpiredQueue.decrementAndGet();
 				if (delete) {
 					((MsgRepository) item.getRepo()).deleteMessage(item.db_id);
+					String to = item.msg.getAttributeStaticStr("to");
+					if (to != null) {
+						invalidateCounters(BareJID.bareJIDInstanceNS(to));
+					}
 				}
 			}
 
@@ -389,6 +407,9 @@ public abstract class MsgRepository<T, S extends DataSource>
 			try {
 				MsgRepositoryIfc repo = getRepository(session.getBareJID().getDomain());
 				result = repo.loadMessagesToJID(session, delete);
+				if (delete) {
+					invalidateCounters(session.getBareJID());
+				}
 			} catch (NotAuthorizedException ex) {
 				log.log(Level.WARNING, "Session not authorized yet!", ex);
 			}
@@ -400,6 +421,15 @@ public abstract class MsgRepository<T, S extends DataSource>
 				throws UserNotFoundException {
 			MsgRepositoryIfc repo = getRepository(to.getDomain());
 			boolean result = repo.storeMessage(from, to, expired, msg, userRepo);
+			if (result) {
+				MessagesCounters messagesCounters;
+				synchronized (counters) {
+					messagesCounters = counters.get(to.getBareJID());
+				}
+				if (messagesCounters != null) {
+					messagesCounters.increment(getMessageType(msg));
+				}
+			}
 			if (result && expired != null) {
 				if (expired.getTime() < earliestOffline) {
 					earliestOffline = expired.getTime();
@@ -414,9 +444,33 @@ public abstract class MsgRepository<T, S extends DataSource>
 
 		}
 
+		/**
+		 * Returns number of offline messages of each type. Counters are loaded from the repository and then updated
+		 * when messages are stored by this node, so there is no need to count messages in the repository for each
+		 * message stored for a user. Counters are dropped when messages are removed or when
+		 * <code>counters-cache-ttl</code> passes, as messages may be stored and removed by other cluster nodes.
+		 */
 		@Override
 		public Map<Enum, Long> getMessagesCount(JID to) throws UserNotFoundException {
-			return getRepository(to.getDomain()).getMessagesCount(to);
+			final BareJID jid = to.getBareJID();
+			final long now = System.currentTimeMillis();
+			if (countersCacheSize > 0) {
+				MessagesCounters messagesCounters;
+				synchronized (counters) {
+					messagesCounters = counters.get(jid);
+				}
+				if (messagesCounters != null && now - messagesCounters.loaded < countersCacheTtl.toMillis()) {
+					return messagesCounters.getCounts();
+				}
+			}
+
+			Map<Enum, Long> result = getRepository(to.getDomain()).getMessagesCount(to);
+			if (countersCacheSize > 0 && result != null) {
+				synchronized (counters) {
+					counters.put(jid, new MessagesCounters(result, now));
+				}
+			}
+			return result;
 		}
 
 		@Override
@@ -431,13 +485,22 @@ public abstract class MsgRepository<T, S extends DataSource>
 
 		@Override
 		public int deleteMessagesToJID(List db_ids, XMPPResourceConnection session) throws UserNotFoundException {
-			return getRepository(session.getDomainAsJID().getDomain()).deleteMessagesToJID(db_ids, session);
+			int result = getRepository(session.getDomainAsJID().getDomain()).deleteMessagesToJID(db_ids, session);
+			invalidateCounters(session);
+			return result;
 		}
 
 		@Override
 		public Queue<Element> loadMessagesToJID(List db_ids, XMPPResourceConnection session, boolean delete,
 												OfflineMessagesProcessor proc) throws UserNotFoundException {
-			return getRepository(session.getDomainAsJID().getDomain()).loadMessagesToJID(db_ids, session, delete, proc);
+			Queue<Element> result = getRepository(session.getDomainAsJID().getDomain()).loadMessagesToJID(db_ids,
+																											session,
+																											delete,
+																											proc);
+			if (delete) {
+				invalidateCounters(session);
+			}
+			return result;
 		}
 
 		@Override
@@ -462,6 +525,12 @@ public abstract class MsgRepository<T, S extends DataSource>
 			repo.setCondition(lock, expiredMessagesCondition);
 		}
 
+		protected void invalidateCounters(BareJID jid) {
+			synchronized (counters) {
+				counters.remove(jid);
+			}
+		}
+
 		protected <T> T getValueForDomain(Map<String, T> map, String domain) {
 			T value = map.get(domain);
 			if (value == null) {
@@ -470,11 +539,46 @@ public abstract class MsgRepository<T, S extends DataSource>
 			return value;
 		}
 
+		private static MSG_TYPES getMessageType(Element msg) {
+			try {
+				return MSG_TYPES.valueOf(msg.getName());
+			} catch (IllegalArgumentException ex) {
+				return MSG_TYPES.none;
+			}
+		}
+
+		private void invalidateCounters(XMPPResourceConnection session) {
+			try {
+				invalidateCounters(session.getBareJID());
+			} catch (NotAuthorizedException ex) {
+				log.log(Level.FINEST, "Session not authorized yet!", ex);
+			}
+		}
+
 		public static class MsgRepositoryConfigBean
 				extends MDRepositoryConfigBean<MsgRepositoryIfc> {
 
 		}
 
+		private static class MessagesCounters {
+
+			private final Map<Enum, Long> counts;
+			private final long loaded;
+
+			private MessagesCounters(Map<Enum, Long> counts, long loaded) {
+				this.counts = new HashMap<>(counts);
+				this.loaded = loaded;
+			}
+
+			private synchronized Map<Enum, Long> getCounts() {
+				return new HashMap<>(counts);
+			}
+
+			private synchronized void increment(MSG_TYPES type) {
+				counts.merge(type, 1L, Long::sum);
+			}
+		}
+
 		public static class RepoAwareMsgDBItem extends MsgDBItem {
 
 			private final MsgRepositoryIfc repo;
@@ -23,6 +23,7 @@ import tigase.kernel.beans.selector.ClusterModeRequired;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
+import tigase.net.SocketThread;
 import tigase.server.Command;
 import tigase.server.Iq;
 import tigase.server.Packet;
@@ -30,8 +31,10 @@ import tigase.server.ReceiverTimeoutHandler;
 import tigase.server.xmppclient.ClientConnectionManager;
 import tigase.server.xmppclient.SeeOtherHostIfc.Phase;
 import tigase.stats.StatisticsList;
+import tigase.util.common.HashedWheelTimer;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
+import tigase.xml.XMLUtils;
 import tigase.xmpp.*;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
@@ -40,8 +43,11 @@ import javax.script.Bindings;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 
@@ -68,6 +74,7 @@ public class BoshConnectionManager
 	public static final String CLIENT_ACCESS_POLICY_FILE_PROP_VAL = "etc/client-access-policy.xml";
 	private static final Logger log = Logger.getLogger(BoshConnectionManager.class.getName());
 	private static final int DEF_PORT_NO = 5280;
+	private static final byte[] BODY_CLOSE_BYTES = "</body>".getBytes(StandardCharsets.UTF_8);
 
 	private static java.util.logging.Handler sidFilehandler;
 	protected final Map<UUID, BoshSession> sessions = new ConcurrentSkipListMap<UUID, BoshSession>();
@@ -104,6 +111,18 @@ public class BoshConnectionManager
 	private boolean sendNodeHostname = SEND_NODE_HOSTNAME_VAL;
 	@ConfigField(desc = "SID logger level", alias = SID_LOGGER_KEY)
 	private String sidLoggerLevel = SID_LOGGER_VAL;
+	@ConfigField(desc = "Use hashed timing wheel for wait and inactivity timers", alias = TIMER_WHEEL_KEY)
+	private boolean timerWheelEnabled = TIMER_WHEEL_VAL;
+	@ConfigField(desc = "Maximal number of expired timers executed as a single batch", alias = TIMER_WHEEL_BATCH_SIZE_KEY)
+	private int timerWheelBatchSize = TIMER_WHEEL_BATCH_SIZE_VAL;
+	@ConfigField(desc = "Duration of a single timing wheel tick in milliseconds", alias = TIMER_WHEEL_TICK_KEY)
+	private long timerWheelTick = TIMER_WHEEL_TICK_VAL;
+	@ConfigField(desc = "Number of buckets of the timing wheel", alias = TIMER_WHEEL_SIZE_KEY)
+	private int timerWheelSize = TIMER_WHEEL_SIZE_VAL;
+	@ConfigField(desc = "Write headers, body element and stanzas of a response as separate buffers", alias = GATHERED_RESPONSE_KEY)
+	private boolean gatheredResponse = GATHERED_RESPONSE_VAL;
+	private HashedWheelTimer timerWheel = null;
+	private ExecutorService timerWheelExecutor = null;
 	private ReceiverTimeoutHandler startedHandler = newStartedHandler();
 
 	;
@@ -176,6 +195,7 @@ public class BoshConnectionManager
 
 	@Override
 	public void cancelTask(BoshTask tt) {
+		// when scheduled in the timing wheel, the wheel timeout is the scheduled future of the task
 		tt.cancel();
 	}
 
@@ -303,12 +323,51 @@ public class BoshConnectionManager
 	public BoshTask scheduleTask(BoshSession bs, long delay) {
 		BoshTask bt = new BoshTask(bs, this);
 
+		HashedWheelTimer wheel = timerWheel;
+		if (wheel != null && wheel.isStarted()) {
+			wheel.schedule(bt, delay);
+			return bt;
+		}
+
 		addTimerTask(bt, delay);
 
 		// boshTasks.schedule(bt, delay);
 		return bt;
 	}
 
+	@Override
+	public void start() {
+		super.start();
+		if (timerWheelEnabled) {
+			timerWheelExecutor = Executors.newFixedThreadPool(Math.max(1, schedulerThreads()), r -> {
+				Thread t = new Thread(r, getName() + "-timer-wheel-executor");
+				t.setDaemon(true);
+				return t;
+			});
+			timerWheel = new HashedWheelTimer(getName() + "-timer-wheel", timerWheelTick, timerWheelSize,
+											  timerWheelBatchSize, timerWheelExecutor);
+			timerWheel.start();
+		}
+	}
+
+	@Override
+	public void stop() {
+		HashedWheelTimer wheel = timerWheel;
+		timerWheel = null;
+		if (wheel != null) {
+			List<tigase.util.common.TimerTask> unprocessed = wheel.stop();
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "{0} - timing wheel stopped with {1} pending timers",
+						new Object[]{getName(), unprocessed.size()});
+			}
+		}
+		if (timerWheelExecutor != null) {
+			timerWheelExecutor.shutdown();
+			timerWheelExecutor = null;
+		}
+		super.stop();
+	}
+
 	@Override
 	public void serviceStarted(XMPPIOService<Object> service) {
 		super.serviceStarted(service);
@@ -341,6 +400,51 @@ public class BoshConnectionManager
 		super.writeRawData(ios, data);
 	}
 
+	@Override
+	public boolean writeBody(BoshIOService ios, Element body, List<Element> stanzas) {
+		if (!gatheredResponse) {
+			return false;
+		}
+
+		List<byte[]> encoded = new ArrayList<>(stanzas.size());
+		for (Element stanza : stanzas) {
+			encoded.add(stanza.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		try {
+			ios.writeBody(encodeBodyOpen(body), encoded, BODY_CLOSE_BYTES);
+			SocketThread.addSocketService(ios);
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Exception during writing data [" + ios + "]", e);
+			try {
+				ios.stop();
+			} catch (Exception e1) {
+				log.log(Level.WARNING, "Exception stopping XMPPIOService [" + ios + "]", e1);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes opening tag of <code>body</code> element with all of its attributes.
+	 *
+	 * @param body <code>body</code> element
+	 *
+	 * @return UTF-8 encoded opening tag
+	 */
+	static byte[] encodeBodyOpen(Element body) {
+		StringBuilder sb = new StringBuilder(256).append('<').append(body.getName());
+		Map<String, String> attrs = body.getAttributes();
+		if (attrs != null) {
+			for (Map.Entry<String, String> attr : attrs.entrySet()) {
+				sb.append(' ').append(attr.getKey()).append("=\"").append(XMLUtils.escape(attr.getValue())).append('"');
+			}
+		}
+		if (body.getXMLNS() != null && (attrs == null || !attrs.containsKey("xmlns"))) {
+			sb.append(" xmlns=\"").append(XMLUtils.escape(body.getXMLNS())).append('"');
+		}
+		return sb.append('>').toString().getBytes(StandardCharsets.UTF_8);
+	}
+
 	@Override
 	public void xmppStreamClosed(XMPPIOService<Object> serv) {
 		if (log.isLoggable(Level.FINER)) {
@@ -444,6 +548,18 @@ public class BoshConnectionManager
 			// Be careful here, the size() for this map is expensive to count
 			list.add(getName(), "Bosh sessions", sessions.size(), Level.FINEST);
 		}
+
+		HashedWheelTimer wheel = timerWheel;
+		if (wheel != null) {
+			list.add(getName(), "Timer wheel pending timers", wheel.getPendingTimeouts(), Level.FINE);
+			list.add(getName(), "Timer wheel max pending timers", wheel.getMaxPendingTimeouts(), Level.FINER);
+			list.add(getName(), "Timer wheel occupancy per bucket",
+					 (float) wheel.getPendingTimeouts() / wheel.getWheelSize(), Level.FINER);
+			list.add(getName(), "Timer wheel scheduled timers", wheel.getScheduledCount(), Level.FINEST);
+			list.add(getName(), "Timer wheel cancelled timers", wheel.getCancelledCount(), Level.FINEST);
+			list.add(getName(), "Timer wheel expired timers", wheel.getExpiredCount(), Level.FINEST);
+			list.add(getName(), "Timer wheel expired batches", wheel.getExpiredBatchesCount(), Level.FINEST);
+		}
 	}
 
 	public void setSidLoggerLevel(String loggerLevel) {
@@ -26,6 +26,9 @@ import tigase.xmpp.XMPPIOService;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -137,15 +140,15 @@ public class BoshIOService
 	}
 
 	public StringBuilder prepareHeaders(String data)  {
+		return prepareHeaders(data != null ? getDataLength(data, content_type) : 0);
+	}
+
+	public StringBuilder prepareHeaders(int contentLength)  {
 		StringBuilder sb = new StringBuilder(200);
 
 		sb.append(HTTP_OK_RESPONSE);
 		sb.append(CONTENT_TYPE_HEADER).append(content_type).append(EOL);
-		if (data != null) {
-			sb.append(CONTENT_TYPE_LENGTH).append(getDataLength(data, content_type)).append(EOL);
-		} else {
-			sb.append(CONTENT_TYPE_LENGTH).append("0").append(EOL);
-		}
+		sb.append(CONTENT_TYPE_LENGTH).append(contentLength).append(EOL);
 		String extra_headers = configProvider.getExtraHeaders();
 		if (extra_headers != null) {
 			sb.append(extra_headers);
@@ -156,6 +159,12 @@ public class BoshIOService
 		return sb;
 	}
 
+	@Override
+	protected boolean isWriteCoalescingSupported() {
+		// each response is a separate HTTP message
+		return false;
+	}
+
 	protected int getDataLength(String data, String content_type) {
 		String charset = getCharset(content_type);
 		if (charset != null) {
@@ -202,6 +211,40 @@ public class BoshIOService
 		}
 	}
 
+	/**
+	 * Writes BOSH response from already encoded parts. HTTP headers, opening of <code>body</code> element, encoded
+	 * stanzas and closing of <code>body</code> element are passed to the socket as separate buffers in a single
+	 * write, so the response is not concatenated into a string before it is encoded.
+	 *
+	 * @param bodyOpen encoded opening tag of <code>body</code> element
+	 * @param stanzas encoded stanzas
+	 * @param bodyClose encoded closing tag of <code>body</code> element
+	 */
+	public void writeBody(byte[] bodyOpen, List<byte[]> stanzas, byte[] bodyClose) throws IOException {
+		int contentLength = bodyOpen.length + bodyClose.length;
+		for (byte[] stanza : stanzas) {
+			contentLength += stanza.length;
+		}
+
+		ByteBuffer[] buffers = new ByteBuffer[stanzas.size() + 3];
+		int idx = 0;
+		buffers[idx++] = ByteBuffer.wrap(prepareHeaders(contentLength).toString().getBytes(StandardCharsets.UTF_8));
+		buffers[idx++] = ByteBuffer.wrap(bodyOpen);
+		for (byte[] stanza : stanzas) {
+			buffers[idx++] = ByteBuffer.wrap(stanza);
+		}
+		buffers[idx] = ByteBuffer.wrap(bodyClose);
+
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Writing to socket {0} bytes in {1} buffers",
+					new Object[]{contentLength, buffers.length});
+		}
+		writeBytes(buffers);
+		if (configProvider.isCloseConnections()) {
+			stop();
+		}
+	}
+
 	@Override
 	public boolean checkData(char[] data) throws IOException {
 		// we need to check this every time as Webkit based browser are reusing
@@ -34,7 +34,6 @@ import tigase.xmpp.jid.JID;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -108,7 +107,6 @@ public class BoshSession {
 	// new LinkedHashMap<TimerTask, TimedTask>();
 	// private EnumMap<TimedTask, TimerTask> enum_task =
 	// new EnumMap<TimedTask, TimerTask>(TimedTask.class);
-	private Set<BoshTask> waitTimerSet = new ConcurrentSkipListSet<BoshTask>(timerTaskComparator);
 	private Queue<Element> waiting_packets = null;//new ConcurrentLinkedQueue<Element>();
 
 	/**
@@ -438,17 +436,6 @@ public class BoshSession {
 						new Object[]{BoshConnectionManager.BOSH_OPERATION_TYPE.TIMER, getSid(),
 									 "inactivityTimer fired"});
 			}
-			for (BoshTask waitTimer : waitTimerSet) {
-				if (waitTimer != null) {
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "{0} : {1} ({2})",
-								new Object[]{BoshConnectionManager.BOSH_OPERATION_TYPE.TIMER, getSid(),
-											 "Canceling waitTimer"});
-					}
-
-					handler.cancelTask(waitTimer);
-				}
-			}
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "{0} : {1} ({2})",
 						new Object[]{BoshConnectionManager.BOSH_OPERATION_TYPE.REMOVE, getSid(),
@@ -900,6 +887,7 @@ public class BoshSession {
 		}
 
 		Element body = body_par;
+		List<Element> stanzas = null;
 
 		if (body == null) {
 			body = getBodyElem();
@@ -909,7 +897,8 @@ public class BoshSession {
 			if (rid > 0) {
 				body.setAttribute(ACK_ATTR, "" + rid);
 			}
-			if (!waiting_packets.isEmpty()) {
+			stanzas = new ArrayList<Element>(Math.max(1, Math.min(waiting_packets.size(), max_batch_size)));
+			while ((!waiting_packets.isEmpty()) && (stanzas.isEmpty() || stanzas.size() < max_batch_size)) {
 
 				// body.addChild(applyFilters(waiting_packets.poll()));
 				// Make sure the XMLNS is set correctly for all stanzas to avoid
@@ -920,20 +909,14 @@ public class BoshSession {
 				if (stanza.getXMLNS() == null) {
 					stanza.setXMLNS(XMLNS_CLIENT_VAL);
 				}
-				body.addChild(stanza);
-				while ((!waiting_packets.isEmpty()) && (body.getChildren().size() < max_batch_size)) {
-
-					// body.addChild(applyFilters(waiting_packets.poll()));
-					stanza = waiting_packets.poll();
-					if (stanza.getXMLNS() == null) {
-						stanza.setXMLNS(XMLNS_CLIENT_VAL);
-					}
-					body.addChild(stanza);
-				}
+				stanzas.add(stanza);
 			}
 		}
 
-		if (body.getChild("stream:error") != null) {
+		boolean streamError = (stanzas == null)
+							  ? body.getChild("stream:error") != null
+							  : stanzas.stream().anyMatch(stanza -> "stream:error".equals(stanza.getName()));
+		if (streamError) {
 			body.addAttribute("condition", "remote-stream-error");
 			body.addAttribute("type", "terminate");
 			body.addAttribute("xmlns:stream", "http://etherx.jabber.org/streams");
@@ -944,7 +927,12 @@ public class BoshSession {
 			if (terminate) {
 				body.setAttribute("type", StanzaType.terminate.toString());
 			}
-			handler.writeRawData(serv, body.toString());
+			if (stanzas == null || !handler.writeBody(serv, body, stanzas)) {
+				if (stanzas != null) {
+					body.addChildren(stanzas);
+				}
+				handler.writeRawData(serv, body.toString());
+			}
 			retireConnectionService(serv);
 
 		} catch (Exception e) {
@@ -23,6 +23,8 @@ import tigase.xml.Element;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.List;
+
 /**
  * Describe interface BoshSessionTaskHandler here.
  * <br>
@@ -44,6 +46,19 @@ public interface BoshSessionTaskHandler {
 
 	void writeRawData(BoshIOService ios, String data);
 
+	/**
+	 * Writes response consisting of <code>body</code> element wrapping stanzas, with each stanza serialized separately
+	 * instead of serializing the whole response to a single string.
+	 *
+	 * @param ios connection to write response to
+	 * @param body <code>body</code> element without children
+	 * @param stanzas stanzas to wrap in <code>body</code> element
+	 *
+	 * @return <code>false</code> if this response path is disabled and response should be written with {@link
+	 * #writeRawData(BoshIOService, String)}
+	 */
+	boolean writeBody(BoshIOService ios, Element body, List<Element> stanzas);
+
 	boolean addOutStreamOpen(Packet packet, BoshSession bs);
 
 	boolean addOutStreamClosed(Packet packet, BoshSession bs, boolean withTimeout);
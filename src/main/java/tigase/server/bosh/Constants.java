@@ -66,6 +66,10 @@ public abstract class Constants {
 
 	protected static final String FROM_ATTR = "from";
 
+	protected static final String GATHERED_RESPONSE_KEY = "gathered-response";
+
+	protected static final boolean GATHERED_RESPONSE_VAL = false;
+
 	protected static final String HOLD_ATTR = "hold";
 
 	protected static final String HOLD_REQUESTS_PROP_KEY = "hold-requests";
@@ -129,6 +133,22 @@ public abstract class Constants {
 
 	protected static final String SID_ATTR = "sid";
 
+	protected static final String TIMER_WHEEL_BATCH_SIZE_KEY = "timer-wheel-batch-size";
+
+	protected static final int TIMER_WHEEL_BATCH_SIZE_VAL = 256;
+
+	protected static final String TIMER_WHEEL_KEY = "timer-wheel";
+
+	protected static final boolean TIMER_WHEEL_VAL = false;
+
+	protected static final String TIMER_WHEEL_SIZE_KEY = "timer-wheel-size";
+
+	protected static final int TIMER_WHEEL_SIZE_VAL = 512;
+
+	protected static final String TIMER_WHEEL_TICK_KEY = "timer-wheel-tick";
+
+	protected static final long TIMER_WHEEL_TICK_VAL = 100;
+
 	protected static final String TO_ATTR = "to";
 
 	protected static final String VER_ATTR = "ver";
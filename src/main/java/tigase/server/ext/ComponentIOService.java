@@ -18,11 +18,18 @@
 package tigase.server.ext;
 
 import tigase.net.ConnectionType;
+import tigase.net.IOService;
+import tigase.server.Packet;
 import tigase.util.cache.SizedCache;
 import tigase.xmpp.XMPPIOService;
 import tigase.xmpp.jid.JID;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created: Jun 14, 2010 12:05:41 PM
@@ -35,10 +42,130 @@ public class ComponentIOService
 	private static final int MAX_RECENT_JIDS = 10000;
 	private static final long MAX_CACHE_TIME = 100000;
 
+	// packets held by flow control, guarded by itself
+	private final Queue<Packet> heldPackets = new ArrayDeque<Packet>();
+	private final LongAdder heldPacketsTotal = new LongAdder();
+	private final LongAdder rejectedPackets = new LongAdder();
 	private boolean authenticated = false;
+	private int backlogLimit = Integer.MAX_VALUE;
+	private volatile int maxSendBacklog = 0;
 	private SizedCache<JID, JID> recentJIDs = new SizedCache<JID, JID>(MAX_RECENT_JIDS);
 	private String routings = null;
 
+	/**
+	 * Checks if packet may be written to this connection. If number of buffers waiting to be sent reached the limit or
+	 * other packets are already held, packet is added to the queue of held packets, which are written to the
+	 * connection when the backlog drops below the limit. If the queue of held packets is full, packet is rejected.
+	 *
+	 * @param packet packet to write
+	 * @param backlogLimit maximal number of buffers waiting to be sent
+	 * @param maxHeldPackets maximal number of packets held for this connection
+	 *
+	 * @return result of the flow control check
+	 */
+	public FlowControl holdPacketIfBacklogged(Packet packet, int backlogLimit, int maxHeldPackets) {
+		int backlog = getSendBacklog();
+		if (backlog > maxSendBacklog) {
+			maxSendBacklog = backlog;
+		}
+		synchronized (heldPackets) {
+			this.backlogLimit = backlogLimit;
+			if (heldPackets.isEmpty() && backlog < backlogLimit) {
+				return FlowControl.send;
+			}
+			if (heldPackets.size() >= maxHeldPackets) {
+				rejectedPackets.increment();
+				return FlowControl.rejected;
+			}
+			heldPackets.offer(packet);
+			heldPacketsTotal.increment();
+			return FlowControl.held;
+		}
+	}
+
+	@Override
+	public IOService<?> call() throws IOException {
+		IOService<?> io = super.call();
+		if (releaseHeldPackets() > 0 && writeInProgress.tryLock()) {
+			try {
+				processWaitingPackets();
+			} finally {
+				writeInProgress.unlock();
+			}
+		}
+		return io;
+	}
+
+	/**
+	 * Returns number of buffers waiting to be sent, increased by 1 if there are packets waiting to be serialized.
+	 * Packets held by flow control are not included.
+	 */
+	public int getSendBacklog() {
+		if (!isConnected()) {
+			return 0;
+		}
+		return waitingToSendSize() + (getWaitingPackets().isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Returns maximal send backlog observed when sending packets.
+	 */
+	public int getMaxSendBacklog() {
+		return maxSendBacklog;
+	}
+
+	/**
+	 * Returns number of packets currently held by flow control.
+	 */
+	public int getHeldPackets() {
+		synchronized (heldPackets) {
+			return heldPackets.size();
+		}
+	}
+
+	/**
+	 * Returns number of packets which were held by flow control.
+	 */
+	public long getHeldPacketsTotal() {
+		return heldPacketsTotal.sum();
+	}
+
+	/**
+	 * Returns number of packets rejected by flow control as the queue of held packets was full.
+	 */
+	public long getRejectedPackets() {
+		return rejectedPackets.sum();
+	}
+
+	/**
+	 * Removes and returns all packets held by flow control, ie. to redeliver them after the connection was closed.
+	 */
+	public List<Packet> takeHeldPackets() {
+		synchronized (heldPackets) {
+			List<Packet> result = new ArrayList<Packet>(heldPackets);
+			heldPackets.clear();
+			return result;
+		}
+	}
+
+	/**
+	 * Moves held packets to packets waiting to be sent, as long as the send backlog is below the limit.
+	 *
+	 * @return number of released packets
+	 */
+	protected int releaseHeldPackets() {
+		if (!isConnected()) {
+			return 0;
+		}
+		synchronized (heldPackets) {
+			int count = Math.min(heldPackets.size(), backlogLimit - waitingToSendSize());
+			for (int i = 0; i < count; i++) {
+				addPacketToSend(heldPackets.poll());
+			}
+			return Math.max(count, 0);
+		}
+	}
+
 	public boolean isAuthenticated() {
 		return authenticated;
 	}
@@ -66,4 +193,13 @@ public class ComponentIOService
 		return jid != null && recentJIDs.get(jid) != null;
 	}
 
+	public enum FlowControl {
+		/** packet may be written to the connection */
+		send,
+		/** packet was added to the queue of held packets */
+		held,
+		/** queue of held packets is full */
+		rejected
+	}
+
 }
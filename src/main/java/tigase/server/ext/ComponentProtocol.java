@@ -42,6 +42,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,6 +68,12 @@ public class ComponentProtocol
 
 	public static final String EXTCOMP_REPO_CLASS_PROPERTY = "--extcomp-repo-class";
 
+	public static final String FLOW_CONTROL_BACKLOG_PROP_KEY = "flow-control-backlog";
+
+	public static final String FLOW_CONTROL_PROP_KEY = "flow-control";
+
+	public static final String FLOW_CONTROL_QUEUE_SIZE_PROP_KEY = "flow-control-queue-size";
+
 	public static final String IDENTITY_TYPE_KEY = "identity-type";
 
 	public static final String IDENTITY_TYPE_VAL = "generic";
@@ -92,6 +99,13 @@ public class ComponentProtocol
 	private Map<String, CopyOnWriteArrayList<ComponentConnection>> connections = new ConcurrentHashMap<String, CopyOnWriteArrayList<ComponentConnection>>();
 	@ConfigField(desc = "Enable experimental features")
 	private boolean experimental = false;
+	@ConfigField(desc = "Hold packets for connections with too many buffers to send", alias = FLOW_CONTROL_PROP_KEY)
+	private boolean flowControl = false;
+	@ConfigField(desc = "Max number of buffers waiting to be sent per connection", alias = FLOW_CONTROL_BACKLOG_PROP_KEY)
+	private int flowControlBacklog = 1000;
+	@ConfigField(desc = "Max number of packets held per connection", alias = FLOW_CONTROL_QUEUE_SIZE_PROP_KEY)
+	private int flowControlQueueSize = 10000;
+	private final LongAdder flowControlRejected = new LongAdder();
 	@ConfigField(desc = "Hostnames to bind", alias = EXTCOMP_BIND_HOSTNAMES_PROP_KEY)
 	private String[] hostnamesToBind = new String[0];
 	@ConfigField(desc = "Identitiy type", alias = IDENTITY_TYPE_KEY)
@@ -254,6 +268,40 @@ public class ComponentProtocol
 			size += conns.size();
 		}
 		list.add(getName(), "Number of external component connections", size, Level.FINER);
+
+		if (flowControl) {
+			list.add(getName(), "Flow control rejected packets", flowControlRejected.sum(), Level.FINE);
+		}
+		if (list.checkLevel(Level.FINER)) {
+			int sendBacklog = 0;
+			int heldPackets = 0;
+			long heldPacketsTotal = 0;
+
+			for (CopyOnWriteArrayList<ComponentConnection> conns : connections.values()) {
+				for (ComponentConnection conn : conns) {
+					ComponentIOService serv = conn.getService();
+
+					if (serv == null) {
+						continue;
+					}
+					sendBacklog += serv.getSendBacklog();
+					heldPackets += serv.getHeldPackets();
+					heldPacketsTotal += serv.getHeldPacketsTotal();
+					if (list.checkLevel(Level.FINEST)) {
+						String prefix = conn.getDomain() + "/" + serv.getUniqueId() + " ";
+
+						list.add(getName(), prefix + "send backlog [buffers]", serv.getSendBacklog(), Level.FINEST);
+						list.add(getName(), prefix + "max send backlog [buffers]", serv.getMaxSendBacklog(),
+								 Level.FINEST);
+						list.add(getName(), prefix + "held packets", serv.getHeldPackets(), Level.FINEST);
+						list.add(getName(), prefix + "rejected packets", serv.getRejectedPackets(), Level.FINEST);
+					}
+				}
+			}
+			list.add(getName(), "Send backlog [buffers]", sendBacklog, Level.FINER);
+			list.add(getName(), "Held packets", heldPackets, Level.FINER);
+			list.add(getName(), "Held packets total", heldPacketsTotal, Level.FINER);
+		}
 	}
 
 	@Override
@@ -409,6 +457,11 @@ public class ComponentProtocol
 	public boolean serviceStopped(ComponentIOService service) {
 		boolean result = super.serviceStopped(service);
 
+		// packets held by flow control were not written to the connection yet
+		for (Packet p : service.takeHeldPackets()) {
+			processUndeliveredPacket(p, null, null);
+		}
+
 		if (result) {
 			Map<String, Object> sessionData = service.getSessionData();
 			String hostname = (String) sessionData.get(ComponentIOService.HOSTNAME_KEY);
@@ -510,6 +563,41 @@ public class ComponentProtocol
 		return super.writePacketToSocket(ios, p);
 	}
 
+	@Override
+	protected boolean writePacketToSocket(Packet p) {
+		ComponentIOService ios = getXMPPIOService(p);
+
+		if (ios == null) {
+			return false;
+		}
+		if (flowControl) {
+			// packets over the limit are held by the connection instead of blocking the processing thread
+			p.getElement().removeAttribute("xmlns");
+			switch (ios.holdPacketIfBacklogged(p, flowControlBacklog, flowControlQueueSize)) {
+				case held:
+					return true;
+				case rejected:
+					flowControlRejected.increment();
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Too many packets held for connection, rejecting packet: {1} [{0}]",
+								new Object[]{ios, p});
+					}
+					try {
+						addOutPacket(Authorization.RESOURCE_CONSTRAINT.getResponseMessage(p,
+																						   "Too many packets waiting for component.",
+																						   true));
+					} catch (PacketErrorTypeException ex) {
+						log.log(Level.FINE, "Dropping error packet which could not be sent: {0}", p);
+					}
+					return false;
+				default:
+					break;
+			}
+		}
+
+		return writePacketToSocket(ios, p);
+	}
+
 	@Override
 	public void xmppStreamClosed(ComponentIOService serv) {
 	}
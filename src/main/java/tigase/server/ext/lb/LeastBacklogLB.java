@@ -0,0 +1,96 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext.lb;
+
+import tigase.server.Packet;
+import tigase.server.ext.ComponentConnection;
+import tigase.server.ext.ComponentIOService;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects connection with the smallest backlog, that is number of buffers waiting to be sent and packets held by flow
+ * control. Packets for the same receiver bare JID are sent over the same connection as long as previous packets for
+ * this receiver were not sent yet, so order of packets addressed to a single receiver is preserved.
+ */
+public class LeastBacklogLB
+		implements LoadBalancerIfc {
+
+	private static final int MAX_ASSIGNMENTS = 100000;
+
+	private final Map<BareJID, ComponentIOService> assignments = new LinkedHashMap<BareJID, ComponentIOService>(1000,
+																												 0.75f,
+																												 true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<BareJID, ComponentIOService> eldest) {
+			return size() > MAX_ASSIGNMENTS;
+		}
+	};
+
+	@Override
+	public ComponentIOService selectConnection(Packet p, List<ComponentConnection> conns) {
+		BareJID receiver = p.getStanzaTo().getBareJID();
+
+		synchronized (assignments) {
+			ComponentIOService result = assignments.get(receiver);
+
+			if (result != null && result.isConnected() && backlog(result) > 0 && contains(conns, result)) {
+				return result;
+			}
+
+			result = null;
+			int backlog = Integer.MAX_VALUE;
+			for (ComponentConnection conn : conns) {
+				ComponentIOService serv = conn.getService();
+
+				if ((serv != null) && serv.isConnected()) {
+					int servBacklog = backlog(serv);
+
+					if (servBacklog < backlog) {
+						result = serv;
+						backlog = servBacklog;
+					}
+				}
+			}
+
+			if (result != null) {
+				assignments.put(receiver, result);
+			} else {
+				assignments.remove(receiver);
+			}
+
+			return result;
+		}
+	}
+
+	private static int backlog(ComponentIOService serv) {
+		return serv.getSendBacklog() + serv.getHeldPackets();
+	}
+
+	private static boolean contains(List<ComponentConnection> conns, ComponentIOService serv) {
+		for (ComponentConnection conn : conns) {
+			if (conn.getService() == serv) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Implementation of <code>permessage-deflate</code> extension of WebSocket protocol, which compresses payload of
+ * messages sent over a single WebSocket connection.
+ * <br>
+ * If context takeover is disabled for a direction of a connection, then instance of <code>Deflater</code> or
+ * <code>Inflater</code> is borrowed from the pool only for processing of a single message, so idle connections do not
+ * keep compression buffers allocated.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7692">RFC 7692</a>
+ */
+public class PerMessageDeflate {
+
+	public static final String EXTENSION_NAME = "permessage-deflate";
+
+	private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+	private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+	private static final byte[] TAIL = {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+	private final boolean clientNoContextTakeover;
+	private final Pool pool;
+	private final boolean serverNoContextTakeover;
+	private Deflater deflater;
+	private boolean inflating = false;
+	private Inflater inflater;
+	private boolean released = false;
+
+	/**
+	 * Selects first acceptable offer of <code>permessage-deflate</code> extension from value of
+	 * <code>Sec-WebSocket-Extensions</code> HTTP header sent by a client.
+	 *
+	 * @param extensions value of the header
+	 * @param serverNoContextTakeover disable context takeover for messages sent by the server
+	 * @param clientNoContextTakeover request client to disable context takeover for messages sent by the client
+	 *
+	 * @return negotiated extension or <code>null</code> if there is no acceptable offer
+	 */
+	public static PerMessageDeflate negotiate(String extensions, boolean serverNoContextTakeover,
+											  boolean clientNoContextTakeover, Pool pool) {
+		for (String offer : extensions.split(",")) {
+			String[] parts = offer.split(";");
+			if (!EXTENSION_NAME.equalsIgnoreCase(parts[0].trim())) {
+				continue;
+			}
+			boolean serverNoContext = serverNoContextTakeover;
+			boolean clientNoContext = clientNoContextTakeover;
+			boolean acceptable = true;
+			for (int i = 1; i < parts.length && acceptable; i++) {
+				String[] param = parts[i].split("=", 2);
+				String name = param[0].trim().toLowerCase();
+				String value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+				switch (name) {
+					case SERVER_NO_CONTEXT_TAKEOVER:
+						serverNoContext = true;
+						break;
+					case CLIENT_NO_CONTEXT_TAKEOVER:
+						clientNoContext = true;
+						break;
+					case CLIENT_MAX_WINDOW_BITS:
+						// we always use default (maximal) size of window to decompress data
+						break;
+					case SERVER_MAX_WINDOW_BITS:
+						// Deflater does not allow to limit size of window, so we may accept only the maximal one
+						acceptable = "15".equals(value);
+						break;
+					default:
+						acceptable = false;
+						break;
+				}
+			}
+			if (acceptable) {
+				return new PerMessageDeflate(serverNoContext, clientNoContext, pool);
+			}
+		}
+		return null;
+	}
+
+	public PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover, Pool pool) {
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.clientNoContextTakeover = clientNoContextTakeover;
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns value of <code>Sec-WebSocket-Extensions</code> HTTP header which should be sent in response to the
+	 * client.
+	 */
+	public String getResponseHeaderValue() {
+		StringBuilder sb = new StringBuilder(EXTENSION_NAME);
+		if (serverNoContextTakeover) {
+			sb.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+		}
+		if (clientNoContextTakeover) {
+			sb.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+		}
+		return sb.toString();
+	}
+
+	public boolean isClientNoContextTakeover() {
+		return clientNoContextTakeover;
+	}
+
+	/**
+	 * Checks if a fragmented compressed message is being received.
+	 */
+	public synchronized boolean isInflating() {
+		return inflating;
+	}
+
+	public boolean isServerNoContextTakeover() {
+		return serverNoContextTakeover;
+	}
+
+	/**
+	 * Compresses payload of a whole message.
+	 */
+	public synchronized ByteBuffer deflate(ByteBuffer data) {
+		final boolean borrowed = serverNoContextTakeover || released;
+		Deflater d = borrowed ? pool.borrowDeflater() : deflater;
+		if (d == null) {
+			d = deflater = pool.borrowDeflater();
+		}
+		try {
+			setInput(d, data);
+			byte[] out = new byte[Math.max(64, data.remaining() / 2 + 16)];
+			int size = 0;
+			while (true) {
+				size += d.deflate(out, size, out.length - size, Deflater.SYNC_FLUSH);
+				if (size < out.length) {
+					break;
+				}
+				out = Arrays.copyOf(out, out.length * 2);
+			}
+			data.position(data.limit());
+			// empty block added by SYNC_FLUSH needs to be removed from the message
+			if (size >= TAIL.length) {
+				size -= TAIL.length;
+			}
+			return ByteBuffer.wrap(out, 0, size);
+		} finally {
+			if (borrowed) {
+				pool.releaseDeflater(d);
+			}
+		}
+	}
+
+	/**
+	 * Decompresses payload of a frame of a compressed message.
+	 *
+	 * @param data payload of a frame
+	 * @param fin <code>true</code> if it is the last frame of a message
+	 * @param maxSize maximal allowed size of decompressed payload
+	 */
+	public synchronized ByteBuffer inflate(ByteBuffer data, boolean fin, int maxSize) throws DataFormatException {
+		if (inflater == null) {
+			inflater = pool.borrowInflater();
+		}
+		inflating = !fin;
+		try {
+			byte[] out = new byte[Math.min(maxSize, Math.max(256, data.remaining() * 4))];
+			setInput(inflater, data);
+			data.position(data.limit());
+			int size = 0;
+			boolean tail = fin;
+			while (true) {
+				if (inflater.needsInput()) {
+					if (!tail) {
+						break;
+					}
+					// restore empty block removed by the sender from the end of the message
+					inflater.setInput(TAIL);
+					tail = false;
+				}
+				if (size == out.length) {
+					out = grow(out, maxSize);
+				}
+				int n = inflater.inflate(out, size, out.length - size);
+				size += n;
+				if (inflater.finished()) {
+					// message was ended with final block, so next message will start a new stream
+					inflater.reset();
+					break;
+				}
+				if (n == 0 && !inflater.needsInput()) {
+					throw new DataFormatException("Preset dictionary is not supported");
+				}
+			}
+			return ByteBuffer.wrap(out, 0, size);
+		} catch (DataFormatException ex) {
+			inflating = false;
+			inflater.reset();
+			throw ex;
+		} finally {
+			if (!inflating && (clientNoContextTakeover || released)) {
+				pool.releaseInflater(inflater);
+				inflater = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns instances of <code>Deflater</code> and <code>Inflater</code> to the pool. It is called when the
+	 * connection is closed.
+	 */
+	public synchronized void release() {
+		released = true;
+		if (deflater != null) {
+			pool.releaseDeflater(deflater);
+			deflater = null;
+		}
+		if (inflater != null && !inflating) {
+			pool.releaseInflater(inflater);
+			inflater = null;
+		}
+	}
+
+	private static byte[] grow(byte[] out, int maxSize) throws DataFormatException {
+		if (out.length >= maxSize) {
+			throw new DataFormatException("Decompressed message is bigger than " + maxSize + " bytes");
+		}
+		return Arrays.copyOf(out, (int) Math.min(maxSize, out.length * 2L));
+	}
+
+	private static void setInput(Deflater deflater, ByteBuffer data) {
+		if (data.hasArray()) {
+			deflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		} else {
+			byte[] tmp = new byte[data.remaining()];
+			data.duplicate().get(tmp);
+			deflater.setInput(tmp);
+		}
+	}
+
+	private static void setInput(Inflater inflater, ByteBuffer data) {
+		if (data.hasArray()) {
+			inflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		} else {
+			byte[] tmp = new byte[data.remaining()];
+			data.duplicate().get(tmp);
+			inflater.setInput(tmp);
+		}
+	}
+
+	/**
+	 * Pool of <code>Deflater</code> and <code>Inflater</code> instances shared by all connections.
+	 */
+	public static class Pool {
+
+		private final LongAdder created = new LongAdder();
+		private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger deflatersSize = new AtomicInteger();
+		private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger inflatersSize = new AtomicInteger();
+		private final int level;
+		private final int maxSize;
+
+		public Pool(int level, int maxSize) {
+			this.level = level;
+			this.maxSize = maxSize;
+		}
+
+		public Deflater borrowDeflater() {
+			Deflater deflater = deflaters.poll();
+			if (deflater != null) {
+				deflatersSize.decrementAndGet();
+				return deflater;
+			}
+			created.increment();
+			return new Deflater(level, true);
+		}
+
+		public Inflater borrowInflater() {
+			Inflater inflater = inflaters.poll();
+			if (inflater != null) {
+				inflatersSize.decrementAndGet();
+				return inflater;
+			}
+			created.increment();
+			return new Inflater(true);
+		}
+
+		/**
+		 * Returns number of <code>Deflater</code> and <code>Inflater</code> instances created by the pool.
+		 */
+		public long getCreated() {
+			return created.sum();
+		}
+
+		/**
+		 * Returns number of idle instances in the pool.
+		 */
+		public int getIdle() {
+			return deflatersSize.get() + inflatersSize.get();
+		}
+
+		public void releaseDeflater(Deflater deflater) {
+			if (deflatersSize.incrementAndGet() > maxSize) {
+				deflatersSize.decrementAndGet();
+				deflater.end();
+				return;
+			}
+			deflater.reset();
+			deflaters.offer(deflater);
+		}
+
+		public void releaseInflater(Inflater inflater) {
+			if (inflatersSize.incrementAndGet() > maxSize) {
+				inflatersSize.decrementAndGet();
+				inflater.end();
+				return;
+			}
+			inflater.reset();
+			inflaters.offer(inflater);
+		}
+	}
+}
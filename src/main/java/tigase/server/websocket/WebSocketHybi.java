@@ -19,16 +19,22 @@ package tigase.server.websocket;
 
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.config.ConfigField;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.util.Base64;
 
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 
 import static tigase.server.websocket.WebSocketXMPPIOService.State.closing;
 
@@ -41,7 +47,7 @@ import static tigase.server.websocket.WebSocketXMPPIOService.State.closing;
  */
 @Bean(name = "hybiProtocol", parent = WebSocketClientConnectionManager.class, active = true)
 public class WebSocketHybi
-		implements WebSocketProtocolIfc {
+		implements WebSocketProtocolIfc, StatisticsProviderIfc {
 
 	public static final String ID = "hybi";
 	private static final Logger log = Logger.getLogger(WebSocketHybi.class.getCanonicalName());
@@ -54,13 +60,62 @@ public class WebSocketHybi
 					"Access-Control-Allow-Headers: Content-Type\r\n" + "Access-Control-Max-Age: 86400\r\n";
 
 	private static final String WS_ACCEPT_KEY = "Sec-WebSocket-Accept";
+	private static final String WS_EXTENSIONS_KEY = "Sec-WebSocket-Extensions";
 	private static final String WS_KEY_KEY = "Sec-WebSocket-Key";
 
 	private static final String CLOSE_CODE = "close-code";
 	private static final int PROTOCOL_ERROR = 1003;
 	private static byte[] EMPTY = new byte[0];
+	private final LongAdder compressedConnections = new LongAdder();
+	private final LongAdder decodedBytes = new LongAdder();
+	private final LongAdder decodingTime = new LongAdder();
+	private final LongAdder encodedBytes = new LongAdder();
+	private final LongAdder encodingTime = new LongAdder();
+	private final LongAdder framesReceived = new LongAdder();
+	private final LongAdder framesSent = new LongAdder();
+	private final LongAdder payloadBytesReceived = new LongAdder();
+	private final LongAdder payloadBytesSent = new LongAdder();
 	@ConfigField(desc = "Allow for unmasked frames send from client", alias = "ws-allow-unmasked-frames")
 	private boolean allowUnmaskedFromClient = false;
+	@ConfigField(desc = "Disable context takeover by client", alias = "ws-deflate-client-no-context-takeover")
+	private boolean clientNoContextTakeover = false;
+	@ConfigField(desc = "Compression level of messages", alias = "ws-deflate-level")
+	private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+	@ConfigField(desc = "Messages smaller than this size (in bytes) are sent uncompressed", alias = "ws-deflate-min-size")
+	private int deflateMinSize = 128;
+	private PerMessageDeflate.Pool deflatePool;
+	@ConfigField(desc = "Number of idle compressors kept for reuse", alias = "ws-deflate-pool-size")
+	private int deflatePoolSize = 256;
+	@ConfigField(desc = "Maximal size of decompressed message", alias = "ws-inflate-max-size")
+	private int inflateMaxSize = 16 * 1024 * 1024;
+	@ConfigField(desc = "Enable permessage-deflate extension", alias = "ws-permessage-deflate")
+	private boolean permessageDeflate = false;
+	@ConfigField(desc = "Disable context takeover by server", alias = "ws-deflate-server-no-context-takeover")
+	private boolean serverNoContextTakeover = false;
+
+	/**
+	 * Unmasks data in place, XORing 8 bytes at once with masking key repeated twice.
+	 *
+	 * @param buf buffer with masked data
+	 * @param offset index of the first byte of masked data in the buffer
+	 * @param length number of masked bytes
+	 * @param maskingKey masking key of the frame
+	 */
+	static void unmask(ByteBuffer buf, int offset, int length, byte[] maskingKey) {
+		long key = ((maskingKey[0] & 0xffL) << 24) | ((maskingKey[1] & 0xffL) << 16) |
+				((maskingKey[2] & 0xffL) << 8) | (maskingKey[3] & 0xffL);
+		if (buf.order() == ByteOrder.LITTLE_ENDIAN) {
+			key = Integer.reverseBytes((int) key) & 0xffffffffL;
+		}
+		final long mask = (key << 32) | key;
+		int i = 0;
+		for (; i + 8 <= length; i += 8) {
+			buf.putLong(offset + i, buf.getLong(offset + i) ^ mask);
+		}
+		for (; i < length; i++) {
+			buf.put(offset + i, (byte) (buf.get(offset + i) ^ maskingKey[i & 3]));
+		}
+	}
 
 	@Override
 	public String getId() {
@@ -99,6 +154,18 @@ public class WebSocketHybi
 		response.append(WS_ACCEPT_KEY + ": ");
 		response.append(wsAccept);
 		response.append("\r\n");
+		String extensions = headers.get(WS_EXTENSIONS_KEY.toUpperCase());
+		if (permessageDeflate && extensions != null) {
+			PerMessageDeflate deflate = PerMessageDeflate.negotiate(extensions, serverNoContextTakeover,
+																	clientNoContextTakeover, getDeflatePool());
+			if (deflate != null) {
+				service.deflate = deflate;
+				compressedConnections.increment();
+				response.append(WS_EXTENSIONS_KEY + ": ");
+				response.append(deflate.getResponseHeaderValue());
+				response.append("\r\n");
+			}
+		}
 		response.append("\r\n");
 		service.maskingKey = new byte[4];
 		service.writeRawData(response.toString());
@@ -169,19 +236,50 @@ public class WebSocketHybi
 			}
 
 			if (buf.remaining() >= service.frameLength) {
-				byte[] data = new byte[(int) service.frameLength];
-
-				buf.get(data);
+				final long start = System.nanoTime();
+				final int length = (int) service.frameLength;
+				final int offset = buf.position();
 
-				// if content is masked then unmask content
+				// if content is masked then unmask content in place and return only a view of it
 				if (masked) {
-					byte[] maskingKey = service.maskingKey;
-					for (int i = 0; i < data.length; i++) {
-						data[i] = (byte) (data[i] ^ maskingKey[i % 4]);
-					}
+					unmask(buf, offset, length, service.maskingKey);
 				}
-				unmasked = ByteBuffer.wrap(data);
+				ByteBuffer data = buf.duplicate();
+				data.limit(offset + length);
+				unmasked = data.slice();
+				buf.position(offset + length);
 				service.frameLength = -1;
+
+				boolean compressed = (type & 0x40) == 0x40;
+				if (compressed && (service.deflate == null || (type & 0x08) == 0x08)) {
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST,
+								"Socket: {0}, closing connection due to protocol error - unexpected compressed frame {1}",
+								new Object[]{service, String.format("%02X ", type)});
+					}
+					closeConnection(service, PROTOCOL_ERROR);
+					return null;
+				}
+				// continuation frames of compressed message do not have RSV1 bit set
+				if (compressed || ((type & 0x0F) == 0x00 && service.deflate != null && service.deflate.isInflating())) {
+					try {
+						unmasked = service.deflate.inflate(unmasked, (type & 0x80) == 0x80, inflateMaxSize);
+					} catch (DataFormatException ex) {
+						if (log.isLoggable(Level.FINEST)) {
+							log.log(Level.FINEST, "Socket: {0}, closing connection due to invalid compressed data: {1}",
+									new Object[]{service, ex.getMessage()});
+						}
+						closeConnection(service, PROTOCOL_ERROR);
+						return null;
+					}
+				}
+
+				long time = System.nanoTime() - start;
+				service.frameReceived(length, unmasked.remaining(), time);
+				framesReceived.increment();
+				payloadBytesReceived.add(length);
+				decodedBytes.add(unmasked.remaining());
+				decodingTime.add(time);
 			} else {
 				// not enought data so reset buffer position
 				buf.position(position);
@@ -204,12 +302,16 @@ public class WebSocketHybi
 						log.log(Level.FINEST, "Socket: {0}, sending response on ping frame", new Object[]{service});
 					}
 					type = (byte) (((byte) (type ^ 0x09)) | 0x0A);
+					// payload is a view of the read buffer, so it needs to be copied before it is queued for sending
+					ByteBuffer payload = ByteBuffer.allocate(unmasked.remaining());
+					payload.put(unmasked);
+					payload.flip();
 					try {
-						ByteBuffer header = createFrameHeader(type, unmasked.remaining());
+						ByteBuffer header = createFrameHeader(type, payload.remaining());
 
 						service.writeInProgress.lock();
 						service.writeBytes(header);
-						service.writeBytes(unmasked);
+						service.writeBytes(payload);
 					} finally {
 						service.writeInProgress.unlock();
 					}
@@ -237,7 +339,22 @@ public class WebSocketHybi
 			log.log(Level.FINEST, "Socket: {0}, sending encoded data size = {1}", new Object[]{service, size});
 		}
 
-		ByteBuffer bbuf = createFrameHeader((byte) 0x81, size);
+		final long start = System.nanoTime();
+		byte type = (byte) 0x81;
+		PerMessageDeflate deflate = service.deflate;
+		if (deflate != null && size >= deflateMinSize) {
+			// compressed message is marked with RSV1 bit
+			buf = deflate.deflate(buf);
+			type = (byte) 0xC1;
+		}
+		ByteBuffer bbuf = createFrameHeader(type, buf.remaining());
+
+		long time = System.nanoTime() - start;
+		service.frameSent(size, buf.remaining(), time);
+		framesSent.increment();
+		payloadBytesSent.add(size);
+		encodedBytes.add(buf.remaining());
+		encodingTime.add(time);
 
 		// send frame header
 		service.writeBytes(bbuf);
@@ -245,6 +362,26 @@ public class WebSocketHybi
 		service.writeBytes(buf);
 	}
 
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "WebSocket frames received", framesReceived.sum(), Level.FINE);
+		list.add(compName, "WebSocket frames sent", framesSent.sum(), Level.FINE);
+		list.add(compName, "WebSocket payload bytes received", payloadBytesReceived.sum(), Level.FINE);
+		list.add(compName, "WebSocket decoded bytes received", decodedBytes.sum(), Level.FINE);
+		list.add(compName, "WebSocket payload bytes sent", payloadBytesSent.sum(), Level.FINE);
+		list.add(compName, "WebSocket encoded bytes sent", encodedBytes.sum(), Level.FINE);
+		list.add(compName, "WebSocket decoding time [ms]", decodingTime.sum() / 1000000, Level.FINER);
+		list.add(compName, "WebSocket encoding time [ms]", encodingTime.sum() / 1000000, Level.FINER);
+		if (permessageDeflate) {
+			list.add(compName, "WebSocket compressed connections", compressedConnections.sum(), Level.FINE);
+			PerMessageDeflate.Pool pool = deflatePool;
+			if (pool != null) {
+				list.add(compName, "WebSocket created compressors", pool.getCreated(), Level.FINER);
+				list.add(compName, "WebSocket idle compressors", pool.getIdle(), Level.FINER);
+			}
+		}
+	}
+
 	@Override
 	public void closeConnection(WebSocketXMPPIOService service) {
 		if (!service.isConnected()) {
@@ -287,6 +424,13 @@ public class WebSocketHybi
 		}
 	}
 
+	private synchronized PerMessageDeflate.Pool getDeflatePool() {
+		if (deflatePool == null) {
+			deflatePool = new PerMessageDeflate.Pool(deflateLevel, deflatePoolSize);
+		}
+		return deflatePool;
+	}
+
 	/**
 	 * Create WebSocket frame header with specific type and size
 	 *
@@ -18,6 +18,7 @@
 package tigase.server.websocket;
 
 import tigase.server.Packet;
+import tigase.stats.StatisticsList;
 import tigase.xmpp.XMPPIOService;
 
 import java.io.IOException;
@@ -70,8 +71,17 @@ public class WebSocketXMPPIOService<RefObject>
 	/* static variables used by WebSocket protocol */
 
 	private final WebSocketProtocolIfc[] protocols;
+	protected PerMessageDeflate deflate = null;
 	protected long frameLength = -1;
 	protected byte[] maskingKey = null;
+	private long decodedBytes = 0;
+	private long decodingTime = 0;
+	private long encodedBytes = 0;
+	private long encodingTime = 0;
+	private long framesReceived = 0;
+	private long framesSent = 0;
+	private long payloadBytesReceived = 0;
+	private long payloadBytesSent = 0;
 	private byte[] partialData = null;
 	private WebSocketProtocolIfc protocol = null;
 	private boolean started = false;
@@ -90,6 +100,29 @@ public class WebSocketXMPPIOService<RefObject>
 		super.stop(); //To change body of generated methods, choose Tools | Templates.
 	}
 
+	@Override
+	public void forceStop() {
+		super.forceStop();
+		PerMessageDeflate deflate = this.deflate;
+		if (deflate != null) {
+			deflate.release();
+		}
+	}
+
+	@Override
+	public void getStatistics(StatisticsList list, boolean reset) {
+		super.getStatistics(list, reset);
+		list.add("websocket", "Frames received", framesReceived, Level.FINE);
+		list.add("websocket", "Frames sent", framesSent, Level.FINE);
+		list.add("websocket", "Payload bytes received", payloadBytesReceived, Level.FINE);
+		list.add("websocket", "Decoded bytes received", decodedBytes, Level.FINE);
+		list.add("websocket", "Payload bytes sent", payloadBytesSent, Level.FINE);
+		list.add("websocket", "Encoded bytes sent", encodedBytes, Level.FINE);
+		list.add("websocket", "Decoding time [ms]", decodingTime / 1000000, Level.FINER);
+		list.add("websocket", "Encoding time [ms]", encodingTime / 1000000, Level.FINER);
+		list.add("websocket", "Compression", deflate != null, Level.FINE);
+	}
+
 	public void dumpHeaders(Map<String, String> headers) {
 		if (log.isLoggable(Level.FINEST)) {
 			StringBuilder builder = new StringBuilder(1000);
@@ -105,6 +138,34 @@ public class WebSocketXMPPIOService<RefObject>
 		}
 	}
 
+	/**
+	 * Updates statistics of the connection after a frame was decoded.
+	 *
+	 * @param payloadSize size of frame payload
+	 * @param decodedSize size of payload after decompression
+	 * @param time time spent on decoding in nanoseconds
+	 */
+	protected void frameReceived(int payloadSize, int decodedSize, long time) {
+		framesReceived++;
+		payloadBytesReceived += payloadSize;
+		decodedBytes += decodedSize;
+		decodingTime += time;
+	}
+
+	/**
+	 * Updates statistics of the connection after a frame was encoded.
+	 *
+	 * @param payloadSize size of payload before compression
+	 * @param encodedSize size of frame payload
+	 * @param time time spent on encoding in nanoseconds
+	 */
+	protected void frameSent(int payloadSize, int encodedSize, long time) {
+		framesSent++;
+		payloadBytesSent += payloadSize;
+		encodedBytes += encodedSize;
+		encodingTime += time;
+	}
+
 	protected State getState() {
 		return state;
 	}
@@ -179,6 +240,13 @@ public class WebSocketXMPPIOService<RefObject>
 			while (cb.hasRemaining() && (decoded = decodeFrame(cb)) != null) {
 				//decoded = decodeFrame(cb);
 				if (decoded != null && decoded.hasRemaining()) {
+					if (decoded.remaining() > tmp.remaining()) {
+						// decompressed data may be bigger than received data
+						ByteBuffer bigger = ByteBuffer.allocate(tmp.position() + decoded.remaining() + cb.remaining());
+						tmp.flip();
+						bigger.put(tmp);
+						tmp = bigger;
+					}
 					tmp.put(decoded);
 				}
 			}
@@ -240,6 +308,12 @@ public class WebSocketXMPPIOService<RefObject>
 		return null;
 	}
 
+	@Override
+	protected boolean isWriteCoalescingSupported() {
+		// each packet is written in a separate WebSocket frame
+		return false;
+	}
+
 	/**
 	 * Custom implementation of writeData function which encodes data in WebSocket protocol frames
 	 *
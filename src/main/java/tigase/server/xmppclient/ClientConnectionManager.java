@@ -52,7 +52,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.zip.Deflater;
 
 /**
  * Class ClientConnectionManager Created: Tue Nov 22 07:07:11 2005
@@ -710,7 +709,7 @@ public class ClientConnectionManager
 						// writePacketToSocket(serv, p_proceed);
 						serv.addPacketToSend(p_compressed);
 						serv.processWaitingPackets();
-						serv.startZLib(Deflater.BEST_COMPRESSION);
+						serv.startZLib(zlibLevel, false, zlibStatistics);
 
 						// serv.call();
 						SocketThread.addSocketService(serv);
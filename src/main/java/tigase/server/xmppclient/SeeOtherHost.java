@@ -25,6 +25,7 @@ import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.kernel.beans.selector.ClusterModeRequired;
+import tigase.net.dns.DNSResolverService;
 import tigase.server.Command;
 import tigase.server.DataForm;
 import tigase.server.Packet;
@@ -35,6 +36,7 @@ import tigase.xmpp.jid.JID;
 
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -51,6 +53,8 @@ public class SeeOtherHost
 	private static final Logger log = Logger.getLogger(SeeOtherHost.class.getName());
 	@ConfigField(desc = "Default host to redirect to")
 	protected List<BareJID> defaultHost = null;
+	@Inject(nullAllowed = true)
+	protected DNSResolverService dnsResolver;
 	@Inject
 	protected EventBus eventBus;
 	@Inject
@@ -58,14 +62,19 @@ public class SeeOtherHost
 	@ConfigField(desc = "Active phases", alias = "phases")
 	private ArrayList<Phase> active = new ArrayList<Phase>(Arrays.asList(Phase.OPEN));
 	private Set<String> shutdownNodes = new CopyOnWriteArraySet<String>();
+	@ConfigField(desc = "Do not redirect to hosts which cannot be resolved", alias = "verify-redirect-host")
+	private boolean verifyRedirectHost = false;
 
 	@Override
 	public BareJID findHostForJID(BareJID jid, BareJID host) {
-		if (defaultHost != null && !defaultHost.isEmpty()) {
-			return defaultHost.get(0);
-		} else {
-			return host;
+		if (defaultHost != null) {
+			for (BareJID redirectHost : defaultHost) {
+				if (isResolvable(redirectHost)) {
+					return redirectHost;
+				}
+			}
 		}
+		return host;
 	}
 
 	@Override
@@ -124,6 +133,23 @@ public class SeeOtherHost
 		return jid != null && shutdownNodes.contains(jid.getDomain());
 	}
 
+	/**
+	 * Checks if the client redirected to the host will be able to resolve it. Only cached results of DNS lookups are
+	 * used, so the host is assumed to be resolvable until its lookup fails.
+	 */
+	protected boolean isResolvable(BareJID host) {
+		if (!verifyRedirectHost || dnsResolver == null || host == null) {
+			return true;
+		}
+		if (dnsResolver.isUnresolvable(host.getDomain())) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Skipping redirection to unresolvable host: {0}", host);
+			}
+			return false;
+		}
+		return true;
+	}
+
 	@HandleEvent
 	protected void nodeShutdown(ShutdownEvent event) {
 		synchronized (this) {
@@ -63,7 +63,7 @@ public class SeeOtherHostDB
 
 		BareJID see_other_host = repo.getHostFor(jid);
 
-		if (see_other_host != null && !isNodeShutdown(see_other_host)) {
+		if (see_other_host != null && !isNodeShutdown(see_other_host) && isResolvable(see_other_host)) {
 			return see_other_host;
 //		} else {
 //			see_other_host = host;
@@ -75,7 +75,7 @@ public class SeeOtherHostDB
 			log.log(Level.SEVERE, "DB lookup failed, fallback to SeeOtherHostHashed: ", ex);
 		}
 
-		if (see_other_host == null || isNodeShutdown(see_other_host)) {
+		if (see_other_host == null || isNodeShutdown(see_other_host) || !isResolvable(see_other_host)) {
 			log.log(Level.FINE,
 					"DB lookup failed or selected node is being stopped, fallback to SeeOtherHostHashed for {0}", jid);
 			see_other_host = super.findHostForJID(jid, host);
@@ -78,7 +78,7 @@ public class SeeOtherHostDualIP
 			redirection = redirectsMap.get(see_other_host);
 		}
 
-		if (redirection == null && fallback_host != null) {
+		if ((redirection == null || !isResolvable(redirection)) && fallback_host != null) {
 			// let's use default fallback redirection if present
 			redirection = fallback_host;
 		}
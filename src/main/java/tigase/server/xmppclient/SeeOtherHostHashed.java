@@ -50,9 +50,10 @@ public class SeeOtherHostHashed
 	public BareJID findHostForJID(BareJID jid, BareJID host) {
 		int hash = Math.abs(jid.hashCode());
 		if (defaultHost != null && !defaultHost.isEmpty() &&
-				connectedNodes.contains(defaultHost.get(hash % defaultHost.size()))) {
+				connectedNodes.contains(defaultHost.get(hash % defaultHost.size())) &&
+				isResolvable(defaultHost.get(hash % defaultHost.size()))) {
 			return defaultHost.get(hash % defaultHost.size());
-		} else if (connectedNodes.size() > 0) {
+		} else if (connectedNodes.size() > 0 && isResolvable(connectedNodes.get(hash % connectedNodes.size()))) {
 			return connectedNodes.get(hash % connectedNodes.size());
 		} else {
 			return host;
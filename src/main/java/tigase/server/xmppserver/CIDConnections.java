@@ -18,9 +18,11 @@
 package tigase.server.xmppserver;
 
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.net.ConnectionType;
 import tigase.net.SocketType;
+import tigase.net.dns.DNSResolverService;
 import tigase.server.Packet;
 import tigase.util.dns.DNSEntry;
 import tigase.util.dns.DNSResolverFactory;
@@ -63,6 +65,8 @@ public class CIDConnections {
 	private int max_out_conns = 4;
 	private int max_out_conns_per_ip = 2;
 	private long max_waiting_time = 15 * 60 * 1000;
+	private volatile long multiplexingFailedTime = 0;
+	private volatile S2SConnection multiplexingPending = null;
 	private boolean oneWayAuthentication;
 	private Set<S2SConnection> outgoing = new ConcurrentSkipListSet<S2SConnection>();
 	private AtomicBoolean outgoingOpenInProgress = new AtomicBoolean(false);
@@ -151,8 +155,12 @@ public class CIDConnections {
 
 				// Release the 'lock'
 				outgoingOpenInProgress.set(false);
+				if (multiplexingPending == s2s_conn) {
+					multiplexingPending = null;
+				}
 				outgoing.remove(s2s_conn);
 				outgoing_handshaking.remove(s2s_conn);
+				handler.outgoingConnectionsChanged(cid, this);
 				if (!waitingPackets.isEmpty()) {
 					checkOpenConnections();
 				}
@@ -280,6 +288,77 @@ public class CIDConnections {
 		return s2s_conn;
 	}
 
+	/**
+	 * Returns outgoing connection opened and negotiated for this CID which may be shared with other CIDs with the
+	 * same remote domain.
+	 *
+	 * @param maxMultiplexedCIDs maximal number of CIDs already multiplexed over the returned connection
+	 */
+	public S2SConnection getMultiplexableConnection(int maxMultiplexedCIDs) {
+		for (S2SConnection s2sc : outgoing) {
+			S2SIOService serv = s2sc.getS2SIOService();
+
+			if (serv != null && s2sc.isConnected() && serv.isStreamNegotiationCompleted() &&
+					!serv.isHandshakingOnly() && cid.equals(serv.getSessionData().get("cid")) &&
+					serv.getMultiplexedCIDs().size() < maxMultiplexedCIDs) {
+				return s2sc;
+			}
+		}
+
+		return null;
+	}
+
+	public boolean isMultiplexed() {
+		for (S2SConnection s2sc : outgoing) {
+			S2SIOService serv = s2sc.getS2SIOService();
+			if (serv != null && serv.isMultiplexedCID(cid)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Called when authentication of this CID over connection shared with other CID completed.
+	 *
+	 * @param serv shared connection
+	 * @param success <code>true</code> if this CID was authenticated
+	 */
+	public void multiplexingCompleted(S2SIOService serv, boolean success) {
+		S2SConnection s2s_conn = serv.getS2SConnection();
+
+		if (log.isLoggable(Level.FINER)) {
+			log.log(Level.FINER, "Multiplexing completed: {1} for {2} [{0}]", new Object[]{serv, success, cid});
+		}
+		if (success) {
+			outgoing_handshaking.remove(s2s_conn);
+			multiplexingPending = null;
+			outgoingOpenInProgress.set(false);
+			multiplexingFailedTime = 0;
+			outgoing.add(s2s_conn);
+			sendPacket(null);
+		} else {
+			serv.removeMultiplexedCID(cid);
+			multiplexingFailed(s2s_conn);
+		}
+	}
+
+	/**
+	 * Checks if authentication over connection shared with other CID recently failed for this CID, so only dedicated
+	 * connections should be opened.
+	 */
+	public boolean isMultiplexingSuspended() {
+		long failedTime = multiplexingFailedTime;
+		if (failedTime == 0) {
+			return false;
+		}
+		if (failedTime + handler.getMultiplexingBackoff() <= System.currentTimeMillis()) {
+			multiplexingFailedTime = 0;
+			return false;
+		}
+		return true;
+	}
+
 	public int getWaitingControlCount() {
 		int result = 0;
 
@@ -361,14 +440,15 @@ public class CIDConnections {
 	}
 
 	public void sendHandshakingOnly(final Packet verify_req) {
-		connectionsOpenerService.schedule(new Runnable() {
+		// using additional domain name mapping to allow usage of intermediate server
+		final String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
+
+		final CompletableFuture<DNSEntry[]> lookup = connectionsOpenerService.resolveSRV(serverName);
+		lookup.whenComplete((entries, error) -> connectionsOpenerService.schedule(new Runnable() {
 			@Override
 			public void run() {
 				try {
-					// using additional domain name mapping to allow usage of intermediate server
-					String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
-
-					DNSEntry dns_entry = DNSResolverFactory.getInstance().getHostSRV_Entry(serverName);
+					DNSEntry dns_entry = DNSResolverService.selectSRVEntry(DNSResolverService.getResult(lookup));
 
 					boolean hasIPv6 = Stream.concat(incoming.stream(), outgoing.stream())
 							.filter(conn -> conn.isConnected())
@@ -400,7 +480,7 @@ public class CIDConnections {
 					log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost(), ex);
 				}
 			}
-		}, 0, TimeUnit.MILLISECONDS);
+		}, 0, TimeUnit.MILLISECONDS));
 	}
 
 	public void sendPacket(Packet packet) {
@@ -481,6 +561,7 @@ public class CIDConnections {
 
 			outgoing_handshaking.remove(s2s_conn);
 			outgoing.add(s2s_conn);
+			handler.outgoingConnectionsChanged(cid, this);
 			sendPacket(null);
 		}
 	}
@@ -589,6 +670,9 @@ public class CIDConnections {
 
 				return result;
 			}
+			if (all_outgoing == 0 && !isMultiplexingSuspended() && openMultiplexedConnection()) {
+				return true;
+			}
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Checking DNS for host: {0} for: {1}", new Object[]{cid.getRemoteHost(), cid});
 			}
@@ -605,10 +689,42 @@ public class CIDConnections {
 			}
 
 			// using additional domain name mapping to allow usage of intermediate server
-			String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
+			final String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
+
+			// Check DNS entries, if they are not cached we continue once lookup is completed
+			// without blocking the opener thread
+			final CompletableFuture<DNSEntry[]> lookup = connectionsOpenerService.resolveSRV(serverName);
+			if (lookup.isDone()) {
+				return openOutgoingConnections(serverName, lookup);
+			}
+			lookup.whenComplete((entries, error) -> connectionsOpenerService.schedule(() -> {
+				boolean opened = false;
 
-			// Check DNS entries
-			DNSEntry[] dns_entries = DNSResolverFactory.getInstance().getHostSRV_Entries(serverName);
+				try {
+					opened = openOutgoingConnections(serverName, lookup);
+				} catch (Exception e) {
+					log.log(Level.WARNING, "uncaughtException in the connection opening thread: ", e);
+				}
+				if (!opened) {
+					outgoingOpenInProgress.set(false);
+				}
+			}, 0, TimeUnit.MILLISECONDS));
+
+			return true;
+		} catch (UnknownHostException ex) {
+			log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost() + ", for: " + cid, ex);
+			sendPacketsBack();
+		}
+
+		return result;
+	}
+
+	private boolean openOutgoingConnections(String serverName, CompletableFuture<DNSEntry[]> lookup) {
+		boolean result = false;
+		int all_outgoing = outgoing.size() + outgoing_handshaking.size();
+
+		try {
+			DNSEntry[] dns_entries = DNSResolverService.getResult(lookup);
 
 			// Activate 'missing' connections
 			for (DNSEntry dNSEntry : dns_entries) {
@@ -650,6 +766,49 @@ public class CIDConnections {
 		return result;
 	}
 
+	private boolean openMultiplexedConnection() {
+		final S2SConnection shared = handler.getMultiplexableConnection(cid);
+
+		if (shared == null) {
+			return false;
+		}
+		outgoing_handshaking.add(shared);
+		multiplexingPending = shared;
+		if (!handler.multiplexConnection(cid, shared)) {
+			outgoing_handshaking.remove(shared);
+			multiplexingPending = null;
+			return false;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Reusing connection {0} for: {1}", new Object[]{shared, cid});
+		}
+		connectionsOpenerService.schedule(() -> {
+			if (multiplexingPending == shared) {
+				log.log(Level.FINE, "Multiplexing timeout over connection {0} for: {1}", new Object[]{shared, cid});
+				S2SIOService serv = shared.getS2SIOService();
+				if (serv != null) {
+					handler.multiplexingCompleted(cid, serv, false);
+				} else {
+					// shared connection is already closed, so there is nothing to clean up on it
+					multiplexingFailed(shared);
+				}
+			}
+		}, handler.getMultiplexingTimeout(), TimeUnit.MILLISECONDS);
+
+		return true;
+	}
+
+	private void multiplexingFailed(S2SConnection s2s_conn) {
+		outgoing_handshaking.remove(s2s_conn);
+		multiplexingPending = null;
+		outgoingOpenInProgress.set(false);
+		// falling back to a dedicated connection for this CID until backoff time passes
+		multiplexingFailedTime = System.currentTimeMillis();
+		if (!waitingPackets.isEmpty()) {
+			checkOpenConnections();
+		}
+	}
+
 	protected boolean hasExceededMaxWaitingTime() {
 		return firstWaitingTime + max_waiting_time <= System.currentTimeMillis();
 	}
@@ -677,6 +836,9 @@ public class CIDConnections {
 		@ConfigField(desc = "Numer of threads for opening outgoing connections")
 		private int outgoingOpenThreads = Runtime.getRuntime().availableProcessors();
 
+		@Inject(nullAllowed = true)
+		private DNSResolverService dnsResolverService;
+
 		private ScheduledExecutorService outgoingOpenTasks = Executors.newScheduledThreadPool(outgoingOpenThreads);
 
 		public void setOutgoingOpenThreads(int size) {
@@ -688,6 +850,26 @@ public class CIDConnections {
 			}
 		}
 
+		public DNSResolverService getDnsResolverService() {
+			return dnsResolverService;
+		}
+
+		public void setDnsResolverService(DNSResolverService dnsResolverService) {
+			this.dnsResolverService = dnsResolverService;
+		}
+
+		public CompletableFuture<DNSEntry[]> resolveSRV(String serverName) {
+			if (dnsResolverService != null) {
+				return dnsResolverService.resolveSRV(serverName);
+			}
+			// no resolver service, lookup is done synchronously in the calling thread
+			try {
+				return CompletableFuture.completedFuture(DNSResolverFactory.getInstance().getHostSRV_Entries(serverName));
+			} catch (UnknownHostException ex) {
+				return CompletableFuture.failedFuture(ex);
+			}
+		}
+
 		public void schedule(Runnable r, long delay, TimeUnit unit) {
 			outgoingOpenTasks.schedule(r, delay, unit);
 		}
@@ -64,6 +64,28 @@ public interface S2SConnectionHandlerIfc<IO extends XMPPIOService<?>> {
 	 */
 	String getSecretForDomain(String domain) throws NotLocalhostException;
 
+	/**
+	 * Returns established outgoing connection to the remote domain of the passed CID, opened for a different local
+	 * domain, which may be reused to authenticate the CID using dialback piggybacking.
+	 *
+	 * @param cid connection id which requires outgoing connection
+	 *
+	 * @return connection which may be reused or <code>null</code> if multiplexing is disabled or there is no such
+	 * connection
+	 */
+	S2SConnection getMultiplexableConnection(CID cid);
+
+	/**
+	 * Returns time in milliseconds during which CID which failed authentication over shared connection opens only
+	 * dedicated connections.
+	 */
+	long getMultiplexingBackoff();
+
+	/**
+	 * Returns time in milliseconds to wait for authentication of the CID over shared connection.
+	 */
+	long getMultiplexingTimeout();
+
 	String getServerNameForDomain(String domain);
 
 	void initNewConnection(Map<String, Object> port_props);
@@ -77,6 +99,24 @@ public interface S2SConnectionHandlerIfc<IO extends XMPPIOService<?>> {
 	 */
 	boolean isTlsRequired(String domain);
 
+	/**
+	 * Starts authentication of the CID over already established connection.
+	 *
+	 * @return <code>true</code> if authentication request was sent
+	 */
+	boolean multiplexConnection(CID cid, S2SConnection s2s_conn);
+
+	/**
+	 * Called when authentication of the CID multiplexed over already established connection completed.
+	 */
+	void multiplexingCompleted(CID cid, S2SIOService serv, boolean success);
+
+	/**
+	 * Called when outgoing connection of the CID was established or stopped, so it may be used or may no longer be
+	 * used for multiplexing of other CIDs.
+	 */
+	void outgoingConnectionsChanged(CID cid, CIDConnections cid_conns);
+
 	boolean isTlsWantClientAuthEnabled();
 
 	boolean isTlsNeedClientAuthEnabled();
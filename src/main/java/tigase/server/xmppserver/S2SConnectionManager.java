@@ -25,6 +25,7 @@ import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
 import tigase.server.*;
+import tigase.server.xmppserver.proc.Dialback;
 import tigase.stats.StatisticsList;
 import tigase.stats.StatisticsProviderIfc;
 import tigase.vhosts.VHostItem;
@@ -38,7 +39,9 @@ import tigase.xmpp.jid.JID;
 import javax.script.Bindings;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -98,6 +101,11 @@ public class S2SConnectionManager
 	 * Outgoing and incoming connections for a given domains pair (localdomain, remotedomain)
 	 */
 	protected Map<CID, CIDConnections> cidConnections = new ConcurrentHashMap<CID, CIDConnections>(10000);
+	/**
+	 * Connections for a given remote domain with established outgoing connections, used to find connections which may
+	 * be shared by many local domains
+	 */
+	protected final Map<String, Set<CIDConnections>> cidConnectionsByRemoteHost = new ConcurrentHashMap<>();
 	@Inject
 	private CIDConnections.CIDConnectionsOpenerService cidConnectionsOpenerService;
 	// ~--- fields ---------------------------------------------------------------
@@ -111,6 +119,16 @@ public class S2SConnectionManager
 	private DomainServerNameMapper domainServerNameMapper;
 	@Inject
 	private List<S2SFilterIfc> filters = Collections.emptyList();
+	@ConfigField(desc = "Authenticate new domain pairs over existing outgoing connection to the remote domain", alias = "dialback-multiplexing")
+	private boolean dialbackMultiplexing = false;
+	@ConfigField(desc = "Maximal number of domain pairs multiplexed over a single outgoing connection", alias = "dialback-multiplexing-max-cids")
+	private int dialbackMultiplexingMaxCIDs = 100;
+	@ConfigField(desc = "Time in milliseconds to wait for authentication of a domain pair over shared connection", alias = "dialback-multiplexing-timeout")
+	private long dialbackMultiplexingTimeout = 30 * 1000;
+	@ConfigField(desc = "Time in milliseconds after failed authentication over shared connection during which domain pair uses dedicated connections", alias = "dialback-multiplexing-backoff")
+	private long dialbackMultiplexingBackoff = 10 * 60 * 1000;
+	private final AtomicLong multiplexedConnections = new AtomicLong();
+	private final AtomicLong multiplexingFailures = new AtomicLong();
 	private int maxINConnections = MAX_INCOMING_CONNECTIONS_PROP_VAL;
 	private int maxOUTPerIPConnections = MAX_OUT_PER_IP_CONNECTIONS_PROP_VAL;
 	private int maxOUTTotalConnections = MAX_OUT_TOTAL_CONNECTIONS_PROP_VAL;
@@ -417,6 +435,12 @@ public class S2SConnectionManager
 			for (S2SProcessor proc : processors) {
 				proc.serviceStopped(serv);
 			}
+			for (CID cid : serv.getMultiplexedCIDs()) {
+				CIDConnections cid_conns = getCIDConnections(cid);
+				if (cid_conns != null) {
+					cid_conns.connectionStopped(serv);
+				}
+			}
 		}
 
 		if (log.isLoggable(Level.INFO)) {
@@ -526,6 +550,77 @@ public class S2SConnectionManager
 		return item.getS2sSecret();
 	}
 
+	@Override
+	public S2SConnection getMultiplexableConnection(CID cid) {
+		if (!dialbackMultiplexing) {
+			return null;
+		}
+
+		Set<CIDConnections> candidates = cidConnectionsByRemoteHost.get(cid.getRemoteHost());
+		if (candidates == null) {
+			return null;
+		}
+		for (CIDConnections cid_conns : candidates) {
+			S2SConnection s2s_conn = cid_conns.getMultiplexableConnection(dialbackMultiplexingMaxCIDs);
+			if (s2s_conn != null) {
+				return s2s_conn;
+			}
+			if (cid_conns.getOutgoingCount() == 0) {
+				removeMultiplexingCandidate(cid.getRemoteHost(), cid_conns);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public long getMultiplexingBackoff() {
+		return dialbackMultiplexingBackoff;
+	}
+
+	@Override
+	public long getMultiplexingTimeout() {
+		return dialbackMultiplexingTimeout;
+	}
+
+	@Override
+	public boolean multiplexConnection(CID cid, S2SConnection s2s_conn) {
+		for (S2SProcessor proc : processors) {
+			if (proc instanceof Dialback) {
+				return ((Dialback) proc).multiplexConnection(s2s_conn.getS2SIOService(), cid);
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void multiplexingCompleted(CID cid, S2SIOService serv, boolean success) {
+		CIDConnections cid_conns = getCIDConnections(cid);
+
+		if (success) {
+			multiplexedConnections.incrementAndGet();
+		} else {
+			multiplexingFailures.incrementAndGet();
+		}
+		if (cid_conns != null) {
+			cid_conns.multiplexingCompleted(serv, success);
+		}
+	}
+
+	@Override
+	public void outgoingConnectionsChanged(CID cid, CIDConnections cid_conns) {
+		if (dialbackMultiplexing && cid_conns.getOutgoingCount() > 0) {
+			cidConnectionsByRemoteHost.compute(cid.getRemoteHost(), (remoteHost, candidates) -> {
+				if (candidates == null) {
+					candidates = new CopyOnWriteArraySet<>();
+				}
+				candidates.add(cid_conns);
+				return candidates;
+			});
+		} else {
+			removeMultiplexingCandidate(cid.getRemoteHost(), cid_conns);
+		}
+	}
+
 	@Override
 	public String getServerNameForDomain(String domain) {
 		return domainServerNameMapper.getServerNameForDomain(domain);
@@ -535,6 +630,10 @@ public class S2SConnectionManager
 	public void getStatistics(StatisticsList list) {
 		super.getStatistics(list);
 		list.add(getName(), "CIDs number", cidConnections.size(), Level.INFO);
+		if (dialbackMultiplexing) {
+			list.add(getName(), "Connections saved by multiplexing", multiplexedConnections.get(), Level.FINE);
+			list.add(getName(), "Multiplexing failures", multiplexingFailures.get(), Level.FINE);
+		}
 		if (list.checkLevel(Level.FINEST)) {
 			long total_outgoing = 0;
 			long total_outgoing_tls = 0;
@@ -544,6 +643,7 @@ public class S2SConnectionManager
 			long total_dbKeys = 0;
 			long total_waiting = 0;
 			long total_waiting_control = 0;
+			long total_multiplexed = 0;
 
 			for (Map.Entry<CID, CIDConnections> cid_conn : cidConnections.entrySet()) {
 				int outgoing = cid_conn.getValue().getOutgoingCount();
@@ -574,8 +674,12 @@ public class S2SConnectionManager
 				total_dbKeys += dbKeys;
 				total_waiting += waiting;
 				total_waiting_control += waiting_control;
+				if (cid_conn.getValue().isMultiplexed()) {
+					++total_multiplexed;
+				}
 			}
 			list.add(getName(), "Total outgoing", total_outgoing, Level.FINEST);
+			list.add(getName(), "Total multiplexed", total_multiplexed, Level.FINEST);
 			list.add(getName(), "Total outgoing TLS", total_outgoing_tls, Level.FINEST);
 			list.add(getName(), "Total outgoing handshaking", total_outgoing_handshaking, Level.FINEST);
 			list.add(getName(), "Total incoming", total_incoming, Level.FINEST);
@@ -587,6 +691,9 @@ public class S2SConnectionManager
 		for (S2SProcessor processor : processors) {
 			((StatisticsProviderIfc)processor).getStatistics(getName(), list);
 		}
+		if (cidConnectionsOpenerService.getDnsResolverService() != null) {
+			cidConnectionsOpenerService.getDnsResolverService().getStatistics(getName(), list);
+		}
 	}
 
 	@Override
@@ -672,6 +779,13 @@ public class S2SConnectionManager
 		return cid_conns;
 	}
 
+	private void removeMultiplexingCandidate(String remoteHost, CIDConnections cid_conns) {
+		cidConnectionsByRemoteHost.computeIfPresent(remoteHost, (key, candidates) -> {
+			candidates.remove(cid_conns);
+			return candidates.isEmpty() ? null : candidates;
+		});
+	}
+
 	// ~--- get methods ----------------------------------------------------------
 	private CIDConnections getCIDConnections(CID cid) {
 		if (cid == null) {
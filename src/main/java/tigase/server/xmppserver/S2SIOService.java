@@ -43,6 +43,11 @@ public class S2SIOService
 	 */
 	private Set<CID> authenticatedCIDsOUT = new CopyOnWriteArraySet<CID>();
 	private Set<CID> authenticatedCIDsIN = new CopyOnWriteArraySet<CID>();
+	/**
+	 * CIDs other than the CID for which this connection was opened, which are authenticated (or awaiting
+	 * authentication) over this connection using dialback piggybacking.
+	 */
+	private Set<CID> multiplexedCIDs = new CopyOnWriteArraySet<CID>();
 	private boolean streamNegotiationCompleted = false;
 	private CIDConnections cid_conns = null;
 	private String dbKey = null;
@@ -93,6 +98,22 @@ public class S2SIOService
 		return cids;
 	}
 
+	public void addMultiplexedCID(CID cid) {
+		multiplexedCIDs.add(cid);
+	}
+
+	public Set<CID> getMultiplexedCIDs() {
+		return multiplexedCIDs;
+	}
+
+	public boolean isMultiplexedCID(CID cid) {
+		return multiplexedCIDs.contains(cid);
+	}
+
+	public void removeMultiplexedCID(CID cid) {
+		multiplexedCIDs.remove(cid);
+	}
+
 	public S2SConnection getS2SConnection() {
 		return s2s_conn;
 	}
@@ -139,7 +160,7 @@ public class S2SIOService
 		CID cid = (CID) getSessionData().get("cid");
 
 		return "CID: " + cid + ", IN: " + authenticatedCIDsIN.size() + ", OUT: " + authenticatedCIDsOUT.size() +
-				", authenticated: " + isAuthenticated() + ", remote-session-id: " + getSessionId()
+				", multiplexed: " + multiplexedCIDs.size() + ", authenticated: " + isAuthenticated() + ", remote-session-id: " + getSessionId()
 				+ ", streamNegotiationCompleted: " + streamNegotiationCompleted + ", " + super.toString();
 	}
 }
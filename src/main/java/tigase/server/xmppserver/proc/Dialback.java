@@ -273,6 +273,44 @@ public class Dialback
 		}
 	}
 
+	/**
+	 * Requests authentication of additional CID over already authenticated outgoing connection with the same remote
+	 * domain (dialback piggybacking as described in XEP-0220), so no new TCP connection and TLS handshake is needed.
+	 *
+	 * @param serv established outgoing connection
+	 * @param cid connection id to authenticate
+	 *
+	 * @return <code>true</code> if the request was sent
+	 */
+	public boolean multiplexConnection(S2SIOService serv, CID cid) {
+		String remote_id = serv.getSessionId();
+
+		if (remote_id == null || serv.isHandshakingOnly() || serv.getS2SConnection() == null) {
+			return false;
+		}
+		try {
+			String secret = handler.getSecretForDomain(cid.getLocalHost());
+			String key = Algorithms.generateDialbackKey(cid.getLocalHost(), cid.getRemoteHost(), secret, remote_id);
+			Element elem = new Element(DB_RESULT_EL_NAME, key, new String[]{XMLNS_DB_ATT}, new String[]{XMLNS_DB_VAL});
+
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Multiplexing dialback for: {1} [{0}]", new Object[]{serv, cid});
+			}
+			serv.addMultiplexedCID(cid);
+			addToResultRequested(serv, cid.getRemoteHost());
+			serv.getS2SConnection()
+					.addControlPacket(Packet.packetInstance(elem, JID.jidInstanceNS(cid.getLocalHost()),
+															JID.jidInstanceNS(cid.getRemoteHost())));
+			serv.getS2SConnection().sendAllControlPackets();
+
+			return true;
+		} catch (NotLocalhostException ex) {
+			log.log(Level.FINE, "Can't multiplex connection for not local host: {0}", cid);
+			serv.removeMultiplexedCID(cid);
+			return false;
+		}
+	}
+
 	private void processDialback(Packet p, S2SIOService serv) {
 
 		// Get the cid for which the connection has been created, the cid calculated
@@ -341,6 +379,16 @@ public class Dialback
 					handler.sendVerifyResult(DB_VERIFY_EL_NAME, cid_main, cid_packet, null, conn_sessionId, null,
 											 p.getElemCData(), true);
 				}
+			} else if (serv.isMultiplexedCID(cid_packet)) {
+				// result for CID multiplexed over this connection, failure of such CID must not
+				// break the connection as it is still used by other CIDs
+				if (p.getType() == StanzaType.valid) {
+					authenticatorSelectorManager.authenticateConnection(serv, cid_conns, cid_packet);
+				} else if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Invalid result for multiplexed DB authentication: {0} [{1}]",
+							new Object[]{cid_packet, serv});
+				}
+				handler.multiplexingCompleted(cid_packet, serv, p.getType() == StanzaType.valid);
 			} else {
 				if (p.getType() == StanzaType.valid) {
 					if (wasResultRequested(serv, p.getStanzaFrom().toString())) {
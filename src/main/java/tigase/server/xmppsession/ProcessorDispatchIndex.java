@@ -0,0 +1,242 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.XMPPProcessor;
+import tigase.xmpp.XMPPProcessorIfc;
+import tigase.xmpp.XMPPResourceConnection;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable index of packet processors used by {@link SessionManager} to find processors for a packet without calling
+ * <code>canHandle()</code> of every loaded processor.
+ * <br>
+ * Processors which use default implementation of <code>canHandle()</code> from {@link XMPPProcessor} are indexed by
+ * element names from <code>supElementNamePaths()</code> (root element and its child element) and then by xmlns
+ * returned by <code>supNamespaces()</code> for this path. Each entry keeps set of stanza types returned by
+ * <code>supTypes()</code>, so for a packet only entries with matching path and xmlns are checked. Processors with
+ * own implementation of <code>canHandle()</code> or using wildcards in element paths are not indexed and their
+ * <code>canHandle()</code> method is called for every packet as before.
+ * <br>
+ * Index is a snapshot of values returned by processors at the time of creation, so it needs to be rebuilt when
+ * processors are added, removed or reconfigured.
+ * <br>
+ * Packet is passed to not indexed processors first and then to indexed processors grouped by matched element path,
+ * so the order differs from the order of registration of processors. For that reason index is disabled by default.
+ */
+public class ProcessorDispatchIndex {
+
+	private static final Logger log = Logger.getLogger(ProcessorDispatchIndex.class.getName());
+
+	private final XMPPProcessorIfc[] dynamicProcessors;
+	private final int indexedProcessors;
+	private final Map<String, Node> roots;
+
+	/**
+	 * Checks if processor result of <code>canHandle()</code> may be determined by the index, ie. processor uses
+	 * default implementation of <code>canHandle()</code> method.
+	 */
+	public static boolean isIndexable(XMPPProcessorIfc processor) {
+		if (!(processor instanceof XMPPProcessor)) {
+			return false;
+		}
+		try {
+			return processor.getClass()
+					.getMethod("canHandle", Packet.class, XMPPResourceConnection.class)
+					.getDeclaringClass() == XMPPProcessor.class;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
+	public ProcessorDispatchIndex(Collection<XMPPProcessorIfc> processors) {
+		List<XMPPProcessorIfc> dynamic = new ArrayList<>();
+		Map<String, Node> roots = new HashMap<>();
+		int indexed = 0;
+
+		for (XMPPProcessorIfc processor : processors) {
+			if (!isIndexable(processor)) {
+				dynamic.add(processor);
+				continue;
+			}
+
+			String[][] elemPaths = processor.supElementNamePaths();
+			if (elemPaths == null) {
+				// processor with default canHandle() and without paths does not process any packets
+				continue;
+			}
+
+			String[] elemXMLNS = processor.supNamespaces();
+			if (!canIndex(elemPaths, elemXMLNS)) {
+				dynamic.add(processor);
+				continue;
+			}
+
+			Set<StanzaType> types = processor.supTypes();
+			for (int i = 0; i < elemPaths.length; i++) {
+				String[] path = elemPaths[i];
+				Node node = roots.computeIfAbsent(path[0], name -> new Node(new String[]{name}));
+				if (path.length > 1) {
+					node = node.children.computeIfAbsent(path[1], name -> new Node(new String[]{path[0], name}));
+				}
+				node.add(new Entry(processor, path, elemXMLNS[i], types));
+			}
+			indexed++;
+		}
+
+		this.dynamicProcessors = dynamic.toArray(new XMPPProcessorIfc[dynamic.size()]);
+		this.indexedProcessors = indexed;
+		this.roots = roots;
+
+		if (log.isLoggable(Level.CONFIG)) {
+			log.log(Level.CONFIG, "Created processors dispatch index with {0} indexed and {1} dynamic processors",
+					new Object[]{indexed, dynamicProcessors.length});
+		}
+	}
+
+	private static boolean canIndex(String[][] elemPaths, String[] elemXMLNS) {
+		if (elemXMLNS == null || elemXMLNS.length < elemPaths.length) {
+			return false;
+		}
+		for (String[] path : elemPaths) {
+			if (path == null || path.length == 0) {
+				return false;
+			}
+			for (String name : path) {
+				if (name == null || name.contains("*")) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns processors for which <code>canHandle()</code> method needs to be called for every packet.
+	 */
+	public XMPPProcessorIfc[] getDynamicProcessors() {
+		return dynamicProcessors;
+	}
+
+	public int getIndexedProcessorsCount() {
+		return indexedProcessors;
+	}
+
+	/**
+	 * Adds to the <code>result</code> list indexed processors which would return {@link
+	 * tigase.xmpp.Authorization#AUTHORIZED} from <code>canHandle()</code> for the packet. Processors returned by {@link
+	 * #getDynamicProcessors()} are not included.
+	 */
+	public List<XMPPProcessorIfc> getProcessors(Packet packet, List<XMPPProcessorIfc> result) {
+		// stanza is read only with Packet methods, so element shared by packet copies is not cloned
+		Node root = roots.get(packet.getElemName());
+
+		if (root != null) {
+			StanzaType type = packet.getType();
+			root.match(packet, type, result);
+
+			if (!root.children.isEmpty()) {
+				List<Element> children = packet.getElemChildrenStaticStr(root.path);
+				if (children != null) {
+					for (Element child : children) {
+						Node node = root.children.get(child.getName());
+						if (node != null) {
+							node.match(packet, type, result);
+						}
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static class Entry {
+
+		private final String[] path;
+		private final XMPPProcessorIfc processor;
+		private final Set<StanzaType> types;
+		private final String xmlns;
+
+		private Entry(XMPPProcessorIfc processor, String[] path, String xmlns, Set<StanzaType> types) {
+			this.processor = processor;
+			this.path = path;
+			this.xmlns = xmlns;
+			this.types = types;
+		}
+
+		private boolean isTypeSupported(StanzaType type) {
+			return types == null || types.contains(type);
+		}
+
+	}
+
+	private static class Node {
+
+		private final Map<String, Node> children = new HashMap<>();
+		// xmlns are compared by reference, the same way as in XMPPProcessor.canHandle()
+		private final Map<String, List<Entry>> entries = new IdentityHashMap<>();
+		private final List<Entry> longerPaths = new ArrayList<>();
+		private final String[] path;
+
+		private Node(String[] path) {
+			this.path = path;
+		}
+
+		private void add(Entry entry) {
+			if (entry.path.length == path.length) {
+				entries.computeIfAbsent(entry.xmlns, xmlns -> new ArrayList<>()).add(entry);
+			} else {
+				longerPaths.add(entry);
+			}
+		}
+
+		private void match(Packet packet, StanzaType type, List<XMPPProcessorIfc> result) {
+			if (!entries.isEmpty()) {
+				// the same lookup as used by XMPPProcessor.canHandle() for the path of this node
+				List<Entry> list = entries.get(packet.getXMLNSStaticStr(path));
+				if (list != null) {
+					for (Entry entry : list) {
+						if (entry.isTypeSupported(type)) {
+							addProcessor(entry.processor, result);
+						}
+					}
+				}
+			}
+			for (Entry entry : longerPaths) {
+				if (entry.isTypeSupported(type) && packet.isXMLNSStaticStr(entry.path, entry.xmlns)) {
+					addProcessor(entry.processor, result);
+				}
+			}
+		}
+
+		private static void addProcessor(XMPPProcessorIfc processor, List<XMPPProcessorIfc> result) {
+			// processor may be matched by more than one path or by more than one child element with the same name
+			if (!result.contains(processor)) {
+				result.add(processor);
+			}
+		}
+
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import tigase.vhosts.VHostItem;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPImplIfc;
+import tigase.xmpp.XMPPProcessorIfc;
+import tigase.xmpp.XMPPResourceConnection;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of stream features and service discovery features of processors used by {@link SessionManager}, so features
+ * are not collected from every loaded processor for each stream features request and disco query.
+ * <br>
+ * Service discovery features are collected once, as processors return them for <code>null</code> session. Stream
+ * features of processors which declare them as cacheable (see {@link XMPPImplIfc#isStreamFeaturesCacheable()}) are
+ * cached for each domain and state of a session (authorization, encryption, compression, bound resource, established
+ * session and TLS requirement). Features of other processors are collected for each request. Cached features of a
+ * domain are dropped when its <code>VHostItem</code> is replaced.
+ * <br>
+ * Cache is a snapshot of processors at the time of creation, so it needs to be recreated when processors are added,
+ * removed or reconfigured.
+ */
+public class ProcessorFeaturesCache {
+
+	// keys of session data set by StartZLib, StartTLS and SessionBind processors
+	private static final String COMPRESSION_KEY = "zlib";
+	private static final String SESSION_SET_KEY = "Session-Set";
+	private static final String TLS_KEY = "starttls";
+
+	private static final int STATE_AUTHORIZED = 1;
+	private static final int STATE_COMPRESSED = 1 << 1;
+	private static final int STATE_ENCRYPTED = 1 << 2;
+	private static final int STATE_RESOURCE_SET = 1 << 3;
+	private static final int STATE_SESSION_SET = 1 << 4;
+	private static final int STATE_TLS_REQUIRED = 1 << 5;
+	private static final int STATES = 1 << 6;
+
+	private final List<Element> discoFeatures;
+	private final Map<String, DomainFeatures> domains = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final int maxDomains;
+	private final LongAdder misses = new LongAdder();
+	private final XMPPProcessorIfc[] processors;
+
+	static int getSessionState(XMPPResourceConnection session) {
+		int state = 0;
+		if (session.isAuthorized()) {
+			state |= STATE_AUTHORIZED;
+		}
+		if (session.getSessionData(COMPRESSION_KEY) != null) {
+			state |= STATE_COMPRESSED;
+		}
+		if (session.getSessionData(TLS_KEY) != null) {
+			state |= STATE_ENCRYPTED;
+		}
+		if (session.isResourceSet()) {
+			state |= STATE_RESOURCE_SET;
+		}
+		if (session.getSessionData(SESSION_SET_KEY) != null) {
+			state |= STATE_SESSION_SET;
+		}
+		if (session.isTlsRequired()) {
+			state |= STATE_TLS_REQUIRED;
+		}
+		return state;
+	}
+
+	public ProcessorFeaturesCache(Collection<XMPPProcessorIfc> processors, int maxDomains) {
+		this.processors = processors.toArray(new XMPPProcessorIfc[0]);
+		this.maxDomains = maxDomains;
+
+		List<Element> discoFeatures = new ArrayList<>();
+		for (XMPPProcessorIfc processor : this.processors) {
+			Element[] features = processor.supDiscoFeatures(null);
+			if (features != null) {
+				discoFeatures.addAll(Arrays.asList(features));
+			}
+		}
+		this.discoFeatures = Collections.unmodifiableList(discoFeatures);
+	}
+
+	public int getCachedDomainsCount() {
+		return domains.size();
+	}
+
+	/**
+	 * Returns service discovery features of all processors.
+	 */
+	public List<Element> getDiscoFeatures() {
+		return discoFeatures;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns stream features of all processors for the session.
+	 */
+	public List<Element> getStreamFeatures(XMPPResourceConnection session) {
+		VHostItem vhost = session == null ? null : session.getDomain();
+		if (vhost == null) {
+			return collectStreamFeatures(session);
+		}
+
+		String domain = vhost.getVhost().getDomain();
+		DomainFeatures domainFeatures = domains.get(domain);
+		if (domainFeatures == null || domainFeatures.vhost != vhost) {
+			if (domains.size() >= maxDomains) {
+				domains.clear();
+			}
+			domainFeatures = new DomainFeatures(vhost);
+			domains.put(domain, domainFeatures);
+		}
+
+		int state = getSessionState(session);
+		Object[] parts = domainFeatures.states.get(state);
+		if (parts == null) {
+			misses.increment();
+			parts = createParts(session);
+			domainFeatures.states.set(state, parts);
+		} else {
+			hits.increment();
+		}
+
+		List<Element> results = new ArrayList<>();
+		for (Object part : parts) {
+			if (part instanceof Element[]) {
+				results.addAll(Arrays.asList((Element[]) part));
+			} else {
+				Element[] features = ((XMPPProcessorIfc) part).supStreamFeatures(session);
+				if (features != null) {
+					results.addAll(Arrays.asList(features));
+				}
+			}
+		}
+		return results;
+	}
+
+	private List<Element> collectStreamFeatures(XMPPResourceConnection session) {
+		List<Element> results = new ArrayList<>();
+		for (XMPPProcessorIfc processor : processors) {
+			Element[] features = processor.supStreamFeatures(session);
+			if (features != null) {
+				results.addAll(Arrays.asList(features));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Creates list of parts of stream features response for the state of the session. Each part is either an array of
+	 * cached features of subsequent cacheable processors or a processor which features need to be collected for each
+	 * request.
+	 */
+	private Object[] createParts(XMPPResourceConnection session) {
+		List<Object> parts = new ArrayList<>();
+		List<Element> cached = new ArrayList<>();
+		for (XMPPProcessorIfc processor : processors) {
+			if (processor.isStreamFeaturesCacheable()) {
+				Element[] features = processor.supStreamFeatures(session);
+				if (features != null) {
+					cached.addAll(Arrays.asList(features));
+				}
+			} else {
+				if (!cached.isEmpty()) {
+					parts.add(cached.toArray(new Element[0]));
+					cached.clear();
+				}
+				parts.add(processor);
+			}
+		}
+		if (!cached.isEmpty()) {
+			parts.add(cached.toArray(new Element[0]));
+		}
+		return parts.toArray();
+	}
+
+	private static final class DomainFeatures {
+
+		private final AtomicReferenceArray<Object[]> states = new AtomicReferenceArray<>(STATES);
+		private final VHostItem vhost;
+
+		private DomainFeatures(VHostItem vhost) {
+			this.vhost = vhost;
+		}
+	}
+}
@@ -130,6 +130,16 @@ public class SessionManager
 	private DefaultHandlerProc defHandlerProc = null;
 	private PacketDefaultHandler defPacketHandler = new PacketDefaultHandler();
 	private String defPluginsThreadsPool = "default-threads-pool";
+	private volatile ProcessorDispatchIndex dispatchIndex = null;
+	@ConfigField(desc = "Use index of processors to find processors for a packet (changes order of processors)",
+			alias = "plugins-dispatch-index")
+	private boolean dispatchIndexEnabled = false;
+	private long dispatchIndexRebuilds = 0;
+	@ConfigField(desc = "Cache stream features and disco features of processors", alias = "plugins-features-cache")
+	private boolean featuresCacheEnabled = true;
+	@ConfigField(desc = "Maximal number of domains with cached stream features", alias = "plugins-features-cache-domains")
+	private int featuresCacheMaxDomains = 10000;
+	private volatile ProcessorFeaturesCache featuresCache = null;
 	// Can not inject eventBus as it is used before injection is done
 	// TODO - Maybe we should allow autoregistration for event bus so that every
 	// annotated bean instance would be registered to eventbus?
@@ -210,6 +220,17 @@ public class SessionManager
 		return super.addOutPacket(packet);
 	}
 
+	@Override
+	public void beanConfigurationChanged(Collection<String> changedFields) {
+		super.beanConfigurationChanged(changedFields);
+		if (changedFields.contains("dispatchIndexEnabled")) {
+			rebuildDispatchIndex();
+		}
+		if (changedFields.contains("featuresCacheEnabled") || changedFields.contains("featuresCacheMaxDomains")) {
+			resetFeaturesCache();
+		}
+	}
+
 	public XMPPImplIfc addPlugin(XMPPImplIfc proc)
 			throws ClassNotFoundException, InstantiationException, IllegalAccessException, TigaseDBException {
 		String version;
@@ -260,6 +281,8 @@ public class SessionManager
 				}
 			}
 			processors.put(proc.id(), (XMPPProcessorIfc) proc);
+			rebuildDispatchIndex();
+			resetFeaturesCache();
 			log.log(Level.CONFIG, "Added processor: {0} for plugin id: {1}",
 					new Object[]{proc.getClass().getSimpleName(), proc.id()});
 			loaded = true;
@@ -510,6 +533,8 @@ public class SessionManager
 
 		if (pt != null) {
 			p = processors.remove(plug_id);
+			rebuildDispatchIndex();
+			resetFeaturesCache();
 			pt.shutdown();
 			if (p != null) {
 				allPlugins.remove(p);
@@ -536,6 +561,29 @@ public class SessionManager
 		}
 	}
 
+	/**
+	 * Rebuilds index used to find processors for a packet. It needs to be called when set of paths, namespaces or
+	 * stanza types supported by any of loaded processors is changed.
+	 */
+	public void rebuildDispatchIndex() {
+		if (dispatchIndexEnabled) {
+			dispatchIndex = new ProcessorDispatchIndex(processors.values());
+			dispatchIndexRebuilds++;
+		} else {
+			dispatchIndex = null;
+		}
+	}
+
+	/**
+	 * Drops cached stream features and disco features of processors. It needs to be called when features returned by
+	 * any of loaded processors are changed.
+	 */
+	public void resetFeaturesCache() {
+		featuresCache = featuresCacheEnabled
+						? new ProcessorFeaturesCache(processors.values(), featuresCacheMaxDomains)
+						: null;
+	}
+
 	public boolean skipPrivacy() {
 		return skipPrivacy;
 	}
@@ -595,6 +643,11 @@ public class SessionManager
 		if (tmp != null) {
 			features.addAll(tmp);
 		}
+		ProcessorFeaturesCache cache = featuresCache;
+		if (cache != null) {
+			features.addAll(cache.getDiscoFeatures());
+			return features;
+		}
 		for (XMPPProcessorIfc proc_t : processors.values()) {
 			Element[] discoFeatures = proc_t.supDiscoFeatures(null);
 
@@ -615,7 +668,10 @@ public class SessionManager
 				query = new Element("query");
 				query.setXMLNS(XMPPService.INFO_XMLNS);
 			}
-			if (node == null) {
+			ProcessorFeaturesCache cache = featuresCache;
+			if (node == null && cache != null) {
+				query.addChildren(cache.getDiscoFeatures());
+			} else if (node == null) {
 				for (XMPPProcessorIfc proc_t : processors.values()) {
 					Element[] discoFeatures = proc_t.supDiscoFeatures(null);
 
@@ -671,6 +727,14 @@ public class SessionManager
 		return null;
 	}
 
+	/**
+	 * Returns writer passing packets through outgoing filters before sending them. It is intended for processors
+	 * generating results outside of processing threads, ie. on completion of asynchronous tasks.
+	 */
+	public ProcessorResultWriter getProcessorResultWriter() {
+		return this::addOutPackets;
+	}
+
 	public int getOpenUsersConnectionsAmount() {
 		return connectionsByFrom.size();
 	}
@@ -695,6 +759,18 @@ public class SessionManager
 		list.add(getName(), "Total user sessions", totalUserSessions, Level.FINER);
 		list.add(getName(), "Active user connections", activeUserNumber, Level.FINER);
 		list.add(getName(), "Authentication timouts", authTimeouts, Level.INFO);
+		ProcessorDispatchIndex index = dispatchIndex;
+		if (index != null) {
+			list.add(getName(), "Dispatch index indexed processors", index.getIndexedProcessorsCount(), Level.FINER);
+			list.add(getName(), "Dispatch index dynamic processors", index.getDynamicProcessors().length, Level.FINER);
+			list.add(getName(), "Dispatch index rebuilds", dispatchIndexRebuilds, Level.FINEST);
+		}
+		ProcessorFeaturesCache cache = featuresCache;
+		if (cache != null) {
+			list.add(getName(), "Features cache domains", cache.getCachedDomainsCount(), Level.FINER);
+			list.add(getName(), "Features cache hits", cache.getHits(), Level.FINEST);
+			list.add(getName(), "Features cache misses", cache.getMisses(), Level.FINEST);
+		}
 		if (list.checkLevel(Level.INFO)) {
 			int totalQueuesWait = list.getValue(getName(), "Total queues wait", 0);
 			long totalQueuesOverflow = list.getValue(getName(), "Total queues overflow", 0l);
@@ -773,6 +849,9 @@ public class SessionManager
 				log.log(Level.SEVERE, "Failed initialization of processor " + proc.id(), e);
 			}
 		}
+		// plugins could be reconfigured, so index and cached features need to be updated
+		rebuildDispatchIndex();
+		resetFeaturesCache();
 	}
 
 	public void setSmThreadsPool(String val) {
@@ -922,7 +1001,7 @@ public class SessionManager
 			// closed. The best example is handleLogin, it happens they are called
 			// concurrently and this is where things go wrong....
 			synchronized (connection) {
-				connection.putSessionData(XMPPResourceConnection.CLOSING_KEY, XMPPResourceConnection.CLOSING_KEY);
+				connection.putSessionData(XMPPResourceConnection.CLOSING, XMPPResourceConnection.CLOSING_KEY);
 				closeSession(connection, closeOnly);
 			}
 		} else {
@@ -1309,7 +1388,7 @@ public class SessionManager
 				} else {
 					TimerTask task = new SessionCloseTimer(iqc.getFrom(), connection.getSessionId());
 					addTimerTask(task, 10, TimeUnit.SECONDS);
-					connection.putSessionData(XMPPResourceConnection.CLOSING_KEY, XMPPResourceConnection.CLOSING_KEY);
+					connection.putSessionData(XMPPResourceConnection.CLOSING, XMPPResourceConnection.CLOSING_KEY);
 					connection.putSessionData(SESSION_CLOSE_TIMER_KEY, task);
 				}
 				processing_result = true;
@@ -2003,7 +2082,7 @@ public class SessionManager
 
 	protected void registerNewSession(BareJID userId, XMPPResourceConnection conn) {
 		synchronized (conn) {
-			if (conn.getSessionData(XMPPResourceConnection.CLOSING_KEY) != null) {
+			if (conn.getSessionData(XMPPResourceConnection.CLOSING) != null) {
 
 				// The user just closed the connection, ignore....
 				return;
@@ -2035,7 +2114,7 @@ public class SessionManager
 
 				if (connections != null) {
 					for (XMPPResourceConnection connection : connections) {
-						if (connection != conn && connection.getSessionData(XMPPResourceConnection.CLOSING_KEY) == null) {
+						if (connection != conn && connection.getSessionData(XMPPResourceConnection.CLOSING) == null) {
 							Long lastCheck = (Long) connection.getSessionData(XMPPResourceConnection.CONNECTION_CHECK_TIMESTAMP_KEY);
 							if (lastCheck != null && (System.currentTimeMillis() - lastCheck) < this.connectionCheckPeriod) {
 								continue;
@@ -2294,53 +2373,79 @@ public class SessionManager
 	}
 
 	private void walk(final Packet packet, final XMPPResourceConnection connection) {
+		ProcessorDispatchIndex index = dispatchIndex;
 
-		// final Element elem, final Queue<Packet> results) {
-		for (XMPPProcessorIfc proc_t : processors.values()) {
-			XMPPProcessorIfc processor = proc_t;
-			Authorization result = processor.canHandle(packet, connection);
+		if (index == null) {
+			// final Element elem, final Queue<Packet> results) {
+			for (XMPPProcessorIfc proc_t : processors.values()) {
+				walk(proc_t, packet, connection);
+			}    // end of for ()
+			return;
+		}
 
-			if (result == Authorization.AUTHORIZED) {
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST, "XMPPProcessorIfc: {0} ({1}" + ")" + "Request: " + "{2}, conn: {3}",
-							new Object[]{processor.getClass().getSimpleName(), processor.id(), packet, connection});
-				}
+		for (XMPPProcessorIfc proc_t : index.getDynamicProcessors()) {
+			walk(proc_t, packet, connection);
+		}
+		List<XMPPProcessorIfc> indexed = index.getProcessors(packet, new ArrayList<>(4));
+		for (XMPPProcessorIfc processor : indexed) {
+			addToProcessor(processor, packet, connection);
+		}
+	}
 
-				ProcessingThreads<ProcessorWorkerThread> pt = workerThreads.get(processor.id());
+	private void walk(final XMPPProcessorIfc processor, final Packet packet, final XMPPResourceConnection connection) {
+		Authorization result = processor.canHandle(packet, connection);
 
-				if (pt == null) {
-					pt = workerThreads.get(defPluginsThreadsPool);
-				}
-				if (pt.addItem(processor, packet, connection)) {
-					packet.processedBy(processor.id());
-				} else {
-					packet.notProcessedBy(processor.id());
-					// proc_t.debugQueue();
-					if (log.isLoggable(Level.FINE)) {
-						log.log(Level.FINE, "Can not add packet: {0} to processor: {1} internal queue full.",
-								new Object[]{packet.toStringSecure(), pt.getName()});
-					}
-				}
-			} else {
-				if (result != null) {
+		if (result == Authorization.AUTHORIZED) {
+			addToProcessor(processor, packet, connection);
+		} else {
+			if (result != null) {
 
-					// TODO: A plugin returned an error, the packet should be bounced back
-					// with an appropriate error
-				}
+				// TODO: A plugin returned an error, the packet should be bounced back
+				// with an appropriate error
 			}
-		}    // end of for ()
+		}
+	}
+
+	private void addToProcessor(final XMPPProcessorIfc processor, final Packet packet,
+								final XMPPResourceConnection connection) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "XMPPProcessorIfc: {0} ({1}" + ")" + "Request: " + "{2}, conn: {3}",
+					new Object[]{processor.getClass().getSimpleName(), processor.id(), packet, connection});
+		}
+
+		ProcessingThreads<ProcessorWorkerThread> pt = workerThreads.get(processor.id());
+
+		if (pt == null) {
+			pt = workerThreads.get(defPluginsThreadsPool);
+		}
+		if (pt.addItem(processor, packet, connection)) {
+			packet.processedBy(processor.id());
+		} else {
+			packet.notProcessedBy(processor.id());
+			// proc_t.debugQueue();
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Can not add packet: {0} to processor: {1} internal queue full.",
+						new Object[]{packet.toStringSecure(), pt.getName()});
+			}
+		}
 	}
 
 	private List<Element> getFeatures(XMPPResourceConnection session) {
-		List<Element> results = new LinkedList<Element>();
+		ProcessorFeaturesCache cache = featuresCache;
+		List<Element> results;
 
-		for (XMPPProcessorIfc proc_t : processors.values()) {
-			Element[] features = proc_t.supStreamFeatures(session);
+		if (cache != null) {
+			results = cache.getStreamFeatures(session);
+		} else {
+			results = new LinkedList<Element>();
+			for (XMPPProcessorIfc proc_t : processors.values()) {
+				Element[] features = proc_t.supStreamFeatures(session);
 
-			if (features != null) {
-				results.addAll(Arrays.asList(features));
-			}    // end of if (features != null)
-		}      // end of for ()
+				if (features != null) {
+					results.addAll(Arrays.asList(features));
+				}    // end of if (features != null)
+			}      // end of for ()
+		}
 
 		if (includeCapsInStream && router != null && session != null && session.isAuthorized()) {
 			router.getServiceEntityCaps(session.getjid()).ifPresent(results::add);
@@ -0,0 +1,509 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel for large numbers of short lived {@link TimerTask}s which are scheduled and cancelled much more
+ * often than they expire (ie. BOSH wait and inactivity timers).
+ * <br>
+ * Scheduling and cancelling are O(1) and lock-free for the calling thread. Newly scheduled and cancelled timeouts are
+ * handed over to a single worker thread which on every tick moves them into (or unlinks them from) wheel buckets and
+ * collects all expired tasks of the current bucket. Expired tasks are then passed to the executor in batches of up to
+ * <code>expiryBatchSize</code> tasks, so a single executor submission covers many timers.
+ * <br>
+ * Precision of the timer is limited to the tick duration, which is fine for timeouts measured in seconds.
+ */
+public class HashedWheelTimer {
+
+	private static final Logger log = Logger.getLogger(HashedWheelTimer.class.getName());
+
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+	private final AtomicLong cancelledCounter = new AtomicLong();
+	private final Executor executor;
+	private final AtomicLong expiredBatchesCounter = new AtomicLong();
+	private final AtomicLong expiredCounter = new AtomicLong();
+	private final int expiryBatchSize;
+	private final int mask;
+	private final String name;
+	private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+	private final AtomicLong pendingTimeouts = new AtomicLong();
+	private final AtomicLong scheduledCounter = new AtomicLong();
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private volatile long maxPendingTimeouts = 0;
+	private long startTime = 0;
+	private long tick = 0;
+	private volatile Worker worker = null;
+
+	/**
+	 * Creates wheel timer.
+	 *
+	 * @param name name of the timer used as a name of the worker thread
+	 * @param tickDuration duration of a single tick in milliseconds
+	 * @param ticksPerWheel number of buckets, rounded up to the next power of 2
+	 * @param expiryBatchSize maximal number of expired tasks passed to executor as a single job
+	 * @param executor executor for running expired tasks, if <code>null</code> tasks are executed by the worker
+	 * thread
+	 */
+	public HashedWheelTimer(String name, long tickDuration, int ticksPerWheel, int expiryBatchSize,
+							Executor executor) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("ticksPerWheel must be in range (0, 2^30]: " + ticksPerWheel);
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.name = name;
+		this.tickDuration = tickDuration;
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.expiryBatchSize = Math.max(1, expiryBatchSize);
+		this.executor = executor;
+	}
+
+	public synchronized void start() {
+		if (worker != null) {
+			return;
+		}
+		startTime = System.nanoTime();
+		tick = 0;
+		worker = new Worker();
+		worker.setName(name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Stops the worker thread and returns tasks which were still waiting for expiration.
+	 *
+	 * @return list of not expired and not cancelled tasks
+	 */
+	public synchronized List<TimerTask> stop() {
+		Worker w = worker;
+		worker = null;
+		List<TimerTask> unprocessed = new ArrayList<>();
+		if (w == null) {
+			return unprocessed;
+		}
+		w.stopped = true;
+		w.interrupt();
+		try {
+			w.join(tickDuration * 10);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		Timeout timeout;
+		while ((timeout = newTimeouts.poll()) != null) {
+			if (timeout.markDone()) {
+				unprocessed.add(timeout.task);
+				timeout.completed(null);
+			}
+		}
+		for (Bucket bucket : wheel) {
+			bucket.drain(unprocessed);
+		}
+		cancelledTimeouts.clear();
+		pendingTimeouts.set(0);
+		return unprocessed;
+	}
+
+	public boolean isStarted() {
+		return worker != null;
+	}
+
+	/**
+	 * Schedules task for execution after the delay. Scheduled timeout is set as a {@link ScheduledFuture} of the
+	 * task, so {@link TimerTask#cancel()} removes it from the wheel.
+	 *
+	 * @param task task to execute
+	 * @param delay delay in milliseconds
+	 *
+	 * @return handle of the scheduled task
+	 */
+	public Timeout schedule(TimerTask task, long delay) {
+		if (worker == null) {
+			throw new IllegalStateException("Timer " + name + " is not started");
+		}
+		long deadline = (System.nanoTime() - startTime) + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+		Timeout timeout = new Timeout(this, task, deadline);
+		task.setScheduledFuture(timeout);
+		if (task.isCancelled()) {
+			timeout.state.set(Timeout.ST_CANCELLED);
+			timeout.completed(null);
+			return timeout;
+		}
+		long pending = pendingTimeouts.incrementAndGet();
+		if (pending > maxPendingTimeouts) {
+			maxPendingTimeouts = pending;
+		}
+		scheduledCounter.incrementAndGet();
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+
+	public long getCancelledCount() {
+		return cancelledCounter.get();
+	}
+
+	public long getExpiredBatchesCount() {
+		return expiredBatchesCounter.get();
+	}
+
+	public long getExpiredCount() {
+		return expiredCounter.get();
+	}
+
+	public long getMaxPendingTimeouts() {
+		return maxPendingTimeouts;
+	}
+
+	/**
+	 * Returns number of timeouts which are scheduled and not yet expired or cancelled (timer queue occupancy).
+	 */
+	public long getPendingTimeouts() {
+		return pendingTimeouts.get();
+	}
+
+	public long getScheduledCount() {
+		return scheduledCounter.get();
+	}
+
+	public long getTickDuration() {
+		return tickDuration;
+	}
+
+	public int getWheelSize() {
+		return wheel.length;
+	}
+
+	private void cancelled(Timeout timeout) {
+		pendingTimeouts.decrementAndGet();
+		cancelledCounter.incrementAndGet();
+		cancelledTimeouts.add(timeout);
+	}
+
+	private void processCancelledTimeouts() {
+		Timeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void transferNewTimeouts() {
+		// limiting number of transferred timeouts to not starve expiration if tasks are scheduled in a tight loop
+		for (int i = 0; i < 100000; i++) {
+			Timeout timeout = newTimeouts.poll();
+			if (timeout == null) {
+				break;
+			}
+			if (timeout.state.get() != Timeout.ST_INIT) {
+				continue;
+			}
+			long calculated = timeout.deadline / tickNanos();
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+			long ticks = Math.max(calculated, tick);
+			wheel[(int) (ticks & mask)].add(timeout);
+		}
+	}
+
+	private long tickNanos() {
+		return TimeUnit.MILLISECONDS.toNanos(tickDuration);
+	}
+
+	private void runExpired(List<Timeout> batch) {
+		expiredBatchesCounter.incrementAndGet();
+		if (executor == null) {
+			new ExpiredBatch(batch).run();
+		} else {
+			try {
+				executor.execute(new ExpiredBatch(batch));
+			} catch (RejectedExecutionException ex) {
+				log.log(Level.WARNING, "{0} - executor rejected batch of {1} expired tasks",
+						new Object[]{name, batch.size()});
+				for (Timeout timeout : batch) {
+					timeout.completed(ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handle of a task scheduled in the wheel.
+	 */
+	public static class Timeout
+			implements ScheduledFuture<Object> {
+
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final long deadline;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicInteger state = new AtomicInteger(ST_INIT);
+		private final TimerTask task;
+		private final HashedWheelTimer timer;
+		private Bucket bucket;
+		private volatile Throwable failure;
+		private Timeout next;
+		private Timeout prev;
+		private long remainingRounds;
+
+		private Timeout(HashedWheelTimer timer, TimerTask task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public TimerTask getTask() {
+			return task;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - (System.nanoTime() - timer.startTime), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			timer.cancelled(this);
+			completed(null);
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == ST_CANCELLED;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		/**
+		 * Waits until the task is executed, cancelled or returned by {@link HashedWheelTimer#stop()}.
+		 *
+		 * @return always <code>null</code>
+		 */
+		@Override
+		public Object get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public Object get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private void completed(Throwable failure) {
+			this.failure = failure;
+			done.countDown();
+		}
+
+		private boolean markDone() {
+			return state.compareAndSet(ST_INIT, ST_EXPIRED);
+		}
+
+		private Object result() throws ExecutionException {
+			if (isCancelled()) {
+				throw new CancellationException();
+			}
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Doubly linked list of timeouts, accessed only by the worker thread.
+	 */
+	private static class Bucket {
+
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = next;
+				if (timeout == tail) {
+					tail = null;
+				}
+			} else if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		void expire(HashedWheelTimer timer) {
+			List<Timeout> batch = null;
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					if (timeout.markDone()) {
+						timer.pendingTimeouts.decrementAndGet();
+						timer.expiredCounter.incrementAndGet();
+						if (batch == null) {
+							batch = new ArrayList<>(Math.min(timer.expiryBatchSize, 64));
+						}
+						batch.add(timeout);
+						if (batch.size() >= timer.expiryBatchSize) {
+							timer.runExpired(batch);
+							batch = null;
+						}
+					}
+				} else if (timeout.isCancelled()) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+			if (batch != null) {
+				timer.runExpired(batch);
+			}
+		}
+
+		void drain(List<TimerTask> unprocessed) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				remove(timeout);
+				if (timeout.markDone()) {
+					unprocessed.add(timeout.task);
+					timeout.completed(null);
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	private static class ExpiredBatch
+			implements Runnable {
+
+		private final List<Timeout> timeouts;
+
+		private ExpiredBatch(List<Timeout> timeouts) {
+			this.timeouts = timeouts;
+		}
+
+		@Override
+		public void run() {
+			for (Timeout timeout : timeouts) {
+				TimerTask task = timeout.task;
+				if (task.isCancelled()) {
+					timeout.completed(null);
+					continue;
+				}
+				try {
+					task.run();
+					timeout.completed(null);
+				} catch (Throwable ex) {
+					log.log(Level.WARNING, "Exception while executing timer task " + task, ex);
+					timeout.completed(ex);
+				}
+			}
+		}
+	}
+
+	private class Worker
+			extends Thread {
+
+		private volatile boolean stopped = false;
+
+		@Override
+		public void run() {
+			final long tickNanos = tickNanos();
+			while (!stopped) {
+				long deadline = tickNanos * (tick + 1);
+				long sleepMs = TimeUnit.NANOSECONDS.toMillis(deadline - (System.nanoTime() - startTime) + 999999);
+				if (sleepMs > 0) {
+					try {
+						Thread.sleep(sleepMs);
+					} catch (InterruptedException ex) {
+						if (stopped) {
+							return;
+						}
+						continue;
+					}
+				}
+				try {
+					processCancelledTimeouts();
+					transferNewTimeouts();
+					wheel[(int) (tick & mask)].expire(HashedWheelTimer.this);
+				} catch (Throwable ex) {
+					log.log(Level.WARNING, name + " - exception during processing of a tick", ex);
+				}
+				tick++;
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.reflection;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Annotation processor generating index of classes which are of interest to the kernel and to the repository
+ * lookup, so {@link ClassUtilBean} may load only classes listed in the index instead of scanning whole jar and loading
+ * every class in it.
+ * <br>
+ * Index is stored in <code>{@value #INDEX_FILE}</code> and contains binary names of classes annotated with
+ * <code>@Bean</code> (directly or inherited), <code>@Repository.Meta</code> or <code>@Repository.SchemaId</code>,
+ * classes with fields annotated with <code>@ConfigField</code> and classes implementing repositories, data sources,
+ * schema loaders or SessionManager processors.
+ * <br>
+ * Processor is not registered as a service; it is enabled only for this project by the compiler plugin configuration.
+ */
+@SupportedAnnotationTypes("*")
+public class BeanIndexProcessor
+		extends AbstractProcessor {
+
+	public static final String INDEX_FILE = "META-INF/tigase/beans.index";
+
+	private static final String[] ANNOTATIONS = {"tigase.kernel.beans.Bean", "tigase.db.Repository.Meta",
+												 "tigase.db.Repository.SchemaId"};
+	private static final String CONFIG_FIELD = "tigase.kernel.beans.config.ConfigField";
+	private static final String[] SUPERTYPES = {"tigase.db.Repository", "tigase.db.DataSource",
+												"tigase.db.util.SchemaLoader", "tigase.xmpp.XMPPImplIfc"};
+
+	private final Set<String> classNames = new TreeSet<>();
+	private List<TypeMirror> supertypes;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (supertypes == null) {
+			supertypes = new ArrayList<>();
+			for (String name : SUPERTYPES) {
+				TypeElement type = processingEnv.getElementUtils().getTypeElement(name);
+				if (type != null) {
+					supertypes.add(processingEnv.getTypeUtils().erasure(type.asType()));
+				}
+			}
+		}
+		if (roundEnv.processingOver()) {
+			writeIndex();
+		} else {
+			for (Element element : roundEnv.getRootElements()) {
+				collect(element);
+			}
+		}
+		// other processors should receive all annotations
+		return false;
+	}
+
+	private void collect(Element element) {
+		if (!(element instanceof TypeElement)) {
+			return;
+		}
+		TypeElement type = (TypeElement) element;
+		if ((type.getKind() == ElementKind.CLASS || type.getKind() == ElementKind.ENUM) && isIndexed(type)) {
+			classNames.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+		}
+		for (Element enclosed : type.getEnclosedElements()) {
+			collect(enclosed);
+		}
+	}
+
+	private boolean hasAnnotation(Element element, String... names) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			String name = ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+			for (String it : names) {
+				if (it.equals(name)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean isIndexed(TypeElement type) {
+		for (Element enclosed : type.getEnclosedElements()) {
+			if (enclosed.getKind() == ElementKind.FIELD && hasAnnotation(enclosed, CONFIG_FIELD)) {
+				return true;
+			}
+		}
+		TypeMirror erasure = processingEnv.getTypeUtils().erasure(type.asType());
+		for (TypeMirror supertype : supertypes) {
+			if (processingEnv.getTypeUtils().isAssignable(erasure, supertype)) {
+				return true;
+			}
+		}
+		// @Bean is inherited, so superclasses need to be checked as well
+		TypeElement current = type;
+		while (current != null) {
+			if (hasAnnotation(current, ANNOTATIONS)) {
+				return true;
+			}
+			TypeMirror superclass = current.getSuperclass();
+			current = superclass.getKind() == TypeKind.DECLARED
+					  ? (TypeElement) ((DeclaredType) superclass).asElement()
+					  : null;
+		}
+		return false;
+	}
+
+	private void writeIndex() {
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_FILE);
+			try (Writer writer = file.openWriter()) {
+				writer.write("# Generated by " + BeanIndexProcessor.class.getName() + "\n");
+				for (String className : classNames) {
+					writer.write(className);
+					writer.write('\n');
+				}
+			}
+		} catch (IOException ex) {
+			processingEnv.getMessager()
+					.printMessage(Diagnostic.Kind.WARNING, "Could not write index of beans: " + ex.getMessage());
+		}
+	}
+}
@@ -20,9 +20,14 @@ package tigase.util.reflection;
 import tigase.util.ClassComparator;
 import tigase.util.ClassUtil;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -68,6 +73,32 @@ public class ClassUtilBean {
 		}
 	}
 
+	/**
+	 * Reads names of classes from the index generated by {@link BeanIndexProcessor}.
+	 *
+	 * @return names of classes or <code>null</code> if jar file does not contain the index
+	 */
+	public static Set<String> readIndex(File jarFile) throws IOException {
+		try (JarFile jar = new JarFile(jarFile)) {
+			JarEntry entry = jar.getJarEntry(BeanIndexProcessor.INDEX_FILE);
+			if (entry == null) {
+				return null;
+			}
+			Set<String> names = new HashSet<>();
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(jar.getInputStream(entry), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						names.add(line);
+					}
+				}
+			}
+			return names;
+		}
+	}
+
 	public ClassUtilBean() {
 	}
 
@@ -87,11 +118,19 @@ public class ClassUtilBean {
 					return true;
 				};
 			}
-			classes.addAll(ClassUtil.getClassesFromClassPath(filter));
+			long start = System.currentTimeMillis();
+			classes.addAll(getClassesFromPath(System.getProperty("java.class.path"), filter));
 			// support for handling debugging test cases started by Maven Surefire Plugin
 			// as without it Tigase Kernel is not able to see annotated beans
-			classes.addAll(getClassesFromSurefireClassLoader());
-		} catch (IOException | ClassNotFoundException e) {
+			String surefireClassPath = System.getProperty("surefire.test.class.path");
+			if (surefireClassPath != null) {
+				classes.addAll(getClassesFromPath(surefireClassPath, filter));
+			}
+			if (log.isLoggable(Level.CONFIG)) {
+				log.log(Level.CONFIG, "loaded {0} classes in {1}ms",
+						new Object[]{classes.size(), System.currentTimeMillis() - start});
+			}
+		} catch (ClassNotFoundException e) {
 			log.log(Level.SEVERE, "Could not initialize list of classes", e);
 		}
 		synchronized (ClassUtilBean.class) {
@@ -103,14 +142,42 @@ public class ClassUtilBean {
 		return Collections.unmodifiableSet(classes);
 	}
 
-	private Set<Class<?>> getClassesFromSurefireClassLoader() {
-		Set<Class<?>> classes_set = new TreeSet<Class<?>>(new ClassComparator());
-		String classpath = System.getProperty("surefire.test.class.path");
+	/**
+	 * Checks if class is known to the kernel. Classes not listed in the index (ie. configured only by name, without
+	 * any annotation) are looked up by name, so they are still available even if they were not found during classpath
+	 * scanning.
+	 *
+	 * @param cls class to check
+	 *
+	 * @return <code>true</code> if class is available
+	 */
+	public boolean isKnownClass(Class<?> cls) {
+		if (getAllClasses().contains(cls)) {
+			return true;
+		}
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null) {
+			loader = ClassUtilBean.class.getClassLoader();
+		}
+		try {
+			return Class.forName(cls.getName(), false, loader) == cls;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
 
+	/**
+	 * Loads classes from jars and directories in the passed classpath. If a jar contains index of classes, only
+	 * classes listed in the index are loaded, otherwise all classes are loaded. Directories are always scanned, as
+	 * they are used during development and their index may be outdated after partial recompilation.
+	 */
+	private Set<Class<?>> getClassesFromPath(String classpath, Predicate<String> filter) throws ClassNotFoundException {
+		Set<Class<?>> classes_set = new TreeSet<Class<?>>(new ClassComparator());
 		if (classpath == null) {
 			return classes_set;
 		}
-		// System.out.println("classpath: "+classpath);
+		int indexed = 0;
+		int scanned = 0;
 		StringTokenizer stok = new StringTokenizer(classpath, File.pathSeparator, false);
 
 		while (stok.hasMoreTokens()) {
@@ -119,32 +186,38 @@ public class ClassUtilBean {
 
 			if (file.exists()) {
 				try {
+					Set<String> class_names = null;
 					if (file.isDirectory()) {
-
-						// System.out.println("directory: "+path);
-						Set<String> class_names = ClassUtil.getClassNamesFromDir(file);
-
-						tigase.osgi.util.ClassUtil.getClassesFromNames(Thread.currentThread().getContextClassLoader(),
-																	   class_names).stream().forEach(classes_set::add);
-					} // end of if (file.isDirectory())
-
-					if (file.isFile()) {
-
-						// System.out.println("jar file: "+path);
-						Set<String> class_names = ClassUtil.getClassNamesFromJar(file);
-
-						//classes_set.addAll(tigase.osgi.util.ClassUtil.getClassesFromNames(class_names));
-						tigase.osgi.util.ClassUtil.getClassesFromNames(Thread.currentThread().getContextClassLoader(),
-																	   class_names).stream().forEach(classes_set::add);
-
-						// System.out.println("Loaded jar file: "+path);
-					} // end of if (file.isFile())
-				} catch (ClassNotFoundException | IOException ex) {
+						class_names = ClassUtil.getClassNamesFromDir(file);
+						scanned++;
+					} else if (file.isFile()) {
+						class_names = readIndex(file);
+						if (class_names == null) {
+							class_names = ClassUtil.getClassNamesFromJar(file);
+							scanned++;
+						} else {
+							indexed++;
+						}
+					}
+					if (class_names == null) {
+						continue;
+					}
+					tigase.osgi.util.ClassUtil.getClassesFromNames(Thread.currentThread().getContextClassLoader(),
+																   class_names.stream()
+																		   .filter(filter)
+																		   .collect(Collectors.toSet()))
+							.stream()
+							.forEach(classes_set::add);
+				} catch (IOException ex) {
 					log.log(Level.WARNING, "Could not load classes for " + file.getAbsolutePath());
 				}
 			} // end of if (file.exists())
 		} // end of while (stok.hasMoreTokens())
 
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "loaded classes from {0} indexed jars and {1} scanned jars or directories",
+					new Object[]{indexed, scanned});
+		}
 		return classes_set;
 	}
 }
@@ -17,11 +17,24 @@
  */
 package tigase.vhosts;
 
+import tigase.db.TigaseDBException;
 import tigase.db.comp.ComponentRepository;
+import tigase.db.comp.RepositoryItem;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
 
 public interface VHostComponentRepository
 		extends ComponentRepository<VHostItem> {
 
 	VHostItem getDefaultVHostItem();
 
+	/**
+	 * Returns names of all virtual hosts. Implementations which do not keep all items in memory should override it to
+	 * return names without loading items.
+	 */
+	default Collection<String> getVHostNames() throws TigaseDBException {
+		return allItems().stream().map(RepositoryItem::getKey).collect(Collectors.toList());
+	}
+
 }
@@ -33,6 +33,7 @@ import tigase.xmpp.jid.JID;
 
 import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -142,7 +143,7 @@ public class VHostJDBCRepository
 		if (vhostDefaultValues == null) {
 			return;
 		}
-		super.reload();
+		reloadItems();
 
 		VHostItem defaultVHost = getItem(VHostItem.DEF_VHOST_KEY);
 		if (defaultVHost == null) {
@@ -166,7 +167,7 @@ public class VHostJDBCRepository
 		super.addItemNoStore(item);
 		if (VHostItem.DEF_VHOST_KEY.equals(item.getKey())) {
 			this.defaultVHost = item;
-			for (VHostItem it : allItems()) {
+			for (VHostItem it : getLoadedItems()) {
 				if (it instanceof VHostItemImpl.VHostItemWrapper && it != item) {
 					((VHostItemImpl.VHostItemWrapper) it).setDefaultVHost(item);
 				}
@@ -188,13 +189,8 @@ public class VHostJDBCRepository
 			return "Domain name not specified";
 		}
 
-		int vhost_count = 0;
+		int vhost_count = countItemsOwnedBy(item.getOwner());
 
-		for (VHostItem it : allItems()) {
-			if (it.isOwner(item.getOwner())) {
-				++vhost_count;
-			}
-		}
 		if (vhost_count >= max_domains_per_user) {
 			return "Maximum number of domains exceeded for the user! Current number is: " + vhost_count;
 		}
@@ -350,6 +346,34 @@ public class VHostJDBCRepository
 		setMainVHostName(mainVHostName);
 	}
 
+	/**
+	 * Returns number of virtual hosts owned by the user.
+	 */
+	protected int countItemsOwnedBy(String owner) {
+		int vhost_count = 0;
+
+		for (VHostItem it : allItems()) {
+			if (it.isOwner(owner)) {
+				++vhost_count;
+			}
+		}
+		return vhost_count;
+	}
+
+	/**
+	 * Returns items which are loaded into memory and need to be updated when default virtual host is changed.
+	 */
+	protected Collection<VHostItem> getLoadedItems() {
+		return allItems();
+	}
+
+	/**
+	 * Loads items from the database.
+	 */
+	protected void reloadItems() {
+		super.reload();
+	}
+
 	private void reloadIfReady() {
 		//called from setters for below members -- to force reload only after everything is initialised
 		if (vhostDefaultValues != null && extensionManager != null) {
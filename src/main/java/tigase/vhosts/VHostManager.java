@@ -23,9 +23,11 @@ import tigase.db.DataSourceHelper;
 import tigase.db.TigaseDBException;
 import tigase.db.comp.AbstractSDComponentRepositoryBean;
 import tigase.db.comp.ComponentRepository;
+import tigase.db.comp.RepositoryChangeListenerIfc;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.RegistrarBean;
+import tigase.kernel.beans.UnregisterAware;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
@@ -39,10 +41,8 @@ import tigase.xmpp.jid.JID;
 
 import javax.script.Bindings;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,6 +50,10 @@ import java.util.logging.Logger;
 /**
  * Describe class VHostManager here.
  * <br>
+ * Components handling packets for local domains are resolved once for each domain and kept in an immutable route
+ * entry. Entry is reused as long as the {@link VHostItem} of the domain and the list of registered components are the
+ * same as at the time when the entry was created, so lookups do not allocate any objects.
+ * <br>
  * Created: Fri Nov 21 14:28:20 2008
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
@@ -58,7 +62,7 @@ import java.util.logging.Logger;
 @ConfigType({ConfigTypeEnum.DefaultMode, ConfigTypeEnum.SessionManagerMode, ConfigTypeEnum.ConnectionManagersMode, ConfigTypeEnum.ComponentMode})
 public class VHostManager
 		extends AbstractComponentRegistrator<VHostListener>
-		implements VHostManagerIfc, StatisticsContainer, RegistrarBean {
+		implements VHostManagerIfc, StatisticsContainer, RegistrarBean, UnregisterAware {
 
 	private static final Logger log = Logger.getLogger(VHostManager.class.getName());
 
@@ -75,6 +79,28 @@ public class VHostManager
 	private LinkedHashSet<VHostListener> nameSubdomainsHandlers = new LinkedHashSet<VHostListener>(10);
 	private LinkedHashSet<VHostListener> nonLocalDomainsHandlers = new LinkedHashSet<VHostListener>(10);
 	private ConcurrentSkipListSet<String> registeredComponentDomains = new ConcurrentSkipListSet<String>();
+	private volatile List<JID> allVHosts = null;
+	private volatile VHostListener[] nameSubdomainsComponents = new VHostListener[0];
+	private volatile ServerComponent[] nonLocalDomainsComponents = null;
+	private volatile long routesVersion = 0;
+	private long routesRebuilds = 0;
+	private final ConcurrentHashMap<String, VHostRoute> routes = new ConcurrentHashMap<>();
+	private final RepositoryChangeListenerIfc<VHostItem> vhostsListener = new RepositoryChangeListenerIfc<VHostItem>() {
+		@Override
+		public void itemAdded(VHostItem item) {
+			allVHosts = null;
+		}
+
+		@Override
+		public void itemUpdated(VHostItem item) {
+			allVHosts = null;
+		}
+
+		@Override
+		public void itemRemoved(VHostItem item) {
+			allVHosts = null;
+		}
+	};
 
 	/**
 	 * Creates a new <code>VHostManager</code> instance.
@@ -99,6 +125,7 @@ public class VHostManager
 		if (component.handlesNameSubdomains()) {
 			nameSubdomainsHandlers.add(component);
 		}
+		componentsChanged();
 	}
 
 	@Override
@@ -106,6 +133,7 @@ public class VHostManager
 		localDomainsHandlers.remove(component);
 		nonLocalDomainsHandlers.remove(component);
 		nameSubdomainsHandlers.remove(component);
+		componentsChanged();
 	}
 
 	@Override
@@ -130,40 +158,112 @@ public class VHostManager
 
 	}
 
+	@Override
+	public void initialize() {
+		super.initialize();
+		repo.addRepoChangeListener(vhostsListener);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		repo.removeRepoChangeListener(vhostsListener);
+	}
+
+	/**
+	 * Returns list of all local domains. Returned list is shared and cannot be modified.
+	 */
 	@Override
 	public List<JID> getAllVHosts() {
-		List<JID> list = new ArrayList<JID>();
+		List<JID> list = allVHosts;
+		if (list != null && list.size() == repo.size()) {
+			return list;
+		}
 
+		list = new ArrayList<JID>();
 		try {
-			for (VHostItem item : repo.allItems()) {
-				list.add(item.getVhost());
+			for (String domain : repo.getVHostNames()) {
+				list.add(JID.jidInstanceNS(domain));
 			}
 		} catch (TigaseDBException ex) {
 			Logger.getLogger(VHostManager.class.getName()).log(Level.SEVERE, null, ex);
 		}
+		list = Collections.unmodifiableList(list);
+		allVHosts = list;
 
 		return list;
 	}
 
+	/**
+	 * Returns components for the domain. Returned array is shared and cannot be modified.
+	 */
 	@Override
 	public ServerComponent[] getComponentsForLocalDomain(String domain) {
 		++getComponentsForLocalDomainCalls;
 
+		VHostRoute route = routes.get(domain);
+		if (route != null && isRouteValid(route, domain)) {
+			return route.components;
+		}
+
+		route = createRoute(domain);
+		if (route == null) {
+			if (!routes.isEmpty()) {
+				routes.remove(domain);
+			}
+			return null;
+		}
+		routes.put(domain, route);
+		return route.components;
+	}
+
+	@Override
+	public ServerComponent[] getComponentsForNonLocalDomain(String domain) {
+		++getComponentsForNonLocalDomainCalls;
+
+		// Return components for non-local domains
+		return nonLocalDomainsComponents;
+	}
+
+	private void componentsChanged() {
+		nonLocalDomainsComponents = nonLocalDomainsHandlers.isEmpty()
+									? null
+									: nonLocalDomainsHandlers.toArray(new ServerComponent[nonLocalDomainsHandlers.size()]);
+		nameSubdomainsComponents = nameSubdomainsHandlers.toArray(new VHostListener[nameSubdomainsHandlers.size()]);
+		// all existing routes are now invalid
+		++routesVersion;
+	}
+
+	private boolean isRouteValid(VHostRoute route, String domain) {
+		if (route.version != routesVersion) {
+			return false;
+		}
+		VHostItem vhost = repo.getItem(route.vhostDomain);
+		if (vhost != route.vhost || vhost.getComps() != route.comps) {
+			return false;
+		}
+		// 'name' subdomain could be added as a local domain
+		return !route.subdomain || !repo.contains(domain);
+	}
+
+	private VHostRoute createRoute(String domain) {
+		long version = routesVersion;
 		VHostItem vhost = repo.getItem(domain);
 
 		if (vhost == null) {
 
 			// This is not a local domain.
 			// Maybe this is a 'name' subdomain: 'pubsub'.domain.name
-			int idx = domain.indexOf('.');
-
-			if (idx > 0) {
-				String name = domain.substring(0, idx);
-				String basedomain = domain.substring(idx + 1);
-				VHostListener listener = components.get(name);
-
-				if ((listener != null) && listener.handlesNameSubdomains() && isLocalDomain(basedomain)) {
-					return new ServerComponent[]{listener};
+			for (VHostListener listener : nameSubdomainsComponents) {
+				String name = listener.getName();
+				if (domain.length() > name.length() + 1 && domain.charAt(name.length()) == '.' &&
+						domain.startsWith(name)) {
+					String basedomain = domain.substring(name.length() + 1);
+					VHostItem baseVHost = repo.getItem(basedomain);
+
+					if (baseVHost != null) {
+						++routesRebuilds;
+						return new VHostRoute(basedomain, baseVHost, true, version, new ServerComponent[]{listener});
+					}
 				}
 			}
 
@@ -197,23 +297,10 @@ public class VHostManager
 			if (results.size() == 0) {
 				results.addAll(localDomainsHandlers);
 			}
-			if (results.size() > 0) {
-				return results.toArray(new ServerComponent[results.size()]);
-			} else {
-				return null;
-			}
-		}
-	}
-
-	@Override
-	public ServerComponent[] getComponentsForNonLocalDomain(String domain) {
-		++getComponentsForNonLocalDomainCalls;
-
-		// Return components for non-local domains
-		if (nonLocalDomainsHandlers.size() > 0) {
-			return nonLocalDomainsHandlers.toArray(new ServerComponent[nonLocalDomainsHandlers.size()]);
-		} else {
-			return null;
+			++routesRebuilds;
+			return new VHostRoute(domain, vhost, false, version, results.size() > 0
+																 ? results.toArray(new ServerComponent[results.size()])
+																 : null);
 		}
 	}
 
@@ -239,6 +326,9 @@ public class VHostManager
 		list.add(getName(), "Checks: is anonymous domain", isAnonymousEnabledCalls, Level.FINER);
 		list.add(getName(), "Get components for local domain", getComponentsForLocalDomainCalls, Level.FINER);
 		list.add(getName(), "Get components for non-local domain", getComponentsForNonLocalDomainCalls, Level.FINER);
+		list.add(getName(), "Routing snapshot version", routesVersion, Level.FINER);
+		list.add(getName(), "Routing snapshot rebuilds", routesRebuilds, Level.FINER);
+		list.add(getName(), "Routing snapshot domains", routes.size(), Level.FINEST);
 	}
 
 	@Override
@@ -354,6 +444,11 @@ public class VHostManager
 			return ((VHostComponentRepository) getRepository()).getDefaultVHostItem();
 		}
 
+		@Override
+		public Collection<String> getVHostNames() throws TigaseDBException {
+			return ((VHostComponentRepository) getRepository()).getVHostNames();
+		}
+
 		@Override
 		protected Class<? extends VHostComponentRepositoryDataSourceAware<DataSource>> findClassForDataSource(
 				DataSource dataSource) throws DBInitException {
@@ -364,5 +459,27 @@ public class VHostManager
 
 	}
 
-}
 
+	/**
+	 * Immutable list of components handling packets for a local domain or a 'name' subdomain of a local domain.
+	 */
+	private static final class VHostRoute {
+
+		private final String[] comps;
+		private final ServerComponent[] components;
+		private final boolean subdomain;
+		private final long version;
+		private final VHostItem vhost;
+		private final String vhostDomain;
+
+		private VHostRoute(String vhostDomain, VHostItem vhost, boolean subdomain, long version,
+						   ServerComponent[] components) {
+			this.vhostDomain = vhostDomain;
+			this.vhost = vhost;
+			this.comps = vhost.getComps();
+			this.subdomain = subdomain;
+			this.version = version;
+			this.components = components;
+		}
+	}
+}
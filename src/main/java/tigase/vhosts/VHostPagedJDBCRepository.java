@@ -0,0 +1,510 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts;
+
+import tigase.db.Repository;
+import tigase.db.TigaseDBException;
+import tigase.db.UserRepository;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This implementation stores virtual domains in the UserRepository database, like {@link VHostJDBCRepository}, but
+ * each virtual host is stored under a separate key. Only a compact index of domain names (with modification time and
+ * owner of each domain) is kept in memory and virtual hosts are loaded on demand into a cache of limited size.
+ * <br>
+ * Each change of a virtual host updates its modification time, adds an entry with names of changed virtual hosts to a
+ * log of changes and updates a marker of the last modification. Periodic reload checks only the marker and, if it
+ * changed, reads the log of changes and loads only virtual hosts changed since the previous reload. Entries of the log
+ * are removed after <code>vhosts-changes-retention</code> seconds, so if reload was not executed for a longer time,
+ * modification times of all virtual hosts in the database are compared with the index.
+ * <br>
+ * Virtual hosts stored by {@link VHostJDBCRepository} are imported on the first start if the index is empty. To use
+ * this implementation set <code>cls</code> of the <code>repo</code> bean of <code>vhost-man</code> to the name of this
+ * class.
+ */
+@Repository.Meta(supportedUris = {".*"})
+public class VHostPagedJDBCRepository
+		extends VHostJDBCRepository {
+
+	private static final Logger log = Logger.getLogger(VHostPagedJDBCRepository.class.getName());
+
+	private static final String CHANGES_NODE = "vhosts-changes";
+	private static final String ITEMS_NODE = "vhosts-items";
+	private static final String LAST_MODIFIED_KEY = "vhosts-last-modified";
+	private static final String MODIFIED_NODE = "vhosts-modified";
+
+	@ConfigField(desc = "Max number of virtual hosts kept in memory", alias = "vhosts-cache-size")
+	private int cacheSize = 10000;
+	@ConfigField(desc = "Time in seconds for which entries of the log of changes are kept", alias = "vhosts-changes-retention")
+	private long changesRetention = 600;
+	private final Map<String, VHostItem> cache = new LinkedHashMap<String, VHostItem>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, VHostItem> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	private final ConcurrentSkipListMap<String, IndexEntry> index = new ConcurrentSkipListMap<>(
+			String.CASE_INSENSITIVE_ORDER);
+	// keys of entries of the log of changes which were already applied
+	private final Set<String> appliedChanges = new ConcurrentSkipListSet<>();
+	private String lastModifiedMarker = null;
+	private long lastReloadTime = 0;
+	private long lastTimestamp = 0;
+	private final Map<String, String> owners = new ConcurrentHashMap<>();
+	private final Set<String> pendingRemovals = new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+	private final Map<String, VHostItem> pendingStore = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	public VHostPagedJDBCRepository() {
+		items = new PagedItems();
+	}
+
+	@Override
+	public void addItem(VHostItem item) {
+		pendingRemovals.remove(item.getKey());
+		pendingStore.put(item.getKey(), item);
+		super.addItem(item);
+	}
+
+	@Override
+	public Collection<String> getVHostNames() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	/**
+	 * Returns number of virtual hosts kept in memory.
+	 */
+	public int getCachedItemsCount() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	@Override
+	public void removeItem(String key) {
+		if (!contains(key)) {
+			return;
+		}
+		pendingStore.remove(key);
+		pendingRemovals.add(key);
+		super.removeItem(key);
+	}
+
+	@Override
+	public synchronized void store() {
+		UserRepository repo = getRepo();
+		if (repo == null || !isInitialized() || (pendingStore.isEmpty() && pendingRemovals.isEmpty())) {
+			return;
+		}
+		// modification time needs to change even if item is modified again in the same millisecond
+		long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+		lastTimestamp = timestamp;
+		try {
+			StringBuilder changed = new StringBuilder();
+			for (String key : pendingRemovals) {
+				repo.removeData(getRepoUser(), ITEMS_NODE, key);
+				repo.removeData(getRepoUser(), MODIFIED_NODE, key);
+				pendingRemovals.remove(key);
+				changed.append(key).append(' ');
+			}
+			for (Map.Entry<String, VHostItem> e : pendingStore.entrySet()) {
+				VHostItem item = e.getValue();
+				IndexEntry entry = new IndexEntry(timestamp, internOwner(item.getOwner()));
+				repo.setData(getRepoUser(), ITEMS_NODE, item.getKey(), item.toElement().toString());
+				repo.setData(getRepoUser(), MODIFIED_NODE, item.getKey(), entry.toString());
+				index.computeIfPresent(item.getKey(), (key, old) -> entry);
+				pendingStore.remove(e.getKey(), item);
+				changed.append(item.getKey()).append(' ');
+			}
+			String change = timestamp + "-" + UUID.randomUUID();
+			appliedChanges.add(change);
+			repo.setData(getRepoUser(), CHANGES_NODE, change, changed.toString().trim());
+			removeExpiredChanges(repo, timestamp);
+			// marker is not remembered as other cluster nodes could change items at the same time
+			repo.setData(getRepoUser(), LAST_MODIFIED_KEY, change);
+		} catch (TigaseDBException ex) {
+			log.log(Level.SEVERE, "Error storing virtual hosts in the repository", ex);
+		}
+	}
+
+	@Override
+	protected int countItemsOwnedBy(String owner) {
+		int count = 0;
+		for (IndexEntry entry : index.values()) {
+			if (owner == null ? entry.owner == null : owner.equals(entry.owner)) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	protected Collection<VHostItem> getLoadedItems() {
+		synchronized (cache) {
+			return new ArrayList<>(cache.values());
+		}
+	}
+
+	@Override
+	protected void reloadItems() {
+		UserRepository repo = getRepo();
+		if (repo == null) {
+			log.log(Level.SEVERE, "Repository is not initialised - skipping reload");
+			return;
+		}
+		try {
+			String marker = repo.getData(getRepoUser(), LAST_MODIFIED_KEY);
+			if (marker == null && index.isEmpty()) {
+				importItemsList(repo);
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if (marker == null || marker.equals(lastModifiedMarker)) {
+				lastReloadTime = now;
+				return;
+			}
+
+			int loaded = 0;
+			// entries of the log of changes could be already removed if last reload was too long ago
+			if (lastModifiedMarker != null && now - lastReloadTime < changesRetention * 1000 / 2) {
+				for (String key : readChanges(repo)) {
+					String value = repo.getData(getRepoUser(), MODIFIED_NODE, key);
+					if (value == null) {
+						if (index.containsKey(key) && !pendingStore.containsKey(key)) {
+							removeItemNoStore(key);
+						}
+					} else if (reloadItem(repo, key, IndexEntry.parse(value, this::internOwner), false)) {
+						++loaded;
+					}
+				}
+			} else {
+				readChanges(repo);
+				Map<String, String> modified = repo.getDataMap(getRepoUser(), MODIFIED_NODE);
+				// on the first load only the index is filled, items are loaded when needed
+				boolean initial = lastModifiedMarker == null;
+				for (String key : index.keySet()) {
+					if (!modified.containsKey(key) && !pendingStore.containsKey(key)) {
+						removeItemNoStore(key);
+					}
+				}
+				for (Map.Entry<String, String> e : modified.entrySet()) {
+					if (reloadItem(repo, e.getKey(), IndexEntry.parse(e.getValue(), this::internOwner), initial)) {
+						++loaded;
+					}
+				}
+			}
+			lastReloadTime = now;
+			lastModifiedMarker = marker;
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Reloaded {0} changed virtual hosts of {1}", new Object[]{loaded, index.size()});
+			}
+		} catch (TigaseDBException ex) {
+			log.log(Level.SEVERE, "Problem with loading virtual hosts from the database.", ex);
+		}
+	}
+
+	private void importItemsList(UserRepository repo) throws TigaseDBException {
+		String items_list = repo.getData(getRepoUser(), getItemsListPKey());
+		if (items_list == null || items_list.isEmpty()) {
+			return;
+		}
+		DomBuilderHandler domHandler = new DomBuilderHandler();
+		SimpleParser parser = SingletonFactory.getParserInstance();
+		parser.parse(domHandler, items_list.toCharArray(), 0, items_list.length());
+		Queue<Element> elems = domHandler.getParsedElements();
+		if (elems != null) {
+			for (Element elem : elems) {
+				VHostItem item = getItemInstance();
+				item.initFromElement(elem);
+				pendingStore.put(item.getKey(), item);
+				addItemNoStore(item);
+			}
+			log.log(Level.CONFIG, "Imported {0} virtual hosts stored in a single database field", elems.size());
+		}
+		store();
+	}
+
+	/**
+	 * Returns names of virtual hosts listed in entries of the log of changes, which were not applied yet.
+	 */
+	private Set<String> readChanges(UserRepository repo) throws TigaseDBException {
+		Map<String, String> changes = repo.getDataMap(getRepoUser(), CHANGES_NODE);
+		Set<String> changed = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		for (Map.Entry<String, String> e : changes.entrySet()) {
+			if (appliedChanges.add(e.getKey()) && e.getValue() != null && !e.getValue().isEmpty()) {
+				changed.addAll(Arrays.asList(e.getValue().split(" ")));
+			}
+		}
+		appliedChanges.retainAll(changes.keySet());
+		return changed;
+	}
+
+	/**
+	 * Updates index and cached item if virtual host was changed.
+	 *
+	 * @return <code>true</code> if item was loaded from the database
+	 */
+	private boolean reloadItem(UserRepository repo, String key, IndexEntry entry, boolean initial)
+			throws TigaseDBException {
+		IndexEntry current = index.get(key);
+		if ((current != null && current.modified == entry.modified) || pendingStore.containsKey(key) ||
+				pendingRemovals.contains(key)) {
+			return false;
+		}
+		if (initial && current == null) {
+			index.put(key, entry);
+			return false;
+		}
+		VHostItem item = loadItem(repo, key);
+		if (item == null) {
+			return false;
+		}
+		addItemNoStore(item);
+		index.put(key, entry);
+		return true;
+	}
+
+	private void removeExpiredChanges(UserRepository repo, long timestamp) throws TigaseDBException {
+		String[] keys = repo.getKeys(getRepoUser(), CHANGES_NODE);
+		if (keys == null) {
+			return;
+		}
+		long expired = timestamp - changesRetention * 1000;
+		for (String key : keys) {
+			int idx = key.indexOf('-');
+			try {
+				if (Long.parseLong(idx < 0 ? key : key.substring(0, idx)) < expired) {
+					repo.removeData(getRepoUser(), CHANGES_NODE, key);
+				}
+			} catch (NumberFormatException ex) {
+				repo.removeData(getRepoUser(), CHANGES_NODE, key);
+			}
+		}
+	}
+
+	private String internOwner(String owner) {
+		return owner == null ? null : owners.computeIfAbsent(owner, o -> o);
+	}
+
+	private VHostItem loadItem(UserRepository repo, String key) throws TigaseDBException {
+		String data = repo.getData(getRepoUser(), ITEMS_NODE, key);
+		if (data == null) {
+			return null;
+		}
+		DomBuilderHandler domHandler = new DomBuilderHandler();
+		SimpleParser parser = SingletonFactory.getParserInstance();
+		parser.parse(domHandler, data.toCharArray(), 0, data.length());
+		Element elem = domHandler.getParsedElements().poll();
+		if (elem == null) {
+			log.log(Level.WARNING, "Invalid data of virtual host {0} in the repository: {1}", new Object[]{key, data});
+			return null;
+		}
+		VHostItem item = getItemInstance();
+		item.initFromElement(elem);
+		if (item instanceof VHostItemImpl.VHostItemWrapper) {
+			((VHostItemImpl.VHostItemWrapper) item).readOnly();
+		}
+		return item;
+	}
+
+	private static final class IndexEntry {
+
+		private static final IndexEntry NEW = new IndexEntry(0, null);
+
+		private final long modified;
+		private final String owner;
+
+		private static IndexEntry parse(String value, Function<String, String> ownerMapper) {
+			int idx = value.indexOf(' ');
+			if (idx < 0) {
+				return new IndexEntry(Long.parseLong(value), null);
+			}
+			return new IndexEntry(Long.parseLong(value.substring(0, idx)), ownerMapper.apply(value.substring(idx + 1)));
+		}
+
+		private IndexEntry(long modified, String owner) {
+			this.modified = modified;
+			this.owner = owner;
+		}
+
+		@Override
+		public String toString() {
+			return owner == null ? String.valueOf(modified) : (modified + " " + owner);
+		}
+	}
+
+	/**
+	 * Map of items backed by the index and the cache, which loads items from the database on demand. Values are
+	 * loaded during iteration, so iteration over all items should be avoided.
+	 */
+	private class PagedItems
+			extends AbstractMap<String, VHostItem> {
+
+		@Override
+		public boolean containsKey(Object key) {
+			return index.containsKey(key);
+		}
+
+		@Override
+		public Set<Entry<String, VHostItem>> entrySet() {
+			return new AbstractSet<Entry<String, VHostItem>>() {
+				@Override
+				public Iterator<Entry<String, VHostItem>> iterator() {
+					Iterator<VHostItem> it = values().iterator();
+					return new Iterator<Entry<String, VHostItem>>() {
+						@Override
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+
+						@Override
+						public Entry<String, VHostItem> next() {
+							VHostItem item = it.next();
+							return new SimpleImmutableEntry<>(item.getKey(), item);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return index.size();
+				}
+			};
+		}
+
+		@Override
+		public VHostItem get(Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			String cacheKey = ((String) key).toLowerCase();
+			VHostItem item;
+			synchronized (cache) {
+				item = cache.get(cacheKey);
+			}
+			if (item != null || !index.containsKey(key)) {
+				return item;
+			}
+			item = pendingStore.get(key);
+			if (item == null) {
+				UserRepository repo = getRepo();
+				if (repo == null) {
+					return null;
+				}
+				try {
+					item = loadItem(repo, (String) key);
+				} catch (TigaseDBException ex) {
+					log.log(Level.WARNING, "Problem with loading virtual host " + key + " from the database", ex);
+				}
+				if (item == null) {
+					return null;
+				}
+			}
+			synchronized (cache) {
+				VHostItem current = cache.putIfAbsent(cacheKey, item);
+				return current == null ? item : current;
+			}
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return index.keySet();
+		}
+
+		@Override
+		public VHostItem put(String key, VHostItem item) {
+			VHostItem old;
+			synchronized (cache) {
+				old = cache.put(key.toLowerCase(), item);
+			}
+			if (index.putIfAbsent(key, IndexEntry.NEW) == null) {
+				return null;
+			}
+			// item was not in memory - returning new one as the old one is only used to notify about a change
+			return old == null ? item : old;
+		}
+
+		@Override
+		public VHostItem remove(Object key) {
+			if (!(key instanceof String) || index.remove(key) == null) {
+				return null;
+			}
+			VHostItem item;
+			synchronized (cache) {
+				item = cache.remove(((String) key).toLowerCase());
+			}
+			if (item == null) {
+				item = getItemInstance();
+				item.setKey((String) key);
+			}
+			return item;
+		}
+
+		@Override
+		public int size() {
+			return index.size();
+		}
+
+		@Override
+		public Collection<VHostItem> values() {
+			return new AbstractCollection<VHostItem>() {
+				@Override
+				public Iterator<VHostItem> iterator() {
+					Iterator<String> keys = index.keySet().iterator();
+					return new Iterator<VHostItem>() {
+						private VHostItem next = null;
+
+						@Override
+						public boolean hasNext() {
+							while (next == null && keys.hasNext()) {
+								next = get(keys.next());
+							}
+							return next != null;
+						}
+
+						@Override
+						public VHostItem next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							VHostItem item = next;
+							next = null;
+							return item;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return index.size();
+				}
+			};
+		}
+	}
+}
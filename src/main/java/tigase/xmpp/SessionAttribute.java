@@ -0,0 +1,116 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed key of temporary data stored in {@link XMPPResourceConnection} and {@link XMPPSession}.
+ * <br>
+ * Key should be registered once (ie. as a static field of a plugin) and then it may be used to access session data
+ * with <code>getSessionData(SessionAttribute)</code>, <code>putSessionData(SessionAttribute, Object)</code> and
+ * similar methods. Each key has its own slot in session data, so access does not require hashing of the key or
+ * lookup in a map. Data stored with a registered key is also accessible with methods using <code>String</code> keys
+ * using name of the key.
+ *
+ * @param <T> type of the data stored under this key
+ */
+public final class SessionAttribute<T> {
+
+	private static final ConcurrentHashMap<String, SessionAttribute<?>> attributes = new ConcurrentHashMap<>();
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private final int index;
+	private final String name;
+	private final Class<? super T> type;
+
+	/**
+	 * Registers key with given name. If key with this name is already registered, then existing key is returned.
+	 *
+	 * @param name name of the key, the same as used for access to session data with <code>String</code> keys
+	 * @param type class of data stored under this key, for generic types a raw class (ie. <code>Set.class</code> for
+	 * <code>SessionAttribute&lt;Set&lt;JID&gt;&gt;</code>)
+	 *
+	 * @return registered key
+	 *
+	 * @throws IllegalArgumentException if key with the same name was registered with different type
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> SessionAttribute<T> register(String name, Class<? super T> type) {
+		SessionAttribute<?> attribute = attributes.computeIfAbsent(name, key -> new SessionAttribute<T>(
+				counter.getAndIncrement(), key, type));
+		if (attribute.type != type) {
+			throw new IllegalArgumentException(
+					"Session attribute " + name + " is already registered with type " + attribute.type.getName());
+		}
+		return (SessionAttribute<T>) attribute;
+	}
+
+	/**
+	 * Returns registered key for the name or <code>null</code> if there is no such key.
+	 */
+	public static SessionAttribute<?> forName(String name) {
+		return attributes.get(name);
+	}
+
+	/**
+	 * Returns number of registered keys, which is also the number of slots needed to store data for all of them.
+	 */
+	public static int getRegisteredCount() {
+		return counter.get();
+	}
+
+	private SessionAttribute(int index, String name, Class<? super T> type) {
+		this.index = index;
+		this.name = name;
+		this.type = type;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<? super T> getType() {
+		return type;
+	}
+
+	/**
+	 * Casts value to the type of data stored under this key. For generic types only the raw class is checked.
+	 */
+	@SuppressWarnings("unchecked")
+	public T cast(Object value) {
+		return (T) type.cast(value);
+	}
+
+	/**
+	 * Checks if the value is of type of data stored under this key.
+	 */
+	public boolean isInstance(Object value) {
+		return type.isInstance(value);
+	}
+
+	@Override
+	public String toString() {
+		return "SessionAttribute[" + name + ", " + type.getSimpleName() + "]";
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Storage of temporary session data used by {@link XMPPResourceConnection} and {@link XMPPSession}.
+ * <br>
+ * Data stored under keys registered as {@link SessionAttribute} is kept in an array with a slot for each registered
+ * key, which is allocated on first write and sized to the number of keys registered at that time. Data for other
+ * <code>String</code> keys (and for keys registered after the array was allocated) is kept in a map, which is also
+ * created only when needed. Data stored with <code>String</code> key before a key with the same name was registered
+ * is still returned until it is replaced or removed. Data of other type than the type of registered key stored with
+ * <code>String</code> key is kept in the map and is not returned by methods using the registered key. Methods with
+ * the same semantic as methods of <code>ConcurrentMap</code> are thread-safe, however value factory passed to
+ * <code>computeIfAbsent()</code> may be called more than once if the same key is computed concurrently and only one
+ * of returned values will be stored.
+ */
+public class SessionAttributes {
+
+	private static final Logger log = Logger.getLogger(SessionAttributes.class.getName());
+	private static final AtomicReferenceFieldUpdater<SessionAttributes, Map> MAP_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(SessionAttributes.class, Map.class, "map");
+	private static final AtomicReferenceFieldUpdater<SessionAttributes, AtomicReferenceArray> SLOTS_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(SessionAttributes.class, AtomicReferenceArray.class, "slots");
+
+	private volatile Map<String, Object> map = null;
+	private volatile AtomicReferenceArray<Object> slots = null;
+
+	public Object get(String key) {
+		SessionAttribute<?> attribute = SessionAttribute.forName(key);
+		return attribute == null ? getFromMap(key) : getValue(attribute);
+	}
+
+	public <T> T get(SessionAttribute<T> attribute) {
+		return typed(attribute, getValue(attribute));
+	}
+
+	public Object put(String key, Object value) {
+		SessionAttribute<?> attribute = SessionAttribute.forName(key);
+		return attribute == null ? map().put(key, value) : putValue(attribute, value);
+	}
+
+	public <T> T put(SessionAttribute<T> attribute, T value) {
+		return typed(attribute, putValue(attribute, value));
+	}
+
+	public Object putIfAbsent(String key, Object value) {
+		SessionAttribute<?> attribute = SessionAttribute.forName(key);
+		return attribute == null ? map().putIfAbsent(key, value) : putValueIfAbsent(attribute, value);
+	}
+
+	public <T> T putIfAbsent(SessionAttribute<T> attribute, T value) {
+		return typed(attribute, putValueIfAbsent(attribute, value));
+	}
+
+	public Object computeIfAbsent(String key, Function<String, Object> valueFactory) {
+		SessionAttribute<?> attribute = SessionAttribute.forName(key);
+		if (attribute == null) {
+			return map().computeIfAbsent(key, valueFactory);
+		}
+		return computeValueIfAbsent(attribute, () -> valueFactory.apply(key));
+	}
+
+	public <T> T computeIfAbsent(SessionAttribute<T> attribute, Supplier<T> valueFactory) {
+		return typed(attribute, computeValueIfAbsent(attribute, valueFactory));
+	}
+
+	public Object remove(String key) {
+		SessionAttribute<?> attribute = SessionAttribute.forName(key);
+		if (attribute == null) {
+			Map<String, Object> map = this.map;
+			return map == null ? null : map.remove(key);
+		}
+		return removeValue(attribute);
+	}
+
+	public <T> T remove(SessionAttribute<T> attribute) {
+		return typed(attribute, removeValue(attribute));
+	}
+
+	private Object getValue(SessionAttribute<?> attribute) {
+		AtomicReferenceArray<Object> slots = this.slots;
+		if (slots != null && attribute.getIndex() < slots.length()) {
+			Object value = slots.get(attribute.getIndex());
+			if (value != null) {
+				return value;
+			}
+		}
+		// value could be stored with String key before the key was registered
+		return getFromMap(attribute.getName());
+	}
+
+	private Object putValue(SessionAttribute<?> attribute, Object value) {
+		Objects.requireNonNull(value);
+		AtomicReferenceArray<Object> slots = slots();
+		if (!attribute.isInstance(value)) {
+			logTypeMismatch(attribute, value);
+			Object old = attribute.getIndex() < slots.length() ? slots.getAndSet(attribute.getIndex(), null) : null;
+			Object oldInMap = map().put(attribute.getName(), value);
+			return old == null ? oldInMap : old;
+		}
+		if (attribute.getIndex() < slots.length()) {
+			Object old = slots.getAndSet(attribute.getIndex(), value);
+			return old == null ? getFromMap(attribute.getName()) : old;
+		}
+		return map().put(attribute.getName(), value);
+	}
+
+	private Object putValueIfAbsent(SessionAttribute<?> attribute, Object value) {
+		Objects.requireNonNull(value);
+		if (!attribute.isInstance(value)) {
+			logTypeMismatch(attribute, value);
+			Object current = getValue(attribute);
+			return current == null ? map().putIfAbsent(attribute.getName(), value) : current;
+		}
+		AtomicReferenceArray<Object> slots = slots();
+		if (attribute.getIndex() < slots.length()) {
+			Object current = getFromMap(attribute.getName());
+			if (current != null) {
+				if (attribute.isInstance(current)) {
+					return current;
+				}
+				// value of other type stored with String key is replaced
+				map.remove(attribute.getName(), current);
+			}
+			do {
+				current = slots.get(attribute.getIndex());
+				if (current != null) {
+					return current;
+				}
+			} while (!slots.compareAndSet(attribute.getIndex(), null, value));
+			return null;
+		}
+		return map().putIfAbsent(attribute.getName(), value);
+	}
+
+	private Object computeValueIfAbsent(SessionAttribute<?> attribute, Supplier<?> valueFactory) {
+		Object current = getValue(attribute);
+		if (current != null) {
+			return current;
+		}
+		Object value = valueFactory.get();
+		if (value == null) {
+			return null;
+		}
+		current = putValueIfAbsent(attribute, value);
+		return current == null ? value : current;
+	}
+
+	private Object removeValue(SessionAttribute<?> attribute) {
+		Object value = null;
+		AtomicReferenceArray<Object> slots = this.slots;
+		if (slots != null && attribute.getIndex() < slots.length()) {
+			value = slots.getAndSet(attribute.getIndex(), null);
+		}
+		Map<String, Object> map = this.map;
+		if (map != null) {
+			Object old = map.remove(attribute.getName());
+			if (value == null) {
+				value = old;
+			}
+		}
+		return value;
+	}
+
+	private static <T> T typed(SessionAttribute<T> attribute, Object value) {
+		// value of other type could be stored with String key
+		return attribute.isInstance(value) ? attribute.cast(value) : null;
+	}
+
+	private static void logTypeMismatch(SessionAttribute<?> attribute, Object value) {
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Storing value of type {0} for {1} as data of unregistered key",
+					new Object[]{value.getClass().getName(), attribute});
+		}
+	}
+
+	private Object getFromMap(String key) {
+		Map<String, Object> map = this.map;
+		return map == null ? null : map.get(key);
+	}
+
+	private Map<String, Object> map() {
+		Map<String, Object> map = this.map;
+		if (map == null) {
+			MAP_UPDATER.compareAndSet(this, null, new ConcurrentHashMap<String, Object>(4, 0.9f));
+			map = this.map;
+		}
+		return map;
+	}
+
+	private AtomicReferenceArray<Object> slots() {
+		AtomicReferenceArray<Object> slots = this.slots;
+		if (slots == null) {
+			SLOTS_UPDATER.compareAndSet(this, null, new AtomicReferenceArray<>(SessionAttribute.getRegisteredCount()));
+			slots = this.slots;
+		}
+		return slots;
+	}
+}
@@ -18,11 +18,13 @@
 package tigase.xmpp;
 
 import tigase.annotations.TigaseDeprecated;
+import tigase.io.TLSIO;
 import tigase.net.IOService;
 import tigase.server.ConnectionManager;
 import tigase.server.Packet;
 import tigase.server.xmppclient.StreamManagementIOProcessor;
 import tigase.server.xmppclient.XMPPIOProcessor;
+import tigase.stats.StatisticsList;
 import tigase.util.StringUtilities;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
@@ -31,12 +33,18 @@ import tigase.xml.SingletonFactory;
 import tigase.xmpp.jid.JID;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -71,6 +79,11 @@ public class XMPPIOService<RefObject>
 
 	public static final String STREAM_CLOSING = "stream-closing";
 
+	/**
+	 * Maximal size of plaintext carried by a single TLS record.
+	 */
+	public static final int TLS_MAX_RECORD_SIZE = 16384;
+
 	private static final Logger log = Logger.getLogger(XMPPIOService.class.getName());
 
 	public ReentrantLock writeInProgress = new ReentrantLock();
@@ -85,6 +98,9 @@ public class XMPPIOService<RefObject>
 	private long lastXmppPacketReceivedTime = 0;
 	private long packetsReceived = 0;
 	private long packetsSent = 0;
+	private final AtomicBoolean corked = new AtomicBoolean(false);
+	private WriteCoalescingStatistics writeCoalescingStatistics = null;
+	private int writeCoalescingLimit = 0;
 	/**
 	 * The <code>readyPackets</code> queue keeps data which have been already processed and they are actual processing
 	 * results.
@@ -230,6 +246,55 @@ public class XMPPIOService<RefObject>
 
 	@Override
 	public void processWaitingPackets() throws IOException {
+		if (writeCoalescingLimit > 0) {
+			processWaitingPacketsCoalesced();
+		} else {
+			processWaitingPacketsOneByOne();
+		}
+
+		// notify io processors that all waiting packets were sent
+		if (processors != null) {
+			for (XMPPIOProcessor processor : processors) {
+				processor.packetsSent(this);
+			}
+		}
+	}
+
+	/**
+	 * Marks service as corked, so packets added to send are not written until {@link #processWaitingPackets()} is
+	 * called.
+	 *
+	 * @return <code>true</code> if service was not corked before and caller is responsible for scheduling write of
+	 * waiting packets
+	 */
+	public boolean cork() {
+		return corked.compareAndSet(false, true);
+	}
+
+	public boolean isCorked() {
+		return corked.get();
+	}
+
+	public boolean isWriteCoalescing() {
+		return writeCoalescingLimit > 0;
+	}
+
+	/**
+	 * Enables writing of waiting packets in batches. Each batch is encoded to a chain of buffers which is written with
+	 * a single write operation (and a single TLS record if it fits into one).
+	 *
+	 * @param maxBytes maximal size of a batch in bytes or <code>0</code> to write each packet separately
+	 * @param statistics statistics of coalesced writes or <code>null</code>
+	 */
+	public void setWriteCoalescing(int maxBytes, WriteCoalescingStatistics statistics) {
+		if (maxBytes > 0 && !isWriteCoalescingSupported()) {
+			return;
+		}
+		this.writeCoalescingLimit = Math.max(0, maxBytes);
+		this.writeCoalescingStatistics = statistics;
+	}
+
+	private void processWaitingPacketsOneByOne() throws IOException {
 		Packet packet = null;
 
 		// int cnt = 0;
@@ -242,24 +307,64 @@ public class XMPPIOService<RefObject>
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Sending packet: {1} [{0}]", new Object[]{toString(), packet});
 			}
-			writeRawData(packet.getElement().toString());
+			writeRawData(packet.getElementAsString());
 
 			// and after sending it we should remove it to minimalize chances of lost packets
 			waitingPackets.poll();
 
 			if (log.isLoggable(Level.FINEST)) {
-				log.log(Level.FINEST, "SENT: {1} [{0}]", new Object[]{toString(), packet.getElement().toString()});
+				log.log(Level.FINEST, "SENT: {1} [{0}]", new Object[]{toString(), packet.getElementAsString()});
 			}
 		}    // end of while (packet = waitingPackets.poll() != null)
+	}
 
-		// notify io processors that all waiting packets were sent
-		if (processors != null) {
-			for (XMPPIOProcessor processor : processors) {
-				processor.packetsSent(this);
+	private void processWaitingPacketsCoalesced() throws IOException {
+		// packets added from now on need a new write to be scheduled
+		corked.set(false);
+
+		List<ByteBuffer> chain = new ArrayList<>();
+		int bytes = 0;
+		int records = 0;
+		for (Packet packet : waitingPackets) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Sending packet: {1} [{0}]", new Object[]{toString(), packet});
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(packet.getElementAsString().getBytes(StandardCharsets.UTF_8));
+			if (!chain.isEmpty() && bytes + buffer.remaining() > writeCoalescingLimit) {
+				writeChain(chain, bytes, records);
+				chain.clear();
+				bytes = 0;
+				records = 0;
+				if (!isConnected()) {
+					return;
+				}
 			}
+			chain.add(buffer);
+			bytes += buffer.remaining();
+			records += tlsRecords(buffer.remaining());
+		}
+		if (!chain.isEmpty()) {
+			writeChain(chain, bytes, records);
 		}
 	}
 
+	private void writeChain(List<ByteBuffer> chain, int bytes, int records) {
+		writeBytes(chain.toArray(new ByteBuffer[chain.size()]));
+
+		// packets are removed after sending them to minimalize chances of lost packets
+		for (int i = 0; i < chain.size(); i++) {
+			waitingPackets.poll();
+		}
+		if (writeCoalescingStatistics != null) {
+			boolean tls = getIO() != null && getIO().checkCapabilities(TLSIO.TLS_CAPS);
+			writeCoalescingStatistics.written(chain.size(), bytes, tls ? records - tlsRecords(bytes) : 0);
+		}
+	}
+
+	private static int tlsRecords(int bytes) {
+		return Math.max(1, (bytes + TLS_MAX_RECORD_SIZE - 1) / TLS_MAX_RECORD_SIZE);
+	}
+
 	@Override
 	public void stop() {
 
@@ -460,6 +565,14 @@ public class XMPPIOService<RefObject>
 		}
 	}
 
+	/**
+	 * Checks if packets may be written in batches. It needs to return <code>false</code> if data written to the
+	 * socket is framed or wrapped for each packet separately.
+	 */
+	protected boolean isWriteCoalescingSupported() {
+		return true;
+	}
+
 	protected boolean shouldCountPacket(Packet packet) {
 		return packet.getXMLNS() != StreamManagementIOProcessor.XMLNS;
 	}
@@ -710,5 +823,51 @@ public class XMPPIOService<RefObject>
 	private void setLastXmppPacketReceiveTime() {
 		lastXmppPacketReceivedTime = System.currentTimeMillis();
 	}
+
+	/**
+	 * Statistics of packets written in batches, shared by all connections of a component.
+	 */
+	public static class WriteCoalescingStatistics {
+
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder packets = new LongAdder();
+		private final LongAdder tlsRecordsSaved = new LongAdder();
+		private final LongAdder writes = new LongAdder();
+
+		public void getStatistics(String compName, StatisticsList list) {
+			long packets = this.packets.sum();
+			long writes = this.writes.sum();
+
+			list.add(compName, "Coalesced writes", writes, Level.FINE);
+			list.add(compName, "Coalesced packets", packets, Level.FINE);
+			list.add(compName, "Write syscalls saved", packets - writes, Level.FINE);
+			list.add(compName, "TLS records saved", tlsRecordsSaved.sum(), Level.FINE);
+			list.add(compName, "Average packets per write", writes == 0 ? 0 : (double) packets / writes, Level.FINER);
+			list.add(compName, "Average bytes per write", writes == 0 ? 0 : bytes.sum() / writes, Level.FINER);
+		}
+
+		public long getPackets() {
+			return packets.sum();
+		}
+
+		public long getTlsRecordsSaved() {
+			return tlsRecordsSaved.sum();
+		}
+
+		public long getWrites() {
+			return writes.sum();
+		}
+
+		public boolean isUsed() {
+			return writes.sum() > 0;
+		}
+
+		void written(int packets, int bytes, int tlsRecordsSaved) {
+			this.writes.increment();
+			this.packets.add(packets);
+			this.bytes.add(bytes);
+			this.tlsRecordsSaved.add(tlsRecordsSaved);
+		}
+	}
 }    // XMPPIOService
 
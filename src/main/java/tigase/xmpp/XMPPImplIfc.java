@@ -88,6 +88,18 @@ public interface XMPPImplIfc
 	@TigaseDeprecated(since = "8.0.0")
 	void init(Map<String, Object> settings) throws TigaseDBException;
 
+	/**
+	 * Method <code>isStreamFeaturesCacheable</code> tells whether stream features returned by
+	 * <code>supStreamFeatures()</code> depend only on the domain of the session and on the state of the session:
+	 * authorization, encryption, compression, bound resource and established session. Stream features of such plugins
+	 * are cached by the session manager and reused for other sessions in the same state.
+	 *
+	 * @return <code>true</code> if stream features of the plugin may be cached.
+	 */
+	default boolean isStreamFeaturesCacheable() {
+		return false;
+	}
+
 	/**
 	 * Method <code>supDiscoFeatures</code> returns an array of XML <code>Element</code>s with service discovery
 	 * features which have to be returned to the client uppon request. Service discovery features returned by this
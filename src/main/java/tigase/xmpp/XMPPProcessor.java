@@ -103,6 +103,20 @@ public abstract class XMPPProcessor
 	public void init(Map<String, Object> settings) throws TigaseDBException {
 	}
 
+	/**
+	 * Stream features returned by default implementation do not depend on the session, so they may be cached unless
+	 * <code>supStreamFeatures()</code> is overridden.
+	 */
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		try {
+			return getClass().getMethod("supStreamFeatures", XMPPResourceConnection.class).getDeclaringClass() ==
+					XMPPProcessor.class;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
 	@Override
 	public Element[] supDiscoFeatures(final XMPPResourceConnection session) {
 		return null;
@@ -34,8 +34,8 @@ import tigase.xmpp.jid.JID;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,6 +69,10 @@ public class XMPPResourceConnection
 	 */
 	public static final String PRESENCE_KEY = "user-presence";
 
+	public static final SessionAttribute<String> CLOSING = SessionAttribute.register(CLOSING_KEY, String.class);
+
+	public static final SessionAttribute<Element> PRESENCE = SessionAttribute.register(PRESENCE_KEY, Element.class);
+
 	private static final Logger log = Logger.getLogger(XMPPResourceConnection.class.getName());
 
 	private long authenticationTime = 0;
@@ -97,9 +101,9 @@ public class XMPPResourceConnection
 	private String resource = null;
 
 	/**
-	 * Session temporary data. All data stored in this <code>Map</code> disappear when session finishes.
+	 * Session temporary data. All data stored in this storage disappear when session finishes.
 	 */
-	private Map<String, Object> sessionData = null;
+	private SessionAttributes sessionData = null;
 
 	/**
 	 * <code>sessionId</code> keeps XMPP stream session ID given at connection initialization time.
@@ -118,7 +122,7 @@ public class XMPPResourceConnection
 		this.loginHandler = loginHandler;
 		this.creationTime = currTime;
 		this.lastAccessed = currTime;
-		sessionData = new ConcurrentHashMap<String, Object>(4, 0.9f);
+		sessionData = new SessionAttributes();
 	}
 
 	public void authorizeJID(BareJID jid, boolean anonymous) throws TigaseStringprepException {
@@ -161,6 +165,13 @@ public class XMPPResourceConnection
 		return valueFactory.apply(key);
 	}
 
+	public <T> T computeCommonSessionDataIfAbsent(SessionAttribute<T> key, Supplier<T> valueFactory) {
+		if (parentSession != null) {
+			return parentSession.computeCommonSessionDataIfAbsent(key, valueFactory);
+		}
+		return valueFactory.get();
+	}
+
 	/**
 	 * Method checks if in session data is value for passed {@code key} and returns it if exists. If not then it uses
 	 * passed {@code valueFactory} to generate value and sets it in session data under passed {@code key} and returns
@@ -171,6 +182,11 @@ public class XMPPResourceConnection
 		return sessionData.computeIfAbsent(key, valueFactory);
 	}
 
+	public <T> T computeSessionDataIfAbsent(SessionAttribute<T> key, Supplier<T> valueFactory) {
+		setLastAccessed(System.currentTimeMillis());
+		return sessionData.computeIfAbsent(key, valueFactory);
+	}
+
 	/**
 	 * Returns full user JID for this session without throwing the <code>NotAuthorizedException</code> exception if
 	 * session is not authorized yet and therefore user name and resource is not known yet. Please note this method is
@@ -219,6 +235,12 @@ public class XMPPResourceConnection
 		return null;
 	}
 
+	public <T> void putCommonSessionData(SessionAttribute<T> key, T value) {
+		if (parentSession != null) {
+			parentSession.putCommonSessionData(key, value);
+		}
+	}
+
 	/**
 	 * Saves given session data. Data are saved to temporary storage only and are accessible during this session life
 	 * only and only from this session instance.<br> Any <code>Object</code> can be stored and retrieved through
@@ -237,6 +259,17 @@ public class XMPPResourceConnection
 		sessionData.put(key, value);
 	}
 
+	/**
+	 * Saves given session data under typed key. Data stored this way is also accessible with <code>String</code> key
+	 * equal to the name of the <code>key</code>.
+	 *
+	 * @see #putSessionData(String, Object)
+	 */
+	public final <T> void putSessionData(final SessionAttribute<T> key, final T value) {
+		setLastAccessed(System.currentTimeMillis());
+		sessionData.put(key, value);
+	}
+
 	/**
 	 * Method sets passed value under passed {@code key} in {@code sessionData} but only if there is no value for this
 	 * {@code key} already
@@ -247,6 +280,11 @@ public class XMPPResourceConnection
 		return sessionData.putIfAbsent(key, value);
 	}
 
+	public <T> T putSessionDataIfAbsent(SessionAttribute<T> key, T value) {
+		setLastAccessed(System.currentTimeMillis());
+		return sessionData.putIfAbsent(key, value);
+	}
+
 	@Override
 	public void queryAuth(Map<String, Object> authProps) throws TigaseDBException {
 		super.queryAuth(authProps);
@@ -256,6 +294,10 @@ public class XMPPResourceConnection
 		return (parentSession == null) ? null : parentSession.removeCommonSessionData(key);
 	}
 
+	public <T> T removeCommonSessionData(SessionAttribute<T> key) {
+		return (parentSession == null) ? null : parentSession.removeCommonSessionData(key);
+	}
+
 	public void removeParentSession(final XMPPSession parent) {
 		synchronized (this) {
 			parentSession = null;
@@ -267,6 +309,11 @@ public class XMPPResourceConnection
 		sessionData.remove(key);
 	}
 
+	public final void removeSessionData(final SessionAttribute<?> key) {
+		setLastAccessed(System.currentTimeMillis());
+		sessionData.remove(key);
+	}
+
 	public void streamClosed() {
 		synchronized (this) {
 			if (parentSession != null) {
@@ -331,6 +378,10 @@ public class XMPPResourceConnection
 		return (parentSession == null) ? null : parentSession.getCommonSessionData(key);
 	}
 
+	public <T> T getCommonSessionData(SessionAttribute<T> key) {
+		return (parentSession == null) ? null : parentSession.getCommonSessionData(key);
+	}
+
 	/**
 	 * Gets the value of connectionId
 	 *
@@ -457,11 +508,11 @@ public class XMPPResourceConnection
 	 * @return an <code>Element</code> with last presence status received from the user.
 	 */
 	public Element getPresence() {
-		return (Element) getSessionData(PRESENCE_KEY);
+		return getSessionData(PRESENCE);
 	}
 
 	public void setPresence(Element packet) {
-		putSessionData(PRESENCE_KEY, packet);
+		putSessionData(PRESENCE, packet);
 
 		// Parse resource priority:
 		String pr_str = packet.getCDataStaticStr(Presence.PRESENCE_PRIORITY_PATH);
@@ -485,7 +536,7 @@ public class XMPPResourceConnection
 			if (getPriority() != 0 && !"unavailable".equals(packet.getAttributeStaticStr("type"))) {
 				packet.addChild(new Element("priority", String.valueOf(getPriority())));
 			}
-			putSessionData(PRESENCE_KEY, packet);
+			putSessionData(PRESENCE, packet);
 		}
 		loginHandler.handlePresenceSet(this);
 	}
@@ -548,6 +599,17 @@ public class XMPPResourceConnection
 		return sessionData.get(key);
 	}
 
+	/**
+	 * Retrieves session data stored under typed key.
+	 *
+	 * @see #getSessionData(String)
+	 */
+	public final <T> T getSessionData(final SessionAttribute<T> key) {
+		setLastAccessed(System.currentTimeMillis());
+
+		return sessionData.get(key);
+	}
+
 	/**
 	 * Gets the value of sessionId
 	 *
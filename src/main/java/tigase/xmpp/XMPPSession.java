@@ -23,10 +23,9 @@ import tigase.xmpp.jid.JID;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,7 +43,7 @@ public class XMPPSession {
 	private CopyOnWriteArrayList<XMPPResourceConnection> activeResources = null;
 	private long creationTime = 0;
 	private long packets_counter = 0;
-	private Map<String, Object> sessionData = null;
+	private SessionAttributes sessionData = null;
 
 	/**
 	 * User name - localpart of user's JID
@@ -57,7 +56,7 @@ public class XMPPSession {
 	 * @param username - localpart of user's JID
 	 */
 	public XMPPSession(final String username) {
-		sessionData = new ConcurrentHashMap<String, Object>();
+		sessionData = new SessionAttributes();
 		activeResources = new CopyOnWriteArrayList<XMPPResourceConnection>();
 		this.username = username;
 		this.creationTime = System.currentTimeMillis();
@@ -209,6 +208,16 @@ public class XMPPSession {
 		return sessionData.get(key);
 	}
 
+	/**
+	 * Method returns a data for particular typed {@code key} which is common to all resource connections within this
+	 * {@link XMPPSession}
+	 *
+	 * @param key for which data should be returned
+	 */
+	public <T> T getCommonSessionData(SessionAttribute<T> key) {
+		return sessionData.get(key);
+	}
+
 	/**
 	 * Method returns an array of all ConnectionIDs related to this {@link XMPPSession}
 	 */
@@ -416,6 +425,10 @@ public class XMPPSession {
 		return sessionData.computeIfAbsent(key, valueFactory);
 	}
 
+	public <T> T computeCommonSessionDataIfAbsent(SessionAttribute<T> key, Supplier<T> valueFactory) {
+		return sessionData.computeIfAbsent(key, valueFactory);
+	}
+
 	/**
 	 * Method used to store data common for all connections of the user.
 	 *
@@ -426,10 +439,18 @@ public class XMPPSession {
 		sessionData.put(key, value);
 	}
 
+	protected <T> void putCommonSessionData(SessionAttribute<T> key, T value) {
+		sessionData.put(key, value);
+	}
+
 	protected Object putCommonSessionDataIfAbsent(String key, Object value) {
 		return sessionData.putIfAbsent(key, value);
 	}
 
+	protected <T> T putCommonSessionDataIfAbsent(SessionAttribute<T> key, T value) {
+		return sessionData.putIfAbsent(key, value);
+	}
+
 	/**
 	 * Method used to remove data common for all connections of the user.
 	 *
@@ -438,4 +459,8 @@ public class XMPPSession {
 	protected Object removeCommonSessionData(String key) {
 		return sessionData.remove(key);
 	}
+
+	protected <T> T removeCommonSessionData(SessionAttribute<T> key) {
+		return sessionData.remove(key);
+	}
 }    // XMPPSession
@@ -154,6 +154,11 @@ public class BindResource
 		return XMLNSS;
 	}
 
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		return true;
+	}
+
 	@Override
 	public Element[] supStreamFeatures(final XMPPResourceConnection session) {
 		if ((session != null) && (!session.isResourceSet()) && session.isAuthorized()) {
@@ -44,6 +44,8 @@ public class CAPS
 	public static final String XMLNS = "http://jabber.org/protocol/caps";
 	private static final String[][] ELEMENTS = {{Presence.ELEM_NAME}, Iq.IQ_QUERY_PATH};
 	private static final String ID = "caps";
+	private static final SessionAttribute<ConcurrentHashMap<JID, String[]>> RESOURCES = SessionAttribute.register(
+			ID, ConcurrentHashMap.class);
 	private static final Logger log = Logger.getLogger(CAPS.class.getCanonicalName());
 	private static final String XMLNS_DISCO = "http://jabber.org/protocol/disco#info";
 	private static final String[] XMLNSS = {"jabber:client", XMLNS_DISCO};
@@ -52,29 +54,28 @@ public class CAPS
 
 	public static Set<JID> getJidsWithFeature(XMPPResourceConnection session, String feature) {
 		Set<JID> jids = new HashSet<JID>();
-		Map<JID, String[]> resources = (Map<JID, String[]>) session.getCommonSessionData(ID);
+		Map<JID, String[]> resources = session.getCommonSessionData(RESOURCES);
 
 		if (resources != null) {
 			List<JID> available = new ArrayList<JID>(resources.keySet());
-
-			for (JID jid : available) {
-				String[] capsNodes = resources.get(jid);
-
-				if (capsNodes == null) {
-					continue;
-				}
-				for (String capsNode : capsNodes) {
-					String[] features = PresenceCapabilitiesManager.getNodeFeatures(capsNode);
-
-					if (features == null) {
-						continue;
-					}
-					if (Arrays.binarySearch(features, feature) >= 0) {
-						jids.add(jid);
-
-						break;
+			int featureId = PresenceCapabilitiesManager.getFeatureId(feature);
+
+			if (featureId < 0) {
+				// feature may be supported by nodes which are not loaded yet
+				for (JID jid : available) {
+					String[] capsNodes = resources.get(jid);
+					if (capsNodes != null) {
+						for (String capsNode : capsNodes) {
+							PresenceCapabilitiesManager.isNodeKnown(capsNode);
+						}
 					}
 				}
+				featureId = PresenceCapabilitiesManager.getFeatureId(feature);
+			}
+			for (JID jid : available) {
+				if (PresenceCapabilitiesManager.hasFeature(resources.get(jid), featureId)) {
+					jids.add(jid);
+				}
 			}
 		}
 
@@ -109,12 +110,8 @@ public class CAPS
 			try {
 				if (packet.getElemName() == Presence.ELEM_NAME) {
 					JID to = packet.getStanzaTo();
-					Map<JID, String[]> resources = (Map<JID, String[]>) session.getCommonSessionData(ID);
-
-					if (resources == null) {
-						resources = new ConcurrentHashMap<JID, String[]>();
-						session.putCommonSessionData(ID, resources);
-					}
+					Map<JID, String[]> resources = session.computeCommonSessionDataIfAbsent(RESOURCES,
+																							ConcurrentHashMap::new);
 					if ((packet.getType() == null) || (packet.getType() == StanzaType.available)) {
 						Element c = packet.getElement().getChild("c");
 
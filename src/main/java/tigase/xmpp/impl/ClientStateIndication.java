@@ -88,6 +88,11 @@ public class ClientStateIndication
 		}
 	}
 
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		return true;
+	}
+
 	@Override
 	public Element[] supStreamFeatures(XMPPResourceConnection session) {
 		if (session == null || !session.isAuthorized()) {
@@ -264,6 +264,11 @@ public class JabberIqAuth
 		return XMLNSS;
 	}
 
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		return true;
+	}
+
 	@Override
 	public Element[] supStreamFeatures(final XMPPResourceConnection session) {
 		if ((session == null) || session.isAuthorized()) {
@@ -415,6 +415,11 @@ public class JabberIqRegister
 		return XMLNSS;
 	}
 
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		return true;
+	}
+
 	@Override
 	public Element[] supStreamFeatures(XMPPResourceConnection session) {
 		if (log.isLoggable(Level.FINEST) && (session != null)) {
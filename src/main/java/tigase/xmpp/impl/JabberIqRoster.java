@@ -366,6 +366,11 @@ public class JabberIqRoster
 		return XMLNSS;
 	}
 
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		return true;
+	}
+
 	@Override
 	public Element[] supStreamFeatures(final XMPPResourceConnection session) {
 		return RosterAbstract.FEATURES;
@@ -36,7 +36,6 @@ import tigase.xmpp.jid.JID;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -66,16 +65,17 @@ public class MessageCarbons
 
 	private static final String ENABLED_RESOURCES_KEY = XMLNS + "-resources";
 
+	private static final SessionAttribute<Boolean> ENABLED = SessionAttribute.register(ENABLED_KEY, Boolean.class);
+
+	private static final SessionAttribute<ConcurrentHashMap<JID, Boolean>> ENABLED_RESOURCES =
+			SessionAttribute.register(ENABLED_RESOURCES_KEY, ConcurrentHashMap.class);
+
 	private static final String ENABLE_ELEM_NAME = "enable";
 	private static final String DISABLE_ELEM_NAME = "disable";
 
 	private static final String[] MESSAGE_HINTS_NO_COPY = {Message.ELEM_NAME, "no-copy"};
 	private static final String MESSAGE_HINTS_XMLNS = "urn:xmpp:hints";
 
-	private static final Function<String, Object> RESOURCES_MAP_FACTORY = (k) -> {
-		return new ConcurrentHashMap<JID, Boolean>();
-	};
-
 	private static final ElementMatcher[] DEF_MSG_CARBON_PATHS = {
 			new ElementMatcher(new String[]{Message.ELEM_NAME, "body"}, null, true),
 			// handling recipts, markers and states..
@@ -100,7 +100,7 @@ public class MessageCarbons
 	 * Returns true if session is enabled for receiving carbon copy messages
 	 */
 	private static boolean isEnabled(XMPPResourceConnection session) throws NotAuthorizedException {
-		Boolean value = (Boolean) session.getSessionData(ENABLED_KEY);
+		Boolean value = session.getSessionData(ENABLED);
 		return (value != null && value);
 	}
 
@@ -197,7 +197,7 @@ public class MessageCarbons
 				return;
 			}
 
-			Map<JID, Boolean> resources = (Map<JID, Boolean>) session.getCommonSessionData(ENABLED_RESOURCES_KEY);
+			Map<JID, Boolean> resources = session.getCommonSessionData(ENABLED_RESOURCES);
 			if (resources == null || resources.isEmpty()) {
 				// no session has enabled message carbons
 				return;
@@ -354,8 +354,8 @@ public class MessageCarbons
 	@HandleEvent
 	protected void stateChanged(MessageCarbonsStateChangedEvent event) {
 		XMPPSession session = event.getSession();
-		ConcurrentHashMap<JID, Boolean> resources = (ConcurrentHashMap<JID, Boolean>) session.computeCommonSessionDataIfAbsent(
-				ENABLED_RESOURCES_KEY, RESOURCES_MAP_FACTORY);
+		ConcurrentHashMap<JID, Boolean> resources = session.computeCommonSessionDataIfAbsent(ENABLED_RESOURCES,
+																							 ConcurrentHashMap::new);
 
 		for (JID jid : event.getEnabledJids()) {
 			resources.put(jid, true);
@@ -377,8 +377,8 @@ public class MessageCarbons
 			log.log(Level.FINEST, "session = {0} processing presence = {1}", new Object[]{session, packet.toString()});
 		}
 
-		ConcurrentHashMap<JID, Boolean> resources = (ConcurrentHashMap<JID, Boolean>) session.computeCommonSessionDataIfAbsent(
-				ENABLED_RESOURCES_KEY, RESOURCES_MAP_FACTORY);
+		ConcurrentHashMap<JID, Boolean> resources = session.computeCommonSessionDataIfAbsent(ENABLED_RESOURCES,
+																							 ConcurrentHashMap::new);
 
 		StanzaType type = packet.getType();
 		if (type == null || type == StanzaType.available) {
@@ -449,7 +449,7 @@ public class MessageCarbons
 	 * Add/Remove session JID to set of JIDs with enabled carbon copy protocol
 	 */
 	private void setEnabled(XMPPResourceConnection session, boolean value) throws NotAuthorizedException {
-		session.putSessionData(ENABLED_KEY, value);
+		session.putSessionData(ENABLED, value);
 
 		if (log.isLoggable(Level.FINER)) {
 			log.log(Level.FINER, "session = {0}" + " enabling " + XMLNS, session);
@@ -269,9 +269,10 @@ public abstract class PresenceAbstract
 					}
 
 					// Send to old resource presence about new resource
-					Packet pres_update = presence.copyElementOnly();
+					// The same presence is sent to all resources, so stanza element is shared
+					Packet pres_update = presence.copyElementShared(presence.getStanzaFrom(),
+																	conn.getJID().copyWithoutResource());
 
-					pres_update.initVars(presence.getStanzaFrom(), conn.getJID().copyWithoutResource());
 					pres_update.setPacketTo(conn.getConnectionId());
 					results.offer(pres_update);
 				} catch (NotAuthorizedException | NoConnectionIdException e) {
@@ -17,7 +17,9 @@
  */
 package tigase.xmpp.impl;
 
+import tigase.db.TigaseDBException;
 import tigase.disco.ServiceIdentity;
+import tigase.map.ClusterMapFactory;
 import tigase.server.DataForm;
 import tigase.server.Iq;
 import tigase.server.Packet;
@@ -31,21 +33,43 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Keeps features of entity capabilities nodes.
+ * <br>
+ * Features of each node are kept as a bitset of identifiers assigned to each known feature, so checking if node
+ * supports a feature does not require search in array of features. Bitsets with the same features are shared by all
+ * nodes with the same features. Features of nodes learned by this node are replicated to other cluster nodes and, if
+ * {@link PresenceCapabilitiesRepository} is set, stored in the repository. Features of all nodes stored in the
+ * repository are loaded with a single query when the repository is set, so there is no need to query clients for
+ * features of already known nodes after restart. Repository is accessed only by a background thread, so it is not
+ * read nor written while presences are processed.
+ */
 public class PresenceCapabilitiesManager {
 
 	public static final String CAPS_NODE = "https://tigase.net/tigase-xmpp-server";
 	public final static String HASH_ALGORITHM = "SHA-1";
 	public final static String charsetName = "UTF-8";
+	// Map<feature,featureId>
+	private static final ConcurrentMap<String, Integer> featureIds = new ConcurrentHashMap<String, Integer>(250);
+	private static final AtomicInteger featureIdsCounter = new AtomicInteger();
 	// Map<capsNode,Set<feature>>
-	private static final Map<String, String[]> nodeFeatures = new ConcurrentHashMap<String, String[]>(250);
+	private static final Map<String, NodeFeatures> nodeFeatures = new ConcurrentHashMap<String, NodeFeatures>(250);
+	private static final ConcurrentMap<BitSet, NodeFeatures> internedNodeFeatures = new ConcurrentHashMap<BitSet, NodeFeatures>(
+			250);
 	private static final ConcurrentMap<String, Set<String>> featureNodes = new ConcurrentHashMap<String, Set<String>>(
 			250);
 	private static final List<PresenceCapabilitiesListener> handlers = new CopyOnWriteArrayList<PresenceCapabilitiesListener>();
+	// Map<capsNode,features> of nodes waiting to be stored in the repository
+	private static final ConcurrentMap<String, String[]> pendingStores = new ConcurrentHashMap<String, String[]>();
+	private static final AtomicBoolean storeScheduled = new AtomicBoolean(false);
 	private static long idCounter = 0;
 	private static Logger log = Logger.getLogger(PresenceCapabilitiesManager.class.getName());
+	private static volatile PresenceCapabilitiesRepository repository = null;
 
 	private static MessageDigest addValues(String[] features, MessageDigest md) throws UnsupportedEncodingException {
 		if (features != null) {
@@ -121,8 +145,50 @@ public class PresenceCapabilitiesManager {
 		return features;
 	}
 
+	/**
+	 * Returns identifier of the feature used in bitsets of node features or <code>-1</code> if no known node supports
+	 * this feature.
+	 */
+	public static int getFeatureId(String feature) {
+		Integer featureId = featureIds.get(feature);
+		return featureId == null ? -1 : featureId;
+	}
+
 	public static String[] getNodeFeatures(String capsNode) {
-		return nodeFeatures.get(capsNode);
+		NodeFeatures features = findNodeFeatures(capsNode);
+		return features == null ? null : features.features;
+	}
+
+	public static boolean hasFeature(String capsNode, int featureId) {
+		if (featureId < 0) {
+			return false;
+		}
+		NodeFeatures features = findNodeFeatures(capsNode);
+		return features != null && features.bits.get(featureId);
+	}
+
+	/**
+	 * Checks if any of the nodes supports feature with passed identifier.
+	 *
+	 * @param capsNodes caps nodes of the entity
+	 * @param featureId identifier of the feature returned by {@link #getFeatureId(String)}
+	 *
+	 * @return <code>true</code> if feature is supported by any of the nodes
+	 */
+	public static boolean hasFeature(String[] capsNodes, int featureId) {
+		if (capsNodes == null || featureId < 0) {
+			return false;
+		}
+		for (String capsNode : capsNodes) {
+			if (hasFeature(capsNode, featureId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static boolean isNodeKnown(String capsNode) {
+		return findNodeFeatures(capsNode) != null;
 	}
 
 	public static Set<String> getNodesWithFeature(String feature) {
@@ -149,7 +215,7 @@ public class PresenceCapabilitiesManager {
 	public static void prepareCapsQueries(JID compJid, JID to, String[] caps_nodes, Queue<Packet> results) {
 		if (caps_nodes != null) {
 			for (String caps_node : caps_nodes) {
-				if (!nodeFeatures.containsKey(caps_node)) {
+				if (!isNodeKnown(caps_node)) {
 					results.offer(prepareCapsQuery(to, compJid, caps_node));
 				}
 			}
@@ -159,7 +225,7 @@ public class PresenceCapabilitiesManager {
 	public static void prepareCapsQueriesEl(JID compJid, JID to, String[] caps_nodes, Queue<Element> results) {
 		if (caps_nodes != null) {
 			for (String caps_node : caps_nodes) {
-				if (!nodeFeatures.containsKey(caps_node)) {
+				if (!isNodeKnown(caps_node)) {
 					results.offer(prepareCapsQueryEl(to, compJid, caps_node));
 				}
 			}
@@ -255,7 +321,7 @@ public class PresenceCapabilitiesManager {
 			String caps_node = c.getAttributeStaticStr("node") + "#" + c.getAttributeStaticStr("ver");
 
 			// String[] nFeatures = nodeFeatures.get(caps_node);
-			if (!nodeFeatures.containsKey(caps_node)) {
+			if (!isNodeKnown(caps_node)) {
 				Set<String> caps_nodes = new HashSet<String>();
 
 				caps_nodes.add(caps_node);
@@ -265,7 +331,7 @@ public class PresenceCapabilitiesManager {
 					}
 				}
 				for (String node : caps_nodes) {
-					if (!nodeFeatures.containsKey(node)) {
+					if (!isNodeKnown(node)) {
 						results.offer(prepareCapsQuery(p.getFrom(), compJid, node));
 					}
 				}
@@ -284,18 +350,107 @@ public class PresenceCapabilitiesManager {
 			log.log(Level.FINER, "setting features for node = {0}, features = {1}",
 					new Object[]{capsNode, Arrays.asList(features)});
 		}
+		NodeFeatures oldFeatures = nodeFeatures.get(capsNode);
+		NodeFeatures newFeatures = addNodeFeatures(capsNode, features);
+		if (oldFeatures != newFeatures) {
+			SharedNodeFeatures.map.put(capsNode, newFeatures.features);
+			storeNodeFeatures(capsNode, newFeatures.features);
+		}
+	}
+
+	/**
+	 * Sets repository used to store features of nodes and starts loading of features of all nodes stored in it in the
+	 * background.
+	 */
+	public static void setRepository(PresenceCapabilitiesRepository repository) {
+		PresenceCapabilitiesManager.repository = repository;
+		if (repository != null) {
+			RepositoryExecutor.executor.execute(() -> loadNodeFeatures(repository));
+		}
+	}
+
+	public static PresenceCapabilitiesRepository getRepository() {
+		return repository;
+	}
+
+	private static NodeFeatures addNodeFeatures(String capsNode, String[] features) {
 		Arrays.sort(features);
-		nodeFeatures.put(capsNode, features);
+		BitSet bits = new BitSet();
+		for (String feature : features) {
+			bits.set(featureIds.computeIfAbsent(feature, key -> featureIdsCounter.getAndIncrement()));
+		}
+		NodeFeatures result = internedNodeFeatures.computeIfAbsent(bits, key -> new NodeFeatures(features, key));
+		nodeFeatures.put(capsNode, result);
 		for (String feature : features) {
-			Set<String> caps = featureNodes.get(feature);
-			if (caps == null) {
-				Set<String> tmp = new CopyOnWriteArraySet<String>();
-				caps = featureNodes.putIfAbsent(feature, tmp);
-				if (caps == null) {
-					caps = tmp;
+			featureNodes.computeIfAbsent(feature, key -> new CopyOnWriteArraySet<String>()).add(capsNode);
+		}
+		return result;
+	}
+
+	private static NodeFeatures findNodeFeatures(String capsNode) {
+		NodeFeatures result = nodeFeatures.get(capsNode);
+		if (result != null) {
+			return result;
+		}
+
+		// node could be already known by other cluster node
+		String[] features = SharedNodeFeatures.map.get(capsNode);
+		return features == null ? null : addNodeFeatures(capsNode, features.clone());
+	}
+
+	private static void loadNodeFeatures(PresenceCapabilitiesRepository repository) {
+		try {
+			Map<String, String[]> stored = repository.loadNodeFeatures();
+			for (Map.Entry<String, String[]> e : stored.entrySet()) {
+				if (e.getValue() != null && !nodeFeatures.containsKey(e.getKey())) {
+					addNodeFeatures(e.getKey(), e.getValue().clone());
 				}
 			}
-			caps.add(capsNode);
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "loaded features of {0} nodes from repository", stored.size());
+			}
+		} catch (TigaseDBException ex) {
+			log.log(Level.WARNING, "failed to load features of nodes from repository", ex);
+		}
+	}
+
+	/**
+	 * Waits until all loads and stores of features of nodes submitted before this call are completed.
+	 */
+	static void awaitRepository() throws InterruptedException, ExecutionException {
+		RepositoryExecutor.executor.submit(() -> {}).get();
+	}
+
+	private static void storeNodeFeatures(String capsNode, String[] features) {
+		if (repository == null) {
+			return;
+		}
+		pendingStores.put(capsNode, features);
+		if (storeScheduled.compareAndSet(false, true)) {
+			RepositoryExecutor.executor.execute(PresenceCapabilitiesManager::storePendingNodeFeatures);
+		}
+	}
+
+	private static void storePendingNodeFeatures() {
+		storeScheduled.set(false);
+		Map<String, String[]> batch = new HashMap<String, String[]>();
+		for (String capsNode : pendingStores.keySet()) {
+			String[] features = pendingStores.remove(capsNode);
+			if (features != null) {
+				batch.put(capsNode, features);
+			}
+		}
+		PresenceCapabilitiesRepository repository = PresenceCapabilitiesManager.repository;
+		if (repository == null || batch.isEmpty()) {
+			return;
+		}
+		try {
+			repository.storeNodeFeatures(batch);
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "stored features of {0} nodes in repository", batch.size());
+			}
+		} catch (TigaseDBException ex) {
+			log.log(Level.WARNING, "failed to store features of nodes = " + batch.keySet(), ex);
 		}
 	}
 
@@ -307,5 +462,46 @@ public class PresenceCapabilitiesManager {
 
 		void handlePresence(JID owner, JID sender, String[] capsNodes, Queue<Packet> results);
 	}
+
+	public static interface PresenceCapabilitiesRepository {
+
+		/**
+		 * Returns features of all stored nodes. Called once, from a background thread, when the repository is set.
+		 */
+		Map<String, String[]> loadNodeFeatures() throws TigaseDBException;
+
+		/**
+		 * Stores features of nodes learned since the previous call. Called from a background thread.
+		 */
+		void storeNodeFeatures(Map<String, String[]> nodeFeatures) throws TigaseDBException;
+	}
+
+	private static class NodeFeatures {
+
+		private final BitSet bits;
+		private final String[] features;
+
+		private NodeFeatures(String[] features, BitSet bits) {
+			this.features = features;
+			this.bits = bits;
+		}
+	}
+
+	private static class RepositoryExecutor {
+
+		// single thread, so stores are executed after the initial load and in the order of learning of nodes
+		private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "caps-repository");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static class SharedNodeFeatures {
+
+		// Map<capsNode,features> of nodes learned by any cluster node, created on first use
+		private static final Map<String, String[]> map = ClusterMapFactory.get()
+				.createMap("caps-node-features", String.class, String[].class);
+	}
 }
 
@@ -0,0 +1,100 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import tigase.db.TigaseDBException;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+import tigase.db.UserRepository;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.server.xmppsession.SessionManager;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores features of entity capabilities nodes known to {@link PresenceCapabilitiesManager} in the user repository,
+ * in data of the SessionManager user, so they are not queried again after restart of the server.
+ */
+@Bean(name = "presence-capabilities-repository", parent = SessionManager.class, active = true)
+public class PresenceCapabilitiesUserRepository
+		implements PresenceCapabilitiesManager.PresenceCapabilitiesRepository, Initializable, UnregisterAware {
+
+	private static final Logger log = Logger.getLogger(PresenceCapabilitiesUserRepository.class.getCanonicalName());
+
+	// features are URIs, so they never contain whitespace
+	private static final String FEATURES_SEPARATOR = "\n";
+	private static final String NODE = "caps";
+	private static final BareJID smJid = BareJID.bareJIDInstanceNS("sess-man");
+
+	@Inject
+	private UserRepository userRepository;
+
+	@Override
+	public void beforeUnregister() {
+		if (PresenceCapabilitiesManager.getRepository() == this) {
+			PresenceCapabilitiesManager.setRepository(null);
+		}
+	}
+
+	@Override
+	public void initialize() {
+		PresenceCapabilitiesManager.setRepository(this);
+	}
+
+	@Override
+	public Map<String, String[]> loadNodeFeatures() throws TigaseDBException {
+		try {
+			// features of each node are stored as a single value, so all of them are read with a single query
+			Map<String, String> data = userRepository.getDataMap(smJid, NODE);
+			Map<String, String[]> result = new HashMap<>(data.size());
+			for (Map.Entry<String, String> e : data.entrySet()) {
+				if (e.getValue() != null) {
+					result.put(e.getKey(), e.getValue().split(FEATURES_SEPARATOR));
+				}
+			}
+			return result;
+		} catch (UserNotFoundException ex) {
+			return Collections.emptyMap();
+		}
+	}
+
+	@Override
+	public void storeNodeFeatures(Map<String, String[]> nodeFeatures) throws TigaseDBException {
+		for (Map.Entry<String, String[]> e : nodeFeatures.entrySet()) {
+			String value = String.join(FEATURES_SEPARATOR, e.getValue());
+			try {
+				userRepository.setData(smJid, NODE, e.getKey(), value);
+			} catch (UserNotFoundException ex) {
+				try {
+					userRepository.addUser(smJid);
+				} catch (UserExistsException ex1) {
+					log.log(Level.FINEST, "user '" + smJid + "' for SessionManager already created");
+				}
+				userRepository.setData(smJid, NODE, e.getKey(), value);
+			}
+		}
+	}
+}
@@ -69,6 +69,15 @@ public class PresenceState
 
 	public static final String OFFLINE_RES_SENT = "offline-res-sent";
 
+	private static final SessionAttribute<Set<JID>> DIRECT_PRESENCES = SessionAttribute.register(DIRECT_PRESENCE,
+																								 Set.class);
+
+	private static final SessionAttribute<String> OFFLINE_BUDDIES_SENT = SessionAttribute.register(OFFLINE_BUD_SENT,
+																								   String.class);
+
+	private static final SessionAttribute<String> OFFLINE_RESOURCES_SENT = SessionAttribute.register(
+			OFFLINE_RES_SENT, String.class);
+
 	public static final String OFFLINE_ROSTER_LAST_SEEN_PROP_KEY = "offline-roster-last-seen";
 
 	/**
@@ -101,13 +110,12 @@ public class PresenceState
 	 * @param session user session which keeps all the user session data and also gives an access to the user's
 	 * repository data.
 	 */
-	@SuppressWarnings({"unchecked"})
 	public static void addDirectPresenceJID(JID jid, XMPPResourceConnection session) {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCES);
 
 		if (direct_presences == null) {
 			direct_presences = new LinkedHashSet<JID>(10);
-			session.putSessionData(DIRECT_PRESENCE, direct_presences);
+			session.putSessionData(DIRECT_PRESENCES, direct_presences);
 		}    // end of if (direct_presences == null)
 		if (direct_presences.size() < MAX_DIRECT_PRESENCES_NO) {
 			direct_presences.add(jid);
@@ -128,10 +136,9 @@ public class PresenceState
 	 * @param pres an Object of type {@link Element} holding Presence stanza to be sent.
 	 *
 	 */
-	@SuppressWarnings({"unchecked"})
 	protected static void broadcastDirectPresences(StanzaType t, XMPPResourceConnection session, Queue<Packet> results,
 												   Element pres) throws NotAuthorizedException, TigaseDBException {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCES);
 
 		if ((direct_presences != null) && (t != null) && (t == StanzaType.unavailable)) {
 			for (JID buddy : direct_presences) {
@@ -163,10 +170,10 @@ public class PresenceState
 			throws NotAuthorizedException, TigaseDBException {
 
 		// Preventing sending offline notifications more than once
-		if (session.getSessionData(OFFLINE_BUD_SENT) != null) {
+		if (session.getSessionData(OFFLINE_BUDDIES_SENT) != null) {
 			return;
 		}
-		session.putSessionData(OFFLINE_BUD_SENT, OFFLINE_BUD_SENT);
+		session.putSessionData(OFFLINE_BUDDIES_SENT, OFFLINE_BUD_SENT);
 
 		Element pres = session.getPresence();
 
@@ -185,9 +192,8 @@ public class PresenceState
 	 * @param session user session which keeps all the user session data and also gives an access to the user's
 	 * repository data.
 	 */
-	@SuppressWarnings({"unchecked"})
 	public static void removeDirectPresenceJID(JID jid, XMPPResourceConnection session) {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCES);
 
 		if (direct_presences != null) {
 			direct_presences.remove(jid);
@@ -282,10 +288,10 @@ public class PresenceState
 			throws NotAuthorizedException {
 
 		// Preventing sending offline notifications more than once
-		if (session.getSessionData(OFFLINE_RES_SENT) != null) {
+		if (session.getSessionData(OFFLINE_RESOURCES_SENT) != null) {
 			return;
 		}
-		session.putSessionData(OFFLINE_RES_SENT, OFFLINE_RES_SENT);
+		session.putSessionData(OFFLINE_RESOURCES_SENT, OFFLINE_RES_SENT);
 		for (XMPPResourceConnection conn : session.getActiveSessions()) {
 			try {
 				if (log.isLoggable(Level.FINER)) {
@@ -357,7 +363,7 @@ public class PresenceState
 					synchronized (session) {
 						Element presEl = session.getPresence();
 						if (presEl != null) {
-							session.removeSessionData(XMPPResourceConnection.PRESENCE_KEY);
+							session.removeSessionData(XMPPResourceConnection.PRESENCE);
 							presEl.removeAttribute("from");
 							presEl.removeAttribute("to");
 							Packet pres = Packet.packetInstance(presEl, packet.getStanzaFrom(), packet.getStanzaTo());
@@ -835,8 +841,8 @@ public class PresenceState
 				// if it is already loaded then continue processing
 				// Special actions on the first availability presence
 				if ((packet.getType() == null) || (packet.getType() == StanzaType.available)) {
-					session.removeSessionData(OFFLINE_BUD_SENT);
-					session.removeSessionData(OFFLINE_RES_SENT);
+					session.removeSessionData(OFFLINE_BUDDIES_SENT);
+					session.removeSessionData(OFFLINE_RESOURCES_SENT);
 					if (first) {
 						try {
 							sendRosterOfflinePresence(session, results);
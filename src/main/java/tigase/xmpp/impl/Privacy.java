@@ -23,6 +23,7 @@ import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.SessionAttribute;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.impl.roster.RosterFactory;
 
@@ -72,6 +73,15 @@ public class Privacy {
 
 	public static final String PRIVACY_LIST_LOADED = "privacy-lists-loaded";
 
+	private static final SessionAttribute<PrivacyList> ACTIVE_LIST = SessionAttribute.register(ACTIVE,
+																							   PrivacyList.class);
+
+	private static final SessionAttribute<PrivacyList> DEFAULT_LIST = SessionAttribute.register(DEFAULT,
+																								PrivacyList.class);
+
+	private static final SessionAttribute<String> LISTS_LOADED = SessionAttribute.register(PRIVACY_LIST_LOADED,
+																						   String.class);
+
 	private static Logger log = Logger.getLogger(Privacy.class.getName());
 
 	public static void addList(XMPPResourceConnection session, Element list)
@@ -116,7 +126,7 @@ public class Privacy {
 	}
 
 	public static PrivacyList getActiveList(XMPPResourceConnection session) throws NotAuthorizedException {
-		return (PrivacyList) session.getSessionData(ACTIVE);
+		return session.getSessionData(ACTIVE_LIST);
 	}
 
 	public static String getActiveListName(XMPPResourceConnection session) throws NotAuthorizedException {
@@ -141,14 +151,14 @@ public class Privacy {
 
 	public static PrivacyList getDefaultList(XMPPResourceConnection session)
 			throws NotAuthorizedException, TigaseDBException {
-		PrivacyList sessionDefaultList = (PrivacyList) session.getCommonSessionData(DEFAULT);
-		if (session.getCommonSessionData(PRIVACY_LIST_LOADED) == null) {
+		PrivacyList sessionDefaultList = session.getCommonSessionData(DEFAULT_LIST);
+		if (session.getCommonSessionData(LISTS_LOADED) == null) {
 			sessionDefaultList = PrivacyList.create(session, RosterFactory.getRosterImplementation(true),
 													getDefaultListElement(session));
 			if (null != sessionDefaultList) {
-				session.putCommonSessionData(DEFAULT, sessionDefaultList);
+				session.putCommonSessionData(DEFAULT_LIST, sessionDefaultList);
 			}
-			session.putCommonSessionData(PRIVACY_LIST_LOADED, PRIVACY_LIST_LOADED);
+			session.putCommonSessionData(LISTS_LOADED, PRIVACY_LIST_LOADED);
 		}
 		return sessionDefaultList;
 	}
@@ -267,7 +277,7 @@ public class Privacy {
 		if (lName == null) {
 
 			// User declines to use current actiev list
-			session.removeSessionData(ACTIVE);
+			session.removeSessionData(ACTIVE_LIST);
 		} else {
 
 			// User selects a different active list
@@ -275,7 +285,7 @@ public class Privacy {
 												  getList(session, lName));
 
 			if (list != null) {
-				session.putSessionData(ACTIVE, list);
+				session.putSessionData(ACTIVE_LIST, list);
 			} else {
 				log.log(Level.INFO, "Setting active list to null, do something better than that, perhaps notify user.");
 			}
@@ -286,12 +296,15 @@ public class Privacy {
 			throws NotAuthorizedException, TigaseDBException {
 		if ((list != null) && (list.getAttributeStaticStr(NAME) != null)) {
 			session.setData(PRIVACY, DEFAULT, list.getAttributeStaticStr(NAME));
-			session.putCommonSessionData(DEFAULT,
-										 PrivacyList.create(session, RosterFactory.getRosterImplementation(true),
-															list));
+			PrivacyList defaultList = PrivacyList.create(session, RosterFactory.getRosterImplementation(true), list);
+			if (defaultList != null) {
+				session.putCommonSessionData(DEFAULT_LIST, defaultList);
+			} else {
+				session.removeCommonSessionData(DEFAULT_LIST);
+			}
 		} else {
 			session.removeData(PRIVACY, DEFAULT);
-			session.removeCommonSessionData(DEFAULT);
+			session.removeCommonSessionData(DEFAULT_LIST);
 		}
 	}
 
@@ -351,8 +364,14 @@ public class Privacy {
 		if (getDefaultList(session) == null) {
 			Privacy.setActiveList(session, name);
 		} else if (name.equals(getActiveListName(session))) {
-			session.putCommonSessionData(ACTIVE, list_new);
-			session.putSessionData(ACTIVE, list_new);
+			PrivacyList list = PrivacyList.create(session, RosterFactory.getRosterImplementation(true), list_new);
+			if (list != null) {
+				session.putCommonSessionData(ACTIVE_LIST, list);
+				session.putSessionData(ACTIVE_LIST, list);
+			} else {
+				session.removeCommonSessionData(ACTIVE_LIST);
+				session.removeSessionData(ACTIVE_LIST);
+			}
 		}
 	}
 
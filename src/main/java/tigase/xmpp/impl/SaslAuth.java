@@ -26,10 +26,13 @@ import tigase.db.NonAuthUserRepository;
 import tigase.db.TigaseDBException;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Command;
 import tigase.server.Packet;
 import tigase.server.Priority;
 import tigase.server.xmppsession.SessionManager;
+import tigase.stats.StatisticsList;
 import tigase.util.Base64;
 import tigase.xml.Element;
 import tigase.xmpp.*;
@@ -39,10 +42,15 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,7 +64,7 @@ import java.util.logging.Logger;
 @Bean(name = SaslAuth.ID, parent = SessionManager.class, active = true)
 public class SaslAuth
 		extends AbstractAuthPreprocessor
-		implements XMPPProcessorIfc {
+		implements XMPPProcessorIfc, UnregisterAware {
 
 	public static final String ID = "urn:ietf:params:xml:ns:xmpp-sasl";
 	private static final String _XMLNS = "urn:ietf:params:xml:ns:xmpp-sasl";
@@ -66,6 +74,7 @@ public class SaslAuth
 												{"abort"}};
 	private static final Logger log = Logger.getLogger(SaslAuth.class.getName());
 	private final static String SASL_SERVER_KEY = "SASL_SERVER_KEY";
+	private final static String SASL_STEP_PENDING_KEY = "SASL_STEP_PENDING_KEY";
 	private static final String[] XMLNSS = {_XMLNS, _XMLNS, _XMLNS, _XMLNS, _XMLNS, _XMLNS};
 
 	public enum ElementType {
@@ -77,11 +86,20 @@ public class SaslAuth
 		success
 	}
 
+	private final Map<String, MechanismStatistics> mechanismStatistics = new ConcurrentHashMap<>();
+	private final AtomicInteger pendingSteps = new AtomicInteger();
 	private final Map<String, Object> props = new HashMap<String, Object>();
+	@ConfigField(desc = "Evaluate SASL steps and retrieve credentials in a separate pool of threads", alias = "async")
+	boolean async = false;
+	@ConfigField(desc = "Number of threads evaluating SASL steps asynchronously", alias = "async-threads")
+	int asyncThreads = Runtime.getRuntime().availableProcessors() * 8;
 	@Inject
 	private BruteForceLockerBean bruteForceLocker;
+	private ExecutorService executor;
 	@Inject
 	private TigaseSaslProvider saslProvider;
+	@Inject(nullAllowed = true)
+	private SessionManager sessionManager;
 
 	@Override
 	public int concurrentQueuesNo() {
@@ -135,9 +153,14 @@ public class SaslAuth
 					log.log(Level.FINEST, "Session after logout: {0}", session.toString());
 				}
 			} else {
+				final long start = System.nanoTime();
 				Element request = packet.getElement();
+				SaslServer ss = null;
 				try {
-					SaslServer ss;
+					if (session.getSessionData(SASL_STEP_PENDING_KEY) != null) {
+						throw new XmppSaslException(SaslError.malformed_request,
+													"Previous SASL step is still being processed");
+					}
 
 					if ("auth" == request.getName()) {
 						final String mechanismName = request.getAttributeStaticStr("mechanism");
@@ -190,85 +213,57 @@ public class SaslAuth
 						data = new byte[]{};
 					}
 
-					byte[] challenge = ss.evaluateResponse(data);
-					String challengeData;
-
-					if (challenge != null) {
-						challengeData = Base64.encode(challenge);
-					} else {
-						challengeData = null;
+					if (async && sessionManager != null) {
+						evaluateResponseAsync(packet, session, ss, data, clientIp, start);
+						return;
 					}
-					if (ss.isComplete() && (ss.getAuthorizationID() != null)) {
-						BareJID jid;
-
-						if (ss.getAuthorizationID().contains("@")) {
-							jid = BareJID.bareJIDInstance(ss.getAuthorizationID());
-						} else {
-							jid = BareJID.bareJIDInstance(ss.getAuthorizationID(),
-														  session.getDomain().getVhost().getDomain());
-						}
-
-						if (bruteForceLocker.isEnabled(session) &&
-								!bruteForceLocker.isLoginAllowed(session, clientIp, jid)) {
-							throw new BruteForceLockerBean.LoginLockedException();
-						}
-
-						if (log.isLoggable(Level.FINE)) {
-							log.finest("Authorized as " + jid);
-						}
-
-						boolean anonymous;
 
-						try {
-							Boolean x = (Boolean) ss.getNegotiatedProperty(SaslANONYMOUS.IS_ANONYMOUS_PROPERTY);
-
-							anonymous = x != null && x;
-						} catch (Exception e) {
-							anonymous = false;
-						}
-						session.removeSessionData(SASL_SERVER_KEY);
-						session.authorizeJID(jid, anonymous);
-						if (session.getAuthRepository() != null) {
-							session.getAuthRepository().loggedIn(jid);
-						}
-						results.offer(packet.swapFromTo(createReply(ElementType.success, challengeData), null, null));
-					} else if (!ss.isComplete()) {
-						results.offer(packet.swapFromTo(createReply(ElementType.challenge, challengeData), null, null));
-					} else {
-						throw new XmppSaslException(SaslError.malformed_request);
-					}
-				} catch (BruteForceLockerBean.LoginLockedException e) {
-					onAuthFail(session);
-					if (log.isLoggable(Level.FINER)) {
-						log.log(Level.FINER, "Account locked by BruteForceLocker.");
-					}
-					sendNotAuthorized(SaslError.not_authorized, AbstractSasl.PASSWORD_NOT_VERIFIED_MSG, packet,
-									  results);
-				} catch (XmppSaslException e) {
-					saveIntoBruteForceLocker(session, e);
-					onAuthFail(session);
-					if (log.isLoggable(Level.FINER)) {
-						log.log(Level.FINER, "SASL unsuccessful", e);
-					}
-					sendNotAuthorized(e.getSaslError(), e.getMessage(), packet, results);
-				} catch (SaslException e) {
-					saveIntoBruteForceLocker(session, e);
-					onAuthFail(session);
-					if (log.isLoggable(Level.FINER)) {
-						log.log(Level.FINER, "SASL unsuccessful", e);
-					}
-					sendNotAuthorized(SaslError.not_authorized, null, packet, results);
+					byte[] challenge = ss.evaluateResponse(data);
+					processEvaluatedResponse(packet, session, ss, challenge, clientIp, results);
+					updateStatistics(ss, start, session.isAuthorized(), false);
 				} catch (Exception e) {
-					onAuthFail(session);
-					if (log.isLoggable(Level.WARNING)) {
-						log.log(Level.WARNING, "Problem with SASL", e);
+					if (ss != null) {
+						updateStatistics(ss, start, false, true);
 					}
-					sendNotAuthorized(SaslError.temporary_auth_failure, null, packet, results);
+					processFailure(packet, session, e, results);
 				}
 			}
 		}
 	}
 
+	@Override
+	public void beforeUnregister() {
+		ExecutorService executor;
+		synchronized (this) {
+			executor = this.executor;
+			this.executor = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		for (Map.Entry<String, MechanismStatistics> e : mechanismStatistics.entrySet()) {
+			MechanismStatistics stats = e.getValue();
+			long steps = stats.steps.sum();
+			list.add(id(), e.getKey() + " successful authentications", stats.successes.sum(), Level.FINE);
+			list.add(id(), e.getKey() + " failed authentications", stats.failures.sum(), Level.FINE);
+			list.add(id(), e.getKey() + " SASL steps", steps, Level.FINER);
+			if (steps > 0) {
+				list.add(id(), e.getKey() + " average SASL step time [ms]",
+						 (stats.stepsTime.sum() / steps) / 1000000f, Level.FINE);
+			}
+			list.add(id(), e.getKey() + " maximal SASL step time [ms]", stats.maxStepTime.get() / 1000000f,
+					 Level.FINER);
+		}
+		if (async) {
+			list.add(id(), "Pending asynchronous SASL steps", pendingSteps.get(), Level.FINE);
+		}
+	}
+
 	@Override
 	public Element[] supDiscoFeatures(final XMPPResourceConnection session) {
 		return DISCO_FEATURES;
@@ -306,6 +301,176 @@ public class SaslAuth
 		session.removeSessionData(SASL_SERVER_KEY);
 	}
 
+	/**
+	 * Evaluates response in a thread from a pool used only for authentication, so processing threads of
+	 * SessionManager are not blocked by retrieval of credentials from a database. Exchange is resumed and results are
+	 * sent when evaluation is completed, unless the connection was closed or authentication has timed out in the
+	 * meantime.
+	 */
+	private void evaluateResponseAsync(final Packet packet, final XMPPResourceConnection session,
+									   final SaslServer ss, final byte[] data, final String clientIp,
+									   final long start) {
+		final SessionManager.ProcessorResultWriter writer = sessionManager.getProcessorResultWriter();
+		session.putSessionData(SASL_STEP_PENDING_KEY, ss);
+		pendingSteps.incrementAndGet();
+		try {
+			getExecutor().execute(() -> {
+				Queue<Packet> results = new ArrayDeque<>();
+				try {
+					byte[] challenge = null;
+					Exception error = null;
+					try {
+						challenge = ss.evaluateResponse(data);
+					} catch (Exception ex) {
+						error = ex;
+					}
+					synchronized (session) {
+						session.removeSessionData(SASL_STEP_PENDING_KEY);
+						if (session.getSessionData(XMPPResourceConnection.CLOSING) != null ||
+								session.getSessionData(XMPPResourceConnection.AUTHENTICATION_TIMEOUT_KEY) != null ||
+								session.getSessionData(SASL_SERVER_KEY) != ss) {
+							if (log.isLoggable(Level.FINEST)) {
+								log.log(Level.FINEST, "Session {0} was closed or SASL exchange was aborted, " +
+										"ignoring result of SASL step", session);
+							}
+							return;
+						}
+						if (error == null) {
+							try {
+								processEvaluatedResponse(packet, session, ss, challenge, clientIp, results);
+							} catch (Exception ex) {
+								error = ex;
+							}
+						}
+						if (error != null) {
+							processFailure(packet, session, error, results);
+						}
+						updateStatistics(ss, start, session.isAuthorized(), error != null);
+					}
+				} finally {
+					pendingSteps.decrementAndGet();
+				}
+				writer.write(packet, session, results);
+			});
+		} catch (RejectedExecutionException ex) {
+			pendingSteps.decrementAndGet();
+			session.removeSessionData(SASL_STEP_PENDING_KEY);
+			throw ex;
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger counter = new AtomicInteger();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+															 new LinkedBlockingQueue<>(), r -> {
+				Thread th = new Thread(r, "sasl-auth-" + counter.incrementAndGet());
+				th.setDaemon(true);
+				return th;
+			});
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		return executor;
+	}
+
+	private void processEvaluatedResponse(final Packet packet, final XMPPResourceConnection session,
+										  final SaslServer ss, final byte[] challenge, final String clientIp,
+										  final Queue<Packet> results) throws Exception {
+		String challengeData;
+
+		if (challenge != null) {
+			challengeData = Base64.encode(challenge);
+		} else {
+			challengeData = null;
+		}
+		if (ss.isComplete() && (ss.getAuthorizationID() != null)) {
+			BareJID jid;
+
+			if (ss.getAuthorizationID().contains("@")) {
+				jid = BareJID.bareJIDInstance(ss.getAuthorizationID());
+			} else {
+				jid = BareJID.bareJIDInstance(ss.getAuthorizationID(), session.getDomain().getVhost().getDomain());
+			}
+
+			if (bruteForceLocker.isEnabled(session) && !bruteForceLocker.isLoginAllowed(session, clientIp, jid)) {
+				throw new BruteForceLockerBean.LoginLockedException();
+			}
+
+			if (log.isLoggable(Level.FINE)) {
+				log.finest("Authorized as " + jid);
+			}
+
+			boolean anonymous;
+
+			try {
+				Boolean x = (Boolean) ss.getNegotiatedProperty(SaslANONYMOUS.IS_ANONYMOUS_PROPERTY);
+
+				anonymous = x != null && x;
+			} catch (Exception e) {
+				anonymous = false;
+			}
+			session.removeSessionData(SASL_SERVER_KEY);
+			session.authorizeJID(jid, anonymous);
+			if (session.getAuthRepository() != null) {
+				session.getAuthRepository().loggedIn(jid);
+			}
+			results.offer(packet.swapFromTo(createReply(ElementType.success, challengeData), null, null));
+		} else if (!ss.isComplete()) {
+			results.offer(packet.swapFromTo(createReply(ElementType.challenge, challengeData), null, null));
+		} else {
+			throw new XmppSaslException(SaslError.malformed_request);
+		}
+	}
+
+	private void processFailure(final Packet packet, final XMPPResourceConnection session, final Exception ex,
+								final Queue<Packet> results) {
+		try {
+			throw ex;
+		} catch (BruteForceLockerBean.LoginLockedException e) {
+			onAuthFail(session);
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "Account locked by BruteForceLocker.");
+			}
+			sendNotAuthorized(SaslError.not_authorized, AbstractSasl.PASSWORD_NOT_VERIFIED_MSG, packet, results);
+		} catch (XmppSaslException e) {
+			saveIntoBruteForceLocker(session, e);
+			onAuthFail(session);
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "SASL unsuccessful", e);
+			}
+			sendNotAuthorized(e.getSaslError(), e.getMessage(), packet, results);
+		} catch (SaslException e) {
+			saveIntoBruteForceLocker(session, e);
+			onAuthFail(session);
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "SASL unsuccessful", e);
+			}
+			sendNotAuthorized(SaslError.not_authorized, null, packet, results);
+		} catch (Exception e) {
+			onAuthFail(session);
+			if (log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, "Problem with SASL", e);
+			}
+			sendNotAuthorized(SaslError.temporary_auth_failure, null, packet, results);
+		}
+	}
+
+	private void updateStatistics(final SaslServer ss, final long start, final boolean authorized,
+								  final boolean failed) {
+		long time = System.nanoTime() - start;
+		MechanismStatistics stats = mechanismStatistics.computeIfAbsent(ss.getMechanismName(),
+																		 name -> new MechanismStatistics());
+		stats.steps.increment();
+		stats.stepsTime.add(time);
+		stats.maxStepTime.accumulateAndGet(time, Math::max);
+		if (failed) {
+			stats.failures.increment();
+		} else if (authorized) {
+			stats.successes.increment();
+		}
+	}
+
 	private Element createReply(final ElementType type, final String cdata) {
 		Element reply = new Element(type.toString());
 
@@ -391,4 +556,14 @@ public class SaslAuth
 		results.offer(response);
 	}
 
-}
\ No newline at end of file
+	private static class MechanismStatistics {
+
+		private final LongAdder failures = new LongAdder();
+		private final AtomicLong maxStepTime = new AtomicLong();
+		private final LongAdder steps = new LongAdder();
+		private final LongAdder stepsTime = new LongAdder();
+		private final LongAdder successes = new LongAdder();
+
+	}
+
+}
@@ -81,6 +81,11 @@ public class SessionBind
 		}    // end of switch (type)
 	}
 
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		return true;
+	}
+
 	@Override
 	public Element[] supStreamFeatures(final XMPPResourceConnection session) {
 		if ((session != null) && (session.getSessionData(SESSION_KEY) == null) && session.isAuthorized()) {
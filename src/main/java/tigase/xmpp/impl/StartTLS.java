@@ -114,6 +114,11 @@ public class StartTLS
 		return XMLNSS;
 	}
 
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		return true;
+	}
+
 	@Override
 	public Element[] supStreamFeatures(final XMPPResourceConnection session) {
 
@@ -96,6 +96,16 @@ public abstract class AnnotatedXMPPProcessor
 		return XMLNSS;
 	}
 
+	@Override
+	public boolean isStreamFeaturesCacheable() {
+		try {
+			return getClass().getMethod("supStreamFeatures", XMPPResourceConnection.class).getDeclaringClass() ==
+					AnnotatedXMPPProcessor.class;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
 	@Override
 	public Element[] supDiscoFeatures(XMPPResourceConnection session) {
 		return DISCO_FEATURES;
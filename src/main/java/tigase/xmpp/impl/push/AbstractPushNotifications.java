@@ -19,6 +19,7 @@ package tigase.xmpp.impl.push;
 
 import tigase.db.*;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.server.*;
 import tigase.server.amp.db.MsgRepository;
@@ -38,6 +39,9 @@ import tigase.xmpp.jid.JID;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,7 +55,7 @@ import static tigase.xmpp.impl.push.AbstractPushNotifications.XMLNS;
 })
 public class AbstractPushNotifications
 		extends AnnotatedXMPPProcessor
-		implements XMPPProcessorIfc {
+		implements XMPPProcessorIfc, UnregisterAware {
 
 	public static final String XMLNS = "urn:xmpp:push:0";
 	public static final String ID = XMLNS;
@@ -66,6 +70,12 @@ public class AbstractPushNotifications
 	protected boolean withSender = true;
 	@ConfigField(desc = "Max notification timeout", alias = "max-timeout")
 	protected Duration maxTimeout = Duration.ofMinutes(6);
+	@ConfigField(desc = "Time in which notifications to the same push service are merged", alias = "coalesce-window")
+	protected Duration coalesceWindow = Duration.ZERO;
+	@ConfigField(desc = "Max number of users with cached push services", alias = "push-services-cache-size")
+	protected int pushServicesCacheSize = 10000;
+	@ConfigField(desc = "Time for which push services of a user are cached", alias = "push-services-cache-ttl")
+	protected Duration pushServicesCacheTtl = Duration.ofMinutes(1);
 
 	@Inject
 	private MsgRepositoryIfc msgRepository;
@@ -78,6 +88,31 @@ public class AbstractPushNotifications
 
 	@ConfigField(desc = "Notification to display for encrypted messages", alias = "encrypted-message-body")
 	private String encryptedMessageBody = "New secure message. Open to see the message.";
+	private final Map<String, PendingNotification> pendingNotifications = new ConcurrentHashMap<>();
+	private final Map<BareJID, CachedPushServices> pushServicesCache = new LinkedHashMap<BareJID, CachedPushServices>(
+			16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<BareJID, CachedPushServices> eldest) {
+			return size() > pushServicesCacheSize;
+		}
+	};
+	private ScheduledExecutorService scheduler;
+
+	@Override
+	public void beforeUnregister() {
+		ScheduledExecutorService scheduler;
+		synchronized (pendingNotifications) {
+			scheduler = this.scheduler;
+			this.scheduler = null;
+		}
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+		// sending notifications which were waiting to be merged
+		for (String key : new ArrayList<>(pendingNotifications.keySet())) {
+			flushPendingNotification(key);
+		}
+	}
 	
 	protected boolean shouldDisablePush(Authorization error) {
 		if (error == null) {
@@ -159,8 +194,9 @@ public class AbstractPushNotifications
 					String userJid = affiliationEl.getAttributeStaticStr("jid");
 					if ("none".equals(affiliationEl.getAttributeStaticStr("affiliation"))) {
 						if (userJid != null) {
-							userRepository.removeData(BareJID.bareJIDInstanceNS(userJid), ID,
-													  packet.getStanzaFrom().toString() + "/" + node);
+							BareJID jid = BareJID.bareJIDInstanceNS(userJid);
+							userRepository.removeData(jid, ID, packet.getStanzaFrom().toString() + "/" + node);
+							invalidatePushServices(jid);
 						}
 					}
 				}
@@ -188,6 +224,7 @@ public class AbstractPushNotifications
 			throws NotAuthorizedException, TigaseDBException {
 		String key = jid.toString() + "/" + node;
 		session.setData(ID, key, settings.toString());
+		invalidatePushServices(session.getBareJID());
 		Map<String, Element> pushServices = getPushServices(session);
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Enabled push notifications for JID: {0}, node: {1}, settings: {2}",
@@ -225,6 +262,7 @@ public class AbstractPushNotifications
 				}
 			}
 		}
+		invalidatePushServices(session.getBareJID());
 	}
 
 	protected Map<String, Element> getPushServices(XMPPResourceConnection session) {
@@ -311,8 +349,36 @@ public class AbstractPushNotifications
 		});
 	}
 
+	/**
+	 * Returns push services enabled by the user. Parsed push services are cached for <code>push-services-cache-ttl</code>
+	 * as they are needed for every message sent to the user while offline. Returned map is not modifiable.
+	 */
 	protected Map<String, Element> getPushServices(BareJID userJid) throws TigaseDBException {
-		return userRepository.getDataMap(userJid, ID, this::parseElement);
+		final long now = System.currentTimeMillis();
+		if (pushServicesCacheSize > 0) {
+			CachedPushServices cached;
+			synchronized (pushServicesCache) {
+				cached = pushServicesCache.get(userJid);
+			}
+			if (cached != null && now - cached.loaded < pushServicesCacheTtl.toMillis()) {
+				return cached.services;
+			}
+		}
+
+		Map<String, Element> services = userRepository.getDataMap(userJid, ID, this::parseElement);
+		services = Collections.unmodifiableMap(services == null ? Collections.emptyMap() : services);
+		if (pushServicesCacheSize > 0) {
+			synchronized (pushServicesCache) {
+				pushServicesCache.put(userJid, new CachedPushServices(services, now));
+			}
+		}
+		return services;
+	}
+
+	protected void invalidatePushServices(BareJID userJid) {
+		synchronized (pushServicesCache) {
+			pushServicesCache.remove(userJid);
+		}
 	}
 
 	protected void sendPushNotification(XMPPResourceConnection session, Packet packet)
@@ -339,8 +405,51 @@ public class AbstractPushNotifications
 		return true;
 	}
 
+	/**
+	 * Sends notification to the push service or, if <code>coalesce-window</code> is set, waits for this time for next
+	 * notifications to the same push service, so only the latest of them is sent.
+	 */
 	private void sendPushNotification(BareJID userJid, Element notification, JID pushService, String pushNode,
 									  Element publishOptionsForm) {
+		if (coalesceWindow.isZero() || coalesceWindow.isNegative()) {
+			publishPushNotification(userJid, notification, pushService, pushNode, publishOptionsForm);
+			return;
+		}
+
+		final String key = userJid + "|" + pushService + "/" + pushNode;
+		final PendingNotification notificationToSend = new PendingNotification(userJid, notification, pushService,
+																			   pushNode, publishOptionsForm);
+		PendingNotification previous = pendingNotifications.put(key, notificationToSend);
+		if (previous != null) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Merged push notification for JID: {0} to {1}", new Object[]{userJid, key});
+			}
+			return;
+		}
+
+		synchronized (pendingNotifications) {
+			if (scheduler == null) {
+				scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread thread = new Thread(r, "push-notifications-coalescing");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			scheduler.schedule(() -> flushPendingNotification(key), coalesceWindow.toMillis(),
+							   TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flushPendingNotification(String key) {
+		PendingNotification pending = pendingNotifications.remove(key);
+		if (pending != null) {
+			publishPushNotification(pending.userJid, pending.notification, pending.pushService, pending.pushNode,
+									pending.publishOptionsForm);
+		}
+	}
+
+	private void publishPushNotification(BareJID userJid, Element notification, JID pushService, String pushNode,
+										 Element publishOptionsForm) {
 		Element iq = new Element("iq", new String[]{"xmlns", "type"},
 								 new String[]{Packet.CLIENT_XMLNS, StanzaType.set.name()});
 
@@ -374,6 +483,7 @@ public class AbstractPushNotifications
 					}
 					try {
 						userRepository.removeData(userJid, ID, pushService + "/" + pushNode);
+						invalidatePushServices(userJid);
 					} catch (TigaseDBException ex) {
 						log.log(Level.FINEST,
 								"could not disable push for " + userJid + " on " + pushService + "/" + pushNode, ex);
@@ -390,4 +500,33 @@ public class AbstractPushNotifications
 		return (elems == null) ? null : elems.poll();
 	}
 
+	private static class CachedPushServices {
+
+		private final long loaded;
+		private final Map<String, Element> services;
+
+		private CachedPushServices(Map<String, Element> services, long loaded) {
+			this.services = services;
+			this.loaded = loaded;
+		}
+	}
+
+	private static class PendingNotification {
+
+		private final Element notification;
+		private final Element publishOptionsForm;
+		private final JID pushService;
+		private final String pushNode;
+		private final BareJID userJid;
+
+		private PendingNotification(BareJID userJid, Element notification, JID pushService, String pushNode,
+									Element publishOptionsForm) {
+			this.userJid = userJid;
+			this.notification = notification;
+			this.pushService = pushService;
+			this.pushNode = pushNode;
+			this.publishOptionsForm = publishOptionsForm;
+		}
+	}
+
 }
@@ -0,0 +1,320 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam;
+
+import tigase.component.exceptions.ComponentException;
+import tigase.component.exceptions.RepositoryException;
+import tigase.db.DataRepository;
+import tigase.db.DataSourceAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.rsm.RSM;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reference implementation of {@link MAMStreamingRepository} using JDBC.
+ * <br>
+ * Items are read from a single table (names of the table and its columns are configurable) using keyset pagination
+ * on <code>(timestamp, id)</code>, so the table should have an index on <code>(owner, timestamp, id)</code>. Each
+ * batch is loaded by a separate query limited to the batch size, so neither memory usage nor cost of the query
+ * depends on the size of the archive or on the position of the requested page in it.
+ */
+public class JDBCStreamingMAMRepository
+		implements MAMStreamingRepository<Query, JDBCStreamingMAMRepository.Item>, DataSourceAware<DataRepository> {
+
+	private static final Logger log = Logger.getLogger(JDBCStreamingMAMRepository.class.getCanonicalName());
+
+	private static final Timestamp MAX_TIMESTAMP = Timestamp.valueOf("9999-12-31 23:59:59");
+	private static final Timestamp MIN_TIMESTAMP = new Timestamp(0);
+
+	@ConfigField(desc = "Max number of items loaded by a single query", alias = "batch-size")
+	private int batchSize = 100;
+	@ConfigField(desc = "Column with item id", alias = "id-column")
+	private String idColumn = "stable_id";
+	@ConfigField(desc = "Column with serialized message", alias = "message-column")
+	private String messageColumn = "msg";
+	@ConfigField(desc = "Column with bare JID of archive owner", alias = "owner-column")
+	private String ownerColumn = "owner";
+	@ConfigField(desc = "Table with archived messages", alias = "table")
+	private String table = "tig_mam_msgs";
+	@ConfigField(desc = "Column with timestamp of item", alias = "timestamp-column")
+	private String timestampColumn = "ts";
+	@ConfigField(desc = "Column with bare JID of conversation partner", alias = "with-column")
+	private String withColumn = "buddy";
+
+	private DataRepository data_repo;
+
+	private static String statementKey(boolean with, boolean cursor, boolean backward) {
+		return "mam-stream-items" + (with ? "-with" : "") + (cursor ? "-cursor" : "") + (backward ? "-backward" : "");
+	}
+
+	@Override
+	public Query newQuery() {
+		return new QueryImpl();
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void setDataSource(DataRepository data_repo) throws RepositoryException {
+		try {
+			for (boolean with : new boolean[]{false, true}) {
+				for (boolean cursor : new boolean[]{false, true}) {
+					for (boolean backward : new boolean[]{false, true}) {
+						data_repo.initPreparedStatement(statementKey(with, cursor, backward),
+														prepareItemsQuery(data_repo.getDatabaseType(), with, cursor,
+																		  backward));
+					}
+				}
+			}
+			data_repo.initPreparedStatement("mam-stream-cursor",
+											"select " + timestampColumn + " from " + table + " where " +
+													ownerColumn + " = ? and " + idColumn + " = ?");
+		} catch (SQLException ex) {
+			throw new RepositoryException("Could not initialize JDBCStreamingMAMRepository", ex);
+		}
+		this.data_repo = data_repo;
+	}
+
+	public void setTable(String table) {
+		this.table = table;
+	}
+
+	@Override
+	public boolean streamItems(Query query, ItemConsumer<Query, Item> consumer)
+			throws RepositoryException, ComponentException {
+		BareJID owner = getOwner(query);
+		RSM rsm = query.getRsm();
+		boolean backward = rsm.getBefore() != null;
+		String cursorId = backward ? rsm.getBefore() : rsm.getAfter();
+		if (cursorId != null && cursorId.isEmpty()) {
+			// empty <before/> requests last page
+			cursorId = null;
+		}
+		Timestamp cursorTs = cursorId == null ? null : getCursorTimestamp(owner, cursorId);
+
+		if (backward) {
+			return streamBackward(query, owner, cursorTs, cursorId, rsm.getMax(), consumer);
+		}
+
+		int remaining = rsm.getMax();
+		while (remaining > 0) {
+			int limit = Math.min(batchSize, remaining);
+			List<Item> batch = loadItems(query, owner, false, cursorTs, cursorId, limit + 1);
+			int count = Math.min(limit, batch.size());
+			for (int i = 0; i < count; i++) {
+				if (!consumer.itemFound(query, batch.get(i))) {
+					return false;
+				}
+			}
+			if (batch.size() <= limit) {
+				return true;
+			}
+			remaining -= count;
+			Item last = batch.get(count - 1);
+			cursorTs = last.timestamp;
+			cursorId = last.id;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns bare JID of the owner of the archive which should be queried.
+	 */
+	protected BareJID getOwner(Query query) {
+		return query.getQuestionerJID().getBareJID();
+	}
+
+	protected String prepareItemsQuery(DataRepository.dbTypes dbType, boolean with, boolean cursor,
+									   boolean backward) {
+		String cmp = backward ? " < " : " > ";
+		String order = backward ? " desc" : " asc";
+		StringBuilder sb = new StringBuilder("select ");
+		sb.append(idColumn).append(", ").append(timestampColumn).append(", ").append(messageColumn);
+		sb.append(" from ").append(table);
+		sb.append(" where ").append(ownerColumn).append(" = ?");
+		if (with) {
+			sb.append(" and ").append(withColumn).append(" = ?");
+		}
+		sb.append(" and ").append(timestampColumn).append(" >= ? and ").append(timestampColumn).append(" <= ?");
+		if (cursor) {
+			sb.append(" and (").append(timestampColumn).append(cmp).append("? or (");
+			sb.append(timestampColumn).append(" = ? and ").append(idColumn).append(cmp).append("?))");
+		}
+		sb.append(" order by ").append(timestampColumn).append(order).append(", ").append(idColumn).append(order);
+		switch (dbType) {
+			case derby:
+			case jtds:
+			case sqlserver:
+				sb.append(" offset 0 rows fetch next ? rows only");
+				break;
+			default:
+				sb.append(" limit ?");
+				break;
+		}
+		return sb.toString();
+	}
+
+	private Timestamp getCursorTimestamp(BareJID owner, String id) throws RepositoryException, ComponentException {
+		ResultSet rs = null;
+		try {
+			PreparedStatement stmt = data_repo.getPreparedStatement(owner, "mam-stream-cursor");
+			synchronized (stmt) {
+				try {
+					stmt.setString(1, owner.toString());
+					stmt.setString(2, id);
+					rs = stmt.executeQuery();
+					if (rs.next()) {
+						return rs.getTimestamp(1);
+					}
+				} finally {
+					data_repo.release(null, rs);
+				}
+			}
+		} catch (SQLException ex) {
+			throw new RepositoryException("Could not find item " + id + " in archive of " + owner, ex);
+		}
+		throw new ComponentException(Authorization.ITEM_NOT_FOUND, "Item with id " + id + " not found");
+	}
+
+	private List<Item> loadItems(Query query, BareJID owner, boolean backward, Timestamp cursorTs, String cursorId,
+								 int limit) throws RepositoryException {
+		String key = statementKey(query.getWith() != null, cursorId != null, backward);
+		ResultSet rs = null;
+		try {
+			PreparedStatement stmt = data_repo.getPreparedStatement(owner, key);
+			synchronized (stmt) {
+				try {
+					int i = 1;
+					stmt.setString(i++, owner.toString());
+					if (query.getWith() != null) {
+						stmt.setString(i++, query.getWith().getBareJID().toString());
+					}
+					stmt.setTimestamp(i++, query.getStart() == null
+										   ? MIN_TIMESTAMP
+										   : new Timestamp(query.getStart().getTime()));
+					stmt.setTimestamp(i++,
+									  query.getEnd() == null ? MAX_TIMESTAMP : new Timestamp(query.getEnd().getTime()));
+					if (cursorId != null) {
+						stmt.setTimestamp(i++, cursorTs);
+						stmt.setTimestamp(i++, cursorTs);
+						stmt.setString(i++, cursorId);
+					}
+					stmt.setInt(i++, limit);
+					rs = stmt.executeQuery();
+					List<Item> items = new ArrayList<>(limit);
+					while (rs.next()) {
+						items.add(new Item(rs.getString(1), rs.getTimestamp(2), rs.getString(3)));
+					}
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "loaded {0} items from archive of {1} using {2}",
+								new Object[]{items.size(), owner, key});
+					}
+					return items;
+				} finally {
+					data_repo.release(null, rs);
+				}
+			}
+		} catch (SQLException ex) {
+			throw new RepositoryException("Could not load items from archive of " + owner, ex);
+		}
+	}
+
+	private boolean streamBackward(Query query, BareJID owner, Timestamp cursorTs, String cursorId, int max,
+								   ItemConsumer<Query, Item> consumer) throws RepositoryException {
+		// items are loaded from the newest one, but they need to be passed in chronological order
+		List<Item> page = new ArrayList<>(Math.min(max, batchSize));
+		boolean complete = false;
+		while (page.size() < max) {
+			int limit = Math.min(batchSize, max - page.size());
+			List<Item> batch = loadItems(query, owner, true, cursorTs, cursorId, limit + 1);
+			if (batch.size() <= limit) {
+				page.addAll(batch);
+				complete = true;
+				break;
+			}
+			page.addAll(batch.subList(0, limit));
+			Item last = batch.get(limit - 1);
+			cursorTs = last.timestamp;
+			cursorId = last.id;
+		}
+		Collections.reverse(page);
+		for (Item item : page) {
+			if (!consumer.itemFound(query, item)) {
+				return false;
+			}
+		}
+		return complete;
+	}
+
+	public static class Item
+			implements MAMRepository.Item {
+
+		private static final SimpleParser parser = SingletonFactory.getParserInstance();
+
+		private final String id;
+		private final String data;
+		private final Timestamp timestamp;
+		private Element message;
+
+		public Item(String id, Timestamp timestamp, String data) {
+			this.id = id;
+			this.timestamp = timestamp;
+			this.data = data;
+		}
+
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		@Override
+		public Element getMessage() {
+			if (message == null && data != null) {
+				DomBuilderHandler domHandler = new DomBuilderHandler();
+				parser.parse(domHandler, data.toCharArray(), 0, data.length());
+				Queue<Element> elems = domHandler.getParsedElements();
+				message = elems.poll();
+			}
+			return message;
+		}
+
+		@Override
+		public Date getTimestamp() {
+			return timestamp;
+		}
+	}
+}
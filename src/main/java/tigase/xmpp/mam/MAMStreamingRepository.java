@@ -0,0 +1,64 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam;
+
+import tigase.component.exceptions.ComponentException;
+import tigase.component.exceptions.RepositoryException;
+
+/**
+ * Extension of {@link MAMRepository} for repositories which are able to stream items matching a query in bounded
+ * batches using keyset pagination.
+ * <br>
+ * Position in the archive is identified by timestamp and id of an item (RSM <code>after</code> or <code>before</code>
+ * id is resolved to its timestamp), so requesting any page costs the same no matter how far from the beginning of the
+ * archive it is. Items are loaded from the repository in batches and next batch is loaded only after all items of the
+ * previous batch were consumed. Consumer may stop streaming at any time by returning <code>false</code>.
+ * <br>
+ * Items of a page are always passed to the consumer in chronological order. Number of all matching items and index
+ * of the first item are not calculated, as counting items is not possible without scanning whole archive.
+ */
+public interface MAMStreamingRepository<Q extends Query, I extends MAMRepository.Item>
+		extends MAMRepository<Q, I> {
+
+	/**
+	 * Passes items of a page requested by the query to the consumer.
+	 *
+	 * @return <code>true</code> if the page contains the last item matching the query in the requested direction
+	 * (<code>false</code> if there are more items or streaming was stopped by the consumer).
+	 */
+	boolean streamItems(Q query, ItemConsumer<Q, I> consumer) throws RepositoryException, ComponentException;
+
+	@Override
+	default void queryItems(Q query, ItemHandler<Q, I> itemHandler) throws RepositoryException, ComponentException {
+		streamItems(query, (q, item) -> {
+			itemHandler.itemFound(q, item);
+			return true;
+		});
+	}
+
+	interface ItemConsumer<Q extends Query, I extends MAMRepository.Item> {
+
+		/**
+		 * Called for each found item.
+		 *
+		 * @return <code>false</code> if no more items should be passed.
+		 */
+		boolean itemFound(Q query, I item);
+
+	}
+}
@@ -30,8 +30,10 @@ import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.mam.MAMRepository;
+import tigase.xmpp.mam.MAMStreamingRepository;
 import tigase.xmpp.mam.Query;
 import tigase.xmpp.mam.QueryParser;
+import tigase.xmpp.rsm.RSM;
 
 /**
  * Implementation of module processing requests to retrieve items using XEP-0313: Message Archive Management
@@ -76,8 +78,19 @@ public class QueryModule
 	public void process(Packet packet) throws ComponentException, TigaseStringprepException {
 		Query query = mamRepository.newQuery();
 		query = queryParser.parseQuery(query, packet);
+		boolean complete;
 		try {
-			mamRepository.queryItems(query, itemHandler);
+			if (mamRepository instanceof MAMStreamingRepository) {
+				complete = ((MAMStreamingRepository) mamRepository).streamItems(query, (q, item) -> {
+					itemHandler.itemFound(q, item);
+					return true;
+				});
+			} else {
+				mamRepository.queryItems(query, itemHandler);
+				RSM rsm = query.getRsm();
+				complete = rsm.getIndex() != null && rsm.getCount() != null &&
+						rsm.getIndex() + rsm.getMax() >= rsm.getCount();
+			}
 		} catch (RepositoryException ex) {
 			throw new RuntimeException("Error retrieving messages from database", ex);
 		}
@@ -85,7 +98,7 @@ public class QueryModule
 		Element fin = new Element("fin");
 		fin.setXMLNS(query.getXMLNS());
 		fin.addChild(query.getRsm().toElement());
-		if (query.getRsm().getIndex() + query.getRsm().getMax() >= query.getRsm().getCount()) {
+		if (complete) {
 			fin.setAttribute("complete", "true");
 		}
 
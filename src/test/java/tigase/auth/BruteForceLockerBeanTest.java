@@ -243,4 +243,27 @@ public class BruteForceLockerBeanTest {
 
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testSketchInvalidLogins() {
+		BruteForceLockerBean bean = new BruteForceLockerBean();
+		bean.setSketch(new CountMinSketchCounter(4, 1024, 20, 1000));
+
+		for (int i = 0; i < 3; i++) {
+			bean.addInvalidLogin(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100000 + i);
+			Assert.assertTrue(bean.isLoginAllowed(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100005));
+		}
+
+		// one invalid login too much
+		bean.addInvalidLogin(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100006);
+		Assert.assertFalse(bean.isLoginAllowed(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100007));
+		// allowed from different IP
+		Assert.assertTrue(bean.isLoginAllowed(null, "1.2.3.5", BareJID.bareJIDInstanceNS("a@bc.d"), 100007));
+		// allowed for different JID
+		Assert.assertTrue(bean.isLoginAllowed(null, "1.2.3.4", BareJID.bareJIDInstanceNS("b@bc.d"), 100007));
+		Assert.assertFalse(bean.canUserBeDisabled(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d")));
+
+		// try after lock time (rounded up to the bucket time)
+		Assert.assertTrue(bean.isLoginAllowed(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100007 + 11_000));
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CountMinSketchCounterTest {
+
+	@Test
+	public void testEstimateNotLowerThanCount() {
+		CountMinSketchCounter counter = new CountMinSketchCounter(4, 256, 6, 1000);
+		Map<Long, Integer> counts = new HashMap<>();
+		for (int i = 0; i < 5000; i++) {
+			long hash = CountMinSketchCounter.hash("10.0.0." + (i % 700), "user" + (i % 13) + "@example.com");
+			counter.add(hash, 10000 + i % 1000);
+			counts.merge(hash, 1, Integer::sum);
+		}
+		assertEquals(5000, counter.getCount(10999, 6000));
+		long errorBound = counter.getErrorBound(10999, 6000);
+		int exceeded = 0;
+		for (Map.Entry<Long, Integer> e : counts.entrySet()) {
+			int estimate = counter.estimate(e.getKey(), 10999, 6000);
+			assertTrue(estimate >= e.getValue());
+			if (estimate - e.getValue() > errorBound) {
+				exceeded++;
+			}
+		}
+		assertTrue(exceeded < counts.size() / 10);
+	}
+
+	@Test
+	public void testWindow() {
+		CountMinSketchCounter counter = new CountMinSketchCounter(4, 256, 6, 1000);
+		long hash = CountMinSketchCounter.hash("1.2.3.4", "a@b.c");
+		counter.add(hash, 10000);
+		counter.add(hash, 12000);
+		counter.add(hash, 12500);
+
+		assertEquals(3, counter.estimate(hash, 12500, 5000));
+		assertEquals(2, counter.estimate(hash, 12500, 1000));
+		assertEquals(2, counter.estimate(hash, 16000, 5000));
+		// older than buckets cover
+		assertEquals(0, counter.estimate(hash, 20000, 5000));
+		// bucket already used for a newer period of time
+		counter.add(hash, 4000);
+		assertEquals(0, counter.estimate(hash, 4000, 1000));
+		assertNotEquals(hash, CountMinSketchCounter.hash("1.2.3.4a", ".b.c"));
+	}
+
+	@Test
+	public void testMergeDeltas() {
+		CountMinSketchCounter local = new CountMinSketchCounter(4, 512, 6, 1000);
+		CountMinSketchCounter remote = new CountMinSketchCounter(4, 512, 6, 1000);
+		long hash1 = CountMinSketchCounter.hash("1.2.3.4", "a@b.c");
+		long hash2 = CountMinSketchCounter.hash("1.2.3.5", "b@b.c");
+		for (int i = 0; i < 10; i++) {
+			local.add(hash1, 10000 + i * 300);
+		}
+		local.add(hash2, 11000);
+		local.drainDeltas(remote::merge);
+
+		assertEquals(local.estimate(hash1, 13000, 6000), remote.estimate(hash1, 13000, 6000));
+		assertEquals(1, remote.estimate(hash2, 13000, 6000));
+		assertEquals(11, remote.getCount(13000, 6000));
+
+		// deltas are sent only once
+		local.drainDeltas((epoch, deltas) -> fail("No deltas expected"));
+		local.add(hash2, 12000);
+		local.drainDeltas(remote::merge);
+		assertEquals(2, remote.estimate(hash2, 13000, 6000));
+		assertEquals(12, local.getCount(13000, 6000));
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TLSBufferPoolTest {
+
+	@Test
+	public void testReuse() {
+		ByteBuffer buf = TLSBufferPool.get(16709);
+		assertEquals(16709, buf.capacity());
+		buf.put((byte) 1);
+		long reused = TLSBufferPool.getReusedBuffers();
+		TLSBufferPool.release(buf);
+
+		ByteBuffer next = TLSBufferPool.get(16709);
+		assertSame(buf, next);
+		assertEquals(0, next.position());
+		assertEquals(next.capacity(), next.limit());
+		assertEquals(reused + 1, TLSBufferPool.getReusedBuffers());
+	}
+
+	@Test
+	public void testNotPooled() {
+		ByteBuffer direct = ByteBuffer.allocateDirect(16711);
+		TLSBufferPool.release(direct);
+		assertNotSame(direct, TLSBufferPool.get(16711));
+
+		ByteBuffer large = ByteBuffer.allocate(1024 * 1024);
+		TLSBufferPool.release(large);
+		assertNotSame(large, TLSBufferPool.get(1024 * 1024));
+	}
+
+	@Test
+	public void testHandshakeMetrics() {
+		TLSHandshakeMetrics metrics = new TLSHandshakeMetrics();
+		metrics.taskQueued();
+		metrics.taskQueued();
+		assertEquals(2, metrics.getQueuedTasks());
+		metrics.taskStarted(1000);
+		metrics.taskCompleted(1000, true);
+		assertEquals(1, metrics.getQueuedTasks());
+		metrics.handshakeCompleted(5000000);
+		assertEquals(1, metrics.getHandshakes());
+	}
+}
@@ -0,0 +1,366 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.cert.CertCheckResult;
+import tigase.stats.StatisticsList;
+
+import javax.net.ssl.SSLEngineResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class TLSIOTest {
+
+	private TestIO io;
+	private TLSIO tlsIO;
+	private TestWrapper wrapper;
+
+	@Before
+	public void setUp() throws IOException {
+		io = new TestIO();
+		wrapper = new TestWrapper();
+		tlsIO = new TLSIO(io, wrapper, ByteOrder.BIG_ENDIAN, true);
+	}
+
+	@Test
+	public void testReadResumedAfterHandshakeTasks() throws IOException {
+		ByteBuffer socketInput = ByteBuffer.allocate(64);
+		wrapper.taskAfter = 2;
+		io.incoming.add(bytes("abcdef"));
+
+		assertEquals("ab", drain(tlsIO.read(socketInput)));
+		assertEquals(TLSStatus.NEED_TASK, wrapper.getStatus());
+
+		// no new data from the peer, data waiting in the buffer are decoded once tasks are completed
+		assertNull(tlsIO.read(socketInput));
+		wrapper.completeTasks();
+		assertEquals("cdef", drain(tlsIO.read(socketInput)));
+		assertEquals(4, tlsIO.bytesRead());
+	}
+
+	@Test
+	public void testDataReadWhileWritingKeptUntilTasksCompleted() throws IOException {
+		ByteBuffer socketInput = ByteBuffer.allocate(64);
+		wrapper.status = TLSStatus.NEED_READ;
+		wrapper.handshakeBytes = 3;
+		wrapper.taskAfter = 3;
+		io.incoming.add(bytes("handshake"));
+
+		// handshake data are read by write(), rest of data waits for handshake tasks
+		tlsIO.write(ByteBuffer.allocate(0));
+		assertEquals(TLSStatus.NEED_TASK, wrapper.getStatus());
+		assertNull(tlsIO.read(socketInput));
+
+		// buffer with remaining data is not returned to the pool and is decoded before new data
+		wrapper.completeTasks();
+		io.incoming.add(bytes("-next"));
+		assertEquals("dshake-next", drain(tlsIO.read(socketInput)));
+	}
+
+	@Test
+	public void testWriteNotBlockedByHandshakeTasks() throws IOException {
+		ByteBuffer socketInput = ByteBuffer.allocate(64);
+		wrapper.taskAfter = 1;
+		io.incoming.add(bytes("xy"));
+		drain(tlsIO.read(socketInput));
+		assertEquals(TLSStatus.NEED_TASK, wrapper.getStatus());
+
+		tlsIO.write(ByteBuffer.wrap(bytes("first ")));
+		tlsIO.write(ByteBuffer.wrap(bytes("second")));
+		assertEquals(0, io.written.size());
+		assertFalse(tlsIO.waitingToSend());
+		assertEquals(12, tlsIO.waitingToSendSize());
+
+		wrapper.completeTasks();
+		assertTrue(tlsIO.waitingToSend());
+		tlsIO.write((ByteBuffer) null);
+		assertEquals("first second", new String(io.written.toByteArray(), StandardCharsets.UTF_8));
+		assertFalse(tlsIO.waitingToSend());
+	}
+
+	private static byte[] bytes(String data) {
+		return data.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String drain(ByteBuffer buff) {
+		if (buff == null) {
+			return null;
+		}
+		byte[] data = new byte[buff.remaining()];
+		buff.get(data);
+		buff.clear();
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Wrapper passing data without encryption, which pauses decoding for handshake tasks after a given number of bytes.
+	 */
+	private static class TestWrapper
+			implements TLSWrapper {
+
+		private int handshakeBytes = 0;
+		private TLSStatus status = TLSStatus.OK;
+		private int taskAfter = -1;
+
+		private void completeTasks() {
+			status = TLSStatus.OK;
+		}
+
+		@Override
+		public int bytesConsumed() {
+			return 0;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public int getAppBuffSize() {
+			return 64;
+		}
+
+		@Override
+		public CertCheckResult getCertificateStatus(boolean revocationEnabled,
+													SSLContextContainerIfc sslContextContainer) {
+			return null;
+		}
+
+		@Override
+		public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+			return SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+		}
+
+		@Override
+		public Certificate[] getLocalCertificates() {
+			return null;
+		}
+
+		@Override
+		public int getNetBuffSize() {
+			return 64;
+		}
+
+		@Override
+		public int getPacketBuffSize() {
+			return 64;
+		}
+
+		@Override
+		public Certificate[] getPeerCertificates() {
+			return null;
+		}
+
+		@Override
+		public TLSStatus getStatus() {
+			return status;
+		}
+
+		@Override
+		public byte[] getTlsUniqueBindingData() {
+			return null;
+		}
+
+		@Override
+		public boolean isClientMode() {
+			return false;
+		}
+
+		@Override
+		public boolean isNeedClientAuth() {
+			return false;
+		}
+
+		@Override
+		public void setDebugId(String id) {
+		}
+
+		@Override
+		public ByteBuffer unwrap(ByteBuffer net, ByteBuffer app) {
+			if (status == TLSStatus.NEED_TASK) {
+				return app;
+			}
+			if (!app.hasRemaining()) {
+				ByteBuffer bb = ByteBuffer.allocate(app.capacity() + getAppBuffSize());
+				app.flip();
+				bb.put(app);
+				app = bb;
+			}
+			int len = Math.min(net.remaining(), app.remaining());
+			if (taskAfter >= 0) {
+				len = Math.min(len, taskAfter);
+			}
+			for (int i = 0; i < len; i++) {
+				byte b = net.get();
+				if (handshakeBytes > 0) {
+					handshakeBytes--;
+				} else {
+					app.put(b);
+				}
+			}
+			if (taskAfter >= 0) {
+				taskAfter -= len;
+				if (taskAfter == 0) {
+					taskAfter = -1;
+					status = TLSStatus.NEED_TASK;
+				}
+			}
+			if (status == TLSStatus.NEED_READ) {
+				status = TLSStatus.OK;
+			}
+			return app;
+		}
+
+		@Override
+		public boolean wantClientAuth() {
+			return false;
+		}
+
+		@Override
+		public void wrap(ByteBuffer app, ByteBuffer net) {
+			if (status == TLSStatus.NEED_TASK) {
+				return;
+			}
+			net.put(app);
+		}
+	}
+
+	private static class TestIO
+			implements IOInterface {
+
+		private final Queue<byte[]> incoming = new ArrayDeque<>();
+		private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		private int bytesRead = 0;
+
+		@Override
+		public int bytesRead() {
+			return bytesRead;
+		}
+
+		@Override
+		public boolean checkCapabilities(String caps) {
+			return false;
+		}
+
+		@Override
+		public int getInputPacketSize() {
+			return 64;
+		}
+
+		@Override
+		public SocketChannel getSocketChannel() {
+			return null;
+		}
+
+		@Override
+		public void getStatistics(StatisticsList list, boolean reset) {
+		}
+
+		@Override
+		public long getBytesSent(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBytesSent() {
+			return 0;
+		}
+
+		@Override
+		public long getBytesReceived(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBytesReceived() {
+			return 0;
+		}
+
+		@Override
+		public long getBuffOverflow(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBuffOverflow() {
+			return 0;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public boolean isRemoteAddress(String addr) {
+			return false;
+		}
+
+		@Override
+		public ByteBuffer read(ByteBuffer buff) {
+			byte[] data = incoming.poll();
+			bytesRead = data == null ? 0 : data.length;
+			if (data != null) {
+				buff.put(data);
+				buff.flip();
+			}
+			return buff;
+		}
+
+		@Override
+		public void stop() {
+		}
+
+		@Override
+		public boolean waitingToSend() {
+			return false;
+		}
+
+		@Override
+		public int waitingToSendSize() {
+			return 0;
+		}
+
+		@Override
+		public int write(ByteBuffer buff) {
+			if (buff == null) {
+				return 0;
+			}
+			int len = buff.remaining();
+			while (buff.hasRemaining()) {
+				written.write(buff.get());
+			}
+			return len;
+		}
+
+		@Override
+		public void setLogId(String logId) {
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ZLibEngineTest {
+
+	private static final String STANZA = "<message type='chat' id='m1' to='user@example.com/res' " +
+			"from='sender@example.com/res'><body>Hello</body><request xmlns='urn:xmpp:receipts'/></message>";
+
+	@Test
+	public void testCompressDecompress() throws IOException {
+		ZLibEngine.Statistics statistics = new ZLibEngine.Statistics();
+		ZLibEngine sender = new ZLibEngine(9, false, statistics);
+		ZLibEngine receiver = new ZLibEngine(9, false, statistics);
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(STANZA, transfer(sender, receiver, STANZA));
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			sb.append(STANZA.replace("m1", "m" + i));
+		}
+		assertEquals(sb.toString(), transfer(sender, receiver, sb.toString()));
+		assertTrue(sender.averageCompressionRate() < 0.5);
+
+		sender.end();
+		receiver.end();
+		assertTrue(statistics.isUsed());
+		try {
+			sender.compress(ByteBuffer.wrap(new byte[1]));
+			fail("Compression of ended stream should fail");
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDictionary() throws IOException {
+		ZLibEngine plain = new ZLibEngine(9, false, null);
+		ZLibEngine withDictionary = new ZLibEngine(9, true, null);
+		ZLibEngine receiver = new ZLibEngine(9, false, null);
+
+		int plainSize = plain.compress(ByteBuffer.wrap(STANZA.getBytes(StandardCharsets.UTF_8))).remaining();
+		ByteBuffer compressed = withDictionary.compress(ByteBuffer.wrap(STANZA.getBytes(StandardCharsets.UTF_8)));
+		assertTrue(compressed.remaining() < plainSize);
+
+		// dictionary is detected by receiver from the stream header
+		assertEquals(STANZA, toString(receiver.decompress(compressed)));
+		assertEquals(STANZA, transfer(withDictionary, receiver, STANZA));
+	}
+
+	private static String transfer(ZLibEngine sender, ZLibEngine receiver, String data) throws IOException {
+		ByteBuffer compressed = sender.compress(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+		return toString(receiver.decompress(compressed));
+	}
+
+	private static String toString(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+}
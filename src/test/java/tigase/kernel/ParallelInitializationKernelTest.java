@@ -0,0 +1,150 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.kernel;
+
+import org.junit.Test;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.ParallelInitializable;
+import tigase.kernel.core.BeanConfig;
+import tigase.kernel.core.DependencyGrapher;
+import tigase.kernel.core.Kernel;
+import tigase.kernel.core.StartupProfile;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ParallelInitializationKernelTest {
+
+	@Test
+	public void testDependencyLayers() {
+		Kernel krnl = createKernel();
+		List<List<BeanConfig>> layers = new DependencyGrapher(krnl).getDependencyLayers();
+		int slow1 = layerOf(layers, "slow1");
+		int slow2 = layerOf(layers, "slow2");
+		int dependent = layerOf(layers, "dependent");
+		assertEquals(slow1, slow2);
+		assertTrue(dependent > slow1);
+	}
+
+	@Test
+	public void testParallelInitialization() throws Exception {
+		Kernel krnl = createKernel();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			krnl.initAll(pool);
+		} finally {
+			pool.shutdown();
+		}
+
+		SlowBean slow1 = krnl.getInstance("slow1");
+		SlowBean slow2 = krnl.getInstance("slow2");
+		DependentBean dependent = krnl.getInstance("dependent");
+		// both slow beans waited for each other, so they had to be initialized at the same time
+		assertTrue(slow1.concurrent);
+		assertTrue(slow2.concurrent);
+		assertNotEquals(Thread.currentThread(), slow1.thread);
+		assertTrue(dependent.dependenciesInitialized);
+
+		Set<String> profiled = krnl.getStartupProfile()
+				.getEntries()
+				.stream()
+				.map(StartupProfile.Entry::getName)
+				.collect(Collectors.toSet());
+		assertTrue(profiled.containsAll(Arrays.asList(krnl.getName() + ".slow1", krnl.getName() + ".slow2",
+													  krnl.getName() + ".dependent")));
+		assertNotNull(krnl.getStartupProfile().dump(10));
+	}
+
+	@Test
+	public void testSequentialInitialization() {
+		Kernel krnl = createKernel();
+		krnl.initAll();
+
+		DependentBean dependent = krnl.getInstance("dependent");
+		assertTrue(dependent.dependenciesInitialized);
+		SlowBean slow1 = krnl.getInstance("slow1");
+		assertFalse(slow1.concurrent);
+		assertEquals(Thread.currentThread(), slow1.thread);
+	}
+
+	private Kernel createKernel() {
+		Kernel krnl = new Kernel("parallel-test");
+		krnl.registerBean("latch").asInstance(new CountDownLatch(2)).exec();
+		krnl.registerBean("slow1").asClass(SlowBean.class).exec();
+		krnl.registerBean("slow2").asClass(SlowBean.class).exec();
+		krnl.registerBean("dependent").asClass(DependentBean.class).exec();
+		return krnl;
+	}
+
+	private int layerOf(List<List<BeanConfig>> layers, String beanName) {
+		for (int i = 0; i < layers.size(); i++) {
+			for (BeanConfig bc : layers.get(i)) {
+				if (bc.getBeanName().equals(beanName)) {
+					return i;
+				}
+			}
+		}
+		fail("Bean " + beanName + " not found");
+		return -1;
+	}
+
+	public static class DependentBean
+			implements Initializable {
+
+		private boolean dependenciesInitialized;
+		@Inject(bean = "slow1")
+		private SlowBean slow1;
+		@Inject(bean = "slow2")
+		private SlowBean slow2;
+
+		@Override
+		public void initialize() {
+			dependenciesInitialized = slow1.initialized && slow2.initialized;
+		}
+	}
+
+	public static class SlowBean
+			implements ParallelInitializable {
+
+		private boolean concurrent;
+		private boolean initialized;
+		@Inject(bean = "latch")
+		private CountDownLatch latch;
+		private Thread thread;
+
+		@Override
+		public void initialize() {
+			thread = Thread.currentThread();
+			latch.countDown();
+			try {
+				concurrent = latch.await(200, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				concurrent = false;
+			}
+			initialized = true;
+		}
+	}
+}
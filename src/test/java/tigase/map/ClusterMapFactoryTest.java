@@ -22,7 +22,11 @@ import org.junit.Test;
 import tigase.eventbus.EventBus;
 import tigase.eventbus.impl.EventBusImplementation;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class ClusterMapFactoryTest {
 
@@ -93,10 +97,11 @@ public class ClusterMapFactoryTest {
 
 		final Map<String, String> map = factory.createMap("test", String.class, String.class);
 
-		eventBus.addListener(ClusterMapFactory.ElementAddEvent.class, event -> {
+		eventBus.addListener(ClusterMapFactory.ElementsChangedEvent.class, event -> {
 			received[0] = true;
-			Assert.assertEquals("kluczyk", event.getKey());
-			Assert.assertEquals("wartosc", event.getValue());
+			Assert.assertEquals(1, event.getChanges().getChildren().size());
+			Assert.assertEquals("kluczyk", event.getChanges().getChildren().get(0).getAttributeStaticStr("k"));
+			Assert.assertEquals("wartosc", event.getChanges().getChildren().get(0).getAttributeStaticStr("v"));
 			Assert.assertEquals(((DMap<?,?>) map).getUid(), event.getUid());
 
 			synchronized (mutex) {
@@ -104,9 +109,9 @@ public class ClusterMapFactoryTest {
 			}
 		});
 
-		map.put("kluczyk", "wartosc");
-
 		synchronized (mutex) {
+			map.put("kluczyk", "other");
+			map.put("kluczyk", "wartosc");
 			mutex.wait(10_000);
 		}
 		Assert.assertTrue(received[0]);
@@ -197,4 +202,146 @@ public class ClusterMapFactoryTest {
 		}
 		Assert.assertTrue(received[0]);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testAntiEntropy() throws Exception {
+		final ClusterMapFactory factory1 = createFactory("node1");
+		final ClusterMapFactory factory2 = createFactory("node2");
+		final Map<String, String> map1 = factory1.createMap("test-sync", String.class, String.class);
+		final Map<String, String> map2 = factory2.createMap("test-sync", String.class, String.class);
+		final BlockingQueue<Object> events1 = collectEvents(factory1);
+		final BlockingQueue<Object> events2 = collectEvents(factory2);
+
+		for (int i = 0; i < 100; i++) {
+			map1.put("key-" + i, "value-" + i);
+		}
+		map2.put("key-1", "newer");
+		map2.put("key-1", "newest");
+		map2.put("key-100", "value-100");
+		// waiting for scheduled batches and digests of new maps
+		Thread.sleep(500);
+		events1.clear();
+		events2.clear();
+
+		// node2 missed all changes of node1, digest exchange repairs both maps
+		factory1.fireDigest((DMap<?, ?>) map1, false);
+		factory2.onMapDigest(poll(events1, ClusterMapFactory.MapDigestEvent.class));
+		ClusterMapFactory.MapEntriesEvent entries2 = poll(events2, ClusterMapFactory.MapEntriesEvent.class);
+		ClusterMapFactory.MapDigestEvent reply = poll(events2, ClusterMapFactory.MapDigestEvent.class);
+		Assert.assertTrue(reply.isReply());
+		factory1.onMapEntries(entries2);
+		factory1.onMapDigest(reply);
+		factory2.onMapEntries(poll(events1, ClusterMapFactory.MapEntriesEvent.class));
+
+		Assert.assertEquals(101, map1.size());
+		Assert.assertEquals(new HashMap<>(map1), new HashMap<>(map2));
+		Assert.assertEquals("newest", map2.get("key-1"));
+		Assert.assertArrayEquals(factory1.computeDigest((DMap<?, ?>) map1),
+								 factory2.computeDigest((DMap<?, ?>) map2));
+
+		// removal wins with newer stamp
+		map1.remove("key-2");
+		factory1.flush((DMap<?, ?>) map1);
+		factory2.onMapElementsChanged(poll(events1, ClusterMapFactory.ElementsChangedEvent.class));
+		Assert.assertFalse(map2.containsValue("value-2"));
+		Assert.assertArrayEquals(factory1.computeDigest((DMap<?, ?>) map1),
+								 factory2.computeDigest((DMap<?, ?>) map2));
+	}
+
+	@Test
+	public void testStaleChangeIgnored() {
+		final ClusterMapFactory factory = createFactory("node1");
+		final DMap<String, String> map = (DMap<String, String>) factory.<String, String>createMap("test-stale",
+																								  String.class,
+																								  String.class);
+		map.put("key", "value");
+		map.put("key", "newer");
+		Assert.assertFalse(map.merge("key", "stale", new DMap.Stamp(1, "node2", false)));
+		Assert.assertEquals("newer", map.get("key"));
+		Assert.assertTrue(map.merge("key", "remote", new DMap.Stamp(2, "node2", false)));
+		Assert.assertEquals("remote", map.get("key"));
+		Assert.assertTrue(map.merge("key", null, new DMap.Stamp(3, "node2", true)));
+		Assert.assertNull(map.get("key"));
+		map.put("key", "local");
+		Assert.assertEquals(4, map.stamps.get("key").version);
+	}
+
+	@Test
+	public void testTombstones() {
+		final ClusterMapFactory factory = createFactory("node1");
+		final DMap<String, String> map = (DMap<String, String>) factory.<String, String>createMap("test-tombstones",
+																								  String.class,
+																								  String.class);
+		for (int i = 0; i < 10; i++) {
+			map.put("key-" + i, "value");
+			map.remove("key-" + i);
+		}
+		map.put("live", "value");
+		Assert.assertEquals(10, map.tombstones.get());
+
+		// tombstones above the limit are removed
+		map.purgeTombstones(0, 8);
+		Assert.assertEquals(6, map.tombstones.get());
+		Assert.assertEquals(7, map.stamps.size());
+
+		// entry put again is no longer a tombstone
+		String key = map.stamps.entrySet()
+				.stream()
+				.filter(e -> e.getValue().removed)
+				.findFirst()
+				.get()
+				.getKey();
+		map.put(key, "value");
+		Assert.assertEquals(5, map.tombstones.get());
+
+		// expired tombstones are removed
+		map.purgeTombstones(Long.MAX_VALUE, 8);
+		Assert.assertEquals(0, map.tombstones.get());
+		Assert.assertEquals(2, map.stamps.size());
+	}
+
+	@Test
+	public void testNoEventChangesStamped() {
+		final ClusterMapFactory factory = createFactory("node1");
+		final DMap<String, String> map = (DMap<String, String>) factory.<String, String>createMap("test-no-event",
+																								  String.class,
+																								  String.class);
+		map.putNoEvent("key", "value");
+		Assert.assertFalse(map.stamps.get("key").removed);
+		Assert.assertFalse(map.changedKeys.contains("key"));
+
+		// stale change from other node does not override entry put by legacy event
+		Assert.assertFalse(map.merge("key", null, new DMap.Stamp(0, "node2", true)));
+		Assert.assertEquals("value", map.get("key"));
+
+		map.removeNoEvent("key");
+		Assert.assertTrue(map.stamps.get("key").removed);
+		Assert.assertEquals(1, map.tombstones.get());
+	}
+
+	private static BlockingQueue<Object> collectEvents(ClusterMapFactory factory) {
+		final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+		factory.getEventBus().addListener(ClusterMapFactory.ElementsChangedEvent.class, events::offer);
+		factory.getEventBus().addListener(ClusterMapFactory.MapDigestEvent.class, events::offer);
+		factory.getEventBus().addListener(ClusterMapFactory.MapEntriesEvent.class, events::offer);
+		return events;
+	}
+
+	private static ClusterMapFactory createFactory(String nodeName) {
+		final ClusterMapFactory factory = new ClusterMapFactory();
+		factory.setEventBus(new EventBusImplementation());
+		factory.setNodeName(nodeName);
+		return factory;
+	}
+
+	private static <T> T poll(BlockingQueue<Object> events, Class<T> eventClass) throws InterruptedException {
+		Object event;
+		while ((event = events.poll(10, TimeUnit.SECONDS)) != null) {
+			if (eventClass.isInstance(event)) {
+				return eventClass.cast(event);
+			}
+		}
+		Assert.fail("Event " + eventClass.getSimpleName() + " not received");
+		return null;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net.dns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.util.dns.DNSEntry;
+
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class DNSResolverServiceTest {
+
+	private StaticDNSResolver resolver;
+	private DNSResolverService service;
+
+	@Before
+	public void setUp() {
+		resolver = new StaticDNSResolver().addHostIPs("example.com", "192.0.2.1", "192.0.2.2")
+				.addSRVEntries("example.org", new DNSEntry("example.org", "198.51.100.1"));
+		service = new DNSResolverService();
+		service.setResolver(resolver);
+	}
+
+	@After
+	public void tearDown() {
+		service.beforeUnregister();
+	}
+
+	@Test
+	public void testPositiveCache() throws UnknownHostException {
+		DNSEntry[] entries = DNSResolverService.getResult(service.resolveSRV("example.org"));
+		assertEquals(1, entries.length);
+		assertEquals("198.51.100.1", entries[0].getIp());
+
+		CompletableFuture<DNSEntry[]> cached = service.resolveSRV("EXAMPLE.org");
+		assertTrue(cached.isDone());
+		assertSame(entries, DNSResolverService.getResult(cached));
+		assertEquals(1, resolver.getQueriesCount());
+		assertEquals(1, service.getCacheHits());
+
+		assertEquals(2, DNSResolverService.getResult(service.resolveHostIPs("example.com")).length);
+		assertEquals(2, resolver.getQueriesCount());
+	}
+
+	@Test
+	public void testNegativeCache() {
+		for (int i = 0; i < 3; i++) {
+			try {
+				DNSResolverService.getResult(service.resolveSRV("unknown.example"));
+				fail("Lookup of unknown host should fail");
+			} catch (UnknownHostException ex) {
+				// expected
+			}
+		}
+		assertEquals(1, resolver.getQueriesCount());
+		assertEquals(2, service.getNegativeCacheHits());
+
+		service.invalidate("unknown.example");
+		resolver.addHostIPs("unknown.example", "203.0.113.1");
+		assertFalse(service.resolveSRV("unknown.example").isCompletedExceptionally());
+	}
+
+	@Test
+	public void testCoalescing() throws UnknownHostException {
+		Queue<Runnable> lookups = new ArrayDeque<>();
+		service.setLookupExecutor(lookups::offer);
+		CompletableFuture<String[]> first = service.resolveHostIPs("example.com");
+		CompletableFuture<String[]> second = service.resolveHostIPs("example.com");
+		assertFalse(first.isDone());
+		assertSame(first, second);
+		assertEquals(1, lookups.size());
+		assertEquals(1, service.getCoalescedLookups());
+
+		lookups.poll().run();
+		assertTrue(first.isDone());
+		assertEquals(2, DNSResolverService.getResult(second).length);
+		assertEquals(1, resolver.getQueriesCount());
+		assertSame(first.join(), DNSResolverService.getResult(service.resolveHostIPs("example.com")));
+		assertTrue(lookups.isEmpty());
+	}
+
+	@Test
+	public void testIsUnresolvable() {
+		assertFalse(service.isUnresolvable("unknown.example"));
+		// waiting for lookup started in the background
+		service.resolveHostIPs("unknown.example").exceptionally(ex -> null).join();
+		assertTrue(service.isUnresolvable("unknown.example"));
+		assertFalse(service.isUnresolvable("example.com"));
+	}
+
+	@Test
+	public void testSelectSRVEntry() {
+		DNSEntry entry = new DNSEntry("example.org", "198.51.100.1");
+		assertSame(entry, DNSResolverService.selectSRVEntry(new DNSEntry[]{entry}));
+		assertNull(DNSResolverService.selectSRVEntry(new DNSEntry[0]));
+	}
+}
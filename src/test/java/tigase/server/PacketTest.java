@@ -21,11 +21,17 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
+import tigase.xml.SimpleParser;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.JID;
 
-import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
 
 /**
  * @author Wojciech Kapcia
@@ -147,4 +153,139 @@ public class PacketTest {
 		Assert.assertTrue("Output secured in default Packet.toStringFull(): " + result.toStringFull(),
 						  result.toStringFull().contains("mySuperSecretPassword"));
 	}
+
+	@Test
+	public void testCopyElementShared() throws TigaseStringprepException {
+		JID jid1 = JID.jidInstance("user1@example.com/res1");
+		JID jid2 = JID.jidInstance("user2@example.com/res2");
+		JID jid3 = JID.jidInstance("user3@example.com");
+
+		Packet presence = Packet.packetInstance(
+				parse("<presence xmlns='jabber:client' from='user1@example.com/res1' id='p1'><show>away</show>" +
+							  "<c xmlns='http://jabber.org/protocol/caps' node='test' ver='1'/></presence>"));
+		Element original = presence.getElement();
+
+		Packet copy = presence.copyElementShared(jid1, jid2);
+		assertTrue(copy instanceof Presence);
+		assertFalse(presence.isElementShared());
+		assertTrue(copy.isElementShared());
+		assertEquals(jid1, copy.getStanzaFrom());
+		assertEquals(jid2, copy.getStanzaTo());
+		assertEquals("p1", copy.getStanzaId());
+		assertEquals(jid2.toString(), copy.getAttributeStaticStr(Packet.TO_ATT));
+		assertEquals("away", copy.getElemCDataStaticStr(new String[]{"presence", "show"}));
+		assertNull(copy.getPacketFrom());
+
+		Element serialized = parse(copy.getElementAsString());
+		assertEquals(jid1.toString(), serialized.getAttributeStaticStr(Packet.FROM_ATT));
+		assertEquals(jid2.toString(), serialized.getAttributeStaticStr(Packet.TO_ATT));
+		assertEquals("p1", serialized.getAttributeStaticStr(Packet.ID_ATT));
+		assertEquals(original.getChildren().size(), serialized.getChildren().size());
+
+		Packet unavailable = presence.copyElementShared(jid1, jid3, StanzaType.unavailable);
+		assertEquals(StanzaType.unavailable, unavailable.getType());
+		assertEquals("unavailable", parse(unavailable.getElementAsString()).getAttributeStaticStr(Packet.TYPE_ATT));
+
+		// copy is cloned on access to the element and the shared element stays unchanged
+		Element element = copy.getElement();
+		assertNotSame(original, element);
+		assertFalse(copy.isElementShared());
+		assertEquals(jid2.toString(), element.getAttributeStaticStr(Packet.TO_ATT));
+		element.addChild(new Element("status", "test"));
+		assertNull(original.getChild("status"));
+		assertEquals("unavailable", unavailable.getElement().getAttributeStaticStr(Packet.TYPE_ATT));
+		assertNull(original.getAttributeStaticStr(Packet.TO_ATT));
+
+		// changing addresses of a shared copy does not change the shared element
+		Packet other = presence.copyElementShared(jid1, jid2);
+		other.initVars(jid1, jid3);
+		assertEquals(jid3.toString(), parse(other.getElementAsString()).getAttributeStaticStr(Packet.TO_ATT));
+		assertNull(original.getAttributeStaticStr(Packet.TO_ATT));
+		assertEquals(original.toString(), presence.getElementAsString());
+
+		// children of a shared copy are copies, modification of the source is not visible in later copies
+		Packet copy2 = presence.copyElementShared(jid1, jid2);
+		copy2.getElemChild("show").setCData("dnd");
+		assertEquals("away", copy2.getElemCDataStaticStr(new String[]{"presence", "show"}));
+		presence.getElement().getChild("show").setCData("xa");
+		assertEquals("away", copy2.getElemCDataStaticStr(new String[]{"presence", "show"}));
+		assertEquals("xa", presence.copyElementShared(jid1, jid2).getElemCDataStaticStr(new String[]{"presence", "show"}));
+	}
+
+	@Test
+	public void testCopyElementSharedConcurrent() throws Exception {
+		JID jid1 = JID.jidInstance("user1@example.com/res1");
+		Packet presence = Packet.packetInstance(
+				parse("<presence xmlns='jabber:client' from='user1@example.com/res1' id='p1'><show>away</show>" +
+							  "<c xmlns='http://jabber.org/protocol/caps' node='test' ver='1'/></presence>"));
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int round = 0; round < 200; round++) {
+				JID jid2 = JID.jidInstance("user" + round + "@example.com");
+				Packet copy = presence.copyElementShared(jid1, jid2);
+				CountDownLatch start = new CountDownLatch(1);
+				List<Future<?>> futures = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					int task = i;
+					futures.add(executor.submit(() -> {
+						start.await();
+						// copies of the same packet are created, serialized and unshared at the same time
+						Packet other = (task % 2 == 0 ? presence : copy).copyElementShared(jid1, jid2);
+						switch (task % 4) {
+							case 0:
+								assertEquals(jid2.toString(), copy.getElement().getAttributeStaticStr(Packet.TO_ATT));
+								break;
+							case 1:
+								assertEquals(jid2.toString(),
+											 parse(copy.getElementAsString()).getAttributeStaticStr(Packet.TO_ATT));
+								break;
+							case 2:
+								assertNotNull(copy.getElemChild("c", "http://jabber.org/protocol/caps"));
+								assertEquals(jid2.toString(), copy.getAttributeStaticStr(Packet.TO_ATT));
+								break;
+							default:
+								copy.initVars(jid1, jid2);
+								assertNotNull(copy.toStringSecure());
+								break;
+						}
+						assertEquals(jid2.toString(),
+									 parse(other.getElementAsString()).getAttributeStaticStr(Packet.TO_ATT));
+						return null;
+					}));
+				}
+				start.countDown();
+				for (Future<?> future : futures) {
+					future.get(10, TimeUnit.SECONDS);
+				}
+				assertFalse(copy.isElementShared());
+				assertNull(presence.getElement().getAttributeStaticStr(Packet.TO_ATT));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCopyElementSharedIq() throws TigaseStringprepException {
+		JID jid1 = JID.jidInstance("user1@example.com/res1");
+		JID jid2 = JID.jidInstance("user2@example.com/res2");
+
+		Packet iq = Packet.packetInstance(parse("<iq xmlns='jabber:client' type='set' id='c1' to='sm@example.com'>" +
+														"<command xmlns='http://jabber.org/protocol/commands' " +
+														"node='test-node'/></iq>"));
+		Packet copy = iq.copyElementShared(jid1, jid2);
+		assertTrue(copy instanceof Iq);
+		assertEquals(iq.isCommand(), copy.isCommand());
+		assertEquals("set", parse(copy.getElementAsString()).getAttributeStaticStr(Packet.TYPE_ATT));
+		assertEquals(StanzaType.set, copy.getType());
+		assertEquals(jid1, copy.copyElementOnly().getStanzaFrom());
+		assertEquals(jid2.toString(), copy.copyElementOnly().getElement().getAttributeStaticStr(Packet.TO_ATT));
+	}
+
+	private static Element parse(String data) {
+		DomBuilderHandler handler = new DomBuilderHandler();
+		new SimpleParser().parse(handler, data);
+		return handler.getParsedElements().poll();
+	}
 }
@@ -0,0 +1,50 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.bosh;
+
+import org.junit.Test;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class BoshConnectionManagerTest {
+
+	@Test
+	public void testEncodeBodyOpen() {
+		Element body = new Element("body", new String[]{"xmlns", "sid", "condition"},
+								   new String[]{"http://jabber.org/protocol/httpbind", "abc", "a&b"});
+		String expected = body.toString();
+		expected = expected.substring(0, expected.length() - 2) + ">";
+
+		Element parsed = parse(new String(BoshConnectionManager.encodeBodyOpen(body), StandardCharsets.UTF_8));
+		assertEquals(parse(expected).getAttributes(), parsed.getAttributes());
+		assertEquals("body", parsed.getName());
+	}
+
+	private static Element parse(String open) {
+		DomBuilderHandler handler = new DomBuilderHandler();
+		SimpleParser parser = SingletonFactory.getParserInstance();
+		parser.parse(handler, open + "</body>");
+		return handler.getParsedElements().poll();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext;
+
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+
+import static org.junit.Assert.assertEquals;
+import static tigase.server.ext.ComponentIOService.FlowControl.*;
+
+public class ComponentIOServiceTest {
+
+	@Test
+	public void testHoldPacketIfBacklogged() throws TigaseStringprepException {
+		TestIOService serv = new TestIOService();
+
+		serv.waitingToSend = 1;
+		assertEquals(send, serv.holdPacketIfBacklogged(packet("1"), 2, 2));
+
+		serv.waitingToSend = 2;
+		assertEquals(held, serv.holdPacketIfBacklogged(packet("2"), 2, 2));
+		assertEquals(held, serv.holdPacketIfBacklogged(packet("3"), 2, 2));
+		assertEquals(rejected, serv.holdPacketIfBacklogged(packet("4"), 2, 2));
+		assertEquals(2, serv.getHeldPackets());
+		assertEquals(1, serv.getRejectedPackets());
+
+		// nothing is released until backlog drops
+		assertEquals(0, serv.releaseHeldPackets());
+
+		serv.waitingToSend = 1;
+		assertEquals(1, serv.releaseHeldPackets());
+		assertEquals("2", serv.getWaitingPackets().poll().getStanzaId());
+
+		// packets are held while earlier packets are held, to keep order
+		serv.waitingToSend = 0;
+		assertEquals(held, serv.holdPacketIfBacklogged(packet("5"), 2, 2));
+		assertEquals(2, serv.releaseHeldPackets());
+		assertEquals("3", serv.getWaitingPackets().poll().getStanzaId());
+		assertEquals("5", serv.getWaitingPackets().poll().getStanzaId());
+		assertEquals(0, serv.getHeldPackets());
+		assertEquals(3, serv.getHeldPacketsTotal());
+	}
+
+	@Test
+	public void testTakeHeldPackets() throws TigaseStringprepException {
+		TestIOService serv = new TestIOService();
+
+		serv.waitingToSend = 5;
+		serv.holdPacketIfBacklogged(packet("1"), 2, 10);
+		serv.holdPacketIfBacklogged(packet("2"), 2, 10);
+		assertEquals(2, serv.takeHeldPackets().size());
+		assertEquals(0, serv.getHeldPackets());
+	}
+
+	private static Packet packet(String id) throws TigaseStringprepException {
+		return Packet.packetInstance(new Element("message", new String[]{"from", "to", "id"},
+												 new String[]{"sender@example.com/res", "user@ext.example.com", id}));
+	}
+
+	private static class TestIOService
+			extends ComponentIOService {
+
+		private int waitingToSend = 0;
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public int waitingToSendSize() {
+			return waitingToSend;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext.lb;
+
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.server.ext.ComponentConnection;
+import tigase.server.ext.ComponentIOService;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LeastBacklogLBTest {
+
+	@Test
+	public void testSelectConnection() throws TigaseStringprepException {
+		TestIOService serv1 = new TestIOService();
+		TestIOService serv2 = new TestIOService();
+		List<ComponentConnection> conns = Arrays.asList(new ComponentConnection("ext.example.com", serv1),
+														new ComponentConnection("ext.example.com", serv2));
+		LeastBacklogLB lb = new LeastBacklogLB();
+
+		serv1.backlog = 5;
+		serv2.backlog = 2;
+		assertSame(serv2, lb.selectConnection(packet("user1@ext.example.com/res1"), conns));
+
+		// packets for the same receiver stay on the same connection while previous are not sent
+		serv2.backlog = 10;
+		assertSame(serv2, lb.selectConnection(packet("user1@ext.example.com/res2"), conns));
+		assertSame(serv1, lb.selectConnection(packet("user2@ext.example.com"), conns));
+
+		// when all packets were sent, receiver may be moved to other connection
+		serv2.backlog = 0;
+		serv1.backlog = 1;
+		serv2.connected = false;
+		assertSame(serv1, lb.selectConnection(packet("user1@ext.example.com"), conns));
+
+		serv1.connected = false;
+		assertNull(lb.selectConnection(packet("user1@ext.example.com"), conns));
+	}
+
+	private static Packet packet(String to) throws TigaseStringprepException {
+		return Packet.packetInstance(new Element("message", new String[]{"from", "to"},
+												 new String[]{"sender@example.com/res", to}));
+	}
+
+	private static class TestIOService
+			extends ComponentIOService {
+
+		private boolean connected = true;
+		private int backlog = 0;
+
+		@Override
+		public int getSendBacklog() {
+			return connected ? backlog : 0;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return connected;
+		}
+	}
+}
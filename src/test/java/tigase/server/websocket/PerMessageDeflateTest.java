@@ -0,0 +1,130 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.websocket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class PerMessageDeflateTest {
+
+	private final PerMessageDeflate.Pool pool = new PerMessageDeflate.Pool(Deflater.DEFAULT_COMPRESSION, 4);
+
+	@Test
+	public void testNegotiate() {
+		PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits", false,
+																false, pool);
+		assertNotNull(deflate);
+		assertEquals("permessage-deflate", deflate.getResponseHeaderValue());
+
+		deflate = PerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover", false, true, pool);
+		assertNotNull(deflate);
+		assertTrue(deflate.isServerNoContextTakeover());
+		assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+					 deflate.getResponseHeaderValue());
+
+		// smaller window than used by Deflater cannot be accepted, so the next offer is used
+		deflate = PerMessageDeflate.negotiate(
+				"permessage-deflate; server_max_window_bits=10, permessage-deflate; client_no_context_takeover",
+				false, false, pool);
+		assertNotNull(deflate);
+		assertTrue(deflate.isClientNoContextTakeover());
+
+		assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=10", false, false, pool));
+		assertNull(PerMessageDeflate.negotiate("permessage-deflate; unknown_param", false, false, pool));
+		assertNull(PerMessageDeflate.negotiate("x-webkit-deflate-frame", false, false, pool));
+	}
+
+	@Test
+	public void testContextTakeover() throws DataFormatException {
+		PerMessageDeflate server = new PerMessageDeflate(false, false, pool);
+		PerMessageDeflate client = new PerMessageDeflate(false, false, pool);
+		String message = "<message to='user@example.com'><body>Hello world!</body></message>";
+
+		ByteBuffer first = server.deflate(wrap(message));
+		ByteBuffer second = server.deflate(wrap(message));
+		// second message refers to data of the first one
+		assertTrue(second.remaining() < first.remaining());
+
+		assertEquals(message, toString(client.inflate(first, true, 1024)));
+		assertEquals(message, toString(client.inflate(second, true, 1024)));
+	}
+
+	@Test
+	public void testNoContextTakeover() throws DataFormatException {
+		PerMessageDeflate server = new PerMessageDeflate(true, true, pool);
+		String message = "<message to='user@example.com'><body>Hello world!</body></message>";
+
+		ByteBuffer first = server.deflate(wrap(message));
+		ByteBuffer second = server.deflate(wrap(message));
+		assertEquals(first, second);
+
+		// each message can be decompressed separately
+		assertEquals(message, toString(new PerMessageDeflate(true, true, pool).inflate(second, true, 1024)));
+		assertTrue(pool.getIdle() > 0);
+	}
+
+	@Test
+	public void testFragmentedMessage() throws DataFormatException {
+		PerMessageDeflate server = new PerMessageDeflate(false, false, pool);
+		PerMessageDeflate client = new PerMessageDeflate(false, false, pool);
+		byte[] data = new byte[100000];
+		Random random = new Random(1);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(4));
+		}
+		ByteBuffer compressed = server.deflate(ByteBuffer.wrap(data));
+		ByteBuffer result = ByteBuffer.allocate(data.length);
+		while (compressed.hasRemaining()) {
+			ByteBuffer fragment = compressed.duplicate();
+			fragment.limit(Math.min(compressed.limit(), compressed.position() + 1000));
+			compressed.position(fragment.limit());
+			result.put(client.inflate(fragment, !compressed.hasRemaining(), data.length));
+			assertEquals(compressed.hasRemaining(), client.isInflating());
+		}
+		assertArrayEquals(data, result.array());
+	}
+
+	@Test
+	public void testMaxSize() {
+		PerMessageDeflate server = new PerMessageDeflate(false, false, pool);
+		ByteBuffer compressed = server.deflate(ByteBuffer.wrap(new byte[100000]));
+		try {
+			new PerMessageDeflate(false, false, pool).inflate(compressed, true, 10000);
+			fail("Decompressed message should exceed limit");
+		} catch (DataFormatException ex) {
+			// expected
+		}
+	}
+
+	private static String toString(ByteBuffer buf) {
+		byte[] data = new byte[buf.remaining()];
+		buf.get(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer wrap(String data) {
+		return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -24,6 +24,7 @@ import tigase.util.Base64;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -31,6 +32,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.zip.Deflater;
 
 /**
  * @author andrzej
@@ -70,7 +73,7 @@ public class WebSocketHybiTest
 		ByteBuffer tmp1 = maskFrame(tmp);
 		ByteBuffer decoded = impl.decodeFrame(io, tmp1);
 		Assert.assertArrayEquals("Data before encoding do not match data after decoding", input.getBytes(),
-								 decoded.array());
+								 toArray(decoded));
 	}
 
 	@Test
@@ -164,10 +167,10 @@ public class WebSocketHybiTest
 		io.maskingKey = new byte[4];
 		ByteBuffer decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of first frame before encoding do not match data after decoding",
-								 input1.getBytes(), decoded.array());
+								 input1.getBytes(), toArray(decoded));
 		decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of second frame before encoding do not match data after decoding",
-								 input2.getBytes(), decoded.array());
+								 input2.getBytes(), toArray(decoded));
 	}
 
 	@Test
@@ -198,17 +201,66 @@ public class WebSocketHybiTest
 		ByteBuffer decoded = impl.decodeFrame(io, tmp);
 		Assert.assertNotNull(decoded);
 		Assert.assertArrayEquals("Data of first frame before encoding do not match data after decoding", new byte[0],
-								 decoded.array());
+								 toArray(decoded));
 		tmp2.flip();
 		Assert.assertNotEquals("PONG frame not sent!", 0, tmp2.remaining());
 		assertEquals("PONG frame not sent!", (byte) 0x8A, tmp2.get(0));
 
 		decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of second frame before encoding do not match data after decoding",
-								 input2.getBytes(), decoded.array());
+								 input2.getBytes(), toArray(decoded));
 
 	}
 
+	@Test
+	public void testUnmask() {
+		Random random = new Random(1);
+		byte[] maskingKey = new byte[4];
+		for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+			for (int length = 0; length < 40; length++) {
+				for (int offset = 0; offset < 9; offset++) {
+					random.nextBytes(maskingKey);
+					byte[] data = new byte[offset + length + 3];
+					random.nextBytes(data);
+					byte[] expected = Arrays.copyOf(data, data.length);
+					for (int i = 0; i < length; i++) {
+						expected[offset + i] = (byte) (expected[offset + i] ^ maskingKey[i % 4]);
+					}
+					WebSocketHybi.unmask(ByteBuffer.wrap(data).order(order), offset, length, maskingKey);
+					Assert.assertArrayEquals(expected, data);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCompressedFrameEncodingDecoding() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			sb.append("<item jid='user-").append(i).append("@example.com' subscription='both'/>");
+		}
+		String input = sb.toString();
+		final ByteBuffer tmp = ByteBuffer.allocate(1024);
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(
+				new WebSocketProtocolIfc[]{new WebSocketHybi()}) {
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				tmp.put(data);
+			}
+
+		};
+		io.maskingKey = new byte[4];
+		io.deflate = new PerMessageDeflate(false, false, new PerMessageDeflate.Pool(Deflater.DEFAULT_COMPRESSION, 4));
+		impl.encodeFrameAndWrite(io, ByteBuffer.wrap(input.getBytes()));
+		tmp.flip();
+		Assert.assertEquals("RSV1 bit of compressed frame is not set", (byte) 0xC1, tmp.get(0));
+		Assert.assertTrue("Frame was not compressed", tmp.remaining() < input.length());
+		ByteBuffer decoded = impl.decodeFrame(io, maskFrame(tmp));
+		Assert.assertArrayEquals("Data before encoding do not match data after decoding", input.getBytes(),
+								 toArray(decoded));
+	}
+
 	@Override
 	protected void setUp() throws Exception {
 		impl = new WebSocketHybi();
@@ -219,6 +271,12 @@ public class WebSocketHybiTest
 		impl = null;
 	}
 
+	private static byte[] toArray(ByteBuffer buf) {
+		byte[] data = new byte[buf.remaining()];
+		buf.get(data);
+		return data;
+	}
+
 	private ByteBuffer maskFrame(ByteBuffer data) {
 		ByteBuffer tmp = ByteBuffer.allocate(1024);
 		byte[] header = new byte[2];
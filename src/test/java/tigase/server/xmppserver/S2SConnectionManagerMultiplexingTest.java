@@ -0,0 +1,141 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppserver;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.TestLogger;
+import tigase.component.DSLBeanConfiguratorWithBackwardCompatibility;
+import tigase.eventbus.EventBusFactory;
+import tigase.kernel.DefaultTypesConverter;
+import tigase.kernel.core.Kernel;
+import tigase.server.ConnectionManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class S2SConnectionManagerMultiplexingTest {
+
+	private static final String REMOTE = "remote.com";
+
+	private S2SConnectionManager handler;
+	private Kernel kernel;
+
+	@Before
+	public void setUp() {
+		TestLogger.configureLogger(Logger.getLogger("tigase"), Level.OFF);
+		Map<String, Object> serviceProps = new HashMap<>();
+		serviceProps.put("dialback-multiplexing", true);
+		serviceProps.put("dialback-multiplexing-backoff", 200L);
+		Map<String, Object> props = new HashMap<>();
+		props.put("name", "s2s");
+		props.put("service", serviceProps);
+
+		kernel = new Kernel();
+		kernel.setName("s2s");
+		kernel.setForceAllowNull(true);
+		kernel.registerBean(DefaultTypesConverter.class).exec();
+		kernel.registerBean(DSLBeanConfiguratorWithBackwardCompatibility.class).exportable().exec();
+		kernel.getInstance(DSLBeanConfiguratorWithBackwardCompatibility.class).setProperties(props);
+		kernel.registerBean("eventBus").asInstance(EventBusFactory.getInstance()).exportable().exec();
+		kernel.registerBean(ConnectionManager.PortsConfigBean.class).exec();
+		kernel.registerBean(CIDConnections.CIDConnectionsOpenerService.class).exportable().exec();
+		kernel.registerBean(S2SRandomSelector.class).exportable().exec();
+		kernel.registerBean("service").asClass(S2SConnectionManager.class).setActive(true).exec();
+		handler = kernel.getInstance(S2SConnectionManager.class);
+	}
+
+	@Test
+	public void testCandidateRemovedWhenOutgoingConnectionStopped() {
+		CID cid = new CID("local1.com", REMOTE);
+		TestCIDConnections cid_conns = new TestCIDConnections(cid, handler);
+		S2SConnection shared = new S2SConnection(handler, "127.0.0.1");
+
+		cid_conns.setOutgoing(1, shared);
+		handler.outgoingConnectionsChanged(cid, cid_conns);
+		assertTrue(handler.cidConnectionsByRemoteHost.get(REMOTE).contains(cid_conns));
+		assertSame(shared, handler.getMultiplexableConnection(new CID("local2.com", REMOTE)));
+
+		cid_conns.setOutgoing(0, null);
+		handler.outgoingConnectionsChanged(cid, cid_conns);
+		assertFalse(handler.cidConnectionsByRemoteHost.containsKey(REMOTE));
+		assertNull(handler.getMultiplexableConnection(new CID("local2.com", REMOTE)));
+	}
+
+	@Test
+	public void testStaleCandidateRemovedOnLookup() {
+		CID cid = new CID("local1.com", REMOTE);
+		TestCIDConnections cid_conns = new TestCIDConnections(cid, handler);
+
+		cid_conns.setOutgoing(1, null);
+		handler.outgoingConnectionsChanged(cid, cid_conns);
+		assertTrue(handler.cidConnectionsByRemoteHost.containsKey(REMOTE));
+
+		// connection was dropped without notification
+		cid_conns.setOutgoing(0, null);
+		assertNull(handler.getMultiplexableConnection(new CID("local2.com", REMOTE)));
+		assertFalse(handler.cidConnectionsByRemoteHost.containsKey(REMOTE));
+	}
+
+	@Test
+	public void testMultiplexingRetriedAfterBackoff() throws InterruptedException {
+		CID cid = new CID("local2.com", REMOTE);
+		TestCIDConnections cid_conns = new TestCIDConnections(cid, handler);
+		S2SIOService serv = new S2SIOService();
+		S2SConnection shared = new S2SConnection(handler, "127.0.0.1");
+		shared.setS2SIOService(serv);
+		serv.setS2SConnection(shared);
+
+		assertFalse(cid_conns.isMultiplexingSuspended());
+		cid_conns.multiplexingCompleted(serv, false);
+		assertTrue(cid_conns.isMultiplexingSuspended());
+
+		Thread.sleep(300);
+		assertFalse(cid_conns.isMultiplexingSuspended());
+	}
+
+	private static class TestCIDConnections
+			extends CIDConnections {
+
+		private S2SConnection multiplexable;
+		private int outgoing;
+
+		private TestCIDConnections(CID cid, S2SConnectionHandlerIfc<S2SIOService> handler) {
+			super(cid, handler, new S2SRandomSelector(), 5, 5, 5, 5000);
+		}
+
+		@Override
+		public S2SConnection getMultiplexableConnection(int maxMultiplexedCIDs) {
+			return multiplexable;
+		}
+
+		@Override
+		public int getOutgoingCount() {
+			return outgoing;
+		}
+
+		private void setOutgoing(int outgoing, S2SConnection multiplexable) {
+			this.outgoing = outgoing;
+			this.multiplexable = multiplexable;
+		}
+	}
+}
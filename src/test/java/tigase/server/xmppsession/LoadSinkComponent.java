@@ -0,0 +1,45 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import tigase.server.BasicComponent;
+import tigase.server.Packet;
+
+import java.util.Queue;
+
+/**
+ * Component registered as <code>c2s</code> by {@link SessionManagerLoadHarness} in place of a client connection
+ * manager. Packets routed to connections of synthetic sessions are reported to the harness and dropped.
+ */
+public class LoadSinkComponent
+		extends BasicComponent {
+
+	private volatile SessionManagerLoadHarness harness;
+
+	@Override
+	public void processPacket(Packet packet, Queue<Packet> results) {
+		SessionManagerLoadHarness harness = this.harness;
+		if (harness != null) {
+			harness.packetDelivered(packet);
+		}
+	}
+
+	void setHarness(SessionManagerLoadHarness harness) {
+		this.harness = harness;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import tigase.server.Packet;
+
+/**
+ * {@link SessionManager} used by {@link SessionManagerLoadHarness}, which reports to the harness when a packet is
+ * taken from the input queue and when a packet is passed out of the session manager.
+ */
+public class ProbedSessionManager
+		extends SessionManager {
+
+	private volatile SessionManagerLoadHarness harness;
+
+	@Override
+	public boolean addOutPacket(Packet packet) {
+		SessionManagerLoadHarness harness = this.harness;
+		if (harness != null) {
+			harness.packetEmitted(packet);
+		}
+		return super.addOutPacket(packet);
+	}
+
+	@Override
+	public void processPacket(Packet packet) {
+		SessionManagerLoadHarness harness = this.harness;
+		if (harness != null) {
+			harness.packetDequeued(packet);
+		}
+		super.processPacket(packet);
+	}
+
+	void setHarness(SessionManagerLoadHarness harness) {
+		this.harness = harness;
+	}
+}
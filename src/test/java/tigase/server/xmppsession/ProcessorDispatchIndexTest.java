@@ -0,0 +1,231 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.NonAuthUserRepository;
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xmpp.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ProcessorDispatchIndexTest {
+
+	private static final String[] IQ_XMLNSS = {"jabber:iq:roster", "jabber:iq:privacy", "jabber:iq:private",
+											   "jabber:iq:version", "jabber:iq:last", "jabber:iq:register",
+											   "jabber:iq:auth", "jabber:iq:search", "jabber:iq:browse",
+											   "jabber:iq:stats", "http://jabber.org/protocol/disco#info",
+											   "http://jabber.org/protocol/disco#items", "urn:xmpp:mam:2",
+											   "urn:xmpp:mam:1", "http://jabber.org/protocol/pubsub",
+											   "http://jabber.org/protocol/muc#admin", "jabber:iq:oob",
+											   "http://jabber.org/protocol/bytestreams", "urn:xmpp:jingle:1",
+											   "urn:xmpp:http:upload:0"};
+	private static final String[] IQ_ELEMENTS = {"ping", "time", "vCard", "blocklist", "block", "unblock", "enable",
+												 "disable", "bind", "session", "command", "pubsub", "push"};
+
+	private List<XMPPProcessorIfc> processors;
+	private List<Packet> packets;
+
+	@Before
+	public void setUp() throws TigaseStringprepException {
+		processors = new ArrayList<>();
+		for (String xmlns : IQ_XMLNSS) {
+			processors.add(new TestProcessor(xmlns, new String[][]{{"iq", "query"}}, new String[]{xmlns}, null));
+		}
+		for (String name : IQ_ELEMENTS) {
+			String xmlns = "urn:test:" + name;
+			processors.add(new TestProcessor(name, new String[][]{{"iq", name}}, new String[]{xmlns},
+											 EnumSet.of(StanzaType.get, StanzaType.set)));
+		}
+		processors.add(new TestProcessor("message", new String[][]{{"message"}}, new String[]{"jabber:client"}, null));
+		processors.add(new TestProcessor("message-chat", new String[][]{{"message"}}, new String[]{"jabber:client"},
+										 EnumSet.of(StanzaType.chat)));
+		processors.add(new TestProcessor("carbons", new String[][]{{"message"}, {"iq", "enable"}, {"iq", "disable"}},
+										 new String[]{"jabber:client", "urn:xmpp:carbons:2",
+													  "urn:xmpp:carbons:2"}, null));
+		processors.add(new TestProcessor("receipts", new String[][]{{"message", "request"}},
+										 new String[]{"urn:xmpp:receipts"}, null));
+		processors.add(new TestProcessor("pubsub-event", new String[][]{{"message", "event", "items"}},
+										 new String[]{"http://jabber.org/protocol/pubsub#event"}, null));
+		processors.add(new TestProcessor("presence", new String[][]{{"presence"}}, new String[]{"jabber:client"},
+										 null));
+		processors.add(new TestProcessor("presence-caps", new String[][]{{"presence", "c"}},
+										 new String[]{"http://jabber.org/protocol/caps"}, null));
+		processors.add(new TestProcessor("no-paths", null, null, null));
+		processors.add(new AllPathsProcessor());
+		processors.add(new DynamicProcessor());
+
+		packets = new ArrayList<>();
+		packets.add(packet("<message type='chat' xmlns='jabber:client' from='a@example.com/r1' to='b@example.com'>" +
+								   "<body>test</body><request xmlns='urn:xmpp:receipts'/></message>"));
+		packets.add(packet("<message type='headline' xmlns='jabber:client' from='pubsub.example.com' " +
+								   "to='b@example.com'><event xmlns='http://jabber.org/protocol/pubsub#event'>" +
+								   "<items xmlns='http://jabber.org/protocol/pubsub#event' node='test'/></event>" +
+								   "</message>"));
+		packets.add(packet("<iq type='get' id='1' xmlns='jabber:client' from='a@example.com/r1'>" +
+								   "<query xmlns='jabber:iq:roster'/></iq>"));
+		packets.add(packet("<iq type='get' id='2' xmlns='jabber:client' from='a@example.com/r1' to='example.com'>" +
+								   "<ping xmlns='urn:test:ping'/></iq>"));
+		packets.add(packet("<iq type='result' id='3' xmlns='jabber:client' from='a@example.com/r1' " +
+								   "to='b@example.com/r1'><ping xmlns='urn:test:ping'/></iq>"));
+		packets.add(packet("<iq type='set' id='4' xmlns='jabber:client' from='a@example.com/r1'>" +
+								   "<enable xmlns='urn:xmpp:carbons:2'/></iq>"));
+		packets.add(packet("<iq type='get' id='5' xmlns='jabber:client' from='a@example.com/r1' to='example.com'>" +
+								   "<query xmlns='urn:unknown'/></iq>"));
+		packets.add(packet("<presence xmlns='jabber:client' from='a@example.com/r1'>" +
+								   "<c xmlns='http://jabber.org/protocol/caps' node='test' ver='1'/></presence>"));
+		packets.add(packet("<presence type='unavailable' xmlns='jabber:client' from='a@example.com/r1'/>"));
+	}
+
+	@Test
+	public void testIndex() {
+		ProcessorDispatchIndex index = new ProcessorDispatchIndex(processors);
+		assertEquals(processors.size() - 3, index.getIndexedProcessorsCount());
+		assertEquals(2, index.getDynamicProcessors().length);
+
+		for (Packet packet : packets) {
+			assertEquals(packet.toString(), walkAll(packet), walkIndex(index, packet));
+		}
+	}
+
+	@Test
+	public void testMatches() throws TigaseStringprepException {
+		ProcessorDispatchIndex index = new ProcessorDispatchIndex(processors);
+		Set<String> ids = walkIndex(index, packets.get(0));
+		assertEquals(new HashSet<>(Arrays.asList("message", "message-chat", "carbons", "receipts", "all-paths")), ids);
+
+		ids = walkIndex(index, packets.get(1));
+		assertEquals(new HashSet<>(Arrays.asList("message", "carbons", "pubsub-event", "all-paths")), ids);
+
+		// type of stanza is not supported
+		ids = walkIndex(index, packets.get(4));
+		assertEquals(new HashSet<>(Arrays.asList("all-paths", "dynamic")), ids);
+
+		// the same processor matched by different paths is returned only once
+		List<XMPPProcessorIfc> result = index.getProcessors(
+				packet("<message xmlns='jabber:client' from='a@example.com/r1'><request xmlns='urn:xmpp:receipts'/>" +
+							   "<request xmlns='urn:xmpp:receipts'/></message>"), new ArrayList<>());
+		assertEquals(1, result.stream().filter(proc -> "receipts".equals(proc.id())).count());
+	}
+
+	private Set<String> walkAll(Packet packet) {
+		Set<String> result = new HashSet<>();
+		for (XMPPProcessorIfc processor : processors) {
+			if (processor.canHandle(packet, null) == Authorization.AUTHORIZED) {
+				result.add(processor.id());
+			}
+		}
+		return result;
+	}
+
+	private Set<String> walkIndex(ProcessorDispatchIndex index, Packet packet) {
+		Set<String> result = new HashSet<>();
+		for (XMPPProcessorIfc processor : index.getDynamicProcessors()) {
+			if (processor.canHandle(packet, null) == Authorization.AUTHORIZED) {
+				result.add(processor.id());
+			}
+		}
+		for (XMPPProcessorIfc processor : index.getProcessors(packet, new ArrayList<>())) {
+			assertTrue(result.add(processor.id()));
+		}
+		return result;
+	}
+
+	private static Packet packet(String data) throws TigaseStringprepException {
+		return Packet.packetInstance(parse(data));
+	}
+
+	private static Element parse(String data) {
+		DomBuilderHandler handler = new DomBuilderHandler();
+		new SimpleParser().parse(handler, data);
+		return handler.getParsedElements().poll();
+	}
+
+	private static class TestProcessor
+			extends XMPPProcessor
+			implements XMPPProcessorIfc {
+
+		private final String id;
+		private final String[][] paths;
+		private final Set<StanzaType> types;
+		private final String[] xmlnss;
+
+		private TestProcessor(String id, String[][] paths, String[] xmlnss, Set<StanzaType> types) {
+			this.id = id;
+			this.paths = paths;
+			this.xmlnss = xmlnss == null ? null : Arrays.stream(xmlnss).map(String::intern).toArray(String[]::new);
+			this.types = types;
+		}
+
+		@Override
+		public String id() {
+			return id;
+		}
+
+		@Override
+		public void process(Packet packet, XMPPResourceConnection session, NonAuthUserRepository repo,
+							Queue<Packet> results, Map<String, Object> settings) throws XMPPException {
+		}
+
+		@Override
+		public String[][] supElementNamePaths() {
+			return paths;
+		}
+
+		@Override
+		public String[] supNamespaces() {
+			return xmlnss;
+		}
+
+		@Override
+		public Set<StanzaType> supTypes() {
+			return types;
+		}
+
+	}
+
+	private static class AllPathsProcessor
+			extends TestProcessor {
+
+		private AllPathsProcessor() {
+			super("all-paths", ALL_PATHS, new String[]{"jabber:client"}, null);
+		}
+
+	}
+
+	private static class DynamicProcessor
+			extends TestProcessor {
+
+		private DynamicProcessor() {
+			super("dynamic", new String[][]{{"iq", "ping"}}, new String[]{"urn:test:ping"}, null);
+		}
+
+		@Override
+		public Authorization canHandle(Packet packet, XMPPResourceConnection conn) {
+			return packet.getType() == StanzaType.result ? super.canHandle(packet, conn) : null;
+		}
+
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import org.junit.Test;
+import tigase.db.NonAuthUserRepository;
+import tigase.server.Packet;
+import tigase.vhosts.VHostItemImpl;
+import tigase.xml.Element;
+import tigase.xmpp.*;
+import tigase.xmpp.impl.ProcessorTestCase;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ProcessorFeaturesCacheTest
+		extends ProcessorTestCase {
+
+	@Test
+	public void testStreamFeatures() throws Exception {
+		TestProcessor tls = new TestProcessor("tls", true, session -> session.getSessionData("starttls") == null
+																	   ? "starttls"
+																	   : null);
+		TestProcessor auth = new TestProcessor("auth", false,
+											   session -> session.isAuthorized() ? null : "mechanisms");
+		TestProcessor bind = new TestProcessor("bind", true, session -> session.isAuthorized() ? "bind" : null);
+		ProcessorFeaturesCache cache = new ProcessorFeaturesCache(Arrays.asList(tls, auth, bind), 10);
+
+		XMPPResourceConnection session1 = getSession(JID.jidInstance("c2s@example.com/1"),
+													 JID.jidInstance("user@example.com/res"), false);
+		assertEquals(Arrays.asList("starttls", "mechanisms"), names(cache.getStreamFeatures(session1)));
+		XMPPResourceConnection session2 = getSession(JID.jidInstance("c2s@example.com/2"),
+													 JID.jidInstance("user@example.com/res"), false);
+		session2.setDomain(session1.getDomain());
+		assertEquals(Arrays.asList("starttls", "mechanisms"), names(cache.getStreamFeatures(session2)));
+		assertEquals(1, tls.calls.get());
+		// features of not cacheable processor are collected for each request
+		assertEquals(2, auth.calls.get());
+		assertEquals(1, cache.getHits());
+
+		session2.putSessionData("starttls", "true");
+		assertEquals(Collections.singletonList("mechanisms"), names(cache.getStreamFeatures(session2)));
+		assertEquals(2, tls.calls.get());
+
+		session1.authorizeJID(JID.jidInstance("user@example.com").getBareJID(), false);
+		assertEquals(Arrays.asList("starttls", "bind"), names(cache.getStreamFeatures(session1)));
+
+		// replaced vhost item
+		VHostItemImpl vhost = new VHostItemImpl();
+		vhost.setVHost("example.com");
+		session1.setDomain(vhost);
+		assertEquals(Arrays.asList("starttls", "bind"), names(cache.getStreamFeatures(session1)));
+		assertEquals(4, tls.calls.get());
+		assertEquals(1, cache.getCachedDomainsCount());
+	}
+
+	@Test
+	public void testDiscoFeatures() {
+		TestProcessor tls = new TestProcessor("tls", true, session -> null);
+		TestProcessor auth = new TestProcessor("auth", false, session -> null);
+		ProcessorFeaturesCache cache = new ProcessorFeaturesCache(Arrays.asList(tls, auth), 10);
+		assertEquals(Arrays.asList("tls", "auth"), cache.getDiscoFeatures()
+				.stream()
+				.map(feature -> feature.getAttributeStaticStr("var"))
+				.collect(Collectors.toList()));
+	}
+
+	private static List<String> names(List<Element> features) {
+		return features.stream().map(Element::getName).collect(Collectors.toList());
+	}
+
+	private interface FeatureSupplier {
+
+		String get(XMPPResourceConnection session);
+
+	}
+
+	private static class TestProcessor
+			extends XMPPProcessor
+			implements XMPPProcessorIfc {
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private final boolean cacheable;
+		private final FeatureSupplier feature;
+		private final String id;
+
+		private TestProcessor(String id, boolean cacheable, FeatureSupplier feature) {
+			this.id = id;
+			this.cacheable = cacheable;
+			this.feature = feature;
+		}
+
+		@Override
+		public String id() {
+			return id;
+		}
+
+		@Override
+		public boolean isStreamFeaturesCacheable() {
+			return cacheable;
+		}
+
+		@Override
+		public void process(Packet packet, XMPPResourceConnection session, NonAuthUserRepository repo,
+							Queue<Packet> results, Map<String, Object> settings) throws XMPPException {
+		}
+
+		@Override
+		public Element[] supDiscoFeatures(XMPPResourceConnection session) {
+			return new Element[]{new Element("feature", new String[]{"var"}, new String[]{id})};
+		}
+
+		@Override
+		public Element[] supStreamFeatures(XMPPResourceConnection session) {
+			calls.incrementAndGet();
+			String name = feature.get(session);
+			return name == null ? null : new Element[]{new Element(name)};
+		}
+	}
+}
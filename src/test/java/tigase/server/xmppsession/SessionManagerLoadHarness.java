@@ -0,0 +1,464 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import tigase.conf.ConfigReader;
+import tigase.server.Bootstrap;
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+import tigase.xmpp.NoConnectionIdException;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process load generator for {@link SessionManager}. It starts the server in <code>session-manager</code> mode
+ * with in-memory repositories, opens synthetic authenticated sessions and sends a mix of messages, directed presences
+ * and pings from these sessions. Each stanza is timed when it is passed to the session manager, when the session
+ * manager takes it from the queue, when the session manager emits it to the connection of the recipient and when it
+ * is routed to that connection.
+ * <br>
+ * Instead of a client connection manager, a {@link LoadSinkComponent} is registered as <code>c2s</code>, so no
+ * sockets are opened.
+ */
+public class SessionManagerLoadHarness
+		implements AutoCloseable {
+
+	private static final String CONFIG = "'config-type' = 'session-manager'\n" +
+			"'default-virtual-host' = '%s'\n" +
+			"dataSource {\n" +
+			"    default () {\n" +
+			"        uri = 'memory://xmlRepo?autoCreateUser=true'\n" +
+			"    }\n" +
+			"}\n" +
+			"'sess-man' (class: " + ProbedSessionManager.class.getName() + ") {}\n" +
+			"c2s (class: " + LoadSinkComponent.class.getName() + ") {}\n" +
+			"monitor (active: false) {}\n";
+	private static final String RESOURCE = "load";
+
+	private final Bootstrap bootstrap;
+	private final String domain;
+	private final Queue<Trace> finished = new ConcurrentLinkedQueue<>();
+	private final Map<String, Trace> inFlight = new ConcurrentHashMap<>();
+	private final List<XMPPResourceConnection> sessions = new ArrayList<>();
+	private final ProbedSessionManager sessionManager;
+	private final LoadSinkComponent sink;
+	private volatile CountDownLatch pending;
+
+	/**
+	 * Parses mix of stanzas in form of <code>kind:weight</code> pairs separated by commas, ie.
+	 * <code>message:70,presence:10,iq:20</code>.
+	 */
+	public static Map<Kind, Integer> parseMix(String mix) {
+		Map<Kind, Integer> result = new EnumMap<>(Kind.class);
+		for (String part : mix.split(",")) {
+			String[] pair = part.trim().split(":");
+			if (pair.length != 2) {
+				throw new IllegalArgumentException("Invalid stanza mix entry: " + part);
+			}
+			int weight = Integer.parseInt(pair[1].trim());
+			if (weight < 0) {
+				throw new IllegalArgumentException("Negative weight of stanza mix entry: " + part);
+			}
+			result.put(Kind.valueOf(pair[0].trim()), weight);
+		}
+		return result;
+	}
+
+	public SessionManagerLoadHarness(String domain) throws IOException, ConfigReader.ConfigException {
+		this.domain = domain;
+		Map<String, Object> props = new ConfigReader().read(new StringReader(String.format(CONFIG, domain)));
+		bootstrap = new Bootstrap();
+		bootstrap.setProperties(props);
+		bootstrap.start();
+		sessionManager = bootstrap.getInstance("sess-man");
+		sink = bootstrap.getInstance("c2s");
+		sessionManager.setHarness(this);
+		sink.setHarness(this);
+	}
+
+	@Override
+	public void close() {
+		sessionManager.setHarness(null);
+		sink.setHarness(null);
+		bootstrap.stop();
+	}
+
+	/**
+	 * Opens authenticated sessions with bound resource for users <code>load-0</code> to <code>load-(users-1)</code>
+	 * and sends initial presence from each of them.
+	 */
+	public void openSessions(int users, long timeoutMillis) throws Exception {
+		if (users < 2) {
+			throw new IllegalArgumentException("At least 2 users are required");
+		}
+		List<Packet> presences = new ArrayList<>();
+		for (int i = sessions.size(); i < users; i++) {
+			BareJID user = BareJID.bareJIDInstance("load-" + i + "@" + domain);
+			JID connectionId = sink.getComponentId().copyWithResource("load-" + i);
+			XMPPResourceConnection session = sessionManager.loginUserSession(connectionId, domain, user, RESOURCE,
+																			  "load-session-" + i, false);
+			if (session == null) {
+				throw new IllegalStateException("Could not open session for " + user);
+			}
+			sessions.add(session);
+			presences.add(clientPacket(new Element("presence", new String[]{"id"}, new String[]{"init-" + i}),
+									   session));
+		}
+		for (Packet presence : presences) {
+			sessionManager.addPacket(presence);
+		}
+		// there is no response to the initial presence, so a round of pings is used to wait until the session
+		// manager processes them
+		Map<Kind, Integer> mix = new EnumMap<>(Kind.class);
+		mix.put(Kind.iq, 1);
+		Result result = run(presences.size(), mix, 0, timeoutMillis, 0);
+		if (result.getLost() > 0) {
+			throw new IllegalStateException("Sessions are not ready: " + result);
+		}
+	}
+
+	/**
+	 * Sends stanzas of kinds picked randomly with probability proportional to their weight in the mix and waits until
+	 * all of them are delivered or timeout passes.
+	 *
+	 * @param stanzas number of stanzas to send
+	 * @param mix weights of kinds of stanzas
+	 * @param rate number of stanzas sent per second or <code>0</code> to send them as fast as the session manager
+	 * accepts them
+	 * @param timeoutMillis time to wait for delivery of stanzas after all of them were sent
+	 * @param seed seed of the random generator, so runs may be repeated
+	 */
+	public Result run(int stanzas, Map<Kind, Integer> mix, int rate, long timeoutMillis, long seed)
+			throws TigaseStringprepException, NoConnectionIdException, InterruptedException {
+		int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+		if (totalWeight <= 0) {
+			throw new IllegalArgumentException("Stanza mix is empty");
+		}
+		if (sessions.size() < 2) {
+			throw new IllegalStateException("Sessions are not opened");
+		}
+
+		Random random = new Random(seed);
+		List<Packet> packets = new ArrayList<>(stanzas);
+		Kind[] kinds = new Kind[stanzas];
+		String prefix = "load-" + System.nanoTime() + "-";
+		for (int i = 0; i < stanzas; i++) {
+			kinds[i] = pickKind(mix, totalWeight, random);
+			int from = random.nextInt(sessions.size());
+			int to = (from + 1 + random.nextInt(sessions.size() - 1)) % sessions.size();
+			packets.add(createPacket(kinds[i], prefix + i, sessions.get(from), sessions.get(to)));
+		}
+
+		finished.clear();
+		inFlight.clear();
+		CountDownLatch pending = new CountDownLatch(stanzas);
+		this.pending = pending;
+
+		long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < stanzas; i++) {
+			if (interval > 0) {
+				long wait;
+				while ((wait = start + i * interval - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			Packet packet = packets.get(i);
+			inFlight.put(packet.getStanzaId(), new Trace(kinds[i], System.nanoTime()));
+			sessionManager.addPacket(packet);
+		}
+		long sent = System.nanoTime();
+		pending.await(timeoutMillis, TimeUnit.MILLISECONDS);
+		this.pending = null;
+
+		long end = sent;
+		for (Trace trace : finished) {
+			end = Math.max(end, trace.delivered);
+		}
+		Result result = new Result(stanzas, new ArrayList<>(finished), inFlight.size(), end - start);
+		inFlight.clear();
+		return result;
+	}
+
+	void packetDelivered(Packet packet) {
+		String id = packet.getStanzaId();
+		Trace trace = id == null ? null : inFlight.remove(id);
+		if (trace == null) {
+			return;
+		}
+		trace.delivered = System.nanoTime();
+		trace.error = packet.getType() == StanzaType.error;
+		finished.offer(trace);
+		CountDownLatch pending = this.pending;
+		if (pending != null) {
+			pending.countDown();
+		}
+	}
+
+	void packetDequeued(Packet packet) {
+		String id = packet.getStanzaId();
+		Trace trace = id == null ? null : inFlight.get(id);
+		// stanzas exchanged between local users are processed by the session manager twice, first on behalf of
+		// the sender and then on behalf of the recipient
+		if (trace != null && trace.dequeued == 0) {
+			trace.dequeued = System.nanoTime();
+		}
+	}
+
+	void packetEmitted(Packet packet) {
+		JID to = packet.getPacketTo();
+		if (to == null || !sink.getComponentId().getBareJID().equals(to.getBareJID())) {
+			return;
+		}
+		String id = packet.getStanzaId();
+		Trace trace = id == null ? null : inFlight.get(id);
+		if (trace != null) {
+			trace.emitted = System.nanoTime();
+		}
+	}
+
+	private Packet clientPacket(Element element, XMPPResourceConnection session)
+			throws TigaseStringprepException, NoConnectionIdException {
+		element.setAttribute("from", session.getjid().toString());
+		Packet packet = Packet.packetInstance(element);
+		packet.setPacketFrom(session.getConnectionId());
+		packet.setPacketTo(sessionManager.getComponentId());
+		return packet;
+	}
+
+	private Packet createPacket(Kind kind, String id, XMPPResourceConnection from, XMPPResourceConnection to)
+			throws TigaseStringprepException, NoConnectionIdException {
+		Element element;
+		switch (kind) {
+			case message:
+				element = new Element("message", new String[]{"id", "type", "to"},
+									  new String[]{id, "chat", to.getjid().toString()});
+				element.addChild(new Element("body", "Load test message " + id));
+				break;
+			case presence:
+				element = new Element("presence", new String[]{"id", "to"}, new String[]{id, to.getjid().toString()});
+				element.addChild(new Element("status", "Load test presence " + id));
+				break;
+			case iq:
+				element = new Element("iq", new String[]{"id", "type", "to"}, new String[]{id, "get", domain});
+				element.addChild(new Element("ping", new String[]{"xmlns"}, new String[]{"urn:xmpp:ping"}));
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported kind of stanza: " + kind);
+		}
+		return clientPacket(element, from);
+	}
+
+	private Kind pickKind(Map<Kind, Integer> mix, int totalWeight, Random random) {
+		int value = random.nextInt(totalWeight);
+		for (Map.Entry<Kind, Integer> e : mix.entrySet()) {
+			value -= e.getValue();
+			if (value < 0) {
+				return e.getKey();
+			}
+		}
+		throw new IllegalStateException("Invalid stanza mix: " + mix);
+	}
+
+	public enum Kind {
+		/** chat message to full JID of other user */
+		message,
+		/** directed presence to full JID of other user */
+		presence,
+		/** ping sent to the local domain */
+		iq
+	}
+
+	public enum Stage {
+		/** from passing a stanza to the session manager until it was taken from its queue */
+		queue,
+		/** from taking a stanza from the queue until it was emitted to the connection of recipient */
+		processing,
+		/** from emitting a stanza by the session manager until it was routed to the connection of recipient */
+		routing,
+		/** from passing a stanza to the session manager until it was routed to the connection of recipient */
+		total
+	}
+
+	public static class Result {
+
+		private final long durationNanos;
+		private final int errors;
+		private final Map<Kind, Integer> completed = new EnumMap<>(Kind.class);
+		private final Map<Kind, Map<Stage, long[]>> latencies = new EnumMap<>(Kind.class);
+		private final int lost;
+		private final int sent;
+
+		private static long[] sorted(List<Trace> traces, Stage stage) {
+			long[] values = new long[traces.size()];
+			int count = 0;
+			for (Trace trace : traces) {
+				long value = trace.get(stage);
+				if (value >= 0) {
+					values[count++] = value;
+				}
+			}
+			values = Arrays.copyOf(values, count);
+			Arrays.sort(values);
+			return values;
+		}
+
+		private Result(int sent, List<Trace> traces, int lost, long durationNanos) {
+			this.sent = sent;
+			this.lost = lost;
+			this.durationNanos = durationNanos;
+			int errors = 0;
+			for (Trace trace : traces) {
+				if (trace.error) {
+					errors++;
+				}
+			}
+			this.errors = errors;
+			for (Kind kind : Kind.values()) {
+				List<Trace> ofKind = new ArrayList<>();
+				for (Trace trace : traces) {
+					if (trace.kind == kind) {
+						ofKind.add(trace);
+					}
+				}
+				completed.put(kind, ofKind.size());
+				Map<Stage, long[]> stages = new EnumMap<>(Stage.class);
+				for (Stage stage : Stage.values()) {
+					stages.put(stage, sorted(ofKind, stage));
+				}
+				latencies.put(kind, stages);
+			}
+		}
+
+		public int getCompleted() {
+			return completed.values().stream().mapToInt(Integer::intValue).sum();
+		}
+
+		public int getCompleted(Kind kind) {
+			return completed.get(kind);
+		}
+
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+
+		public int getErrors() {
+			return errors;
+		}
+
+		public int getLost() {
+			return lost;
+		}
+
+		public int getSent() {
+			return sent;
+		}
+
+		/**
+		 * Returns percentile of latency of the stage in microseconds or <code>-1</code> if no stanza of that kind was
+		 * delivered.
+		 *
+		 * @param percentile value between <code>0</code> (exclusive) and <code>100</code> (inclusive)
+		 */
+		public long getLatencyMicros(Kind kind, Stage stage, double percentile) {
+			long[] values = latencies.get(kind).get(stage);
+			if (values.length == 0) {
+				return -1;
+			}
+			int idx = (int) Math.ceil(percentile / 100 * values.length) - 1;
+			return TimeUnit.NANOSECONDS.toMicros(values[Math.max(0, Math.min(values.length - 1, idx))]);
+		}
+
+		/**
+		 * Returns number of stanzas delivered per second.
+		 */
+		public double getThroughput() {
+			return durationNanos <= 0 ? 0 : getCompleted() * (double) TimeUnit.SECONDS.toNanos(1) / durationNanos;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("sent: %d, delivered: %d, errors: %d, lost: %d, time: %dms, throughput: %.1f/s%n",
+									sent, getCompleted(), errors, lost, TimeUnit.NANOSECONDS.toMillis(durationNanos),
+									getThroughput()));
+			sb.append(String.format("%-9s %-11s %9s %9s %9s %9s %9s%n", "kind", "stage", "count", "p50[us]",
+									"p90[us]", "p99[us]", "max[us]"));
+			for (Kind kind : Kind.values()) {
+				if (completed.get(kind) == 0) {
+					continue;
+				}
+				for (Stage stage : Stage.values()) {
+					sb.append(String.format("%-9s %-11s %9d %9d %9d %9d %9d%n", kind, stage,
+											latencies.get(kind).get(stage).length, getLatencyMicros(kind, stage, 50),
+											getLatencyMicros(kind, stage, 90), getLatencyMicros(kind, stage, 99),
+											getLatencyMicros(kind, stage, 100)));
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	private static final class Trace {
+
+		private final long injected;
+		private final Kind kind;
+		private volatile long delivered;
+		private volatile long dequeued;
+		private volatile long emitted;
+		private volatile boolean error;
+
+		private Trace(Kind kind, long injected) {
+			this.kind = kind;
+			this.injected = injected;
+		}
+
+		private long get(Stage stage) {
+			switch (stage) {
+				case queue:
+					return dequeued == 0 ? -1 : dequeued - injected;
+				case processing:
+					return dequeued == 0 || emitted == 0 ? -1 : emitted - dequeued;
+				case routing:
+					return emitted == 0 ? -1 : delivered - emitted;
+				case total:
+					return delivered - injected;
+				default:
+					return -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class SessionManagerLoadHarnessTest {
+
+	@Test
+	public void testParseMix() {
+		Map<SessionManagerLoadHarness.Kind, Integer> mix = SessionManagerLoadHarness.parseMix("message:3, iq:1");
+		Assert.assertEquals(2, mix.size());
+		Assert.assertEquals(3, (int) mix.get(SessionManagerLoadHarness.Kind.message));
+		Assert.assertEquals(1, (int) mix.get(SessionManagerLoadHarness.Kind.iq));
+	}
+}
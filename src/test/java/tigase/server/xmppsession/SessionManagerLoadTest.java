@@ -0,0 +1,84 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+
+import java.util.Map;
+
+/**
+ * Runs {@link SessionManagerLoadHarness} with parameters passed as system properties:
+ * <ul>
+ * <li><code>sm-load-users</code> - number of sessions (default: 100)</li>
+ * <li><code>sm-load-stanzas</code> - number of stanzas sent in measured run (default: 20000)</li>
+ * <li><code>sm-load-mix</code> - weights of kinds of stanzas (default: <code>message:70,presence:10,iq:20</code>)</li>
+ * <li><code>sm-load-rate</code> - stanzas sent per second, <code>0</code> for no limit (default: 0)</li>
+ * <li><code>sm-load-timeout</code> - time to wait for delivery of stanzas in ms (default: 60000)</li>
+ * <li><code>sm-load-max-p99</code> - if set, the test fails when 99th percentile of total latency of any kind of
+ * stanzas exceeds the value in ms</li>
+ * </ul>
+ */
+@Category(SlowTest.class)
+public class SessionManagerLoadTest {
+
+	private static SessionManagerLoadHarness harness;
+
+	@BeforeClass
+	public static void startServer() throws Exception {
+		harness = new SessionManagerLoadHarness("load.test");
+		harness.openSessions(Integer.getInteger("sm-load-users", 100), Long.getLong("sm-load-timeout", 60000));
+	}
+
+	@AfterClass
+	public static void stopServer() {
+		if (harness != null) {
+			harness.close();
+			harness = null;
+		}
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		Map<SessionManagerLoadHarness.Kind, Integer> mix = SessionManagerLoadHarness.parseMix(
+				System.getProperty("sm-load-mix", "message:70,presence:10,iq:20"));
+		long timeout = Long.getLong("sm-load-timeout", 60000);
+
+		// warm up, so JIT compilation does not affect measured run
+		harness.run(Integer.getInteger("sm-load-stanzas", 20000) / 10, mix, 0, timeout, 1);
+		SessionManagerLoadHarness.Result result = harness.run(Integer.getInteger("sm-load-stanzas", 20000), mix,
+																	Integer.getInteger("sm-load-rate", 0), timeout,
+																	Long.getLong("sm-load-seed", 0));
+		System.out.println("SessionManager load test results:\n" + result);
+
+		Assert.assertEquals(0, result.getLost());
+		Assert.assertEquals(0, result.getErrors());
+		Long maxP99 = Long.getLong("sm-load-max-p99");
+		if (maxP99 != null) {
+			for (SessionManagerLoadHarness.Kind kind : mix.keySet()) {
+				long p99 = result.getLatencyMicros(kind, SessionManagerLoadHarness.Stage.total, 99);
+				Assert.assertTrue("99th percentile of latency of " + kind + " is " + p99 + "us",
+								  p99 <= maxP99 * 1000);
+			}
+		}
+	}
+}
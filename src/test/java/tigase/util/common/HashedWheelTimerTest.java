@@ -0,0 +1,154 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HashedWheelTimerTest {
+
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setUp() {
+		timer = new HashedWheelTimer("test-wheel", 10, 8, 4, null);
+		timer.start();
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void testExpiration() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			// delays longer than a single wheel rotation (8 * 10ms) are checked as well
+			timer.schedule(new CountingTask(latch, null), 20 + i * 15);
+		}
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertEquals(10, timer.getExpiredCount());
+		assertEquals(0, timer.getPendingTimeouts());
+		assertTrue(timer.getExpiredBatchesCount() > 0);
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		AtomicInteger executed = new AtomicInteger();
+		CountingTask cancelled = new CountingTask(null, executed);
+		timer.schedule(cancelled, 30);
+		CountDownLatch latch = new CountDownLatch(1);
+		timer.schedule(new CountingTask(latch, null), 60);
+		assertEquals(2, timer.getPendingTimeouts());
+
+		cancelled.cancel();
+		assertEquals(1, timer.getPendingTimeouts());
+		assertEquals(1, timer.getCancelledCount());
+
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertEquals(0, executed.get());
+		assertEquals(1, timer.getExpiredCount());
+	}
+
+	@Test
+	public void testStopReturnsPending() {
+		CountingTask task = new CountingTask(null, null);
+		timer.schedule(task, TimeUnit.MINUTES.toMillis(1));
+		assertTrue(task.isScheduled());
+		List<TimerTask> unprocessed = timer.stop();
+		assertEquals(1, unprocessed.size());
+		assertSame(task, unprocessed.get(0));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		HashedWheelTimer.Timeout timeout = timer.schedule(new CountingTask(null, null), 20);
+		assertNull(timeout.get(2, TimeUnit.SECONDS));
+		assertTrue(timeout.isDone());
+		assertFalse(timeout.isCancelled());
+
+		HashedWheelTimer.Timeout failing = timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("test");
+			}
+		}, 20);
+		try {
+			failing.get(2, TimeUnit.SECONDS);
+			fail("Failure of the task should be reported");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testGetCancelledAndTimeout() throws Exception {
+		HashedWheelTimer.Timeout timeout = timer.schedule(new CountingTask(null, null),
+														  TimeUnit.MINUTES.toMillis(1));
+		try {
+			timeout.get(50, TimeUnit.MILLISECONDS);
+			fail("Task should not be executed yet");
+		} catch (TimeoutException ex) {
+			// expected
+		}
+		assertFalse(timeout.isDone());
+
+		timeout.getTask().cancel();
+		assertTrue(timeout.isDone());
+		try {
+			timeout.get();
+			fail("Cancelled task should not return result");
+		} catch (CancellationException ex) {
+			// expected
+		}
+	}
+
+	private static class CountingTask
+			extends TimerTask {
+
+		private final AtomicInteger counter;
+		private final CountDownLatch latch;
+
+		private CountingTask(CountDownLatch latch, AtomicInteger counter) {
+			this.latch = latch;
+			this.counter = counter;
+		}
+
+		@Override
+		public void run() {
+			if (counter != null) {
+				counter.incrementAndGet();
+			}
+			if (latch != null) {
+				latch.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.reflection;
+
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BeanIndexProcessorTest {
+
+	private static final String SOURCE = "package test;\n" +
+			"@tigase.kernel.beans.Bean(name = \"annotated\", active = true)\n" +
+			"public class Annotated {\n" +
+			"	public static class Inherited extends Annotated {}\n" +
+			"	public static class Plain {}\n" +
+			"	public static class Configurable {\n" +
+			"		@tigase.kernel.beans.config.ConfigField(desc = \"Field\")\n" +
+			"		private int field;\n" +
+			"	}\n" +
+			"	public static abstract class Repo implements tigase.db.Repository {}\n" +
+			"	public interface Ifc {}\n" +
+			"}\n";
+
+	@Test
+	public void testIndex() throws Exception {
+		File dir = Files.createTempDirectory("beans-index").toFile();
+		try {
+			JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+			StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+			String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+			List<String> options = Arrays.asList("-d", dir.getAbsolutePath(), "-classpath", classpath, "-proc:only");
+			JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///test/Annotated.java"),
+															 JavaFileObject.Kind.SOURCE) {
+				@Override
+				public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+					return SOURCE;
+				}
+			};
+			JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null,
+																 Arrays.asList(source));
+			task.setProcessors(Arrays.asList(new BeanIndexProcessor()));
+			assertTrue(task.call());
+
+			File index = new File(dir, BeanIndexProcessor.INDEX_FILE);
+			assertTrue(index.exists());
+			File jarFile = new File(dir, "test.jar");
+			try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile))) {
+				jar.putNextEntry(new JarEntry(BeanIndexProcessor.INDEX_FILE));
+				jar.write(Files.readAllBytes(index.toPath()));
+				jar.closeEntry();
+			}
+
+			Set<String> expected = new HashSet<>(
+					Arrays.asList("test.Annotated", "test.Annotated$Inherited", "test.Annotated$Configurable",
+								  "test.Annotated$Repo"));
+			assertEquals(expected, ClassUtilBean.readIndex(jarFile));
+
+			File emptyJar = new File(dir, "empty.jar");
+			try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(emptyJar))) {
+				jar.putNextEntry(new JarEntry("test/"));
+				jar.closeEntry();
+			}
+			assertNull(ClassUtilBean.readIndex(emptyJar));
+		} finally {
+			Files.walk(dir.toPath())
+					.sorted((p1, p2) -> p2.compareTo(p1))
+					.forEach(path -> path.toFile().delete());
+		}
+	}
+}
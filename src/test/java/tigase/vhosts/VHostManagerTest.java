@@ -0,0 +1,159 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.conf.ConfigurationException;
+import tigase.db.comp.ConfigRepository;
+import tigase.server.BasicComponent;
+import tigase.server.ServerComponent;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xmpp.jid.JID;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class VHostManagerTest {
+
+	private TestComponent c2s;
+	private VHostManager manager;
+	private TestComponent muc;
+	private TestRepository repository;
+	private TestComponent s2s;
+	private TestComponent sm;
+
+	@Before
+	public void setUp() throws ConfigurationException, TigaseStringprepException {
+		repository = new TestRepository();
+		repository.addItem(new VHostItemImpl("example.com"));
+		repository.addItem(new VHostItemImpl("example.net"));
+
+		manager = new VHostManager();
+		manager.setName("vhost-man");
+		manager.repo = repository;
+
+		sm = new TestComponent("sess-man", true, false, false);
+		c2s = new TestComponent("c2s", true, false, false);
+		s2s = new TestComponent("s2s", false, true, false);
+		muc = new TestComponent("muc", false, false, true);
+		for (TestComponent component : Arrays.asList(sm, c2s, s2s, muc)) {
+			manager.addComponent(component);
+		}
+	}
+
+	@Test
+	public void testComponentsForLocalDomain() throws TigaseStringprepException {
+		ServerComponent[] comps = manager.getComponentsForLocalDomain("example.com");
+		assertArrayEquals(new ServerComponent[]{sm, c2s}, comps);
+		// route is reused as long as nothing changes
+		assertSame(comps, manager.getComponentsForLocalDomain("example.com"));
+		assertArrayEquals(new ServerComponent[]{muc}, manager.getComponentsForLocalDomain("muc.example.com"));
+		assertNull(manager.getComponentsForLocalDomain("muc.example.org"));
+		assertNull(manager.getComponentsForLocalDomain("example.org"));
+		assertArrayEquals(new ServerComponent[]{s2s}, manager.getComponentsForNonLocalDomain("example.org"));
+
+		// change of vhost item
+		VHostItemImpl item = new VHostItemImpl("example.com");
+		item.setComps(new String[]{"sess-man"});
+		repository.addItem(item);
+		assertArrayEquals(new ServerComponent[]{sm}, manager.getComponentsForLocalDomain("example.com"));
+
+		// change of registered components
+		TestComponent other = new TestComponent("other", true, false, false);
+		manager.addComponent(other);
+		assertArrayEquals(new ServerComponent[]{sm, c2s, other}, manager.getComponentsForLocalDomain("example.net"));
+		manager.deleteComponent(other);
+		assertArrayEquals(new ServerComponent[]{sm, c2s}, manager.getComponentsForLocalDomain("example.net"));
+
+		// removed vhost and 'name' subdomain added as local domain
+		repository.removeItem("example.net");
+		assertNull(manager.getComponentsForLocalDomain("example.net"));
+		repository.addItem(new VHostItemImpl("muc.example.com"));
+		assertArrayEquals(new ServerComponent[]{sm, c2s}, manager.getComponentsForLocalDomain("muc.example.com"));
+	}
+
+	@Test
+	public void testAllVHosts() throws TigaseStringprepException {
+		assertEquals(Arrays.asList(JID.jidInstance("example.com"), JID.jidInstance("example.net")),
+					 manager.getAllVHosts());
+		assertSame(manager.getAllVHosts(), manager.getAllVHosts());
+
+		repository.addItem(new VHostItemImpl("example.org"));
+		assertEquals(3, manager.getAllVHosts().size());
+		repository.removeItem("example.com");
+		assertEquals(Arrays.asList(JID.jidInstance("example.net"), JID.jidInstance("example.org")),
+					 manager.getAllVHosts());
+	}
+
+	private static class TestComponent
+			extends BasicComponent {
+
+		private final boolean localDomains;
+		private final boolean nameSubdomains;
+		private final boolean nonLocalDomains;
+
+		private TestComponent(String name, boolean localDomains, boolean nonLocalDomains, boolean nameSubdomains) {
+			this.localDomains = localDomains;
+			this.nonLocalDomains = nonLocalDomains;
+			this.nameSubdomains = nameSubdomains;
+			setName(name);
+		}
+
+		@Override
+		public boolean handlesLocalDomains() {
+			return localDomains;
+		}
+
+		@Override
+		public boolean handlesNameSubdomains() {
+			return nameSubdomains;
+		}
+
+		@Override
+		public boolean handlesNonLocalDomains() {
+			return nonLocalDomains;
+		}
+	}
+
+	private static class TestRepository
+			extends ConfigRepository<VHostItem>
+			implements VHostComponentRepository {
+
+		@Override
+		public String getConfigKey() {
+			return "test-vhosts";
+		}
+
+		@Override
+		public VHostItem getDefaultVHostItem() {
+			return items.values().iterator().next();
+		}
+
+		@Override
+		public VHostItem getItemInstance() {
+			return new VHostItemImpl();
+		}
+
+		@Override
+		public String getPropertyKey() {
+			return null;
+		}
+	}
+}
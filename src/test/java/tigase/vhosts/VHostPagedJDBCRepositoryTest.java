@@ -0,0 +1,123 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.component.DSLBeanConfiguratorWithBackwardCompatibility;
+import tigase.db.xml.XMLRepository;
+import tigase.kernel.DefaultTypesConverter;
+import tigase.kernel.core.Kernel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class VHostPagedJDBCRepositoryTest {
+
+	private Kernel kernel;
+	private VHostPagedJDBCRepository node1;
+	private VHostPagedJDBCRepository node2;
+
+	@Before
+	public void setup() throws Exception {
+		Map<String, Object> props = new HashMap<>();
+		props.put("default-virtual-host", "domain.com");
+
+		kernel = new Kernel();
+		kernel.setName("VHost");
+		kernel.setForceAllowNull(true);
+		kernel.registerBean(DefaultTypesConverter.class).exec();
+		kernel.registerBean(DSLBeanConfiguratorWithBackwardCompatibility.class).exportable().exec();
+		kernel.getInstance(DSLBeanConfiguratorWithBackwardCompatibility.class).setProperties(props);
+		kernel.registerBean(VHostItemExtensionManager.class).exportable().setActive(true).exec();
+		kernel.registerBean(VHostItemDefaults.class).exportable().setActive(true).exec();
+		kernel.registerBean("repo").asClass(XMLRepository.class).exportable().setActive(true).exec();
+		kernel.getInstance(XMLRepository.class).initRepository("memory://", new ConcurrentHashMap<>());
+
+		node1 = createRepository("vhosts-1");
+		node2 = createRepository("vhosts-2");
+	}
+
+	@Test
+	public void testIncrementalReload() {
+		String domain = UUID.randomUUID().toString();
+		VHostItem item = node1.getItemInstance();
+		item.setKey(domain);
+		node1.addItem(item);
+		assertTrue(node1.contains(domain));
+		assertFalse(node2.contains(domain));
+
+		node2.reload();
+		assertTrue(node2.contains(domain));
+		assertTrue(node2.getVHostNames().contains(domain));
+		assertEquals(domain, node2.getItem(domain.toUpperCase()).getKey());
+
+		node1.removeItem(domain);
+		assertFalse(node1.contains(domain));
+		node2.reload();
+		assertFalse(node2.contains(domain));
+		assertNull(node2.getItem(domain));
+	}
+
+	@Test
+	public void testReloadReadsChangesLog() throws Exception {
+		String domain1 = UUID.randomUUID().toString();
+		String domain2 = UUID.randomUUID().toString();
+		addItem(node1, domain1);
+		node2.reload();
+		assertTrue(node2.contains(domain1));
+
+		// modification entry removed without a change in the log is not noticed by incremental reload
+		kernel.getInstance(XMLRepository.class).removeData(node1.getRepoUser(), "vhosts-modified", domain1);
+		addItem(node1, domain2);
+		node2.reload();
+		assertTrue(node2.contains(domain2));
+		assertTrue(node2.contains(domain1));
+	}
+
+	@Test
+	public void testLazyLoading() throws Exception {
+		String domain = UUID.randomUUID().toString();
+		VHostItem item = node1.getItemInstance();
+		item.setKey(domain);
+		node1.addItem(item);
+
+		VHostPagedJDBCRepository node3 = createRepository("vhosts-3");
+		assertTrue(node3.contains(domain));
+		assertEquals(node1.size(), node3.size());
+		int cached = node3.getCachedItemsCount();
+		assertNotNull(node3.getItem(domain));
+		assertEquals(cached + 1, node3.getCachedItemsCount());
+		assertSame(node3.getItem(domain), node3.getItem(domain));
+	}
+
+	private static void addItem(VHostPagedJDBCRepository repository, String domain) {
+		VHostItem item = repository.getItemInstance();
+		item.setKey(domain);
+		repository.addItem(item);
+	}
+
+	private VHostPagedJDBCRepository createRepository(String name) {
+		kernel.registerBean(name).asClass(VHostPagedJDBCRepository.class).setActive(true).exec();
+		return kernel.getInstance(name);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class SessionAttributesTest {
+
+	private static final SessionAttribute<String> NAME = SessionAttribute.register("test-name", String.class);
+	private static final SessionAttribute<Long> COUNTER = SessionAttribute.register("test-counter", Long.class);
+	private static final SessionAttribute<Boolean> FLAG_1 = SessionAttribute.register("test-flag-1", Boolean.class);
+	private static final SessionAttribute<Boolean> FLAG_2 = SessionAttribute.register("test-flag-2", Boolean.class);
+	private static final SessionAttribute<Map<String, String>> MAP = SessionAttribute.register("test-map", Map.class);
+
+	@Test
+	public void testRegister() {
+		assertSame(NAME, SessionAttribute.register("test-name", String.class));
+		assertSame(NAME, SessionAttribute.forName("test-name"));
+		assertNull(SessionAttribute.forName("test-unknown"));
+		assertNotEquals(NAME.getIndex(), COUNTER.getIndex());
+		try {
+			SessionAttribute.register("test-name", Long.class);
+			fail("Registration of the same name with a different type should fail");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTypedAndStringKeys() {
+		SessionAttributes attributes = new SessionAttributes();
+		assertNull(attributes.get(NAME));
+		assertNull(attributes.put(NAME, "value"));
+		assertEquals("value", attributes.get("test-name"));
+		assertEquals("value", attributes.put("test-name", "other"));
+		assertEquals("other", attributes.get(NAME));
+
+		assertEquals("other", attributes.putIfAbsent(NAME, "ignored"));
+		assertNull(attributes.putIfAbsent(COUNTER, 1L));
+		assertEquals(Long.valueOf(1), attributes.get(COUNTER));
+
+		assertEquals("other", attributes.remove(NAME));
+		assertNull(attributes.get("test-name"));
+
+		assertNull(attributes.put("test-unregistered", 1));
+		assertEquals(1, attributes.get("test-unregistered"));
+		assertEquals(1, attributes.remove("test-unregistered"));
+		assertNull(attributes.get("test-unregistered"));
+
+		// value of a different type is stored, but it is not returned for the registered key
+		assertEquals(Long.valueOf(1), attributes.put("test-counter", "not a number"));
+		assertEquals("not a number", attributes.get("test-counter"));
+		assertNull(attributes.get(COUNTER));
+		assertEquals("not a number", attributes.putIfAbsent("test-counter", "ignored"));
+		assertNull(attributes.putIfAbsent(COUNTER, 2L));
+		assertEquals(Long.valueOf(2), attributes.get(COUNTER));
+		assertEquals(Long.valueOf(2), attributes.get("test-counter"));
+		assertEquals(Long.valueOf(2), attributes.remove(COUNTER));
+		assertNull(attributes.get("test-counter"));
+	}
+
+	@Test
+	public void testComputeIfAbsent() {
+		SessionAttributes attributes = new SessionAttributes();
+		Map<String, String> map = attributes.computeIfAbsent(MAP, ConcurrentHashMap::new);
+		assertSame(map, attributes.computeIfAbsent(MAP, ConcurrentHashMap::new));
+		assertSame(map, attributes.computeIfAbsent("test-map", key -> new ConcurrentHashMap<>()));
+		assertNull(attributes.computeIfAbsent(FLAG_1, () -> null));
+		assertNull(attributes.get(FLAG_1));
+	}
+
+	@Test
+	public void testRegisteredAfterStore() {
+		SessionAttributes attributes = new SessionAttributes();
+		attributes.put(NAME, "value");
+		attributes.put("test-late", "late");
+
+		SessionAttribute<String> late = SessionAttribute.register("test-late", String.class);
+		assertEquals("late", attributes.get(late));
+		assertEquals("late", attributes.get("test-late"));
+		assertEquals("late", attributes.put(late, "updated"));
+		assertEquals("updated", attributes.get("test-late"));
+		assertEquals("updated", attributes.remove(late));
+		assertNull(attributes.get("test-late"));
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.io.IOInterface;
+import tigase.io.TLSIO;
+import tigase.net.IOService;
+import tigase.server.Packet;
+import tigase.stats.StatisticsList;
+import tigase.xml.Element;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class XMPPIOServiceWriteCoalescingTest {
+
+	private String expected;
+	private XMPPIOService<Object> service;
+	private List<byte[]> writes;
+
+	@Before
+	public void setUp() throws Exception {
+		service = new XMPPIOService<>();
+		writes = new ArrayList<>();
+		Field f = IOService.class.getDeclaredField("socketIO");
+		f.setAccessible(true);
+		f.set(service, new RecordingIO(writes));
+	}
+
+	@Test
+	public void testWithoutCoalescing() throws Exception {
+		addPackets(5);
+		service.processWaitingPackets();
+
+		assertEquals(5, writes.size());
+		assertEquals(expected, written());
+		assertTrue(service.getWaitingPackets().isEmpty());
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		XMPPIOService.WriteCoalescingStatistics statistics = new XMPPIOService.WriteCoalescingStatistics();
+		service.setWriteCoalescing(XMPPIOService.TLS_MAX_RECORD_SIZE, statistics);
+		addPackets(5);
+		service.processWaitingPackets();
+
+		assertEquals(1, writes.size());
+		assertEquals(expected, written());
+		assertTrue(service.getWaitingPackets().isEmpty());
+		assertEquals(1, statistics.getWrites());
+		assertEquals(5, statistics.getPackets());
+		assertEquals(4, statistics.getTlsRecordsSaved());
+	}
+
+	@Test
+	public void testCoalescingLimit() throws Exception {
+		XMPPIOService.WriteCoalescingStatistics statistics = new XMPPIOService.WriteCoalescingStatistics();
+		int size = addPackets(10) / 10;
+		service.setWriteCoalescing(size * 3, statistics);
+		service.processWaitingPackets();
+
+		assertEquals(4, writes.size());
+		for (byte[] write : writes) {
+			assertTrue(write.length <= size * 3);
+		}
+		assertEquals(expected, written());
+		assertEquals(10, statistics.getPackets());
+		assertEquals(4, statistics.getWrites());
+	}
+
+	@Test
+	public void testCork() throws Exception {
+		service.setWriteCoalescing(1000, null);
+		assertTrue(service.cork());
+		assertFalse(service.cork());
+		assertTrue(service.isCorked());
+		addPackets(2);
+		service.processWaitingPackets();
+		assertFalse(service.isCorked());
+		assertEquals(1, writes.size());
+		assertTrue(service.cork());
+	}
+
+	private int addPackets(int count) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			Element message = new Element("message", new String[]{"id", "to"},
+										  new String[]{"msg-" + (i % 10), "user@example.com/res"});
+			message.addChild(new Element("body", "Roster push or MAM result"));
+			Packet packet = Packet.packetInstance(message);
+			sb.append(packet.getElementAsString());
+			service.addPacketToSend(packet);
+		}
+		expected = sb.toString();
+		return expected.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	private String written() {
+		StringBuilder sb = new StringBuilder();
+		for (byte[] write : writes) {
+			sb.append(new String(write, StandardCharsets.UTF_8));
+		}
+		return sb.toString();
+	}
+
+	private static class RecordingIO
+			implements IOInterface {
+
+		private final List<byte[]> writes;
+
+		private RecordingIO(List<byte[]> writes) {
+			this.writes = writes;
+		}
+
+		@Override
+		public int bytesRead() {
+			return 0;
+		}
+
+		@Override
+		public boolean checkCapabilities(String caps) {
+			return TLSIO.TLS_CAPS.equals(caps);
+		}
+
+		@Override
+		public int getInputPacketSize() throws IOException {
+			return 0;
+		}
+
+		@Override
+		public SocketChannel getSocketChannel() {
+			return null;
+		}
+
+		@Override
+		public void getStatistics(StatisticsList list, boolean reset) {
+		}
+
+		@Override
+		public long getBytesSent(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBytesSent() {
+			return 0;
+		}
+
+		@Override
+		public long getBytesReceived(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBytesReceived() {
+			return 0;
+		}
+
+		@Override
+		public long getBuffOverflow(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBuffOverflow() {
+			return 0;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public boolean isRemoteAddress(String addr) {
+			return false;
+		}
+
+		@Override
+		public ByteBuffer read(ByteBuffer buff) throws IOException {
+			return null;
+		}
+
+		@Override
+		public void stop() throws IOException {
+		}
+
+		@Override
+		public boolean waitingToSend() {
+			return false;
+		}
+
+		@Override
+		public int waitingToSendSize() {
+			return 0;
+		}
+
+		@Override
+		public int write(ByteBuffer buff) throws IOException {
+			if (buff == null || !buff.hasRemaining()) {
+				return 0;
+			}
+			byte[] data = new byte[buff.remaining()];
+			buff.get(data);
+			writes.add(data);
+			return data.length;
+		}
+
+		@Override
+		public void setLogId(String logId) {
+		}
+	}
+}
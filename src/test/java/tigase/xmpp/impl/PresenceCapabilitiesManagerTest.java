@@ -21,11 +21,14 @@ import org.junit.Test;
 import tigase.disco.ServiceIdentity;
 import tigase.server.Command;
 import tigase.server.DataForm;
+import tigase.server.Packet;
 import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
 
-import java.util.Arrays;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class PresenceCapabilitiesManagerTest {
 
@@ -65,4 +68,89 @@ public class PresenceCapabilitiesManagerTest {
 		assertEquals("q07IKJEyjvHSyhy//CH0CxmKi8w=", s);
 
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testNodeFeatures() {
+		PresenceCapabilitiesManager.setNodeFeatures("test-node#1", new String[]{"urn:test:b", "urn:test:a"});
+		PresenceCapabilitiesManager.setNodeFeatures("test-node#2", new String[]{"urn:test:a", "urn:test:c"});
+
+		assertArrayEquals(new String[]{"urn:test:a", "urn:test:b"},
+						  PresenceCapabilitiesManager.getNodeFeatures("test-node#1"));
+		int featureA = PresenceCapabilitiesManager.getFeatureId("urn:test:a");
+		int featureC = PresenceCapabilitiesManager.getFeatureId("urn:test:c");
+		assertTrue(featureA >= 0);
+		assertEquals(-1, PresenceCapabilitiesManager.getFeatureId("urn:test:unknown"));
+
+		assertTrue(PresenceCapabilitiesManager.hasFeature("test-node#1", featureA));
+		assertFalse(PresenceCapabilitiesManager.hasFeature("test-node#1", featureC));
+		assertTrue(PresenceCapabilitiesManager.hasFeature(new String[]{"test-node#1", "test-node#2"}, featureC));
+		assertFalse(PresenceCapabilitiesManager.hasFeature(new String[]{"test-node#unknown"}, featureA));
+		assertEquals(new HashSet<>(Arrays.asList("test-node#1", "test-node#2")),
+					 PresenceCapabilitiesManager.getNodesWithFeature("urn:test:a"));
+
+		// nodes with the same features share the same array of features
+		PresenceCapabilitiesManager.setNodeFeatures("test-node#3", new String[]{"urn:test:a", "urn:test:b"});
+		assertSame(PresenceCapabilitiesManager.getNodeFeatures("test-node#1"),
+				   PresenceCapabilitiesManager.getNodeFeatures("test-node#3"));
+	}
+
+	@Test
+	public void testRepository() throws Exception {
+		TestRepository repository = new TestRepository();
+		repository.nodes.put("test-stored#1", new String[]{"urn:test:stored"});
+		PresenceCapabilitiesManager.setRepository(repository);
+		try {
+			// stored nodes are loaded in the background when repository is set
+			PresenceCapabilitiesManager.awaitRepository();
+			assertEquals(1, repository.loads);
+			assertTrue(PresenceCapabilitiesManager.isNodeKnown("test-stored#1"));
+
+			JID compJid = JID.jidInstanceNS("example.com");
+			JID jid = JID.jidInstanceNS("user@example.com/res");
+			Queue<Packet> results = new ArrayDeque<>();
+			PresenceCapabilitiesManager.prepareCapsQueries(compJid, jid, new String[]{"test-stored#1", "test-new#1"},
+														   results);
+
+			// only features of node not stored in the repository are queried
+			assertEquals(1, results.size());
+			assertEquals("test-new#1", results.poll()
+					.getAttributeStaticStr(new String[]{"iq", "query"}, "node"));
+			assertTrue(PresenceCapabilitiesManager.hasFeature("test-stored#1", PresenceCapabilitiesManager.getFeatureId(
+					"urn:test:stored")));
+
+			// repository is not read while processing presences
+			PresenceCapabilitiesManager.prepareCapsQueries(compJid, jid, new String[]{"test-new#1"}, results);
+			assertEquals(1, repository.loads);
+
+			// features are stored in the background, in batches
+			PresenceCapabilitiesManager.setNodeFeatures("test-new#1", new String[]{"urn:test:new"});
+			PresenceCapabilitiesManager.setNodeFeatures("test-new#2", new String[]{"urn:test:new", "urn:test:other"});
+			PresenceCapabilitiesManager.awaitRepository();
+			assertArrayEquals(new String[]{"urn:test:new"}, repository.nodes.get("test-new#1"));
+			assertArrayEquals(new String[]{"urn:test:new", "urn:test:other"}, repository.nodes.get("test-new#2"));
+			assertTrue(repository.stores >= 1 && repository.stores <= 2);
+		} finally {
+			PresenceCapabilitiesManager.setRepository(null);
+		}
+	}
+
+	private static class TestRepository
+			implements PresenceCapabilitiesManager.PresenceCapabilitiesRepository {
+
+		private final Map<String, String[]> nodes = new ConcurrentHashMap<>();
+		private volatile int loads = 0;
+		private volatile int stores = 0;
+
+		@Override
+		public Map<String, String[]> loadNodeFeatures() {
+			loads++;
+			return new HashMap<>(nodes);
+		}
+
+		@Override
+		public void storeNodeFeatures(Map<String, String[]> nodeFeatures) {
+			stores++;
+			nodes.putAll(nodeFeatures);
+		}
+	}
+}
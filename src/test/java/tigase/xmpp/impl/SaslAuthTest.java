@@ -39,13 +39,16 @@ import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static tigase.xmpp.impl.SaslAuth.ALLOWED_SASL_MECHANISMS_KEY;
 
 public class SaslAuthTest
 		extends ProcessorTestCase {
 
-	private SaslAuth saslAuth;
+	final LinkedBlockingQueue<Packet> asyncResults = new LinkedBlockingQueue<>();
+	SaslAuth saslAuth;
 
 	@Before
 	@Override
@@ -128,11 +131,44 @@ public class SaslAuthTest
 		Assert.assertEquals("success", result.getElemName());
 	}
 
+	@Test
+	public void testAsyncAuthentication() throws Exception {
+		saslAuth.async = true;
+		Queue<Packet> results = new ArrayDeque<>();
+		final XMPPResourceConnection session = authenticateSession(AuthRepository.AccountStatus.active, results);
+		Assert.assertTrue(results.isEmpty());
+		Packet result = asyncResults.poll(10, TimeUnit.SECONDS);
+		Assert.assertNotNull(result);
+		Assert.assertEquals("success", result.getElemName());
+		Assert.assertTrue(session.isAuthorized());
+	}
+
+	@Test
+	public void testAsyncAuthenticationClosedSession() throws Exception {
+		saslAuth.async = true;
+		Queue<Packet> results = new ArrayDeque<>();
+		final BareJID user = BareJID.bareJIDInstanceNS("user@example.com");
+		final XMPPResourceConnection session = prepareSession(user, AuthRepository.AccountStatus.active);
+		synchronized (session) {
+			saslAuth.process(getPlainSaslPacket(user), session, null, results, null);
+			// connection closed before credentials were verified
+			session.putSessionData(XMPPResourceConnection.CLOSING, XMPPResourceConnection.CLOSING_KEY);
+		}
+		Assert.assertNull(asyncResults.poll(1, TimeUnit.SECONDS));
+		Assert.assertTrue(results.isEmpty());
+		Assert.assertFalse(session.isAuthorized());
+	}
+
 	@Override
 	protected void registerBeans(Kernel kernel) {
 		super.registerBeans(kernel);
 		kernel.registerBean("eventbus").asInstance(EventBusFactory.getInstance()).exportable().exec();
-		kernel.registerBean("sess-man").asInstance(new SessionManager()).setActive(true).exportable().exec();
+		kernel.registerBean("sess-man").asInstance(new SessionManager() {
+			@Override
+			public ProcessorResultWriter getProcessorResultWriter() {
+				return (packet, session, results) -> asyncResults.addAll(results);
+			}
+		}).setActive(true).exportable().exec();
 		kernel.registerBean(BruteForceLockerBean.class).setActive(true).exportable().exec();
 		kernel.registerBean(TigaseSaslProvider.class).setActive(true).exportable().exec();
 		kernel.registerBean(SaslAuth.class).setActive(true).exportable().exec();
@@ -142,6 +178,15 @@ public class SaslAuthTest
 													   Queue<Packet> results)
 			throws TigaseDBException, TigaseStringprepException, NotAuthorizedException {
 		final BareJID user = BareJID.bareJIDInstanceNS("user@example.com");
+		XMPPResourceConnection session = prepareSession(user, accountStatus);
+
+		Packet packet = getPlainSaslPacket(user);
+		saslAuth.process(packet, session, null, results, null);
+		return session;
+	}
+
+	XMPPResourceConnection prepareSession(BareJID user, AuthRepository.AccountStatus accountStatus)
+			throws TigaseDBException, TigaseStringprepException, NotAuthorizedException {
 		getUserRepository().addUser(user);
 		getAuthRepository().updateCredential(user, null, "password");
 		getAuthRepository().setAccountStatus(user, accountStatus);
@@ -149,17 +194,14 @@ public class SaslAuthTest
 		XMPPResourceConnection session = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
 													res, false);
 		session.putSessionData(ALLOWED_SASL_MECHANISMS_KEY, Collections.singletonList("PLAIN"));
-
-		Packet packet = getPlainSaslPacket();
-		saslAuth.process(packet, session, null, results, null);
 		return session;
 	}
 
-	private Packet getPlainSaslPacket() throws TigaseStringprepException {
+	Packet getPlainSaslPacket(BareJID user) throws TigaseStringprepException {
 		Packet packet;
 		Element packetEl = new Element("auth", new String[]{"xmlns", "mechanism"},
 									   new String[]{"urn:ietf:params:xml:ns:xmpp-sasl", "PLAIN"});
-		final byte[] bytes = "\0user\0password".getBytes();
+		final byte[] bytes = ("\0" + user.getLocalpart() + "\0password").getBytes();
 		packetEl.setCData(Base64.encode(bytes));
 		packet = Packet.packetInstance(packetEl);
 		return packet;
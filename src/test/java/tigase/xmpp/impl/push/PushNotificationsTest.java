@@ -48,6 +48,7 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -756,6 +757,41 @@ public class PushNotificationsTest
 		assertNotNull(data.get(pushServiceJid.toString() + "/push-node"));
 	}
 
+	@Test
+	public void testNotificationsCoalescing() throws Exception {
+		getInstance(UserRepository.class).setData(recipientJid.getBareJID(), "urn:xmpp:push:0",
+												  pushServiceJid + "/push-node",
+												  new Element("settings", new String[]{"jid", "node"},
+															  new String[]{pushServiceJid.toString(),
+																		   "push-node"}).toString());
+		assertSame(pushNotifications.getPushServices(recipientJid.getBareJID()),
+				   pushNotifications.getPushServices(recipientJid.getBareJID()));
+
+		pushNotifications.coalesceWindow = Duration.ofMillis(200);
+		Queue<SessionManagerHandlerImpl.Item> results = getInstance(SessionManagerHandlerImpl.class).getOutQueue();
+		String msgBody = null;
+		for (int i = 0; i < 3; i++) {
+			msgBody = "Message body " + UUID.randomUUID().toString();
+			Element msg = new Element("message", new Element[]{new Element("body", msgBody)},
+									  new String[]{"xmlns"}, new String[]{"jabber:client"});
+			Packet packet = Packet.packetInstance(msg, senderJid, recipientJid);
+			msgRepository.storeMessage(senderJid, recipientJid, new Date(), packet.getElement(), null);
+			pushNotifications.notifyNewOfflineMessage(packet, null, new ArrayDeque<>(), new HashMap<>());
+		}
+		assertEquals(0, results.size());
+
+		for (int i = 0; i < 50 && results.isEmpty(); i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(1, results.size());
+		Packet expNotification = PushNotificationHelper.createPushNotification(pushServiceJid, recipientJid,
+																			   "push-node",
+																			   PushNotificationHelper.createPlainNotification(
+																					   3, senderJid, msgBody));
+		assertElementEquals(expNotification.getElement(), results.poll().packet.getElement());
+		pushNotifications.beforeUnregister();
+	}
+
 	protected void registerLocalBeans(Kernel kernel) {
 		super.registerBeans(kernel);
 		kernel.registerBean("eventBus").asInstance(EventBusFactory.getInstance()).exportable().exec();
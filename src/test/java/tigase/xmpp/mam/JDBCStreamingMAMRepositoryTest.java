@@ -0,0 +1,202 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.AbstractDataSourceTestCase;
+import tigase.db.DataRepository;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link JDBCStreamingMAMRepository}, executed only if <code>testDbUri</code> is passed.
+ */
+public class JDBCStreamingMAMRepositoryTest
+		extends AbstractDataSourceTestCase<DataRepository> {
+
+	private static final String PAGING_OWNER = "paging@example.com";
+	private static final int PAGING_ITEMS = 250;
+	static final String TABLE = "test_mam_stream_msgs";
+	private static boolean filled = false;
+
+	private JDBCStreamingMAMRepository repository;
+
+	static String itemId(String owner, int i) {
+		return UUID.nameUUIDFromBytes((owner + "-" + i).getBytes()).toString();
+	}
+
+	private static List<String> expectedIds(String owner, int count) {
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < count; i += 2) {
+			List<String> sameTimestamp = new ArrayList<>();
+			sameTimestamp.add(itemId(owner, i));
+			if (i + 1 < count) {
+				sameTimestamp.add(itemId(owner, i + 1));
+			}
+			Collections.sort(sameTimestamp);
+			ids.addAll(sameTimestamp);
+		}
+		return ids;
+	}
+
+	@Before
+	public void setupRepository() throws Exception {
+		DataRepository dataRepository = getDataSource();
+		if (!filled) {
+			createTable(dataRepository);
+			clear(dataRepository);
+			fill(dataRepository, PAGING_OWNER, PAGING_ITEMS);
+			filled = true;
+		}
+		repository = new JDBCStreamingMAMRepository();
+		repository.setTable(TABLE);
+		repository.setBatchSize(30);
+		repository.setDataSource(dataRepository);
+	}
+
+	@Test
+	public void testForwardPaging() throws Exception {
+		List<String> ids = new ArrayList<>();
+		String after = null;
+		int pages = 0;
+		while (true) {
+			Query query = newQuery(repository, PAGING_OWNER, 50, after, null);
+			List<String> page = new ArrayList<>();
+			boolean complete = repository.streamItems(query, (q, item) -> page.add(item.getId()));
+			pages++;
+			ids.addAll(page);
+			if (complete) {
+				break;
+			}
+			assertEquals(50, page.size());
+			after = page.get(page.size() - 1);
+		}
+		assertEquals(5, pages);
+		assertEquals(expectedIds(PAGING_OWNER, PAGING_ITEMS), ids);
+	}
+
+	@Test
+	public void testBackwardPaging() throws Exception {
+		List<String> ids = new ArrayList<>();
+		String before = "";
+		while (true) {
+			Query query = newQuery(repository, PAGING_OWNER, 40, null, before);
+			List<String> page = new ArrayList<>();
+			boolean complete = repository.streamItems(query, (q, item) -> page.add(item.getId()));
+			ids.addAll(0, page);
+			if (complete) {
+				break;
+			}
+			assertEquals(40, page.size());
+			before = page.get(0);
+		}
+		assertEquals(expectedIds(PAGING_OWNER, PAGING_ITEMS), ids);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		List<MAMRepository.Item> items = new ArrayList<>();
+		Query query = newQuery(repository, PAGING_OWNER, 100, null, null);
+		assertFalse(repository.streamItems(query, (q, item) -> {
+			items.add(item);
+			return items.size() < 3;
+		}));
+		assertEquals(3, items.size());
+		assertEquals("message", items.get(0).getMessage().getName());
+	}
+
+	static Query newQuery(JDBCStreamingMAMRepository repository, String owner, int max, String after,
+						  String before) {
+		Query query = repository.newQuery();
+		query.setQuestionerJID(JID.jidInstanceNS(owner + "/res"));
+		query.setComponentJID(JID.jidInstanceNS(owner));
+		Element queryEl = new Element("query");
+		Element set = new Element("set", new String[]{"xmlns"}, new String[]{"http://jabber.org/protocol/rsm"});
+		set.addChild(new Element("max", String.valueOf(max)));
+		if (after != null) {
+			set.addChild(new Element("after", after));
+		}
+		if (before != null) {
+			set.addChild(new Element("before", before.isEmpty() ? null : before));
+		}
+		queryEl.addChild(set);
+		query.getRsm().fromElement(queryEl);
+		return query;
+	}
+
+	static void createTable(DataRepository dataRepository) throws Exception {
+		String timestampType = "timestamp";
+		String messageType = "varchar(2048)";
+		switch (dataRepository.getDatabaseType()) {
+			case jtds:
+			case sqlserver:
+				timestampType = "datetime";
+				messageType = "nvarchar(2048)";
+				break;
+			default:
+				break;
+		}
+		dataRepository.checkTable(TABLE,
+								  "create table " + TABLE + " (owner varchar(128) not null, buddy varchar(128), " +
+										  "stable_id varchar(36) not null, ts " + timestampType + " not null, msg " +
+										  messageType + ")");
+		dataRepository.initPreparedStatement("test-mam-stream-index",
+											 "create index " + TABLE + "_owner_ts_id on " + TABLE +
+													 " (owner, ts, stable_id)");
+		dataRepository.initPreparedStatement("test-mam-stream-delete", "delete from " + TABLE);
+		dataRepository.initPreparedStatement("test-mam-stream-insert", "insert into " + TABLE +
+				" (owner, buddy, stable_id, ts, msg) values (?, ?, ?, ?, ?)");
+		try {
+			dataRepository.getPreparedStatement(0, "test-mam-stream-index").executeUpdate();
+		} catch (Exception ex) {
+			// index already exists
+		}
+	}
+
+	static void clear(DataRepository dataRepository) throws Exception {
+		dataRepository.getPreparedStatement(0, "test-mam-stream-delete").executeUpdate();
+	}
+
+	static void fill(DataRepository dataRepository, String owner, int count) throws Exception {
+		PreparedStatement insert = dataRepository.getPreparedStatement(0, "test-mam-stream-insert");
+		long base = System.currentTimeMillis() - count * 1000L;
+		for (int i = 0; i < count; i++) {
+			insert.setString(1, owner);
+			insert.setString(2, "buddy@example.com");
+			insert.setString(3, itemId(owner, i));
+			// every second item has the same timestamp as the previous one to check ordering by id
+			insert.setTimestamp(4, new Timestamp(base + (i / 2) * 1000L));
+			insert.setString(5, "<message xmlns=\"jabber:client\" type=\"chat\"><body>" + i + "</body></message>");
+			insert.addBatch();
+			if (i % 1000 == 999) {
+				insert.executeBatch();
+			}
+		}
+		insert.executeBatch();
+	}
+}